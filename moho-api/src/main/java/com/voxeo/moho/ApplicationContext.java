@@ -15,6 +15,7 @@
 package com.voxeo.moho;
 
 import java.util.Collection;
+import java.util.List;
 
 import javax.media.mscontrol.MsControlFactory;
 import javax.sdp.SdpFactory;
@@ -75,6 +76,22 @@ public interface ApplicationContext extends AttributeStore, ParameterStore {
    */
   Endpoint createEndpoint(String addr, String type);
 
+  /**
+   * Calls all the endpoints, all at once or staggered, and joins the first one
+   * that answers to the originating call. The other legs are hung up as soon
+   * as one answers, and a {@link com.voxeo.moho.event.ForkCompleteEvent
+   * ForkCompleteEvent} fires on the originating call when it is all over.
+   * 
+   * @param origin
+   *          the call to join the leg that answers to.
+   * @param targets
+   *          the endpoints to call.
+   * @param options
+   *          how to call them, <code>null</code> for the defaults.
+   * @return the fork, to wait for or to cancel.
+   */
+  Fork callAny(Call origin, List<? extends CallableEndpoint> targets, ForkOptions options);
+
   Application getApplication();
 
   ConferenceManager getConferenceManager();
@@ -17,9 +17,12 @@ package com.voxeo.moho;
 import java.util.Iterator;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import javax.media.mscontrol.join.Joinable.Direction;
 
+import com.voxeo.moho.event.HoldCompleteEvent;
+
 /**
  * <p>
  * A call is a leg of communication from an {@link Endpoint Endpoint} to the Moho application.
@@ -141,6 +144,34 @@ public interface Call extends MultiStreamParticipant, MediaService<Call> {
    * send a sendrecv SDP and resume to send media data.
    */
   void unhold();
+
+  /**
+   * Asynchronous version of {@link #mute()}. The returned future completes, and
+   * a {@link HoldCompleteEvent} is fired on this call, once the endpoint has
+   * answered the re-INVITE.
+   */
+  Future<HoldCompleteEvent> muteAsync();
+
+  /**
+   * Asynchronous version of {@link #unmute()}.
+   * 
+   * @see #muteAsync()
+   */
+  Future<HoldCompleteEvent> unmuteAsync();
+
+  /**
+   * Asynchronous version of {@link #hold()}.
+   * 
+   * @see #muteAsync()
+   */
+  Future<HoldCompleteEvent> holdAsync();
+
+  /**
+   * Asynchronous version of {@link #unhold()}.
+   * 
+   * @see #muteAsync()
+   */
+  Future<HoldCompleteEvent> unholdAsync();
   
   /**
    * disconnect this call.
@@ -0,0 +1,38 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho;
+
+import java.util.concurrent.Future;
+
+import com.voxeo.moho.event.ForkCompleteEvent;
+import com.voxeo.moho.utils.CompletionListener;
+
+/**
+ * A call made to several endpoints at once, see
+ * {@link ApplicationContext#callAny(Call, java.util.List, ForkOptions)}.
+ * <p>
+ * <code>cancel()</code> hangs up all the legs as long as none of them has
+ * answered yet.
+ */
+public interface Fork extends Future<ForkCompleteEvent> {
+
+  /**
+   * Calls the listener once a leg has been joined to the originating call or
+   * all the legs have failed. If that has already happened the listener is
+   * called right away.
+   */
+  void addCompletionListener(CompletionListener<ForkCompleteEvent> listener);
+
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.media.mscontrol.join.Joinable.Direction;
+
+import com.voxeo.moho.Participant.JoinType;
+
+/**
+ * How {@link ApplicationContext#callAny(Call, java.util.List, ForkOptions)}
+ * calls the endpoints and joins the one that answers first.
+ * <p>
+ * The legs are started in the order of the endpoints, each one
+ * {@link #getStagger()} milliseconds after the previous one, and each one is
+ * hung up if it has not answered {@link #getTimeout(CallableEndpoint)}
+ * milliseconds after it started.
+ */
+public class ForkOptions {
+
+  protected Endpoint _caller;
+
+  protected Map<String, String> _headers;
+
+  protected long _timeout;
+
+  protected Map<CallableEndpoint, Long> _timeouts;
+
+  protected long _stagger;
+
+  protected JoinType _joinType = JoinType.BRIDGE;
+
+  protected Direction _direction = Direction.DUPLEX;
+
+  /**
+   * @return the caller of the legs, <code>null</code> for the invitor of the
+   *         originating call.
+   */
+  public Endpoint getCaller() {
+    return _caller;
+  }
+
+  public void setCaller(final Endpoint caller) {
+    _caller = caller;
+  }
+
+  /**
+   * @return the additional protocol headers sent to every endpoint.
+   */
+  public Map<String, String> getHeaders() {
+    return _headers;
+  }
+
+  public void setHeaders(final Map<String, String> headers) {
+    _headers = headers;
+  }
+
+  /**
+   * @return the milliseconds a leg rings before it is hung up, 0 to leave it
+   *         to the signaling protocol.
+   */
+  public long getTimeout() {
+    return _timeout;
+  }
+
+  public void setTimeout(final long timeout) {
+    _timeout = timeout;
+  }
+
+  /**
+   * @return the milliseconds the leg to the endpoint rings before it is hung
+   *         up, {@link #getTimeout()} unless it has a timeout of its own.
+   */
+  public long getTimeout(final CallableEndpoint endpoint) {
+    if (_timeouts != null) {
+      final Long timeout = _timeouts.get(endpoint);
+      if (timeout != null) {
+        return timeout;
+      }
+    }
+    return _timeout;
+  }
+
+  public void setTimeout(final CallableEndpoint endpoint, final long timeout) {
+    if (_timeouts == null) {
+      _timeouts = new HashMap<CallableEndpoint, Long>();
+    }
+    _timeouts.put(endpoint, timeout);
+  }
+
+  /**
+   * @return the milliseconds between the start of two legs, 0 to start them
+   *         all at once.
+   */
+  public long getStagger() {
+    return _stagger;
+  }
+
+  public void setStagger(final long stagger) {
+    _stagger = stagger;
+  }
+
+  public JoinType getJoinType() {
+    return _joinType;
+  }
+
+  /**
+   * @param type
+   *          how the leg that answers is joined to the originating call,
+   *          {@link JoinType#BRIDGE} by default.
+   */
+  public void setJoinType(final JoinType type) {
+    _joinType = type;
+  }
+
+  public Direction getDirection() {
+    return _direction;
+  }
+
+  public void setDirection(final Direction direction) {
+    _direction = direction;
+  }
+}
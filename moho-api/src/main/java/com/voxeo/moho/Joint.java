@@ -17,6 +17,7 @@ package com.voxeo.moho;
 import java.util.concurrent.Future;
 
 import com.voxeo.moho.event.JoinCompleteEvent;
+import com.voxeo.moho.utils.CompletionListener;
 
 /**
  * A
@@ -27,4 +28,11 @@ import com.voxeo.moho.event.JoinCompleteEvent;
  */
 public interface Joint extends Future<JoinCompleteEvent> {
 
+  /**
+   * Calls the listener once the join operation completes, instead of blocking
+   * in <code>get()</code>. If it has already completed the listener is called
+   * right away.
+   */
+  void addCompletionListener(CompletionListener<JoinCompleteEvent> listener);
+
 }
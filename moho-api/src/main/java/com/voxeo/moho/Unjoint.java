@@ -17,6 +17,7 @@ package com.voxeo.moho;
 import java.util.concurrent.Future;
 
 import com.voxeo.moho.event.UnjoinCompleteEvent;
+import com.voxeo.moho.utils.CompletionListener;
 
 /**
  * A
@@ -28,4 +29,11 @@ import com.voxeo.moho.event.UnjoinCompleteEvent;
  */
 public interface Unjoint extends Future<UnjoinCompleteEvent> {
 
+  /**
+   * Calls the listener once the unjoin operation completes, instead of
+   * blocking in <code>get()</code>. If it has already completed the listener
+   * is called right away.
+   */
+  void addCompletionListener(CompletionListener<UnjoinCompleteEvent> listener);
+
 }
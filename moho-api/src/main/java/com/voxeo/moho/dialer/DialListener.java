@@ -0,0 +1,36 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.dialer;
+
+import com.voxeo.moho.Call;
+import com.voxeo.moho.CallableEndpoint;
+
+/**
+ * Receives the outcome of the calls of a {@link Dialer}. It is called on the
+ * event thread of the call or on the thread of the dialer, and must not block.
+ */
+public interface DialListener {
+
+  /**
+   * The call has been answered and is joined to the media server.
+   */
+  void onAnswered(CallableEndpoint destination, Call call);
+
+  /**
+   * The call has failed, after all its retries if it was retried.
+   */
+  void onFailed(CallableEndpoint destination, Exception cause);
+
+}
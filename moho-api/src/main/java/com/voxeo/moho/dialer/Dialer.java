@@ -0,0 +1,133 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.dialer;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import com.voxeo.moho.CallableEndpoint;
+import com.voxeo.moho.Endpoint;
+import com.voxeo.moho.services.Service;
+
+/**
+ * Places outbound calls at a controlled rate, e.g. for a campaign. Calls are
+ * grouped in trunks, each with its own pace in calls per second and its own
+ * cap on concurrent calls, and the calls that are busy or not answered are
+ * retried later, each retry waiting twice as long as the previous one.
+ * <p>
+ * A call is placed by joining it to the media server, so once it is answered
+ * the application can play to it or join it elsewhere.
+ * <p>
+ * The properties below are read from the application parameters. A property
+ * followed by a dot and the name of a trunk, such as
+ * <code>com.voxeo.moho.dialer.cps.carrier1</code>, applies to that trunk only.
+ */
+public interface Dialer extends Service {
+
+  /** The calls started per second, 10 by default. */
+  final String CPS = "com.voxeo.moho.dialer.cps";
+
+  /** The calls started at once after an idle period, the calls per second by default. */
+  final String BURST = "com.voxeo.moho.dialer.burst";
+
+  /** The maximum number of concurrent calls, 0 for no limit, the default. */
+  final String MAX_CALLS = "com.voxeo.moho.dialer.maxCalls";
+
+  /** The number of times a busy or unanswered call is retried, 2 by default. */
+  final String RETRIES = "com.voxeo.moho.dialer.retries";
+
+  /** The milliseconds before the first retry, 30 seconds by default. */
+  final String BACKOFF = "com.voxeo.moho.dialer.backoff";
+
+  /** The milliseconds a call rings before it is given up, 30 seconds by default. */
+  final String TIMEOUT = "com.voxeo.moho.dialer.timeout";
+
+  /**
+   * Queues a call to the destination.
+   * 
+   * @param trunk
+   *          the trunk to pace the call on, <code>null</code> for the default
+   *          one.
+   * @param headers
+   *          the additional protocol headers sent to the destination.
+   * @param listener
+   *          told when the call is answered or has failed for good, may be
+   *          <code>null</code>.
+   */
+  void dial(String trunk, Endpoint caller, CallableEndpoint destination, Map<String, String> headers,
+      DialListener listener);
+
+  /**
+   * Calls the destinations one after the other as the trunk allows. The
+   * iterator is read on the thread of the dialer, only when a call can be
+   * started, so the destinations can be read from a file or a database as the
+   * campaign goes.
+   */
+  void dial(String trunk, Endpoint caller, Iterator<? extends CallableEndpoint> destinations,
+      Map<String, String> headers, DialListener listener);
+
+  /**
+   * Changes the pace of the trunk, 0 to pause it.
+   */
+  void setCallsPerSecond(String trunk, double cps);
+
+  /**
+   * Changes the maximum number of concurrent calls of the trunk, 0 for no
+   * limit.
+   */
+  void setMaxCalls(String trunk, int max);
+
+  Statistics getStatistics(String trunk);
+
+  /**
+   * The statistics of a trunk since the dialer started.
+   */
+  interface Statistics {
+
+    /**
+     * @return the calls started, retries included.
+     */
+    long getAttempts();
+
+    long getAnswered();
+
+    int getActiveCalls();
+
+    /**
+     * @return the calls waiting to be started or retried, not counting the
+     *         destinations still to be read.
+     */
+    int getPending();
+
+    /**
+     * @return the calls started per second over the last second or so.
+     */
+    double getCallsPerSecond();
+
+    /**
+     * @return the answered calls over the calls started, from 0 to 1.
+     */
+    double getAnswerSeizureRatio();
+
+    /**
+     * @param percentile
+     *          from 0 to 100.
+     * @return the milliseconds from starting a call to its answer that the
+     *         given percentile of the answered calls took at most, within a
+     *         factor of two.
+     */
+    long getSetupLatency(double percentile);
+  }
+}
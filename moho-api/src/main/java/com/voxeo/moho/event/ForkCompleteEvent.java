@@ -0,0 +1,62 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.event;
+
+import java.util.Map;
+
+import com.voxeo.moho.Call;
+import com.voxeo.moho.CallableEndpoint;
+
+/**
+ * This event fires on the originating call when a
+ * {@link com.voxeo.moho.Fork Fork} is completed, once for all the legs.
+ */
+public interface ForkCompleteEvent extends Event<Call> {
+
+  public enum Cause {
+    /** a leg answered and was joined to the originating call. */
+    ANSWERED,
+
+    /** none of the legs answered. */
+    NO_ANSWER,
+
+    /** the fork was canceled before any leg answered. */
+    CANCELED,
+
+    /** the originating call ended before any leg answered. */
+    DISCONNECTED,
+
+    /** a leg answered but could not be joined to the originating call. */
+    ERROR
+  }
+
+  Cause getCause();
+
+  /**
+   * @return the leg that answered, <code>null</code> if none did.
+   */
+  Call getWinner();
+
+  /**
+   * @return how the leg to each endpoint ended, in the order the endpoints
+   *         were given: {@link JoinCompleteEvent.Cause#JOINED} for the leg
+   *         that answered, {@link JoinCompleteEvent.Cause#CANCELED} for the
+   *         legs that were hung up because of it.
+   */
+  Map<CallableEndpoint, JoinCompleteEvent.Cause> getResults();
+
+  Exception getException();
+
+}
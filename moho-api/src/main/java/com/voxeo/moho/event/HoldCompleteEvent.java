@@ -0,0 +1,39 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.event;
+
+/**
+ * This event fires when a hold, unhold, mute or unmute operation on a
+ * {@link com.voxeo.moho.Call Call} is completed.
+ */
+public interface HoldCompleteEvent extends CallEvent {
+
+  public enum Type {
+    HOLD, UNHOLD, MUTE, UNMUTE
+  }
+
+  public enum Cause {
+    SUCCESS, ERROR, DISCONNECT
+  }
+
+  /**
+   * @return which operation completed.
+   */
+  Type getType();
+
+  Cause getCause();
+
+  Exception getException();
+}
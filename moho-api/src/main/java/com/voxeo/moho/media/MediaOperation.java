@@ -18,6 +18,7 @@ import java.util.concurrent.Future;
 
 import com.voxeo.moho.event.EventSource;
 import com.voxeo.moho.event.MediaCompleteEvent;
+import com.voxeo.moho.utils.CompletionListener;
 
 public interface MediaOperation<S extends EventSource, T extends MediaCompleteEvent<S>> extends Future<T> {
 
@@ -26,4 +27,11 @@ public interface MediaOperation<S extends EventSource, T extends MediaCompleteEv
    */
     void stop();
 
+  /**
+   * Calls the listener once the media operation completes, instead of blocking
+   * in <code>get()</code>. If it has already completed the listener is called
+   * right away.
+   */
+  void addCompletionListener(CompletionListener<T> listener);
+
 }
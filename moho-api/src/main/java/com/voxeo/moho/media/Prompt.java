@@ -16,6 +16,7 @@ package com.voxeo.moho.media;
 
 import com.voxeo.moho.MediaException;
 import com.voxeo.moho.event.EventSource;
+import com.voxeo.moho.utils.CompletionListener;
 
 /**
  * Prompt holds the results for one interaction -- output and input.
@@ -31,4 +32,12 @@ public interface Prompt<T extends EventSource> {
   
   String getResult() throws MediaException;
 
+  /**
+   * Calls the listener once the whole interaction completes, i.e. the input if
+   * there is one, the output otherwise. {@link #getInput()},
+   * {@link #getOutput()} and {@link #getResult()} do not block from within the
+   * listener.
+   */
+  void addCompletionListener(CompletionListener<Prompt<T>> listener);
+
 }
@@ -40,5 +40,15 @@ public interface Registrar extends Service {
 
   void doRegister(RegisterEvent event);
 
+  /**
+   * @return the contacts currently registered for the AOR, highest q-value
+   *         first. The collection is a snapshot and can not be modified.
+   */
   Collection<RegisterEvent.Contact> getContacts(Endpoint aor);
+
+  /**
+   * @return the AOR the contact is registered for, or null if it is not
+   *         registered.
+   */
+  Endpoint getAddressOfRecord(Endpoint contact);
 }
@@ -37,6 +37,7 @@ public interface RegistrarStore {
   Collection<Contact> getContacts(Endpoint addr);
   Iterator<Endpoint> getEndpoints();
   Contact getContact(Endpoint addr, Endpoint contact);
+  Endpoint getAddressOfRecord(Endpoint contact);
   boolean isExisting(Endpoint addr, Contact contact);
   boolean isExisting(Endpoint addr);
   void destroy();
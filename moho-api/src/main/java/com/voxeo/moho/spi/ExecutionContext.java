@@ -24,6 +24,8 @@ public interface ExecutionContext extends ApplicationContext {
 
   Executor getExecutor();
 
+  IdGenerator getIdGenerator();
+
   Call getCall(String cid);
 
   void addCall(Call call);
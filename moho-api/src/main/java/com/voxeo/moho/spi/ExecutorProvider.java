@@ -0,0 +1,36 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.spi;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Creates the {@link Executor} returned by {@link ExecutionContext#getExecutor()},
+ * on which every event source runs its ordered event mailbox.
+ * <p>
+ * The provider is picked up, in order, from a bean of this type in the
+ * application's service-context.xml, or from the class named by the
+ * <code>executorProvider</code> init parameter. If neither is given the
+ * framework uses its bounded event dispatch pool.
+ * <p>
+ * If the returned executor is an {@link java.util.concurrent.ExecutorService}
+ * it is shut down when the application is destroyed.
+ */
+public interface ExecutorProvider {
+
+  Executor createExecutor(ExecutionContext context, Map<String, String> parameters);
+
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.spi;
+
+/**
+ * Generates the IDs of calls and other event sources.
+ * <p>
+ * The generator is picked up, in order, from a bean of this type in the
+ * application's service-context.xml, or from the class named by the
+ * <code>idGenerator</code> init parameter. If neither is given the framework
+ * uses IDs made of the node ID and a time ordered counter.
+ */
+public interface IdGenerator {
+
+  /**
+   * @return an ID no other call or event source in the cluster has had. It
+   *         is called concurrently.
+   */
+  String generate();
+
+}
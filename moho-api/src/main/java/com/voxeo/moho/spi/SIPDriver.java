@@ -24,4 +24,20 @@ public interface SIPDriver extends ProtocolDriver {
   void doRequest(final SipServletRequest req) throws ServletException, IOException;
 
   void doResponse(final SipServletResponse res) throws ServletException, IOException;
+
+  /**
+   * Sets the handler of the requests of a method, replacing the built-in one
+   * or one set before.
+   * 
+   * @param handler
+   *          null to go back to the built-in handler.
+   * @return the handler replaced, which the new one may delegate to.
+   */
+  SIPRequestHandler setRequestHandler(final String method, final SIPRequestHandler handler);
+
+  /**
+   * @return the handler of the requests of the method, null if the method has
+   *         none and its requests are dispatched as unknown requests.
+   */
+  SIPRequestHandler getRequestHandler(final String method);
 }
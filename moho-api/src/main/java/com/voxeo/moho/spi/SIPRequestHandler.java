@@ -0,0 +1,34 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.spi;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.sip.SipServletRequest;
+
+/**
+ * Handles the SIP requests of one method for the {@link SIPDriver}, on the
+ * container's thread. A handler can answer a request itself without creating
+ * an event, e.g. a keep-alive OPTIONS, or pass it on to the handler it
+ * replaced.
+ * 
+ * @see SIPDriver#setRequestHandler(String, SIPRequestHandler)
+ */
+public interface SIPRequestHandler {
+
+  void handle(SipServletRequest req) throws ServletException, IOException;
+
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.utils;
+
+/**
+ * Receives the outcome of an asynchronous operation, such as a
+ * {@link com.voxeo.moho.Joint Joint} or an {@link com.voxeo.moho.media.Output
+ * Output}, without a thread having to block in <code>get()</code>.
+ * <p>
+ * Listeners are called on the ordered event queue of the event source the
+ * operation belongs to, so they never run concurrently with the event
+ * listeners and observers of that source.
+ * 
+ * @param <T>
+ *          the result type of the operation.
+ */
+public interface CompletionListener<T> {
+
+  /**
+   * @param result
+   *          the result of the operation, or <code>null</code> if it failed.
+   * @param cause
+   *          why the operation failed, or <code>null</code> if it completed.
+   */
+  void onComplete(T result, Throwable cause);
+}
@@ -20,13 +20,13 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutorService;
 
 import javax.media.mscontrol.MsControlFactory;
 import javax.sdp.SdpFactory;
@@ -42,13 +42,21 @@ import org.springframework.context.support.FileSystemXmlApplicationContext;
 import com.voxeo.moho.conference.ConferenceDriverImpl;
 import com.voxeo.moho.conference.ConferenceManager;
 import com.voxeo.moho.event.DispatchableEventSource;
+import com.voxeo.moho.event.EventMailbox;
+import com.voxeo.moho.media.MediaResourceManager;
+import com.voxeo.moho.media.PromptCache;
 import com.voxeo.moho.reg.Registrar;
 import com.voxeo.moho.services.Service;
 import com.voxeo.moho.sip.SIPDriverImpl;
 import com.voxeo.moho.spi.ExecutionContext;
+import com.voxeo.moho.spi.ExecutorProvider;
+import com.voxeo.moho.spi.IdGenerator;
 import com.voxeo.moho.spi.ProtocolDriver;
 import com.voxeo.moho.spi.SpiFramework;
-import com.voxeo.moho.util.Utils.DaemonThreadFactory;
+import com.voxeo.moho.util.DispatchExecutor;
+import com.voxeo.moho.util.DispatchExecutor.TaskClass;
+import com.voxeo.moho.util.DispatchExecutorProvider;
+import com.voxeo.moho.util.NodeIdGenerator;
 import com.voxeo.moho.utils.EventListener;
 import com.voxeo.moho.voicexml.VoiceXMLDriverImpl;
 
@@ -70,6 +78,10 @@ public class ApplicationContextImpl extends DispatchableEventSource implements E
 
   protected MediaServiceFactory _msFactory;
 
+  protected MediaResourceManager _mediaResources;
+
+  protected PromptCache _promptCache;
+
   protected ConferenceManager _confMgr;
 
   protected SipFactory _sipFactory;
@@ -84,7 +96,16 @@ public class ApplicationContextImpl extends DispatchableEventSource implements E
 
   protected Registrar _reg;
 
-  protected ThreadPoolExecutor _executor;
+  // the services by every type they implement, the first bean of a type in
+  // the application's context, then in the framework's, winning. Replaced as
+  // a whole on refresh, null until the services are initialized.
+  protected volatile Map<Class<?>, Service> _servicesByType;
+
+  protected volatile List<Service> _services;
+
+  protected Executor _executor;
+
+  protected IdGenerator _idGenerator;
 
   protected org.springframework.context.support.AbstractApplicationContext _springContext;
 
@@ -126,6 +147,8 @@ public class ApplicationContextImpl extends DispatchableEventSource implements E
       LOG.warn("Error when loading service-context-file at:" + serviceContextFilePath, ex);
     }
 
+    _idGenerator = createIdGenerator();
+
     try {
       registerDriver(ProtocolDriver.PROTOCOL_SIP, SIPDriverImpl.class.getName());
       registerDriver(ProtocolDriver.PROTOCOL_VXML, VoiceXMLDriverImpl.class.getName());
@@ -151,15 +174,14 @@ public class ApplicationContextImpl extends DispatchableEventSource implements E
       addObserver(app);
     }
 
-    int eventDispatcherThreadPoolSize = 50;
-    final String eventDipatcherThreadPoolSizePara = getParameter("eventDispatcherThreadPoolSize");
-    if (eventDipatcherThreadPoolSizePara != null) {
-      eventDispatcherThreadPoolSize = Integer.valueOf(eventDipatcherThreadPoolSizePara);
-    }
-    LOG.info("Moho is creating event dispatcher with " + eventDispatcherThreadPoolSize + " threads.");
-    _executor = new ThreadPoolExecutor(eventDispatcherThreadPoolSize, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
-        new SynchronousQueue<Runnable>(), new DaemonThreadFactory("MohoContext"));
+    _executor = createExecutorProvider().createExecutor(this, getParameters());
     _dispatcher.setExecutor(_executor, false);
+    _dispatcher.setTaskClass(TaskClass.OUT_OF_DIALOG);
+
+    final String eventDispatcherDrainBatchSizePara = getParameter("eventDispatcherDrainBatchSize");
+    if (eventDispatcherDrainBatchSizePara != null) {
+      EventMailbox.setDefaultDrainBatchSize(Integer.valueOf(eventDispatcherDrainBatchSizePara));
+    }
 
     _springContext = new ClassPathXmlApplicationContext("classpath:moho-service-context.xml");
     Collection<Service> beans = null;
@@ -185,9 +207,52 @@ public class ApplicationContextImpl extends DispatchableEventSource implements E
       }
     }
 
+    refreshServices();
+
     _msFactory = this.getService(MediaServiceFactory.class);
     _confMgr = this.getService(ConferenceManager.class);
     _reg = this.getService(Registrar.class);
+    _mediaResources = this.getService(MediaResourceManager.class);
+    _promptCache = this.getService(PromptCache.class);
+  }
+
+  private IdGenerator createIdGenerator() {
+    if (_appSpringContext != null) {
+      final Collection<IdGenerator> generators = _appSpringContext.getBeansOfType(IdGenerator.class).values();
+      if (!generators.isEmpty()) {
+        return generators.iterator().next();
+      }
+    }
+    final String name = getParameter("idGenerator");
+    if (name != null) {
+      try {
+        return (IdGenerator) loadClass(name).newInstance();
+      }
+      catch (final Exception ex) {
+        LOG.error("Moho is unable to create ID generator " + name + ", using the default one.", ex);
+      }
+    }
+    final String nodeId = getParameter(NodeIdGenerator.NODE_ID);
+    return nodeId != null ? new NodeIdGenerator(nodeId) : NodeIdGenerator.getDefault();
+  }
+
+  private ExecutorProvider createExecutorProvider() {
+    if (_appSpringContext != null) {
+      final Collection<ExecutorProvider> providers = _appSpringContext.getBeansOfType(ExecutorProvider.class).values();
+      if (!providers.isEmpty()) {
+        return providers.iterator().next();
+      }
+    }
+    final String name = getParameter("executorProvider");
+    if (name != null) {
+      try {
+        return (ExecutorProvider) loadClass(name).newInstance();
+      }
+      catch (final Exception ex) {
+        LOG.error("Moho is unable to create executor provider " + name + ", using the default one.", ex);
+      }
+    }
+    return new DispatchExecutorProvider();
   }
 
   @Override
@@ -240,6 +305,13 @@ public class ApplicationContextImpl extends DispatchableEventSource implements E
     return getEndpoint(endpoint, null);
   }
 
+  @Override
+  public Fork callAny(final Call origin, final List<? extends CallableEndpoint> targets, final ForkOptions options) {
+    final ForkImpl fork = new ForkImpl(origin, targets, options);
+    fork.start();
+    return fork;
+  }
+
   @Override
   public MsControlFactory getMSFactory() {
     return _mcFactory;
@@ -264,6 +336,22 @@ public class ApplicationContextImpl extends DispatchableEventSource implements E
     return _executor;
   }
 
+  @Override
+  public IdGenerator getIdGenerator() {
+    return _idGenerator;
+  }
+
+  /**
+   * @return the event dispatching thread pool, for its queue depth, active
+   *         thread and rejection counters, null if the executor provider
+   *         created another kind of executor, e.g. the unbounded
+   *         {@link com.voxeo.moho.util.VirtualThreadExecutorProvider}, which
+   *         has no overload protection.
+   */
+  public DispatchExecutor getDispatchExecutor() {
+    return _executor instanceof DispatchExecutor ? (DispatchExecutor) _executor : null;
+  }
+
   @Override
   public Call getCall(final String cid) {
     return _calls.get(cid);
@@ -311,7 +399,9 @@ public class ApplicationContextImpl extends DispatchableEventSource implements E
   @Override
   public void destroy() {
     getApplication().destroy();
-    _executor.shutdown();
+    if (_executor instanceof ExecutorService) {
+      ((ExecutorService) _executor).shutdown();
+    }
 
     Collection<Service> beans = _springContext.getBeansOfType(Service.class).values();
     for (Service service : beans) {
@@ -324,6 +414,14 @@ public class ApplicationContextImpl extends DispatchableEventSource implements E
     return _msFactory;
   }
 
+  public MediaResourceManager getMediaResourceManager() {
+    return _mediaResources;
+  }
+
+  public PromptCache getPromptCache() {
+    return _promptCache;
+  }
+
   @Override
   public SpiFramework getFramework() {
     return this;
@@ -344,17 +442,20 @@ public class ApplicationContextImpl extends DispatchableEventSource implements E
     }
   }
 
-  @SuppressWarnings("rawtypes")
   private ProtocolDriver createProvider(String name) throws ClassNotFoundException, InstantiationException,
       IllegalAccessException {
-    Class clz = null;
+    return (ProtocolDriver) loadClass(name).newInstance();
+  }
+
+  private Class<?> loadClass(String name) throws ClassNotFoundException {
+    Class<?> clz = null;
     try {
       clz = this.getClass().getClassLoader().loadClass(name);
     }
     catch (final Throwable t) {
       clz = Thread.currentThread().getContextClassLoader().loadClass(name);
     }
-    return (ProtocolDriver) clz.newInstance();
+    return clz;
   }
 
   @Override
@@ -409,7 +510,50 @@ public class ApplicationContextImpl extends DispatchableEventSource implements E
 
   @Override
   public <T extends Service> T getService(Class<T> def) {
-    return find(def);
+    final Map<Class<?>, Service> services = _servicesByType;
+    if (services == null) {
+      // a service looking another one up while they are initialized.
+      return find(def);
+    }
+    return def.cast(services.get(def));
+  }
+
+  /**
+   * Reads the services from the Spring contexts again, e.g. after the
+   * application's context has been refreshed. {@link #getService(Class)} only
+   * sees what was there at the last refresh.
+   */
+  public void refreshServices() {
+    final List<Service> services = new ArrayList<Service>();
+    if (_appSpringContext != null) {
+      services.addAll(_appSpringContext.getBeansOfType(Service.class).values());
+    }
+    services.addAll(_springContext.getBeansOfType(Service.class).values());
+
+    final Map<Class<?>, Service> byType = new HashMap<Class<?>, Service>();
+    for (final Service service : services) {
+      index(byType, service.getClass(), service);
+    }
+    _services = Collections.unmodifiableList(services);
+    _servicesByType = Collections.unmodifiableMap(byType);
+  }
+
+  private static void index(final Map<Class<?>, Service> byType, final Class<?> type, final Service service) {
+    final LinkedList<Class<?>> types = new LinkedList<Class<?>>();
+    types.add(type);
+    while (!types.isEmpty()) {
+      final Class<?> t = types.removeFirst();
+      if (t == null || !Service.class.isAssignableFrom(t) || byType.get(t) == service) {
+        continue;
+      }
+      if (!byType.containsKey(t)) {
+        byType.put(t, service);
+      }
+      types.add(t.getSuperclass());
+      for (final Class<?> i : t.getInterfaces()) {
+        types.add(i);
+      }
+    }
   }
 
   private <T> T find(Class<T> clazz) {
@@ -436,6 +580,12 @@ public class ApplicationContextImpl extends DispatchableEventSource implements E
   public <T extends Service> Collection<T> listServices() {
     Collection<T> ret = new ArrayList<T>();
 
+    final List<Service> services = _services;
+    if (services != null) {
+      ret.addAll((Collection<T>) services);
+      return ret;
+    }
+
     if (_appSpringContext != null) {
       ret.addAll((Collection<T>) _appSpringContext.getBeansOfType(Service.class).values());
     }
@@ -19,7 +19,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
@@ -38,6 +37,7 @@ import com.voxeo.moho.event.EarlyMediaEvent;
 import com.voxeo.moho.event.Event;
 import com.voxeo.moho.event.EventDispatcher;
 import com.voxeo.moho.event.EventSource;
+import com.voxeo.moho.event.MailboxOwner;
 import com.voxeo.moho.event.MohoEarlyMediaEvent;
 import com.voxeo.moho.event.Observer;
 import com.voxeo.moho.event.RequestEvent;
@@ -50,10 +50,11 @@ import com.voxeo.moho.media.input.InputCommand;
 import com.voxeo.moho.media.output.OutputCommand;
 import com.voxeo.moho.media.record.RecordCommand;
 import com.voxeo.moho.spi.ExecutionContext;
+import com.voxeo.moho.util.DispatchExecutor.TaskClass;
 import com.voxeo.moho.util.Utils;
 import com.voxeo.moho.utils.EventListener;
 
-public abstract class CallImpl implements Call {
+public abstract class CallImpl implements Call, MailboxOwner {
 
   private static final Logger LOG = Logger.getLogger(CallImpl.class);
 
@@ -80,7 +81,8 @@ public abstract class CallImpl implements Call {
   protected CallImpl(ExecutionContext context) {
     _context = context;
     _dispatcher.setExecutor(getThreadPool(), true);
-    _id = UUID.randomUUID().toString();
+    _dispatcher.setTaskClass(TaskClass.IN_DIALOG);
+    _id = context.getIdGenerator().generate();
     context.addCall(this);
   }
 
@@ -251,6 +253,11 @@ public abstract class CallImpl implements Call {
     return _context.getExecutor();
   }
 
+  @Override
+  public Executor getMailbox() {
+    return _dispatcher.getMailbox();
+  }
+
   @Override
   @SuppressWarnings("unchecked")
   public <T> T getAttribute(final String name) {
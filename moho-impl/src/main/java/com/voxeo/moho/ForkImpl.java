@@ -0,0 +1,422 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+
+import com.voxeo.moho.event.CallCompleteEvent;
+import com.voxeo.moho.event.ForkCompleteEvent;
+import com.voxeo.moho.event.JoinCompleteEvent;
+import com.voxeo.moho.event.MohoForkCompleteEvent;
+import com.voxeo.moho.event.Observer;
+import com.voxeo.moho.util.CompletionListeners;
+import com.voxeo.moho.util.SettableResultFuture;
+import com.voxeo.moho.util.Utils.DaemonThreadFactory;
+import com.voxeo.moho.utils.CompletionListener;
+import com.voxeo.moho.utils.EventListener;
+
+/**
+ * Calls several endpoints on behalf of an originating call and joins the first
+ * one that answers to it.
+ * <p>
+ * Every leg is an outgoing call joined to the media server, so hanging it up
+ * sends a CANCEL while it rings and a BYE once it has answered, and releases
+ * its network connection either way. The first leg that answers wins, the
+ * others are hung up right away and the winner is then joined to the
+ * originating call. The legs report back on their own event queues, so the
+ * state of the fork is guarded by the fork itself; calls are never made while
+ * holding it.
+ */
+public class ForkImpl implements Fork {
+
+  private static final Logger LOG = Logger.getLogger(ForkImpl.class);
+
+  private static ScheduledExecutorService _timer;
+
+  protected final Call _origin;
+
+  protected final ForkOptions _options;
+
+  protected final Endpoint _caller;
+
+  protected final Leg[] _legs;
+
+  protected final SettableResultFuture<ForkCompleteEvent> _future;
+
+  protected final OriginListener _originListener = new OriginListener();
+
+  // guarded by this.
+  protected Leg _winner;
+
+  protected boolean _done;
+
+  protected boolean _canceled;
+
+  public ForkImpl(final Call origin, final List<? extends CallableEndpoint> targets, final ForkOptions options) {
+    if (origin == null) {
+      throw new IllegalArgumentException("origin is null");
+    }
+    if (targets == null || targets.isEmpty()) {
+      throw new IllegalArgumentException("no endpoint to call");
+    }
+    _origin = origin;
+    _options = options == null ? new ForkOptions() : options;
+    _caller = _options.getCaller() != null ? _options.getCaller() : origin.getInvitor();
+    _future = new SettableResultFuture<ForkCompleteEvent>(CompletionListeners.mailboxOf(origin));
+    _legs = new Leg[targets.size()];
+    for (int i = 0; i < _legs.length; i++) {
+      _legs[i] = new Leg(targets.get(i));
+    }
+  }
+
+  /**
+   * Starts the first leg, and the others at once or staggered.
+   */
+  public void start() {
+    _origin.addObserver(_originListener);
+    final Call.State state = _origin.getCallState();
+    if (state == Call.State.DISCONNECTED || state == Call.State.FAILED) {
+      abort(ForkCompleteEvent.Cause.DISCONNECTED);
+      return;
+    }
+    final long stagger = _options.getStagger();
+    for (int i = 0; i < _legs.length; i++) {
+      final Leg leg = _legs[i];
+      if (i == 0 || stagger <= 0) {
+        leg.run();
+      }
+      else {
+        synchronized (this) {
+          if (leg._cause == null) {
+            leg._start = getForkTimer().schedule(leg, stagger * i, TimeUnit.MILLISECONDS);
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public void addCompletionListener(final CompletionListener<ForkCompleteEvent> listener) {
+    _future.addListener(listener);
+  }
+
+  /**
+   * Hangs up all the legs, unless one of them has already answered.
+   */
+  @Override
+  public boolean cancel(final boolean mayInterruptIfRunning) {
+    return abort(ForkCompleteEvent.Cause.CANCELED);
+  }
+
+  @Override
+  public synchronized boolean isCancelled() {
+    return _canceled;
+  }
+
+  @Override
+  public boolean isDone() {
+    return _future.isDone();
+  }
+
+  @Override
+  public ForkCompleteEvent get() throws InterruptedException, ExecutionException {
+    return _future.get();
+  }
+
+  @Override
+  public ForkCompleteEvent get(final long timeout, final TimeUnit unit) throws InterruptedException,
+      ExecutionException, TimeoutException {
+    return _future.get(timeout, unit);
+  }
+
+  /**
+   * Called when the leg has answered. The first leg wins and is joined to the
+   * originating call, a leg that was hung up in the meantime is ignored.
+   */
+  protected void answered(final Leg leg) {
+    final List<Call> losers;
+    synchronized (this) {
+      if (leg._cause != null) {
+        return;
+      }
+      leg.end(JoinCompleteEvent.Cause.JOINED);
+      _winner = leg;
+      losers = endAll();
+    }
+    hangup(losers);
+
+    final Call winner = leg._call;
+    try {
+      _origin.join(winner, _options.getJoinType(), _options.getDirection()).addCompletionListener(
+          new CompletionListener<JoinCompleteEvent>() {
+            @Override
+            public void onComplete(final JoinCompleteEvent result, final Throwable cause) {
+              if (result != null && result.getCause() == JoinCompleteEvent.Cause.JOINED) {
+                finish(ForkCompleteEvent.Cause.ANSWERED, null);
+              }
+              else {
+                hangup(winner);
+                finish(ForkCompleteEvent.Cause.ERROR, result != null ? result.getException() : toException(cause));
+              }
+            }
+          });
+    }
+    catch (final RuntimeException e) {
+      LOG.warn("Unable to join " + winner + " to " + _origin, e);
+      hangup(winner);
+      finish(ForkCompleteEvent.Cause.ERROR, e);
+    }
+  }
+
+  /**
+   * Called when the leg has failed or timed out. The fork is over once the
+   * last leg is.
+   */
+  protected void ended(final Leg leg, final JoinCompleteEvent.Cause cause) {
+    final Call call;
+    final boolean last;
+    synchronized (this) {
+      if (leg._cause != null) {
+        return;
+      }
+      leg.end(cause);
+      call = leg._call;
+      last = !_done && _winner == null && allEnded();
+      if (last) {
+        _done = true;
+      }
+    }
+    if (call != null) {
+      hangup(call);
+    }
+    if (last) {
+      finish(ForkCompleteEvent.Cause.NO_ANSWER, null);
+    }
+  }
+
+  /**
+   * Ends the fork and hangs up all the legs if none of them has answered yet.
+   */
+  protected boolean abort(final ForkCompleteEvent.Cause cause) {
+    final List<Call> calls;
+    synchronized (this) {
+      if (_done || _winner != null) {
+        return false;
+      }
+      _done = true;
+      _canceled = cause == ForkCompleteEvent.Cause.CANCELED;
+      calls = endAll();
+    }
+    hangup(calls);
+    finish(cause, null);
+    return true;
+  }
+
+  protected void finish(final ForkCompleteEvent.Cause cause, final Exception exception) {
+    _origin.removeObserver(_originListener);
+    final Map<CallableEndpoint, JoinCompleteEvent.Cause> results = new LinkedHashMap<CallableEndpoint, JoinCompleteEvent.Cause>();
+    final Call winner;
+    synchronized (this) {
+      _done = true;
+      for (final Leg leg : _legs) {
+        results.put(leg._target, leg._cause);
+      }
+      winner = _winner != null ? _winner._call : null;
+    }
+    final ForkCompleteEvent event = new MohoForkCompleteEvent(_origin, cause, winner, Collections
+        .unmodifiableMap(results), exception);
+    _origin.dispatch(event);
+    _future.setResult(event);
+  }
+
+  // with the lock held: cancels the legs that are still going and returns the
+  // calls to hang up.
+  private List<Call> endAll() {
+    final List<Call> calls = new ArrayList<Call>(_legs.length);
+    for (final Leg leg : _legs) {
+      if (leg._cause == null) {
+        leg.end(JoinCompleteEvent.Cause.CANCELED);
+        if (leg._call != null) {
+          calls.add(leg._call);
+        }
+      }
+    }
+    return calls;
+  }
+
+  private boolean allEnded() {
+    for (final Leg leg : _legs) {
+      if (leg._cause == null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void hangup(final List<Call> calls) {
+    for (final Call call : calls) {
+      hangup(call);
+    }
+  }
+
+  private void hangup(final Call call) {
+    try {
+      call.hangup();
+    }
+    catch (final RuntimeException e) {
+      LOG.warn("Exception when hanging up " + call, e);
+    }
+  }
+
+  private static Exception toException(final Throwable t) {
+    return t instanceof Exception ? (Exception) t : new RuntimeException(t);
+  }
+
+  static JoinCompleteEvent.Cause toCause(final Throwable t) {
+    if (t instanceof BusyException) {
+      return JoinCompleteEvent.Cause.BUSY;
+    }
+    else if (t instanceof RejectException) {
+      return JoinCompleteEvent.Cause.REJECT;
+    }
+    else if (t instanceof RedirectException) {
+      return JoinCompleteEvent.Cause.REDIRECT;
+    }
+    else if (t instanceof com.voxeo.moho.TimeoutException) {
+      return JoinCompleteEvent.Cause.TIMEOUT;
+    }
+    else if (t instanceof CanceledException) {
+      return JoinCompleteEvent.Cause.CANCELED;
+    }
+    return JoinCompleteEvent.Cause.ERROR;
+  }
+
+  private static synchronized ScheduledExecutorService getForkTimer() {
+    if (_timer == null) {
+      _timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("MohoForkTimer"));
+    }
+    return _timer;
+  }
+
+  /**
+   * One outgoing call of the fork. Its fields are guarded by the fork.
+   */
+  protected class Leg implements Runnable, CompletionListener<JoinCompleteEvent> {
+
+    protected final CallableEndpoint _target;
+
+    protected Call _call;
+
+    protected Future<?> _start;
+
+    protected Future<?> _timeout;
+
+    // how the leg ended, null while it is still going.
+    protected JoinCompleteEvent.Cause _cause;
+
+    protected Leg(final CallableEndpoint target) {
+      _target = target;
+    }
+
+    /**
+     * Makes the call and starts its timer.
+     */
+    @Override
+    public void run() {
+      Call call = null;
+      RuntimeException failure = null;
+      synchronized (ForkImpl.this) {
+        if (_cause != null) {
+          return;
+        }
+        try {
+          call = _target.createCall(_caller, _options.getHeaders());
+        }
+        catch (final RuntimeException e) {
+          failure = e;
+        }
+        if (call != null) {
+          _call = call;
+          final long timeout = _options.getTimeout(_target);
+          if (timeout > 0) {
+            _timeout = getForkTimer().schedule(new Runnable() {
+              @Override
+              public void run() {
+                ended(Leg.this, JoinCompleteEvent.Cause.TIMEOUT);
+              }
+            }, timeout, TimeUnit.MILLISECONDS);
+          }
+        }
+      }
+      if (failure != null) {
+        LOG.warn("Unable to call " + _target, failure);
+        ended(this, JoinCompleteEvent.Cause.ERROR);
+        return;
+      }
+      try {
+        call.join().addCompletionListener(this);
+      }
+      catch (final RuntimeException e) {
+        // also when the fork hung the call up before it was started.
+        LOG.warn("Unable to call " + _target, e);
+        ended(this, JoinCompleteEvent.Cause.ERROR);
+      }
+    }
+
+    @Override
+    public void onComplete(final JoinCompleteEvent result, final Throwable cause) {
+      if (result != null && result.getCause() == JoinCompleteEvent.Cause.JOINED) {
+        answered(this);
+      }
+      else {
+        ended(this, result != null ? result.getCause() : toCause(cause));
+      }
+    }
+
+    // with the lock held.
+    protected void end(final JoinCompleteEvent.Cause cause) {
+      _cause = cause;
+      if (_start != null) {
+        _start.cancel(false);
+      }
+      if (_timeout != null) {
+        _timeout.cancel(false);
+      }
+    }
+  }
+
+  /**
+   * Hangs up the legs when the originating call ends before one of them has
+   * answered.
+   */
+  protected class OriginListener implements Observer, EventListener<CallCompleteEvent> {
+    @Override
+    public void onEvent(final CallCompleteEvent event) {
+      abort(ForkCompleteEvent.Cause.DISCONNECTED);
+    }
+  }
+}
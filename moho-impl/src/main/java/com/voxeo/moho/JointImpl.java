@@ -16,26 +16,41 @@ package com.voxeo.moho;
 
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import com.voxeo.moho.event.JoinCompleteEvent;
 import com.voxeo.moho.event.JoinCompleteEvent.Cause;
 import com.voxeo.moho.event.MohoJoinCompleteEvent;
+import com.voxeo.moho.util.ListenableFutureTask;
+import com.voxeo.moho.utils.CompletionListener;
 
 public class JointImpl implements Joint {
 
-  protected FutureTask<JoinCompleteEvent> _future = null;
+  protected ListenableFutureTask<JoinCompleteEvent> _future = null;
 
   protected JoinWorker _worker = null;
 
   public JointImpl(final Executor executor, final JoinWorker worker) {
+    this(executor, worker, null);
+  }
+
+  /**
+   * @param completionExecutor
+   *          where {@link CompletionListener}s run, normally the mailbox of the
+   *          joining participant.
+   */
+  public JointImpl(final Executor executor, final JoinWorker worker, final Executor completionExecutor) {
     _worker = worker;
-    _future = new FutureTask<JoinCompleteEvent>(worker);
+    _future = new ListenableFutureTask<JoinCompleteEvent>(worker, completionExecutor);
     executor.execute(_future);
   }
 
+  @Override
+  public void addCompletionListener(final CompletionListener<JoinCompleteEvent> listener) {
+    _future.addListener(listener);
+  }
+
   @Override
   public JoinCompleteEvent get() throws InterruptedException, ExecutionException {
     return _future.get();
@@ -12,13 +12,21 @@
 package com.voxeo.moho;
 
 import java.net.URI;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.media.mscontrol.MediaEventListener;
 import javax.media.mscontrol.MediaObject;
@@ -34,7 +42,6 @@ import javax.media.mscontrol.mediagroup.MediaGroup;
 import javax.media.mscontrol.mixer.MediaMixer;
 import javax.media.mscontrol.mixer.MixerAdapter;
 import javax.media.mscontrol.mixer.MixerEvent;
-import javax.media.mscontrol.spi.Driver;
 import javax.media.mscontrol.spi.DriverManager;
 
 import org.apache.log4j.Logger;
@@ -52,6 +59,7 @@ import com.voxeo.moho.event.Observer;
 import com.voxeo.moho.event.UnjoinCompleteEvent;
 import com.voxeo.moho.media.GenericMediaService;
 import com.voxeo.moho.media.Input;
+import com.voxeo.moho.media.MediaResourceManager;
 import com.voxeo.moho.media.Output;
 import com.voxeo.moho.media.Prompt;
 import com.voxeo.moho.media.Recording;
@@ -59,11 +67,29 @@ import com.voxeo.moho.media.input.InputCommand;
 import com.voxeo.moho.media.output.OutputCommand;
 import com.voxeo.moho.media.record.RecordCommand;
 import com.voxeo.moho.spi.ExecutionContext;
+import com.voxeo.moho.util.Utils.DaemonThreadFactory;
 
 public class MixerImpl extends DispatchableEventSource implements Mixer, ParticipantContainer, InternalParticipant {
 
   private static final Logger LOG = Logger.getLogger(MixerImpl.class);
 
+  /**
+   * Mixer property: the minimum number of milliseconds between two active
+   * speaker events. Notifications in between are coalesced into the latest
+   * one, which is delivered when the window ends. 0 (the default) delivers
+   * every notification.
+   */
+  public static final String ACTIVE_SPEAKER_WINDOW = "com.voxeo.moho.mixer.activeSpeaker.window";
+
+  /**
+   * Mixer property: if true, an active speaker event is only delivered when the
+   * set of active speakers differs from the last delivered one.
+   */
+  public static final String ACTIVE_SPEAKER_CHANGED_ONLY = "com.voxeo.moho.mixer.activeSpeaker.changedOnly";
+
+  // shared by all mixers, it only ever runs short flushes.
+  private static ScheduledExecutorService _speakerTimer;
+
   protected MixerEndpoint _address;
 
   protected MediaService<Mixer> _service;
@@ -76,7 +102,27 @@ public class MixerImpl extends DispatchableEventSource implements Mixer, Partici
 
   protected JoineeData _joinees = new JoineeData();
 
-  protected Map<Object, Participant> activeInputParticipant = new HashMap<Object, Participant>();
+  // written by join/unjoin, read by the media server's event thread.
+  protected Map<Object, Participant> activeInputParticipant = new ConcurrentHashMap<Object, Participant>();
+
+  protected volatile long _activeSpeakerWindow;
+
+  protected volatile boolean _activeSpeakerChangedOnly;
+
+  private final Object _speakerLock = new Object();
+
+  // guarded by _speakerLock.
+  private Set<Participant> _lastSpeakers;
+
+  private long _lastSpeakerEvent;
+
+  private Participant[] _pendingSpeakers;
+
+  private ScheduledFuture<?> _speakerFlush;
+
+  private final AtomicLong _speakerEventsDelivered = new AtomicLong();
+
+  private final AtomicLong _speakerEventsSuppressed = new AtomicLong();
 
   protected MixerImpl(final ExecutionContext context, final MixerEndpoint address, final Map<Object, Object> params,
       Parameters parameters) {
@@ -87,7 +133,6 @@ public class MixerImpl extends DispatchableEventSource implements Mixer, Partici
         mf = context.getMSFactory();
       }
       else {
-        final Driver driver = DriverManager.getDrivers().next();
         final Properties props = new Properties();
         for (final Map.Entry<Object, Object> entry : params.entrySet()) {
           final String key = String.valueOf(entry.getKey());
@@ -97,7 +142,14 @@ public class MixerImpl extends DispatchableEventSource implements Mixer, Partici
         if (props.getProperty(MsControlFactory.MEDIA_SERVER_URI) == null && address != null) {
           props.setProperty(MsControlFactory.MEDIA_SERVER_URI, address.getURI().toString());
         }
-        mf = driver.getFactory(props);
+        final MediaResourceManager resources = context instanceof ApplicationContextImpl ? ((ApplicationContextImpl) context)
+            .getMediaResourceManager() : null;
+        if (resources != null) {
+          mf = resources.getFactory(props);
+        }
+        else {
+          mf = DriverManager.getDrivers().next().getFactory(props);
+        }
       }
       _media = mf.createMediaSession();
 
@@ -115,6 +167,9 @@ public class MixerImpl extends DispatchableEventSource implements Mixer, Partici
         _clampDtmf = true;
       }
 
+      _activeSpeakerWindow = Long.parseLong(getProperty(address, params, ACTIVE_SPEAKER_WINDOW, "0"));
+      _activeSpeakerChangedOnly = Boolean.valueOf(getProperty(address, params, ACTIVE_SPEAKER_CHANGED_ONLY, "false"));
+
       _mixer.addListener(new MixerEventListener());
     }
     catch (final Exception e) {
@@ -122,6 +177,17 @@ public class MixerImpl extends DispatchableEventSource implements Mixer, Partici
     }
   }
 
+  private static String getProperty(final MixerEndpoint address, final Map<Object, Object> params, final String name,
+      final String defaultValue) {
+    if (params != null && params.get(name) != null) {
+      return params.get(name).toString();
+    }
+    if (address != null && address.getProperty(name) != null) {
+      return address.getProperty(name);
+    }
+    return defaultValue;
+  }
+
   @Override
   public int hashCode() {
     return _mixer.hashCode();
@@ -182,6 +248,14 @@ public class MixerImpl extends DispatchableEventSource implements Mixer, Partici
     }
     _media = null;
 
+    synchronized (_speakerLock) {
+      if (_speakerFlush != null) {
+        _speakerFlush.cancel(false);
+        _speakerFlush = null;
+      }
+      _pendingSpeakers = null;
+    }
+
     Participant[] _joineesArray = _joinees.getJoinees();
     for (Participant participant : _joineesArray) {
       if (participant instanceof ParticipantContainer) {
@@ -250,7 +324,8 @@ public class MixerImpl extends DispatchableEventSource implements Mixer, Partici
     synchronized (this) {
       checkState();
       if (_joinees.contains(other)) {
-        return new JointImpl(_context.getExecutor(), new JointImpl.DummyJoinWorker(MixerImpl.this, other));
+        return new JointImpl(_context.getExecutor(), new JointImpl.DummyJoinWorker(MixerImpl.this, other),
+            getMailbox());
       }
     }
 
@@ -320,7 +395,7 @@ public class MixerImpl extends DispatchableEventSource implements Mixer, Partici
         public boolean cancel() {
           return false;
         }
-      });
+      }, getMailbox());
     }
   }
 
@@ -381,7 +456,7 @@ public class MixerImpl extends DispatchableEventSource implements Mixer, Partici
       public UnjoinCompleteEvent call() throws Exception {
         return doMixerUnjoin(other, callOtherUnjoin);
       }
-    });
+    }, getMailbox());
 
     return task;
   }
@@ -443,7 +518,8 @@ public class MixerImpl extends DispatchableEventSource implements Mixer, Partici
     synchronized (this) {
       checkState();
       if (_joinees.contains(other)) {
-        return new JointImpl(_context.getExecutor(), new JointImpl.DummyJoinWorker(MixerImpl.this, other));
+        return new JointImpl(_context.getExecutor(), new JointImpl.DummyJoinWorker(MixerImpl.this, other),
+            getMailbox());
       }
     }
 
@@ -513,7 +589,7 @@ public class MixerImpl extends DispatchableEventSource implements Mixer, Partici
         public boolean cancel() {
           return false;
         }
-      });
+      }, getMailbox());
     }
   }
 
@@ -757,23 +833,126 @@ public class MixerImpl extends DispatchableEventSource implements Mixer, Partici
     }
   }
 
+  /**
+   * @param millis
+   *          the minimum interval between two active speaker events, 0 to
+   *          deliver every notification.
+   */
+  public void setActiveSpeakerWindow(final long millis) {
+    _activeSpeakerWindow = Math.max(millis, 0);
+  }
+
+  public long getActiveSpeakerWindow() {
+    return _activeSpeakerWindow;
+  }
+
+  public void setActiveSpeakerChangedOnly(final boolean changedOnly) {
+    _activeSpeakerChangedOnly = changedOnly;
+  }
+
+  public boolean isActiveSpeakerChangedOnly() {
+    return _activeSpeakerChangedOnly;
+  }
+
+  /**
+   * @return the number of active speaker events dispatched to observers.
+   */
+  public long getActiveSpeakerEventsDelivered() {
+    return _speakerEventsDelivered.get();
+  }
+
+  /**
+   * @return the number of active speaker notifications from the media server
+   *         that were coalesced or dropped as unchanged.
+   */
+  public long getActiveSpeakerEventsSuppressed() {
+    return _speakerEventsSuppressed.get();
+  }
+
+  protected void onActiveSpeakers(final Participant[] speakers) {
+    Participant[] deliver = null;
+    synchronized (_speakerLock) {
+      final long window = _activeSpeakerWindow;
+      final long now = System.currentTimeMillis();
+      if (window <= 0) {
+        deliver = accept(speakers, now);
+      }
+      else if (_speakerFlush != null) {
+        // a flush is already due, it will deliver the latest speakers.
+        if (_pendingSpeakers != null) {
+          _speakerEventsSuppressed.incrementAndGet();
+        }
+        _pendingSpeakers = speakers;
+      }
+      else if (now - _lastSpeakerEvent >= window) {
+        deliver = accept(speakers, now);
+      }
+      else {
+        _pendingSpeakers = speakers;
+        _speakerFlush = getSpeakerTimer().schedule(new Runnable() {
+          @Override
+          public void run() {
+            flushActiveSpeakers();
+          }
+        }, _lastSpeakerEvent + window - now, TimeUnit.MILLISECONDS);
+      }
+    }
+    if (deliver != null) {
+      dispatch(new MohoActiveSpeakerEvent(this, deliver));
+    }
+  }
+
+  protected void flushActiveSpeakers() {
+    Participant[] deliver = null;
+    synchronized (_speakerLock) {
+      _speakerFlush = null;
+      if (_pendingSpeakers != null) {
+        deliver = accept(_pendingSpeakers, System.currentTimeMillis());
+        _pendingSpeakers = null;
+      }
+    }
+    if (deliver != null) {
+      dispatch(new MohoActiveSpeakerEvent(this, deliver));
+    }
+  }
+
+  // called with _speakerLock held, returns null if the speakers are dropped.
+  private Participant[] accept(final Participant[] speakers, final long now) {
+    if (_activeSpeakerChangedOnly) {
+      final Set<Participant> set = new HashSet<Participant>(Arrays.asList(speakers));
+      if (set.equals(_lastSpeakers)) {
+        _speakerEventsSuppressed.incrementAndGet();
+        return null;
+      }
+      _lastSpeakers = set;
+    }
+    _lastSpeakerEvent = now;
+    _speakerEventsDelivered.incrementAndGet();
+    return speakers;
+  }
+
+  private static synchronized ScheduledExecutorService getSpeakerTimer() {
+    if (_speakerTimer == null) {
+      _speakerTimer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("MohoActiveSpeaker"));
+    }
+    return _speakerTimer;
+  }
+
   // listener for Active speaker event.
   public class MixerEventListener implements MediaEventListener<MixerEvent> {
     @Override
     public void onEvent(MixerEvent event) {
       if (event.getEventType() == MixerEvent.ACTIVE_INPUTS_CHANGED) {
         Joinable[] joinables = event.getActiveInputs();
-        List<Participant> activeSpeakers = new LinkedList<Participant>();
         if (joinables != null) {
+          List<Participant> activeSpeakers = new ArrayList<Participant>(joinables.length);
           for (Joinable joinalbe : joinables) {
             Participant participant = activeInputParticipant.get(joinalbe);
             if (participant != null) {
               activeSpeakers.add(participant);
             }
           }
-
-          MixerImpl.this.dispatch(new MohoActiveSpeakerEvent(MixerImpl.this, activeSpeakers
-              .toArray(new Participant[] {})));
+          onActiveSpeakers(activeSpeakers.toArray(new Participant[activeSpeakers.size()]));
         }
       }
     }
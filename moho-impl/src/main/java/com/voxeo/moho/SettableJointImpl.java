@@ -1,18 +1,35 @@
 package com.voxeo.moho;
 
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import com.voxeo.moho.event.JoinCompleteEvent;
 import com.voxeo.moho.util.SettableResultFuture;
+import com.voxeo.moho.utils.CompletionListener;
 
 public class SettableJointImpl implements Joint {
 
-  protected SettableResultFuture<JoinCompleteEvent> _future = new SettableResultFuture<JoinCompleteEvent>();
+  protected SettableResultFuture<JoinCompleteEvent> _future;
 
   public SettableJointImpl() {
+    this(null);
+  }
+
+  /**
+   * @param completionExecutor
+   *          where {@link CompletionListener}s run, normally the mailbox of the
+   *          joining participant.
+   */
+  public SettableJointImpl(final Executor completionExecutor) {
     super();
+    _future = new SettableResultFuture<JoinCompleteEvent>(completionExecutor);
+  }
+
+  @Override
+  public void addCompletionListener(final CompletionListener<JoinCompleteEvent> listener) {
+    _future.addListener(listener);
   }
 
   @Override
@@ -17,24 +17,40 @@ package com.voxeo.moho;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import com.voxeo.moho.event.UnjoinCompleteEvent;
+import com.voxeo.moho.util.ListenableFutureTask;
+import com.voxeo.moho.utils.CompletionListener;
 
 public class UnjointImpl implements Unjoint {
 
-  protected FutureTask<UnjoinCompleteEvent> _future = null;
+  protected ListenableFutureTask<UnjoinCompleteEvent> _future = null;
 
   protected Callable<UnjoinCompleteEvent> _worker = null;
 
   public UnjointImpl(final Executor executor, final Callable<UnjoinCompleteEvent> worker) {
+    this(executor, worker, null);
+  }
+
+  /**
+   * @param completionExecutor
+   *          where {@link CompletionListener}s run, normally the mailbox of the
+   *          unjoining participant.
+   */
+  public UnjointImpl(final Executor executor, final Callable<UnjoinCompleteEvent> worker,
+      final Executor completionExecutor) {
     _worker = worker;
-    _future = new FutureTask<UnjoinCompleteEvent>(worker);
+    _future = new ListenableFutureTask<UnjoinCompleteEvent>(worker, completionExecutor);
     executor.execute(_future);
   }
 
+  @Override
+  public void addCompletionListener(final CompletionListener<UnjoinCompleteEvent> listener) {
+    _future.addListener(listener);
+  }
+
   @Override
   public UnjoinCompleteEvent get() throws InterruptedException, ExecutionException {
     return _future.get();
@@ -17,6 +17,9 @@ package com.voxeo.moho.conference;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.media.mscontrol.Parameters;
 import javax.media.mscontrol.join.Joinable.Direction;
@@ -33,9 +36,27 @@ import com.voxeo.moho.Participant;
 import com.voxeo.moho.Unjoint;
 import com.voxeo.moho.UnjointImpl;
 import com.voxeo.moho.event.JoinCompleteEvent;
+import com.voxeo.moho.event.JoinCompleteEvent.Cause;
 import com.voxeo.moho.event.UnjoinCompleteEvent;
 import com.voxeo.moho.spi.ExecutionContext;
 
+/**
+ * A conference admits participants concurrently. A joining participant first
+ * claims a seat against {@link #getMaxSeats()} with a compare-and-set, so the
+ * conference can never be overbooked, and then goes through
+ * {@link ConferenceController#preJoin(Participant, Conference) preJoin}, the
+ * media join and {@link ConferenceController#postJoin(Participant, Conference)
+ * postJoin} without holding any conference-wide lock. A join that fails gives
+ * its seat back.
+ * <p>
+ * {@link #getOccupiedSeats()} counts the participants whose media join has
+ * completed; seats claimed by participants still being admitted are not
+ * included, so controllers see the same count as they did when joins were
+ * serialized.
+ * <p>
+ * An idle conference can be {@link #close() closed}, atomically with the seat
+ * claims, after which it admits nobody.
+ */
 public class ConferenceImpl extends MixerImpl implements Conference, InternalParticipant {
 
   private static final Logger LOG = Logger.getLogger(ConferenceImpl.class);
@@ -44,11 +65,23 @@ public class ConferenceImpl extends MixerImpl implements Conference, InternalPar
 
   protected int _maxSeats;
 
-  protected int _occupiedSeats;
+  // the seats claimed once the conference is closed.
+  protected static final int CLOSED = -1;
 
-  protected ConferenceController _controller;
+  // the seats claimed while close() checks for participants joined without a
+  // seat, claims wait for it to settle.
+  protected static final int CLOSING = -2;
+
+  // seats claimed by participants that are joined or being admitted, CLOSED
+  // once the conference admits nobody.
+  protected final AtomicInteger _reservedSeats = new AtomicInteger();
+
+  protected final AtomicInteger _occupiedSeats = new AtomicInteger();
 
-  protected Object _lock = new Object();
+  // TRUE once the participant is seated, FALSE while it is being admitted.
+  protected final ConcurrentMap<Participant, Boolean> _seats = new ConcurrentHashMap<Participant, Boolean>();
+
+  protected ConferenceController _controller;
 
   protected ConferenceImpl(final ExecutionContext context, final MixerEndpoint address,
       final Map<Object, Object> params, final String id, final int seats, final ConferenceController controller,
@@ -68,81 +101,161 @@ public class ConferenceImpl extends MixerImpl implements Conference, InternalPar
   public Joint join(final Participant other, final JoinType type, final Direction direction)
       throws IllegalStateException {
     checkState();
-    return new JointImpl(_context.getExecutor(), new JoinWorker() {
-      @Override
-      public JoinCompleteEvent call() throws Exception {
-        synchronized (_lock) {
-          if (_controller != null) {
-            _controller.preJoin(other, ConferenceImpl.this);
-          }
-          final JoinCompleteEvent retval = ConferenceImpl.super.join(other, type, direction).get();
-          _occupiedSeats = _occupiedSeats + 1;
-          if (_controller != null) {
-            _controller.postJoin(other, ConferenceImpl.this);
-          }
-          return retval;
-        }
-      }
-
+    return new JointImpl(_context.getExecutor(), new AdmissionWorker(other) {
       @Override
-      public boolean cancel() {
-        return false;
+      protected Joint mediaJoin() {
+        return ConferenceImpl.this.mediaJoin(other, type, direction, null);
       }
-    });
-
+    }, getMailbox());
   }
 
   @Override
   public Joint join(final Participant other, final JoinType type, final Direction direction, final Properties props)
       throws IllegalStateException {
     checkState();
-    return new JointImpl(_context.getExecutor(), new JoinWorker() {
-
+    return new JointImpl(_context.getExecutor(), new AdmissionWorker(other) {
       @Override
-      public JoinCompleteEvent call() throws Exception {
-        synchronized (_lock) {
-          if (_controller != null) {
-            _controller.preJoin(other, ConferenceImpl.this);
-          }
-          final JoinCompleteEvent retval = ConferenceImpl.super.join(other, type, direction, props).get();
-          _occupiedSeats = _occupiedSeats + 1;
-          if (_controller != null) {
-            _controller.postJoin(other, ConferenceImpl.this);
-          }
-          return retval;
-        }
+      protected Joint mediaJoin() {
+        return ConferenceImpl.this.mediaJoin(other, type, direction, props);
       }
+    }, getMailbox());
+  }
 
-      @Override
-      public boolean cancel() {
+  /**
+   * Joins the participant to the mixer once it has been admitted.
+   */
+  protected Joint mediaJoin(final Participant other, final JoinType type, final Direction direction,
+      final Properties props) {
+    if (props == null) {
+      return super.join(other, type, direction);
+    }
+    return super.join(other, type, direction, props);
+  }
+
+  /**
+   * Claims a seat for the participant.
+   * 
+   * @return false if the participant is already seated.
+   * @throws ConferenceFullException
+   *           if all seats are taken.
+   * @throws IllegalStateException
+   *           if the conference is closed.
+   */
+  protected boolean reserveSeat(final Participant p) {
+    final Boolean seated = _seats.putIfAbsent(p, Boolean.FALSE);
+    if (seated != null) {
+      if (seated) {
         return false;
       }
-    });
+      throw new IllegalStateException(p + " is already joining " + this);
+    }
+    for (;;) {
+      final int reserved = _reservedSeats.get();
+      if (reserved == CLOSING) {
+        Thread.yield();
+        continue;
+      }
+      if (reserved == CLOSED) {
+        _seats.remove(p, Boolean.FALSE);
+        throw new IllegalStateException(this + " is closed");
+      }
+      if (reserved >= _maxSeats) {
+        _seats.remove(p, Boolean.FALSE);
+        throw new ConferenceFullException();
+      }
+      if (_reservedSeats.compareAndSet(reserved, reserved + 1)) {
+        return true;
+      }
+    }
+  }
 
+  protected void occupySeat(final Participant p) {
+    if (_seats.replace(p, Boolean.FALSE, Boolean.TRUE)) {
+      _occupiedSeats.incrementAndGet();
+    }
   }
 
-  public UnjoinCompleteEvent doUnjoin(final Participant other, final boolean isInitiator) throws Exception {
-    synchronized (_lock) {
-      UnjoinCompleteEvent event = null;
+  /**
+   * Gives back the seat of a participant that did not make it in.
+   */
+  protected void releaseReservation(final Participant p) {
+    if (_seats.remove(p, Boolean.FALSE)) {
+      _reservedSeats.decrementAndGet();
+    }
+  }
+
+  /**
+   * Gives back the seat of a participant that is leaving.
+   */
+  protected void releaseSeat(final Participant p) {
+    if (_seats.remove(p, Boolean.TRUE)) {
+      _occupiedSeats.decrementAndGet();
+      _reservedSeats.decrementAndGet();
+    }
+  }
+
+  protected abstract class AdmissionWorker implements JoinWorker {
+    protected final Participant _participant;
+
+    protected AdmissionWorker(final Participant participant) {
+      _participant = participant;
+    }
+
+    protected abstract Joint mediaJoin();
+
+    @Override
+    public JoinCompleteEvent call() throws Exception {
+      if (!reserveSeat(_participant)) {
+        return mediaJoin().get();
+      }
+      boolean seated = false;
       try {
         if (_controller != null) {
-          _controller.preUnjoin(other, this);
+          _controller.preJoin(_participant, ConferenceImpl.this);
         }
-        _occupiedSeats = _occupiedSeats - 1;
-        event = super.unjoin(other, isInitiator).get();
-      }
-      catch (final Exception e) {
-        LOG.warn("", e);
-        throw e;
+        final JoinCompleteEvent retval = mediaJoin().get();
+        if (retval.getCause() != Cause.JOINED) {
+          return retval;
+        }
+        occupySeat(_participant);
+        seated = true;
+        if (_controller != null) {
+          _controller.postJoin(_participant, ConferenceImpl.this);
+        }
+        return retval;
       }
-      finally{
-    	  if (_controller != null) {
-              _controller.postUnjoin(other, this);
-            }
+      finally {
+        if (!seated) {
+          releaseReservation(_participant);
+        }
       }
+    }
+
+    @Override
+    public boolean cancel() {
+      return false;
+    }
+  }
 
-      return event;
+  public UnjoinCompleteEvent doUnjoin(final Participant other, final boolean isInitiator) throws Exception {
+    UnjoinCompleteEvent event = null;
+    try {
+      if (_controller != null) {
+        _controller.preUnjoin(other, this);
+      }
+      releaseSeat(other);
+      event = super.unjoin(other, isInitiator).get();
+    }
+    catch (final Exception e) {
+      LOG.warn("", e);
+      throw e;
+    }
+    finally {
+      if (_controller != null) {
+        _controller.postUnjoin(other, this);
+      }
     }
+    return event;
   }
 
   @Override
@@ -157,7 +270,7 @@ public class ConferenceImpl extends MixerImpl implements Conference, InternalPar
       public UnjoinCompleteEvent call() throws Exception {
         return doUnjoin(p, isInitiator);
       }
-    });
+    }, getMailbox());
     return task;
   }
   
@@ -169,7 +282,47 @@ public class ConferenceImpl extends MixerImpl implements Conference, InternalPar
 
   @Override
   public int getOccupiedSeats() {
-    return _occupiedSeats;
+    return _occupiedSeats.get();
+  }
+
+  /**
+   * @return whether nobody is seated, being admitted or otherwise joined.
+   */
+  public boolean isIdle() {
+    final int reserved = _reservedSeats.get();
+    return reserved <= 0 && getParticipants().length == 0;
+  }
+
+  /**
+   * Stops admitting participants, if nobody is seated, being admitted or
+   * otherwise joined.
+   * 
+   * @return false if the conference is in use, in which case it stays open, or
+   *         has already been closed.
+   */
+  public boolean close() {
+    // joined to the mixer without a seat.
+    if (getParticipants().length > 0 || !_reservedSeats.compareAndSet(0, CLOSING)) {
+      return false;
+    }
+    if (getParticipants().length > 0) {
+      _reservedSeats.set(0);
+      return false;
+    }
+    _reservedSeats.set(CLOSED);
+    return true;
+  }
+
+  public boolean isClosed() {
+    return _reservedSeats.get() == CLOSED;
+  }
+
+  // both the idle reaper and whoever removes the conference may disconnect it.
+  @Override
+  public synchronized void disconnect() {
+    if (_media != null) {
+      super.disconnect();
+    }
   }
 
   @Override
@@ -14,22 +14,57 @@
 
 package com.voxeo.moho.conference;
 
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.media.mscontrol.Parameters;
 
+import org.apache.log4j.Logger;
+
 import com.voxeo.moho.MixerEndpoint;
 import com.voxeo.moho.spi.ExecutionContext;
+import com.voxeo.moho.util.Utils.DaemonThreadFactory;
 
+/**
+ * Keeps the conferences of an application in a concurrent map. A conference is
+ * created at most once per id, even when several callers ask for it at the same
+ * time, and only one of them allocates its mixer.
+ * <p>
+ * If {@link #IDLE_TIMEOUT} is set, a conference that has had nobody in it for
+ * that long is closed, so that it admits nobody, then removed and
+ * disconnected, which releases its mixer on the media server. Creating a
+ * conference with the id of a closed one creates a new one.
+ */
 public class ConferenceMangerImpl implements ConferenceManager {
 
+  private static final Logger LOG = Logger.getLogger(ConferenceMangerImpl.class);
+
+  /** Milliseconds a conference can stay empty before it is removed; 0 never. */
+  public static final String IDLE_TIMEOUT = "com.voxeo.moho.conference.idle.timeout";
+
   protected ExecutionContext _context;
 
-  protected Map<String, Conference> _conferences = new HashMap<String, Conference>();
+  protected ConcurrentMap<String, Conference> _conferences = new ConcurrentHashMap<String, Conference>();
+
+  // creations in progress, so concurrent creators of an id wait for one mixer.
+  protected ConcurrentMap<String, FutureTask<Conference>> _creating =
+      new ConcurrentHashMap<String, FutureTask<Conference>>();
+
+  // when each empty conference was first seen empty by the reaper.
+  protected Map<String, Long> _idleSince = new ConcurrentHashMap<String, Long>();
+
+  protected volatile long _idleTimeout;
+
+  protected ScheduledExecutorService _reaper;
 
   public ConferenceMangerImpl() {
     super();
@@ -53,30 +88,57 @@ public class ConferenceMangerImpl implements ConferenceManager {
 
   @Override
   public Conference createConference(final MixerEndpoint mxier, final Map<Object, Object> mixerParams, final String id,
-      final int seats, final ConferenceController controller, Parameters parameters) {
-    synchronized (_conferences) {
-      Conference retval = getConference(id);
-      if (retval == null) {
-        retval = new ConferenceImpl(_context, mxier, mixerParams, id, seats, controller, parameters);
-        _conferences.put(id, retval);
-      }
+      final int seats, final ConferenceController controller, final Parameters parameters) {
+    Conference retval = _conferences.get(id);
+    if (retval != null && !isClosed(retval)) {
       return retval;
     }
+    final FutureTask<Conference> task = new FutureTask<Conference>(new Callable<Conference>() {
+      @Override
+      public Conference call() throws Exception {
+        // another creator may have finished between our lookup and our turn.
+        Conference conf = _conferences.get(id);
+        if (conf == null || isClosed(conf)) {
+          conf = new ConferenceImpl(_context, mxier, mixerParams, id, seats, controller, parameters);
+          _conferences.put(id, conf);
+        }
+        return conf;
+      }
+    });
+    FutureTask<Conference> creation = _creating.putIfAbsent(id, task);
+    if (creation == null) {
+      creation = task;
+      try {
+        task.run();
+      }
+      finally {
+        _creating.remove(id, task);
+      }
+    }
+    try {
+      return creation.get();
+    }
+    catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while creating conference " + id);
+    }
+    catch (final ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException("Unable to create conference " + id, e.getCause());
+    }
   }
 
   @Override
   public Conference getConference(final String id) {
-    synchronized (_conferences) {
-      return _conferences.get(id);
-    }
+    return _conferences.get(id);
   }
 
   @Override
   public void removeConference(final String id) {
-    Conference conf = null;
-    synchronized (_conferences) {
-      conf = _conferences.remove(id);
-    }
+    final Conference conf = _conferences.remove(id);
+    _idleSince.remove(id);
     if (conf != null) {
       conf.disconnect();
     }
@@ -84,29 +146,127 @@ public class ConferenceMangerImpl implements ConferenceManager {
 
   @Override
   public Set<String> getConferences() {
-    synchronized (_conferences) {
-      return Collections.unmodifiableSet(_conferences.keySet());
-    }
+    return new HashSet<String>(_conferences.keySet());
   }
 
   @Override
   public void removeAllConferences() {
-    for (final String id : getConferences()) {
+    for (final String id : _conferences.keySet()) {
       removeConference(id);
     }
   }
 
+  /**
+   * @return the number of conferences.
+   */
+  public int getConferenceCount() {
+    return _conferences.size();
+  }
+
+  /**
+   * @return the number of occupied seats over all conferences.
+   */
+  public int getSeatsInUse() {
+    int seats = 0;
+    for (final Conference conf : _conferences.values()) {
+      seats += conf.getOccupiedSeats();
+    }
+    return seats;
+  }
+
+  /**
+   * @param millis
+   *          how long a conference can stay empty before it is removed and
+   *          disconnected, 0 to keep empty conferences until they are removed
+   *          explicitly.
+   */
+  public synchronized void setIdleTimeout(final long millis) {
+    _idleTimeout = millis;
+    if (_reaper != null) {
+      _reaper.shutdownNow();
+      _reaper = null;
+    }
+    if (millis > 0) {
+      final long period = Math.max(millis / 2, 1);
+      _reaper = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("MohoConferenceReaper"));
+      _reaper.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            reapIdleConferences(System.currentTimeMillis());
+          }
+          catch (final Throwable t) {
+            LOG.warn("Exception when reaping idle conferences", t);
+          }
+        }
+      }, period, period, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  public long getIdleTimeout() {
+    return _idleTimeout;
+  }
+
+  /**
+   * Removes and disconnects the conferences that have been empty for longer
+   * than the idle timeout.
+   */
+  protected void reapIdleConferences(final long now) {
+    for (final Map.Entry<String, Conference> entry : _conferences.entrySet()) {
+      final String id = entry.getKey();
+      final Conference conf = entry.getValue();
+      if (!isIdle(conf)) {
+        _idleSince.remove(id);
+        continue;
+      }
+      final Long since = _idleSince.get(id);
+      if (since == null) {
+        _idleSince.put(id, now);
+      }
+      else if (now - since >= _idleTimeout && close(conf)) {
+        // nobody can get in any more, a creator of the id gets a new conference.
+        _idleSince.remove(id);
+        _conferences.remove(id, conf);
+        LOG.info("Removing conference " + id + " after it has been empty for " + (now - since) + "ms");
+        conf.disconnect();
+      }
+    }
+  }
+
+  /**
+   * @return false if somebody got in since the conference was last seen idle.
+   */
+  protected boolean close(final Conference conf) {
+    if (conf instanceof ConferenceImpl) {
+      return ((ConferenceImpl) conf).close();
+    }
+    return isIdle(conf);
+  }
+
+  protected boolean isClosed(final Conference conf) {
+    return conf instanceof ConferenceImpl && ((ConferenceImpl) conf).isClosed();
+  }
+
+  protected boolean isIdle(final Conference conf) {
+    if (conf instanceof ConferenceImpl) {
+      return ((ConferenceImpl) conf).isIdle();
+    }
+    return conf.getOccupiedSeats() == 0 && conf.getParticipants().length == 0;
+  }
+
   @Override
   public void init(ExecutionContext context, Map<String, String> properties) {
     _context = context;
+    if (properties != null && properties.get(IDLE_TIMEOUT) != null) {
+      setIdleTimeout(Long.parseLong(properties.get(IDLE_TIMEOUT)));
+    }
   }
 
   @Override
   public void destroy() {
-    Collection<Conference> conferences = _conferences.values();
-
-    for (Conference conf : conferences) {
-      conf.disconnect();
+    setIdleTimeout(0);
+    for (final String id : _conferences.keySet()) {
+      removeConference(id);
     }
   }
 
@@ -0,0 +1,607 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.dialer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.voxeo.moho.BusyException;
+import com.voxeo.moho.Call;
+import com.voxeo.moho.CallableEndpoint;
+import com.voxeo.moho.CanceledException;
+import com.voxeo.moho.Endpoint;
+import com.voxeo.moho.RejectException;
+import com.voxeo.moho.SignalException;
+import com.voxeo.moho.TimeoutException;
+import com.voxeo.moho.event.CallCompleteEvent;
+import com.voxeo.moho.event.JoinCompleteEvent;
+import com.voxeo.moho.event.Observer;
+import com.voxeo.moho.spi.ExecutionContext;
+import com.voxeo.moho.util.LatencyHistogram;
+import com.voxeo.moho.util.Utils.DaemonThreadFactory;
+import com.voxeo.moho.utils.CompletionListener;
+import com.voxeo.moho.utils.EventListener;
+
+/**
+ * The default {@link Dialer}. Each trunk is a token bucket filled at its pace
+ * up to its burst, and a queue of calls to start. A single scheduler thread
+ * starts as many queued calls as there are tokens and free call slots, then
+ * sleeps until the next token is due; a slot is freed when its call ends, or
+ * fails before it is answered. Retries wait on the scheduler and go back to
+ * the queue of their trunk when they are due.
+ * <p>
+ * Calls are never made while holding the lock of a trunk.
+ */
+public class DialerImpl implements Dialer {
+
+  private static final Logger LOG = Logger.getLogger(DialerImpl.class);
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  protected Map<String, String> _properties = Collections.emptyMap();
+
+  protected final ConcurrentMap<String, Trunk> _trunks = new ConcurrentHashMap<String, Trunk>();
+
+  protected volatile ScheduledExecutorService _scheduler;
+
+  @Override
+  public void init(final ExecutionContext context, final Map<String, String> properties) {
+    if (properties != null) {
+      _properties = properties;
+    }
+    _scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("MohoDialer"));
+  }
+
+  @Override
+  public void destroy() {
+    final ScheduledExecutorService scheduler = _scheduler;
+    _scheduler = null;
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+    for (final Trunk trunk : _trunks.values()) {
+      trunk.clear();
+    }
+    _trunks.clear();
+  }
+
+  @Override
+  public String getName() {
+    return Dialer.class.getName();
+  }
+
+  @Override
+  public void dial(final String trunk, final Endpoint caller, final CallableEndpoint destination,
+      final Map<String, String> headers, final DialListener listener) {
+    if (destination == null) {
+      throw new IllegalArgumentException("destination is null");
+    }
+    final Trunk t = getTrunk(trunk);
+    t.add(new Attempt(t, caller, destination, headers, listener, 1));
+  }
+
+  @Override
+  public void dial(final String trunk, final Endpoint caller, final Iterator<? extends CallableEndpoint> destinations,
+      final Map<String, String> headers, final DialListener listener) {
+    if (destinations == null) {
+      throw new IllegalArgumentException("destinations is null");
+    }
+    getTrunk(trunk).add(new Source(caller, destinations, headers, listener));
+  }
+
+  @Override
+  public void setCallsPerSecond(final String trunk, final double cps) {
+    getTrunk(trunk).setCallsPerSecond(cps);
+  }
+
+  @Override
+  public void setMaxCalls(final String trunk, final int max) {
+    getTrunk(trunk).setMaxCalls(max);
+  }
+
+  @Override
+  public Statistics getStatistics(final String trunk) {
+    return getTrunk(trunk);
+  }
+
+  protected Trunk getTrunk(String name) {
+    if (_scheduler == null) {
+      throw new IllegalStateException("The dialer is not initialized.");
+    }
+    if (name == null) {
+      name = "";
+    }
+    Trunk trunk = _trunks.get(name);
+    if (trunk == null) {
+      trunk = new Trunk(name);
+      final Trunk existing = _trunks.putIfAbsent(name, trunk);
+      if (existing != null) {
+        trunk = existing;
+      }
+    }
+    return trunk;
+  }
+
+  // the property of the trunk, or the one of all the trunks.
+  private String getProperty(final String key, final String trunk) {
+    String value = null;
+    if (trunk.length() > 0) {
+      value = _properties.get(key + "." + trunk);
+    }
+    return value != null ? value : _properties.get(key);
+  }
+
+  private long getLong(final String key, final String trunk, final long def) {
+    final String value = getProperty(key, trunk);
+    return value == null ? def : Long.parseLong(value.trim());
+  }
+
+  private double getDouble(final String key, final String trunk, final double def) {
+    final String value = getProperty(key, trunk);
+    return value == null ? def : Double.parseDouble(value.trim());
+  }
+
+  static Exception toException(final JoinCompleteEvent.Cause cause) {
+    switch (cause) {
+      case BUSY:
+        return new BusyException();
+      case TIMEOUT:
+        return new TimeoutException();
+      case REJECT:
+        return new RejectException();
+      case CANCELED:
+        return new CanceledException();
+      default:
+        return new SignalException("The call ended with " + cause);
+    }
+  }
+
+  protected class Trunk implements Runnable, Statistics {
+
+    protected final String _name;
+
+    protected final int _retries;
+
+    protected final long _backoff;
+
+    protected final long _timeout;
+
+    protected final AtomicLong _attempts = new AtomicLong();
+
+    protected final AtomicLong _answered = new AtomicLong();
+
+    protected final LatencyHistogram _latency = new LatencyHistogram();
+
+    // guarded by this.
+    protected double _cps;
+
+    protected double _burst;
+
+    protected int _maxCalls;
+
+    protected double _tokens;
+
+    protected long _refilled;
+
+    protected int _active;
+
+    protected int _retrying;
+
+    protected final LinkedList<Attempt> _queue = new LinkedList<Attempt>();
+
+    protected final LinkedList<Source> _sources = new LinkedList<Source>();
+
+    protected boolean _scheduled;
+
+    protected long _windowStart;
+
+    protected int _windowCount;
+
+    protected double _rate;
+
+    protected Trunk(final String name) {
+      _name = name;
+      _cps = getDouble(CPS, name, 10);
+      _burst = Math.max(1, getDouble(BURST, name, _cps));
+      _maxCalls = (int) getLong(MAX_CALLS, name, 0);
+      _retries = (int) getLong(RETRIES, name, 2);
+      _backoff = getLong(BACKOFF, name, 30000);
+      _timeout = getLong(TIMEOUT, name, 30000);
+      _tokens = _burst;
+      _refilled = System.nanoTime();
+      _windowStart = _refilled;
+    }
+
+    protected void add(final Attempt attempt) {
+      synchronized (this) {
+        _queue.add(attempt);
+      }
+      wake();
+    }
+
+    protected void add(final Source source) {
+      synchronized (this) {
+        _sources.add(source);
+      }
+      wake();
+    }
+
+    protected void retry(final Attempt attempt, final long delay) {
+      synchronized (this) {
+        _retrying++;
+      }
+      try {
+        _scheduler.schedule(new Runnable() {
+          @Override
+          public void run() {
+            synchronized (Trunk.this) {
+              _retrying--;
+            }
+            add(attempt);
+          }
+        }, delay, TimeUnit.MILLISECONDS);
+      }
+      catch (final RuntimeException e) {
+        synchronized (this) {
+          _retrying--;
+        }
+        attempt._listener.onFailed(attempt._destination, new CanceledException());
+      }
+    }
+
+    protected void release() {
+      synchronized (this) {
+        _active--;
+      }
+      wake();
+    }
+
+    protected synchronized void setCallsPerSecond(final double cps) {
+      refill(System.nanoTime());
+      _cps = cps;
+      schedule(0);
+    }
+
+    protected synchronized void setMaxCalls(final int max) {
+      _maxCalls = max;
+      schedule(0);
+    }
+
+    /**
+     * Starts the calls the tokens and the free slots allow.
+     */
+    @Override
+    public void run() {
+      final List<Attempt> started = new ArrayList<Attempt>();
+      synchronized (this) {
+        _scheduled = false;
+        final long now = System.nanoTime();
+        refill(now);
+        while (_tokens >= 1 && hasSlot()) {
+          final Attempt next = next();
+          if (next == null) {
+            break;
+          }
+          _tokens -= 1;
+          _active++;
+          started.add(next);
+          count(now);
+        }
+        if (hasSlot() && _cps > 0 && (!_queue.isEmpty() || !_sources.isEmpty())) {
+          schedule((long) Math.ceil((1 - _tokens) * 1000 / _cps));
+        }
+      }
+      for (final Attempt attempt : started) {
+        _attempts.incrementAndGet();
+        attempt.start();
+      }
+    }
+
+    private boolean hasSlot() {
+      return _maxCalls <= 0 || _active < _maxCalls;
+    }
+
+    // the next call to start, retries and single calls first.
+    private Attempt next() {
+      final Attempt attempt = _queue.poll();
+      if (attempt != null) {
+        return attempt;
+      }
+      while (!_sources.isEmpty()) {
+        final Source source = _sources.poll();
+        try {
+          if (source._destinations.hasNext()) {
+            final CallableEndpoint destination = source._destinations.next();
+            // take turns with the other sources.
+            _sources.add(source);
+            if (destination != null) {
+              return new Attempt(this, source._caller, destination, source._headers, source._listener, 1);
+            }
+          }
+        }
+        catch (final RuntimeException e) {
+          LOG.warn("Unable to read the next destination of trunk " + _name + ", skipping the rest.", e);
+        }
+      }
+      return null;
+    }
+
+    private void refill(final long now) {
+      if (_cps > 0) {
+        _tokens = Math.min(_burst, _tokens + (now - _refilled) * _cps / SECOND);
+      }
+      _refilled = now;
+    }
+
+    private void count(final long now) {
+      if (now - _windowStart >= SECOND) {
+        _rate = _windowCount * (double) SECOND / (now - _windowStart);
+        _windowStart = now;
+        _windowCount = 0;
+      }
+      _windowCount++;
+    }
+
+    protected void wake() {
+      synchronized (this) {
+        schedule(0);
+      }
+    }
+
+    // with the lock held.
+    private void schedule(final long delay) {
+      final ScheduledExecutorService scheduler = _scheduler;
+      if (_scheduled || scheduler == null) {
+        return;
+      }
+      try {
+        scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+        _scheduled = true;
+      }
+      catch (final RejectedExecutionException e) {
+        // destroyed.
+      }
+    }
+
+    protected void clear() {
+      final List<Attempt> queued;
+      synchronized (this) {
+        queued = new ArrayList<Attempt>(_queue);
+        _queue.clear();
+        _sources.clear();
+      }
+      for (final Attempt attempt : queued) {
+        attempt._listener.onFailed(attempt._destination, new CanceledException());
+      }
+    }
+
+    @Override
+    public long getAttempts() {
+      return _attempts.get();
+    }
+
+    @Override
+    public long getAnswered() {
+      return _answered.get();
+    }
+
+    @Override
+    public synchronized int getActiveCalls() {
+      return _active;
+    }
+
+    @Override
+    public synchronized int getPending() {
+      return _queue.size() + _retrying;
+    }
+
+    @Override
+    public synchronized double getCallsPerSecond() {
+      final long elapsed = System.nanoTime() - _windowStart;
+      return elapsed >= SECOND ? _windowCount * (double) SECOND / elapsed : _rate;
+    }
+
+    @Override
+    public double getAnswerSeizureRatio() {
+      final long attempts = _attempts.get();
+      return attempts == 0 ? 0 : (double) _answered.get() / attempts;
+    }
+
+    @Override
+    public long getSetupLatency(final double percentile) {
+      return _latency.getPercentile(percentile) / 1000;
+    }
+  }
+
+  /**
+   * A stream of destinations.
+   */
+  protected static class Source {
+    protected final Endpoint _caller;
+
+    protected final Iterator<? extends CallableEndpoint> _destinations;
+
+    protected final Map<String, String> _headers;
+
+    protected final DialListener _listener;
+
+    protected Source(final Endpoint caller, final Iterator<? extends CallableEndpoint> destinations,
+        final Map<String, String> headers, final DialListener listener) {
+      _caller = caller;
+      _destinations = destinations;
+      _headers = headers;
+      _listener = listener;
+    }
+  }
+
+  /**
+   * One try to call a destination. It holds a call slot of its trunk from the
+   * moment it starts until its call ends.
+   */
+  protected class Attempt implements CompletionListener<JoinCompleteEvent>, Observer,
+      EventListener<CallCompleteEvent> {
+
+    protected final Trunk _trunk;
+
+    protected final Endpoint _caller;
+
+    protected final CallableEndpoint _destination;
+
+    protected final Map<String, String> _headers;
+
+    protected final DialListener _listener;
+
+    protected final int _number;
+
+    protected final AtomicBoolean _decided = new AtomicBoolean();
+
+    protected final AtomicBoolean _released = new AtomicBoolean();
+
+    protected volatile Call _call;
+
+    protected volatile Future<?> _timer;
+
+    protected long _started;
+
+    protected Attempt(final Trunk trunk, final Endpoint caller, final CallableEndpoint destination,
+        final Map<String, String> headers, final DialListener listener, final int number) {
+      _trunk = trunk;
+      _caller = caller;
+      _destination = destination;
+      _headers = headers;
+      _listener = listener != null ? listener : NOOP;
+      _number = number;
+    }
+
+    protected void start() {
+      _started = System.nanoTime();
+      try {
+        final Call call = _destination.createCall(_caller, _headers);
+        _call = call;
+        call.addObserver(this);
+        if (_trunk._timeout > 0) {
+          _timer = _scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+              if (_decided.compareAndSet(false, true)) {
+                release();
+                try {
+                  call.hangup();
+                }
+                catch (final RuntimeException e) {
+                  LOG.warn("Exception when hanging up " + call, e);
+                }
+                retryOrFail(JoinCompleteEvent.Cause.TIMEOUT, null);
+              }
+            }
+          }, _trunk._timeout, TimeUnit.MILLISECONDS);
+        }
+        call.join().addCompletionListener(this);
+      }
+      catch (final RuntimeException e) {
+        LOG.warn("Unable to call " + _destination, e);
+        failed(JoinCompleteEvent.Cause.ERROR, e);
+      }
+    }
+
+    @Override
+    public void onComplete(final JoinCompleteEvent result, final Throwable cause) {
+      if (result != null && result.getCause() == JoinCompleteEvent.Cause.JOINED) {
+        if (_decided.compareAndSet(false, true)) {
+          cancelTimer();
+          _trunk._answered.incrementAndGet();
+          _trunk._latency.record(System.nanoTime() - _started);
+          _listener.onAnswered(_destination, _call);
+        }
+      }
+      else if (result != null) {
+        failed(result.getCause(), result.getException());
+      }
+      else {
+        failed(JoinCompleteEvent.Cause.ERROR, cause instanceof Exception ? (Exception) cause : new SignalException(
+            cause));
+      }
+    }
+
+    @Override
+    public void onEvent(final CallCompleteEvent event) {
+      release();
+    }
+
+    protected void failed(final JoinCompleteEvent.Cause cause, final Exception exception) {
+      if (_decided.compareAndSet(false, true)) {
+        cancelTimer();
+        release();
+        retryOrFail(cause, exception);
+      }
+    }
+
+    private void retryOrFail(final JoinCompleteEvent.Cause cause, final Exception exception) {
+      if ((cause == JoinCompleteEvent.Cause.BUSY || cause == JoinCompleteEvent.Cause.TIMEOUT)
+          && _number <= _trunk._retries && _scheduler != null) {
+        final long delay = _trunk._backoff << Math.min(_number - 1, 16);
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Retrying " + _destination + " in " + delay + "ms after " + cause);
+        }
+        _trunk.retry(new Attempt(_trunk, _caller, _destination, _headers, _listener, _number + 1), delay);
+      }
+      else {
+        _listener.onFailed(_destination, exception != null ? exception : toException(cause));
+      }
+    }
+
+    private void cancelTimer() {
+      final Future<?> timer = _timer;
+      if (timer != null) {
+        timer.cancel(false);
+      }
+    }
+
+    private void release() {
+      if (_released.compareAndSet(false, true)) {
+        final Call call = _call;
+        if (call != null) {
+          call.removeObserver(this);
+        }
+        _trunk.release();
+      }
+    }
+  }
+
+  private static final DialListener NOOP = new DialListener() {
+    @Override
+    public void onAnswered(final CallableEndpoint destination, final Call call) {
+    }
+
+    @Override
+    public void onFailed(final CallableEndpoint destination, final Exception cause) {
+    }
+  };
+}
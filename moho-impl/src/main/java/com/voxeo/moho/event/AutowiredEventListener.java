@@ -17,7 +17,9 @@ package com.voxeo.moho.event;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -59,6 +61,8 @@ import com.voxeo.moho.utils.EventListener;
  */
 public class AutowiredEventListener implements EventListener<Event<EventSource>> {
 
+  private static final ConcurrentMap<Class<?>, Map<Class<?>, List<AutowiredEventTarget>>> _compiled = new ConcurrentHashMap<Class<?>, Map<Class<?>, List<AutowiredEventTarget>>>();
+
   protected Object _target;
 
   protected ConcurrentMap<Class<Event<EventSource>>, List<AutowiredEventTarget>> _listeners = new ConcurrentHashMap<Class<Event<EventSource>>, List<AutowiredEventTarget>>();
@@ -75,29 +79,52 @@ public class AutowiredEventListener implements EventListener<Event<EventSource>>
     if (target == null) {
       return;
     }
-    final Method[] methods = target.getClass().getMethods();
-    for (final Method m : methods) {
-      if (!Modifier.isPublic(m.getModifiers())) {
-        continue; // method must be public
+    for (final Map.Entry<Class<?>, List<AutowiredEventTarget>> entry : compile(target.getClass()).entrySet()) {
+      final List<AutowiredEventTarget> targets = new ArrayList<AutowiredEventTarget>(entry.getValue().size());
+      for (final AutowiredEventTarget compiled : entry.getValue()) {
+        targets.add(compiled.bind(target));
       }
-      if (m.getAnnotation(State.class) == null) {
-        continue; // method must have state annotation.);
+      _listeners.put((Class<Event<EventSource>>) entry.getKey(), targets);
+    }
+  }
+
+  /**
+   * Scans the observer class for event methods once. Every observer of the
+   * same class, e.g. the application being added to each new call, reuses the
+   * result instead of repeating the reflection and annotation parsing.
+   */
+  private static Map<Class<?>, List<AutowiredEventTarget>> compile(final Class<?> clazz) {
+    Map<Class<?>, List<AutowiredEventTarget>> compiled = _compiled.get(clazz);
+    if (compiled == null) {
+      compiled = new HashMap<Class<?>, List<AutowiredEventTarget>>();
+      final Method[] methods = clazz.getMethods();
+      for (final Method m : methods) {
+        if (!Modifier.isPublic(m.getModifiers())) {
+          continue; // method must be public
+        }
+        if (m.getAnnotation(State.class) == null) {
+          continue; // method must have state annotation.);
+        }
+        final Class<?>[] types = m.getParameterTypes();
+        if (types.length != 1 || !Event.class.isAssignableFrom(types[0])) {
+          continue; // method must have one parameter taking a subtype of Event
+        }
+        addTarget(compiled, types[0], new AutowiredEventTarget(m, null));
       }
-      final Class<?>[] types = m.getParameterTypes();
-      if (types.length != 1 || !Event.class.isAssignableFrom(types[0])) {
-        continue; // method must have one parameter taking a subtype of Event
+      final Map<Class<?>, List<AutowiredEventTarget>> existing = _compiled.putIfAbsent(clazz, compiled);
+      if (existing != null) {
+        compiled = existing;
       }
-      final Class<Event<EventSource>> eventType = (Class<Event<EventSource>>) types[0];
-      final AutowiredEventTarget autowiredEventTarget = new AutowiredEventTarget(m, target);
-      addTarget(eventType, autowiredEventTarget);
     }
+    return compiled;
   }
 
-  private void addTarget(final Class<Event<EventSource>> eventType, final AutowiredEventTarget target) {
-    List<AutowiredEventTarget> targets = _listeners.get(eventType);
+  private static void addTarget(final Map<Class<?>, List<AutowiredEventTarget>> compiled, final Class<?> eventType,
+      final AutowiredEventTarget target) {
+    List<AutowiredEventTarget> targets = compiled.get(eventType);
     if (targets == null) {
       targets = new ArrayList<AutowiredEventTarget>();
-      _listeners.put(eventType, targets);
+      compiled.put(eventType, targets);
     }
     for (final AutowiredEventTarget et : targets) {
       if (et.equals(target)) {
@@ -107,12 +134,10 @@ public class AutowiredEventListener implements EventListener<Event<EventSource>>
     targets.add(target);
   }
 
-  @SuppressWarnings("unchecked")
   public void onEvent(final Event<EventSource> event) throws Exception {
-    Class<? extends Event<EventSource>> clz = (Class<? extends Event<EventSource>>) event.getClass();
-    clz = (Class<? extends Event<EventSource>>) Utils.getEventType(clz);
-    do {
-      final List<AutowiredEventTarget> targets = _listeners.get(clz);
+    final Class<?>[] types = Utils.getEventTypes(event.getClass());
+    for (int i = 0; i < types.length; i++) {
+      final List<AutowiredEventTarget> targets = _listeners.get(types[i]);
       if (targets != null) {
         for (final AutowiredEventTarget target : targets) {
           if (target.invoke(event)) {
@@ -120,9 +145,7 @@ public class AutowiredEventListener implements EventListener<Event<EventSource>>
           }
         }
       }
-      clz = (Class<? extends Event<EventSource>>) Utils.getEventType(clz);
     }
-    while (clz != null && !clz.equals(Object.class));
   }
 
   public Object getTarget() {
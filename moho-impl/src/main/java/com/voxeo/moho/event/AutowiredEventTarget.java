@@ -16,7 +16,9 @@ package com.voxeo.moho.event;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
@@ -34,6 +36,10 @@ public class AutowiredEventTarget {
 
   protected final Map<String, String> _definedStates = new HashMap<String, String>();
 
+  protected String[] _fsms;
+
+  protected String[] _states;
+
   protected Method _method;
 
   protected Object _observer;
@@ -68,6 +74,16 @@ public class AutowiredEventTarget {
     }
     _method = method;
     _observer = observer;
+    compileStates();
+    if (!_method.isAccessible()) {
+      try {
+        // done once here instead of toggling around every invocation.
+        _method.setAccessible(true);
+      }
+      catch (final SecurityException e) {
+        log.debug("Unable to suppress access checks for " + _method, e);
+      }
+    }
   }
 
   AutowiredEventTarget(final String[][] states, final EventListener<Event<? extends EventSource>> listener) {
@@ -75,6 +91,42 @@ public class AutowiredEventTarget {
       _definedStates.put(s[0], s[1]);
     }
     _listener = listener;
+    compileStates();
+  }
+
+  private AutowiredEventTarget(final AutowiredEventTarget compiled, final Object observer) {
+    _definedStates.putAll(compiled._definedStates);
+    _fsms = compiled._fsms;
+    _states = compiled._states;
+    _method = compiled._method;
+    _listener = compiled._listener;
+    _observer = observer;
+  }
+
+  /**
+   * @return a target invoking the same method, with the same precompiled
+   *         state predicate, on the given observer.
+   */
+  AutowiredEventTarget bind(final Object observer) {
+    return new AutowiredEventTarget(this, observer);
+  }
+
+  /**
+   * Flattens the defined states into parallel arrays, dropping the ones that
+   * match any state, so that {@link #invoke(Event)} only compares what it has
+   * to.
+   */
+  private void compileStates() {
+    final List<String> fsms = new ArrayList<String>(_definedStates.size());
+    final List<String> states = new ArrayList<String>(_definedStates.size());
+    for (final Map.Entry<String, String> entry : _definedStates.entrySet()) {
+      if (entry.getValue() != ANY_STATE) {
+        fsms.add(entry.getKey());
+        states.add(entry.getValue());
+      }
+    }
+    _fsms = fsms.toArray(new String[fsms.size()]);
+    _states = states.toArray(new String[states.size()]);
   }
 
   @Override
@@ -94,19 +146,17 @@ public class AutowiredEventTarget {
   }
 
   boolean invoke(final Event<? extends EventSource> event) throws Exception {
-    for (final Map.Entry<String, String> entry : _definedStates.entrySet()) {
-      final String defined = entry.getValue();
-      if (defined != ANY_STATE) {
-        if (!defined.equals(event.getSource().getApplicationState(entry.getKey()))) {
+    if (_fsms.length > 0) {
+      final EventSource source = event.getSource();
+      for (int i = 0; i < _fsms.length; i++) {
+        if (!_states[i].equals(source.getApplicationState(_fsms[i]))) {
           return false;
         }
       }
     }
     if (_observer != null && _method != null) {
-      final boolean accessible = _method.isAccessible();
       try {
-        _method.setAccessible(true);
-        _method.invoke(_observer, new Object[] {event});
+        _method.invoke(_observer, event);
       }
       catch (final Exception e) {
         log.error("Got Exception when invoking Application.", e);
@@ -115,9 +165,6 @@ public class AutowiredEventTarget {
           throw (Exception) ((InvocationTargetException) e).getTargetException();
         }
       }
-      finally {
-        _method.setAccessible(accessible);
-      }
     }
     if (_listener != null) {
       try {
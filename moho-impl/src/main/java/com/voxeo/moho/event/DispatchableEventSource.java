@@ -15,7 +15,6 @@
 package com.voxeo.moho.event;
 
 import java.util.Map;
-import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
@@ -23,6 +22,8 @@ import java.util.concurrent.Future;
 import com.voxeo.moho.ApplicationContext;
 import com.voxeo.moho.AttributeStoreImpl;
 import com.voxeo.moho.spi.ExecutionContext;
+import com.voxeo.moho.util.DispatchExecutor.TaskClass;
+import com.voxeo.moho.util.NodeIdGenerator;
 import com.voxeo.moho.util.Utils;
 import com.voxeo.moho.utils.EventListener;
 
@@ -32,7 +33,7 @@ import com.voxeo.moho.utils.EventListener;
  * event method in an Observer. The event method in an Observer is a public
  * method with a single parameter whose type is one of the event.
  */
-public class DispatchableEventSource extends AttributeStoreImpl implements EventSource {
+public class DispatchableEventSource extends AttributeStoreImpl implements EventSource, MailboxOwner {
 
   protected String _id;
 
@@ -45,7 +46,7 @@ public class DispatchableEventSource extends AttributeStoreImpl implements Event
   protected ConcurrentHashMap<Observer, AutowiredEventListener> _observers = new ConcurrentHashMap<Observer, AutowiredEventListener>();
 
   protected DispatchableEventSource() {
-    _id = UUID.randomUUID().toString(); // TODO: better one?    
+    _id = NodeIdGenerator.getDefault().generate();
   }
   
   public DispatchableEventSource(final ExecutionContext applicationContext) {
@@ -53,9 +54,11 @@ public class DispatchableEventSource extends AttributeStoreImpl implements Event
   }
 
   public DispatchableEventSource(final ExecutionContext applicationContext, boolean orderedDispatch) {
-    this();
     _context = applicationContext;
+    _id = applicationContext != null ? applicationContext.getIdGenerator().generate() : NodeIdGenerator
+        .getDefault().generate();
     _dispatcher.setExecutor(getThreadPool(), orderedDispatch);
+    _dispatcher.setTaskClass(TaskClass.IN_DIALOG);
   }
 
   // Event Handling
@@ -180,4 +183,9 @@ public class DispatchableEventSource extends AttributeStoreImpl implements Event
   protected Executor getThreadPool() {
     return _context.getExecutor();
   }
+
+  @Override
+  public Executor getMailbox() {
+    return _dispatcher.getMailbox();
+  }
 }
@@ -14,9 +14,7 @@
 
 package com.voxeo.moho.event;
 
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
@@ -27,6 +25,8 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
 
+import com.voxeo.moho.util.DispatchExecutor;
+import com.voxeo.moho.util.DispatchExecutor.TaskClass;
 import com.voxeo.moho.util.Utils;
 import com.voxeo.moho.utils.EnumEvent;
 import com.voxeo.moho.utils.EventListener;
@@ -47,15 +47,14 @@ public class EventDispatcher {
 
   private Lock lifecycleLock = new ReentrantLock();
 
-  private Queue<FutureTask<?>> _queue = new LinkedList<FutureTask<?>>();
-
-  private boolean processorRunning = false;
+  private final EventMailbox _mailbox = new EventMailbox();
 
   public EventDispatcher() {
   }
 
   public EventDispatcher(final Executor executor) {
     this.executor = executor;
+    _mailbox.setExecutor(executor);
   }
 
   public void addListener(final Class<?> eventClazz, final EventListener<?> listener) {
@@ -187,33 +186,32 @@ public class EventDispatcher {
   public <S extends EventSource, T extends Event<S>> Future<T> fire(final T event, final boolean narrowType,
       final Runnable afterExec) {
 
-    final FutureTask<T> task = new FutureTask<T>(new Runnable() {
+    final FutureTask<T> task = new ClassifiedFutureTask<T>(new Runnable() {
       @SuppressWarnings({ "unchecked"})
       public void run() {
         if (LOG.isTraceEnabled()) {
           LOG.trace("Firing event :" + event);
         }
-        // clazz is a subtype of the Event interface or Event itself.
-        Class<?> clazz = Utils.getEventType(event.getClass());
-        if (clazz != null) {
-          out: do {
-            final List<Object> list = clazzListeners.get(clazz);
-            if (list != null) {
-              for (final Object listener : list) {
-                try {
-                  ((EventListener<T>) listener).onEvent(event);
-                }
-                catch (Exception ex) {
-                  LOG.warn(ex + " is uncaught when handling " + event);
-                  LOG.debug(ex + " is uncaught when handling " + event, ex);
-                  HandleUncaughtException(ex, event);
-                  break out;
-                }
+        // each type is a subtype of the Event interface or Event itself.
+        final Class<?>[] types = Utils.getEventTypes(event.getClass());
+        out: for (int i = 0; i < types.length; i++) {
+          final List<Object> list = clazzListeners.get(types[i]);
+          if (list != null) {
+            for (final Object listener : list) {
+              try {
+                ((EventListener<T>) listener).onEvent(event);
+              }
+              catch (Exception ex) {
+                LOG.warn(ex + " is uncaught when handling " + event);
+                LOG.debug(ex + " is uncaught when handling " + event, ex);
+                HandleUncaughtException(ex, event);
+                break out;
               }
             }
-            clazz = Utils.getEventType(clazz);
           }
-          while (narrowType && clazz != null);
+          if (!narrowType) {
+            break;
+          }
         }
 
         out: if (event instanceof EnumEvent) {
@@ -239,22 +237,10 @@ public class EventDispatcher {
         }
 
       }
-    }, event);
+    }, event, _mailbox.getTaskClass());
 
     if (needOrder) {
-      synchronized (_queue) {
-        boolean excuteProcessor = false;
-        _queue.offer(task);
-
-        if (!processorRunning) {
-          processorRunning = true;
-          excuteProcessor = true;
-        }
-
-        if (excuteProcessor) {
-          executor.execute(new TaskProcessor());
-        }
-      }
+      _mailbox.execute(task);
     }
     else {
       executor.execute(task);
@@ -263,36 +249,54 @@ public class EventDispatcher {
     return task;
   }
 
-  private class TaskProcessor implements Runnable {
-    public void run() {
-      while (true) {
-        FutureTask<?> task = null;
-        synchronized (_queue) {
-          task = _queue.poll();
-          if (task == null) {
-            processorRunning = false;
-            break;
-          }
-        }
-
-        try {
-          task.run();
-          task.get();
-        }
-        catch (Throwable t) {
-          LOG.info("Throwable when processing task.", t);
-        }
-      }
-    }
-  }
-
   public void setExecutor(final Executor executor, boolean order) {
     this.executor = executor;
     this.needOrder = order;
+    _mailbox.setExecutor(executor);
+  }
+
+  /**
+   * @param size
+   *          the maximum number of ordered events processed in one go before
+   *          the dispatching thread is handed back to the executor.
+   */
+  public void setDrainBatchSize(final int size) {
+    _mailbox.setDrainBatchSize(size);
+  }
+
+  /**
+   * @param taskClass
+   *          how an overloaded {@link DispatchExecutor} should treat events
+   *          fired through this dispatcher.
+   */
+  public void setTaskClass(final TaskClass taskClass) {
+    _mailbox.setTaskClass(taskClass);
+  }
+
+  /**
+   * @return the ordered mailbox of this dispatcher. Tasks executed on it run
+   *         in order with the events fired through this dispatcher.
+   */
+  public Executor getMailbox() {
+    return _mailbox;
   }
   
   protected <S extends EventSource> Future<Event<S>> HandleUncaughtException(Exception ex, Event<S> evt) {
     Event<S> newEvt = new UncaughtExceptionEventImpl<S>(evt.getSource(), ex, evt);
     return fire(newEvt,true);
   }
+
+  private static class ClassifiedFutureTask<T> extends FutureTask<T> implements DispatchExecutor.Classified {
+    private final TaskClass _taskClass;
+
+    ClassifiedFutureTask(final Runnable runnable, final T result, final TaskClass taskClass) {
+      super(runnable, result);
+      _taskClass = taskClass;
+    }
+
+    @Override
+    public TaskClass getTaskClass() {
+      return _taskClass;
+    }
+  }
 }
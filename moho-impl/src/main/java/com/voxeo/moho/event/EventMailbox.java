@@ -0,0 +1,182 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.event;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+import com.voxeo.moho.util.DispatchExecutor;
+import com.voxeo.moho.util.DispatchExecutor.TaskClass;
+
+/**
+ * A lock-free, multi-producer single-consumer mailbox that runs submitted tasks
+ * one at a time, in submission order, on an underlying {@link Executor}.
+ * <p>
+ * Producers only append to a {@link ConcurrentLinkedQueue} and race on a single
+ * compare-and-set to schedule the drainer, so no monitor is taken on the event
+ * path. The drainer runs at most {@link #getDrainBatchSize()} tasks per
+ * scheduling and then re-submits itself, so a busy event source gives its pool
+ * thread back instead of holding it for as long as events keep arriving.
+ */
+public class EventMailbox implements Executor {
+
+  private static final Logger LOG = Logger.getLogger(EventMailbox.class);
+
+  public static final int DEFAULT_DRAIN_BATCH_SIZE = 32;
+
+  private static volatile int _defaultDrainBatchSize = DEFAULT_DRAIN_BATCH_SIZE;
+
+  private final Queue<Runnable> _queue = new ConcurrentLinkedQueue<Runnable>();
+
+  private final AtomicBoolean _scheduled = new AtomicBoolean(false);
+
+  private final Runnable _drainer = new Drainer();
+
+  private volatile Executor _executor;
+
+  private volatile int _drainBatchSize = _defaultDrainBatchSize;
+
+  private volatile TaskClass _taskClass = TaskClass.DEFAULT;
+
+  public EventMailbox() {
+  }
+
+  public EventMailbox(final Executor executor) {
+    _executor = executor;
+  }
+
+  /**
+   * @param size
+   *          the number of tasks new mailboxes run before yielding their
+   *          thread. Values less than 1 are ignored.
+   */
+  public static void setDefaultDrainBatchSize(final int size) {
+    if (size > 0) {
+      _defaultDrainBatchSize = size;
+    }
+  }
+
+  public static int getDefaultDrainBatchSize() {
+    return _defaultDrainBatchSize;
+  }
+
+  public void setExecutor(final Executor executor) {
+    _executor = executor;
+  }
+
+  public Executor getExecutor() {
+    return _executor;
+  }
+
+  public void setDrainBatchSize(final int size) {
+    if (size > 0) {
+      _drainBatchSize = size;
+    }
+  }
+
+  public int getDrainBatchSize() {
+    return _drainBatchSize;
+  }
+
+  /**
+   * @param taskClass
+   *          how the underlying {@link DispatchExecutor} should treat this
+   *          mailbox when it is overloaded.
+   */
+  public void setTaskClass(final TaskClass taskClass) {
+    _taskClass = taskClass;
+  }
+
+  public TaskClass getTaskClass() {
+    return _taskClass;
+  }
+
+  @Override
+  public void execute(final Runnable task) {
+    if (task == null) {
+      throw new NullPointerException();
+    }
+    _queue.offer(task);
+    try {
+      schedule();
+    }
+    catch (final RuntimeException ex) {
+      // the task is not going to run, don't leave it behind for the next one.
+      _queue.remove(task);
+      throw ex;
+    }
+  }
+
+  public boolean isEmpty() {
+    return _queue.isEmpty();
+  }
+
+  private void schedule() {
+    if (_scheduled.compareAndSet(false, true)) {
+      try {
+        _executor.execute(_drainer);
+      }
+      catch (final RuntimeException ex) {
+        _scheduled.set(false);
+        throw ex;
+      }
+    }
+  }
+
+  private class Drainer implements Runnable, DispatchExecutor.Classified {
+    public TaskClass getTaskClass() {
+      return _taskClass;
+    }
+
+    public void run() {
+      try {
+        final int batch = _drainBatchSize;
+        for (int i = 0; i < batch; i++) {
+          final Runnable task = _queue.poll();
+          if (task == null) {
+            break;
+          }
+          try {
+            task.run();
+            if (task instanceof Future) {
+              ((Future<?>) task).get();
+            }
+          }
+          catch (final Throwable t) {
+            LOG.info("Throwable when processing task.", t);
+          }
+        }
+      }
+      finally {
+        _scheduled.set(false);
+        // a producer may have enqueued after our last poll but lost the race
+        // to schedule, or the batch ran out; either way pick the work back up.
+        if (!_queue.isEmpty()) {
+          try {
+            schedule();
+          }
+          catch (final RuntimeException ex) {
+            LOG.warn("Unable to reschedule event mailbox: " + ex);
+          }
+        }
+      }
+    }
+  }
+}
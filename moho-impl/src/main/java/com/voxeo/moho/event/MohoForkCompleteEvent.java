@@ -0,0 +1,61 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.event;
+
+import java.util.Map;
+
+import com.voxeo.moho.Call;
+import com.voxeo.moho.CallableEndpoint;
+
+public class MohoForkCompleteEvent extends MohoEvent<Call> implements ForkCompleteEvent {
+
+  protected Cause _cause;
+
+  protected Call _winner;
+
+  protected Map<CallableEndpoint, JoinCompleteEvent.Cause> _results;
+
+  protected Exception _exception;
+
+  public MohoForkCompleteEvent(final Call source, final Cause cause, final Call winner,
+      final Map<CallableEndpoint, JoinCompleteEvent.Cause> results, final Exception e) {
+    super(source);
+    _cause = cause;
+    _winner = winner;
+    _results = results;
+    _exception = e;
+  }
+
+  @Override
+  public Cause getCause() {
+    return _cause;
+  }
+
+  @Override
+  public Call getWinner() {
+    return _winner;
+  }
+
+  @Override
+  public Map<CallableEndpoint, JoinCompleteEvent.Cause> getResults() {
+    return _results;
+  }
+
+  @Override
+  public Exception getException() {
+    return _exception;
+  }
+
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.event;
+
+import com.voxeo.moho.Call;
+
+public class MohoHoldCompleteEvent extends MohoCallEvent implements HoldCompleteEvent {
+
+  protected Type _type;
+
+  protected Cause _cause;
+
+  protected Exception _exception;
+
+  public MohoHoldCompleteEvent(final Call source, final Type type, final Cause cause) {
+    this(source, type, cause, null);
+  }
+
+  public MohoHoldCompleteEvent(final Call source, final Type type, final Cause cause, final Exception e) {
+    super(source);
+    _type = type;
+    _cause = cause;
+    _exception = e;
+  }
+
+  @Override
+  public Type getType() {
+    return _type;
+  }
+
+  @Override
+  public Cause getCause() {
+    return _cause;
+  }
+
+  @Override
+  public Exception getException() {
+    return _exception;
+  }
+
+  @Override
+  public boolean isProcessed() {
+    return true;
+  }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.media;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.voxeo.moho.event.InputCompleteEvent;
+import com.voxeo.moho.media.input.Grammar;
+import com.voxeo.moho.media.input.InputCommand;
+import com.voxeo.moho.media.input.SimpleGrammar;
+
+/**
+ * The digits an {@link InputCommand} accepts, compiled once so that digits the
+ * call receives in SIP INFO requests, rather than in the media stream, can be
+ * matched without a round trip to the media server.
+ * <p>
+ * Only digit grammars and simple grammars can be matched here; an input with
+ * any other grammar, or one that only takes speech, has no DTMF grammar.
+ */
+final class DtmfGrammar {
+
+  // the digit strings the grammars accept, null if any digits are accepted.
+  final String[] _alternatives;
+
+  final int _numberOfDigits;
+
+  // 0 if the input has no terminator.
+  final char _terminator;
+
+  // milliseconds, 0 if there is no inter-digit timeout.
+  final long _interDigitTimeout;
+
+  private DtmfGrammar(final String[] alternatives, final int numberOfDigits, final char terminator,
+      final long interDigitTimeout) {
+    _alternatives = alternatives;
+    _numberOfDigits = numberOfDigits;
+    _terminator = terminator;
+    _interDigitTimeout = interDigitTimeout;
+  }
+
+  /**
+   * @return the DTMF grammar of the command, null if its digits can't be
+   *         matched without the media server.
+   */
+  static DtmfGrammar compile(final InputCommand cmd) {
+    if (cmd.getInputMode() == InputMode.SPEECH) {
+      return null;
+    }
+    List<String> alternatives = null;
+    for (final Grammar grammar : cmd.getGrammars()) {
+      if (grammar == null) {
+        continue;
+      }
+      final String text = textOf(grammar);
+      if (text == null) {
+        return null;
+      }
+      if (alternatives == null) {
+        alternatives = new ArrayList<String>();
+      }
+      for (final String alternative : text.split(",")) {
+        final String digits = alternative.trim();
+        // simple grammars may have words for speech in them too.
+        if (digits.length() > 0 && isDigits(digits)) {
+          alternatives.add(digits);
+        }
+      }
+    }
+    final int numberOfDigits = cmd.getNumberOfDigits();
+    if (alternatives == null && numberOfDigits <= 0) {
+      return null;
+    }
+    final Character terminator = cmd.getTerminator();
+    final long timeout = cmd.getInterDigitsTimeout();
+    return new DtmfGrammar(alternatives == null ? null : alternatives.toArray(new String[alternatives.size()]),
+        numberOfDigits, terminator == null ? 0 : terminator.charValue(), timeout > 0 ? timeout : 0);
+  }
+
+  private static String textOf(final Grammar grammar) {
+    if (grammar instanceof SimpleGrammar) {
+      return grammar.getText();
+    }
+    final URI uri = grammar.getUri();
+    if (uri != null && "digits".equals(uri.getScheme())) {
+      try {
+        return URLDecoder.decode(uri.getRawSchemeSpecificPart(), "UTF-8");
+      }
+      catch (final UnsupportedEncodingException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    return null;
+  }
+
+  private static boolean isDigits(final String s) {
+    for (int i = 0; i < s.length(); i++) {
+      final char c = s.charAt(i);
+      if (!(c >= '0' && c <= '9' || c >= 'A' && c <= 'D' || c == '*' || c == '#')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param digits
+   *          the digits collected so far, without the terminator.
+   * @param last
+   *          whether no more digits are coming, i.e. the terminator was
+   *          pressed or the inter-digit timeout expired.
+   * @return how the input completes with these digits, null if more digits
+   *         are needed.
+   */
+  InputCompleteEvent.Cause match(final CharSequence digits, final boolean last) {
+    final int length = digits.length();
+    if (_numberOfDigits > 0 && length >= _numberOfDigits || last) {
+      if (length == 0) {
+        return InputCompleteEvent.Cause.NO_MATCH;
+      }
+      return _alternatives == null || accepts(digits) ? InputCompleteEvent.Cause.MATCH
+          : InputCompleteEvent.Cause.NO_MATCH;
+    }
+    if (_alternatives == null) {
+      return null;
+    }
+    boolean exact = false;
+    boolean longer = false;
+    for (final String alternative : _alternatives) {
+      if (startsWith(alternative, digits)) {
+        if (alternative.length() == length) {
+          exact = true;
+        }
+        else {
+          longer = true;
+        }
+      }
+    }
+    if (longer || _numberOfDigits > 0 && exact) {
+      // a longer alternative may still match, or the digits aren't all in.
+      return null;
+    }
+    return exact ? InputCompleteEvent.Cause.MATCH : InputCompleteEvent.Cause.NO_MATCH;
+  }
+
+  private boolean accepts(final CharSequence digits) {
+    for (final String alternative : _alternatives) {
+      if (alternative.length() == digits.length() && startsWith(alternative, digits)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean startsWith(final String s, final CharSequence prefix) {
+    if (s.length() < prefix.length()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (s.charAt(i) != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -19,11 +19,17 @@ import java.net.URI;
 import java.net.URL;
 import java.net.URLDecoder;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import javax.media.mscontrol.EventType;
 import javax.media.mscontrol.MediaErr;
@@ -78,12 +84,18 @@ import com.voxeo.moho.media.output.OutputCommand.BargeinType;
 import com.voxeo.moho.media.output.TextToSpeechResource;
 import com.voxeo.moho.media.record.RecordCommand;
 import com.voxeo.moho.spi.ExecutionContext;
+import com.voxeo.moho.util.CompletionListeners;
 import com.voxeo.moho.util.NLSMLParser;
+import com.voxeo.moho.util.Utils.DaemonThreadFactory;
 
 public class GenericMediaService<T extends EventSource> implements MediaService<T> {
 
   private static final Logger LOG = Logger.getLogger(GenericMediaService.class);
 
+  // shared by all media services, it only runs the DTMF inter-digit timeouts
+  // and the waits for the detector to confirm a stop.
+  private static ScheduledExecutorService _dtmfTimer;
+
   protected T _parent;
 
   protected MediaSession _session;
@@ -104,6 +116,18 @@ public class GenericMediaService<T extends EventSource> implements MediaService<
 
   protected MediaDialect _dialect;
 
+  // the grammar patterns last set on the media group.
+  protected volatile Map<Parameter, Object> _patterns;
+
+  protected PromptCache _cache;
+
+  // the input collecting the digits received in signaling, null if none.
+  protected volatile DtmfCollector _dtmf;
+
+  // how long an input matched in signaling waits for the media server to
+  // confirm the stop of the detector before it completes anyway, in ms.
+  protected long _stopTimeout = 5000;
+
   protected List<MediaOperation<?, ? extends MediaCompleteEvent<?>>> futures = new LinkedList<MediaOperation<?, ? extends MediaCompleteEvent<?>>>();
 
   protected GenericMediaService(final T parent, final MediaGroup group, final MediaDialect dialect) {
@@ -113,6 +137,14 @@ public class GenericMediaService<T extends EventSource> implements MediaService<
     _context = (ExecutionContext) ((EventSource) _parent).getApplicationContext();
   }
 
+  /**
+   * @return where completion listeners of media operations run, i.e. the
+   *         ordered event queue of the parent.
+   */
+  protected Executor getCompletionExecutor() {
+    return CompletionListeners.mailboxOf(_parent);
+  }
+
   protected synchronized Player getPlayer() {
     if (_player == null) {
       try {
@@ -247,92 +279,23 @@ public class GenericMediaService<T extends EventSource> implements MediaService<
   @SuppressWarnings("deprecation")
   @Override
   public Prompt<T> prompt(final OutputCommand output, final InputCommand input, final int repeat) throws MediaException {
-    final PromptImpl<T> retval = new PromptImpl<T>(_context);
+    final PromptImpl<T> retval = new PromptImpl<T>(_context, getCompletionExecutor());
     if (output != null && output.getAudibleResources() != null && output.getAudibleResources().length > 0) {
       final Parameters params = _group.createParameters();
       final List<RTC> rtcs = new ArrayList<RTC>();
-
-      if (output.getParameters() != null) {
-        params.putAll(output.getParameters());
-      }
-
-      if (output.size() > 0) {
-        params.putAll(output);
-      }
-
-      if (output.getRtcs() != null) {
-        for (final RTC rtc : output.getRtcs()) {
-          rtcs.add(rtc);
-        }
-      }
-
-      if (output.getAllRTC() != null && output.getAllRTC().size() > 0) {
-        rtcs.addAll(output.getAllRTC());
-      }
-
-      switch (output.getBehavior()) {
-        case QUEUE:
-          params.put(Player.BEHAVIOUR_IF_BUSY, Player.QUEUE_IF_BUSY);
-          break;
-        case STOP:
-          params.put(Player.BEHAVIOUR_IF_BUSY, Player.STOP_IF_BUSY);
-          break;
-        case ERROR:
-          params.put(Player.BEHAVIOUR_IF_BUSY, Player.FAIL_IF_BUSY);
-          break;
-      }
-      switch (output.getBargeinType()) {
-        case ANY:
-          rtcs.add(new RTC(SignalDetector.DETECTION_OF_ONE_SIGNAL, Player.STOP_ALL));
-          rtcs.add(new RTC(SpeechDetectorConstants.START_OF_SPEECH, Player.STOP_ALL));
-          params.put(SpeechDetectorConstants.BARGE_IN_ENABLED, Boolean.TRUE);
-          break;
-        case DTMF:
-          rtcs.add(new RTC(SignalDetector.DETECTION_OF_ONE_SIGNAL, Player.STOP_ALL));
-          params.put(SpeechDetectorConstants.BARGE_IN_ENABLED, Boolean.TRUE);
-          break;
-        case SPEECH:
-          rtcs.add(new RTC(SpeechDetectorConstants.START_OF_SPEECH, Player.STOP_ALL));
-          params.put(SpeechDetectorConstants.BARGE_IN_ENABLED, Boolean.TRUE);
-          break;
-        case NONE:
-          params.put(SpeechDetectorConstants.BARGE_IN_ENABLED, Boolean.FALSE);
-          break;
-      }
-      params.put(Player.MAX_DURATION, output.getMaxtime());
-      params.put(Player.START_OFFSET, output.getStartingOffset());
-      params.put(Player.VOLUME_CHANGE, output.getVolumeUnit());
-      params.put(Player.AUDIO_CODEC, output.getCodec());
-      params.put(Player.FILE_FORMAT, output.getFormat());
-      params.put(Player.JUMP_PLAYLIST_INCREMENT, output.getJumpPlaylistIncrement());
-      params.put(Player.JUMP_TIME, output.getMoveTime());
-      params.put(Player.START_IN_PAUSED_MODE, output.isStartInPausedMode());
-
-      params.put(Player.ENABLED_EVENTS, new EventType[] {PlayerEvent.SPEED_CHANGED, PlayerEvent.VOLUME_CHANGED,
-          PlayerEvent.RESUMED, PlayerEvent.PAUSED});
-
-      _dialect.setTextToSpeechVoice(params, output.getVoiceName());
-
-      if (output.getRepeatTimes() > 0) {
-        params.put(Player.REPEAT_COUNT, output.getRepeatTimes() + 1);
-        params.put(Player.INTERVAL, output.getRepeatInterval());
-      }
+      translate(output, params, rtcs);
 
       if (repeat > 0) {
         params.put(Player.REPEAT_COUNT, repeat + 1);
         params.put(Player.INTERVAL, output.getRepeatInterval());
       }
 
-      final List<URI> uris = new ArrayList<URI>();
-      final MediaResource[] reses = output.getAudibleResources();
-      for (final MediaResource r : reses) {
-        uris.add(r.toURI());
-      }
+      final URI[] uris = resolve(toURIs(output));
 
       try {
         if (input != null) {
-          if (uris.size() > 0) {
-            params.put(SignalDetector.PROMPT, uris.toArray(new URI[] {}));
+          if (uris.length > 0) {
+            params.put(SignalDetector.PROMPT, uris);
           }
           if (input.getParameters() != null) {
             input.getParameters().putAll(params);
@@ -347,16 +310,16 @@ public class GenericMediaService<T extends EventSource> implements MediaService<
               rtcs.add(rtc);
             }
           }
-          input.setRtcs(rtcs.toArray(new RTC[] {}));
+          input.setRtcs(rtcs.toArray(new RTC[rtcs.size()]));
 
           retval.inputGetReady(new SignalDetectorWorker(input));
           retval.inputGetSet();
           futures.add(retval.getInput());
         }
         else {
-          final OutputImpl<T> out = new OutputImpl<T>(_group);
+          final OutputImpl<T> out = new OutputImpl<T>(_group, getCompletionExecutor());
           getPlayer().addListener(new PlayerListener(out, null));
-          getPlayer().play(uris.toArray(new URI[] {}), rtcs.toArray(new RTC[] {}), params);
+          getPlayer().play(uris, rtcs.toArray(new RTC[rtcs.size()]), params);
           retval.setOutput(out);
           futures.add(out);
         }
@@ -373,9 +336,231 @@ public class GenericMediaService<T extends EventSource> implements MediaService<
     return retval;
   }
 
+  /**
+   * Translates an output command once, so that it can be played many times
+   * without translating it again.
+   */
+  public PreparedOutput prepare(final OutputCommand output) {
+    final Parameters params = new ParameterMap();
+    final List<RTC> rtcs = new ArrayList<RTC>();
+    translate(output, params, rtcs);
+    return new PreparedOutput(params, rtcs, toURIs(output), output.getRepeatInterval());
+  }
+
+  /**
+   * Translates an input command once, including its grammars, so that it can
+   * be used many times without translating it again.
+   */
+  @SuppressWarnings("deprecation")
+  public PreparedInput prepare(final InputCommand input) {
+    final Parameters params = new ParameterMap();
+    final List<RTC> rtcs = new ArrayList<RTC>();
+    if (input.getRtcs() != null) {
+      for (final RTC rtc : input.getRtcs()) {
+        rtcs.add(rtc);
+      }
+    }
+    final List<Object> patterns = translate(input, params, rtcs);
+    Parameter[] patternKeys = null;
+    Map<Parameter, Object> patternParams = null;
+    if (patterns != null) {
+      patternKeys = new Parameter[patterns.size()];
+      patternParams = new HashMap<Parameter, Object>();
+      for (int i = 0; i < patterns.size(); i++) {
+        patternKeys[i] = SignalDetector.PATTERN[i];
+        patternParams.put(SignalDetector.PATTERN[i], patterns.get(i));
+      }
+    }
+    return new PreparedInput(input, params, rtcs, patternKeys, patternParams);
+  }
+
+  /**
+   * Translates a record command once, so that it can be used many times
+   * without translating it again.
+   */
+  public PreparedRecording prepare(final RecordCommand command) {
+    final Parameters params = new ParameterMap();
+    final List<RTC> rtcs = new ArrayList<RTC>();
+    translate(command, params, rtcs);
+    return new PreparedRecording(command.getRecordURI(), params, rtcs);
+  }
+
+  public Input<T> input(final PreparedInput input) throws MediaException {
+    return prompt(null, input, 0).getInput();
+  }
+
+  public Output<T> output(final PreparedOutput output) throws MediaException {
+    return prompt(output, null, 0).getOutput();
+  }
+
+  public Prompt<T> prompt(final PreparedOutput output, final PreparedInput input, final int repeat)
+      throws MediaException {
+    final PromptImpl<T> retval = new PromptImpl<T>(_context, getCompletionExecutor());
+    if (output != null && output._uris.length > 0) {
+      if (input != null) {
+        retval.inputGetReady(new PreparedSignalDetectorWorker(input, output, repeat));
+        retval.inputGetSet();
+        futures.add(retval.getInput());
+      }
+      else {
+        final Parameters params = _group.createParameters();
+        params.putAll(output._parameters);
+        if (repeat > 0) {
+          params.put(Player.REPEAT_COUNT, repeat + 1);
+          params.put(Player.INTERVAL, output._repeatInterval);
+        }
+        final OutputImpl<T> out = new OutputImpl<T>(_group, getCompletionExecutor());
+        try {
+          getPlayer().addListener(new PlayerListener(out, null));
+          getPlayer().play(resolve(output._uris), output._rtcs, params);
+        }
+        catch (final MsControlException e) {
+          throw new MediaException(e);
+        }
+        retval.setOutput(out);
+        futures.add(out);
+      }
+    }
+    else {
+      final Input<T> futureInput = detectSignal(input, null, 0);
+      retval.setInput(futureInput);
+      futures.add(futureInput);
+    }
+    return retval;
+  }
+
+  // everything but the resources and the prompt's repeat count.
+  protected void translate(final OutputCommand output, final Parameters params, final List<RTC> rtcs) {
+    if (output.getParameters() != null) {
+      params.putAll(output.getParameters());
+    }
+
+    if (output.size() > 0) {
+      params.putAll(output);
+    }
+
+    if (output.getRtcs() != null) {
+      for (final RTC rtc : output.getRtcs()) {
+        rtcs.add(rtc);
+      }
+    }
+
+    if (output.getAllRTC() != null && output.getAllRTC().size() > 0) {
+      rtcs.addAll(output.getAllRTC());
+    }
+
+    switch (output.getBehavior()) {
+      case QUEUE:
+        params.put(Player.BEHAVIOUR_IF_BUSY, Player.QUEUE_IF_BUSY);
+        break;
+      case STOP:
+        params.put(Player.BEHAVIOUR_IF_BUSY, Player.STOP_IF_BUSY);
+        break;
+      case ERROR:
+        params.put(Player.BEHAVIOUR_IF_BUSY, Player.FAIL_IF_BUSY);
+        break;
+    }
+    switch (output.getBargeinType()) {
+      case ANY:
+        rtcs.add(new RTC(SignalDetector.DETECTION_OF_ONE_SIGNAL, Player.STOP_ALL));
+        rtcs.add(new RTC(SpeechDetectorConstants.START_OF_SPEECH, Player.STOP_ALL));
+        params.put(SpeechDetectorConstants.BARGE_IN_ENABLED, Boolean.TRUE);
+        break;
+      case DTMF:
+        rtcs.add(new RTC(SignalDetector.DETECTION_OF_ONE_SIGNAL, Player.STOP_ALL));
+        params.put(SpeechDetectorConstants.BARGE_IN_ENABLED, Boolean.TRUE);
+        break;
+      case SPEECH:
+        rtcs.add(new RTC(SpeechDetectorConstants.START_OF_SPEECH, Player.STOP_ALL));
+        params.put(SpeechDetectorConstants.BARGE_IN_ENABLED, Boolean.TRUE);
+        break;
+      case NONE:
+        params.put(SpeechDetectorConstants.BARGE_IN_ENABLED, Boolean.FALSE);
+        break;
+    }
+    params.put(Player.MAX_DURATION, output.getMaxtime());
+    params.put(Player.START_OFFSET, output.getStartingOffset());
+    params.put(Player.VOLUME_CHANGE, output.getVolumeUnit());
+    params.put(Player.AUDIO_CODEC, output.getCodec());
+    params.put(Player.FILE_FORMAT, output.getFormat());
+    params.put(Player.JUMP_PLAYLIST_INCREMENT, output.getJumpPlaylistIncrement());
+    params.put(Player.JUMP_TIME, output.getMoveTime());
+    params.put(Player.START_IN_PAUSED_MODE, output.isStartInPausedMode());
+
+    params.put(Player.ENABLED_EVENTS, new EventType[] {PlayerEvent.SPEED_CHANGED, PlayerEvent.VOLUME_CHANGED,
+        PlayerEvent.RESUMED, PlayerEvent.PAUSED});
+
+    _dialect.setTextToSpeechVoice(params, output.getVoiceName());
+
+    if (output.getRepeatTimes() > 0) {
+      params.put(Player.REPEAT_COUNT, output.getRepeatTimes() + 1);
+      params.put(Player.INTERVAL, output.getRepeatInterval());
+    }
+  }
+
+  public void setPromptCache(final PromptCache cache) {
+    _cache = cache;
+  }
+
+  /**
+   * @return the URIs to have the media server fetch, the local copies of
+   *         those that are cached.
+   */
+  protected URI[] resolve(final URI[] uris) {
+    if (_cache == null || !_cache.isEnabled()) {
+      return uris;
+    }
+    URI[] result = uris;
+    for (int i = 0; i < uris.length; i++) {
+      final URI uri = _cache.resolve(uris[i]);
+      if (uri != uris[i]) {
+        if (result == uris) {
+          result = uris.clone();
+        }
+        result[i] = uri;
+      }
+    }
+    return result;
+  }
+
+  // the same for grammar URLs.
+  protected Map<Parameter, Object> resolve(final Map<Parameter, Object> patterns) {
+    if (_cache == null || !_cache.isEnabled()) {
+      return patterns;
+    }
+    Map<Parameter, Object> result = patterns;
+    for (final Map.Entry<Parameter, Object> entry : patterns.entrySet()) {
+      if (entry.getValue() instanceof URL) {
+        try {
+          final URI origin = ((URL) entry.getValue()).toURI();
+          final URI uri = _cache.resolve(origin);
+          if (uri != origin) {
+            if (result == patterns) {
+              result = new HashMap<Parameter, Object>(patterns);
+            }
+            result.put(entry.getKey(), uri.toURL());
+          }
+        }
+        catch (final Exception e) {
+          // leave it to the media server.
+        }
+      }
+    }
+    return result;
+  }
+
+  protected URI[] toURIs(final OutputCommand output) {
+    final MediaResource[] reses = output.getAudibleResources();
+    final URI[] uris = new URI[reses.length];
+    for (int i = 0; i < reses.length; i++) {
+      uris[i] = reses[i].toURI();
+    }
+    return uris;
+  }
+
   @Override
   public Recording<T> record(final URI recording) throws MediaException {
-    final RecordingImpl<T> retval = new RecordingImpl<T>(_group);
+    final RecordingImpl<T> retval = new RecordingImpl<T>(_group, getCompletionExecutor());
     try {
       getRecorder().addListener(new RecorderListener(retval));
       getRecorder().record(recording, RTC.NO_RTC, Parameters.NO_PARAMETER);
@@ -389,119 +574,138 @@ public class GenericMediaService<T extends EventSource> implements MediaService<
 
   @Override
   public Recording<T> record(final RecordCommand command) throws MediaException {
-    final RecordingImpl<T> retval = new RecordingImpl<T>(_group);
+    final RecordingImpl<T> retval = new RecordingImpl<T>(_group, getCompletionExecutor());
     try {
       final List<RTC> rtcs = new ArrayList<RTC>();
+      final Parameters params = _group.createParameters();
+      translate(command, params, rtcs);
+
+      getRecorder().addListener(new RecorderListener(retval));
+      getRecorder().record(command.getRecordURI(), rtcs.toArray(new RTC[rtcs.size()]), params);
+      futures.add(retval);
+      return retval;
+    }
+    catch (final Exception e) {
+      throw new MediaException(e);
+    }
+  }
 
+  public Recording<T> record(final PreparedRecording recording) throws MediaException {
+    final RecordingImpl<T> retval = new RecordingImpl<T>(_group, getCompletionExecutor());
+    try {
       final Parameters params = _group.createParameters();
-      if (!command.isSignalTruncationOn()) {
-        params.put(Recorder.SIGNAL_TRUNCATION_ON, Boolean.FALSE);
-      }
-      if (command.isAppend()) {
-        params.put(Recorder.APPEND, Boolean.TRUE);
-      }
-      if (command.getAudioClockRate() > 0) {
-        params.put(Recorder.AUDIO_CLOCKRATE, command.getAudioClockRate());
-      }
-      if (command.getAudioCODEC() != null) {
-        params.put(Recorder.AUDIO_CODEC, command.getAudioCODEC());
-      }
-      if (command.getAudioFMTP() != null) {
-        params.put(Recorder.AUDIO_FMTP, command.getAudioFMTP());
-      }
-      if (command.getAudioMaxBitRate() > 0) {
-        params.put(Recorder.AUDIO_MAX_BITRATE, command.getAudioMaxBitRate());
-      }
-      if (command.isStartBeep()) {
-        params.put(Recorder.START_BEEP, Boolean.TRUE);
-        if (command.getBeepFrequency() > 0) {
-          params.put(Recorder.BEEP_FREQUENCY, command.getBeepFrequency());
-        }
-        if (command.getBeepLength() > 0) {
-          params.put(Recorder.BEEP_LENGTH, command.getBeepLength());
-        }
-      }
-      else {
-        params.put(Recorder.START_BEEP, Boolean.FALSE);
-      }
-      if (command.isStartInPausedMode()) {
-        params.put(Recorder.START_IN_PAUSED_MODE, Boolean.TRUE);
-      }
-      if (command.getFileFormat() != null) {
-        params.put(Recorder.FILE_FORMAT, command.getFileFormat());
-      }
-      if (command.getMaxDuration() > 0) {
-        params.put(Recorder.MAX_DURATION, command.getMaxDuration());
-      }
-      if (command.getMinDuration() > 0) {
-        params.put(Recorder.MIN_DURATION, command.getMinDuration());
-      }
-      if (command.getPrompt() != null) {
-        final AudibleResource[] resources = command.getPrompt().getAudibleResources();
-        if (resources.length > 0) {
-          final URI[] uris = new URI[resources.length];
+      params.putAll(recording._parameters);
 
-          for (int i = 0; i < resources.length; i++) {
-            uris[i] = resources[i].toURI();
-          }
-          params.put(Recorder.PROMPT, uris);
-        }
+      getRecorder().addListener(new RecorderListener(retval));
+      getRecorder().record(recording._recordURI, recording._rtcs, params);
+      futures.add(retval);
+      return retval;
+    }
+    catch (final Exception e) {
+      throw new MediaException(e);
+    }
+  }
 
-        if (command.getPrompt().getBargeinType() != BargeinType.NONE) {
-          params.put(SpeechDetectorConstants.BARGE_IN_ENABLED, Boolean.TRUE);
-        }
+  protected void translate(final RecordCommand command, final Parameters params, final List<RTC> rtcs) {
+    if (!command.isSignalTruncationOn()) {
+      params.put(Recorder.SIGNAL_TRUNCATION_ON, Boolean.FALSE);
+    }
+    if (command.isAppend()) {
+      params.put(Recorder.APPEND, Boolean.TRUE);
+    }
+    if (command.getAudioClockRate() > 0) {
+      params.put(Recorder.AUDIO_CLOCKRATE, command.getAudioClockRate());
+    }
+    if (command.getAudioCODEC() != null) {
+      params.put(Recorder.AUDIO_CODEC, command.getAudioCODEC());
+    }
+    if (command.getAudioFMTP() != null) {
+      params.put(Recorder.AUDIO_FMTP, command.getAudioFMTP());
+    }
+    if (command.getAudioMaxBitRate() > 0) {
+      params.put(Recorder.AUDIO_MAX_BITRATE, command.getAudioMaxBitRate());
+    }
+    if (command.isStartBeep()) {
+      params.put(Recorder.START_BEEP, Boolean.TRUE);
+      if (command.getBeepFrequency() > 0) {
+        params.put(Recorder.BEEP_FREQUENCY, command.getBeepFrequency());
       }
-      if (command.isSilenceTerminationOn()) {
-        params.put(Recorder.SILENCE_TERMINATION_ON, Boolean.TRUE);
+      if (command.getBeepLength() > 0) {
+        params.put(Recorder.BEEP_LENGTH, command.getBeepLength());
       }
+    }
+    else {
+      params.put(Recorder.START_BEEP, Boolean.FALSE);
+    }
+    if (command.isStartInPausedMode()) {
+      params.put(Recorder.START_IN_PAUSED_MODE, Boolean.TRUE);
+    }
+    if (command.getFileFormat() != null) {
+      params.put(Recorder.FILE_FORMAT, command.getFileFormat());
+    }
+    if (command.getMaxDuration() > 0) {
+      params.put(Recorder.MAX_DURATION, command.getMaxDuration());
+    }
+    if (command.getMinDuration() > 0) {
+      params.put(Recorder.MIN_DURATION, command.getMinDuration());
+    }
+    if (command.getPrompt() != null) {
+      final AudibleResource[] resources = command.getPrompt().getAudibleResources();
+      if (resources.length > 0) {
+        final URI[] uris = new URI[resources.length];
 
-      if (command.getSpeechDetectionMode() != null) {
-        switch (command.getSpeechDetectionMode()) {
-          case DETECTOR_INACTIVE:
-            params.put(Recorder.SPEECH_DETECTION_MODE, Recorder.DETECTOR_INACTIVE);
-            break;
-          case DETECT_FIRST_OCCURRENCE:
-            params.put(Recorder.SPEECH_DETECTION_MODE, Recorder.DETECT_FIRST_OCCURRENCE);
-            break;
-          case DETECT_ALL_OCCURRENCES:
-            params.put(Recorder.SPEECH_DETECTION_MODE, Recorder.DETECT_ALL_OCCURRENCES);
+        for (int i = 0; i < resources.length; i++) {
+          uris[i] = resources[i].toURI();
         }
+        params.put(Recorder.PROMPT, uris);
       }
 
-      if (command.getInitialTimeout() > 0 || command.getFinalTimeout() > 0) {
-        // params.put(Recorder.SPEECH_DETECTION_MODE,
-        // Recorder.DETECT_ALL_OCCURRENCES);
-        if (command.getInitialTimeout() > 0) {
-          params.put(SpeechDetectorConstants.INITIAL_TIMEOUT, command.getInitialTimeout());
-        }
-        if (command.getFinalTimeout() > 0) {
-          params.put(Recorder.SILENCE_TERMINATION_ON, Boolean.TRUE);
-          params.put(SpeechDetectorConstants.FINAL_TIMEOUT, command.getFinalTimeout());
-        }
+      if (command.getPrompt().getBargeinType() != BargeinType.NONE) {
+        params.put(SpeechDetectorConstants.BARGE_IN_ENABLED, Boolean.TRUE);
       }
+    }
+    if (command.isSilenceTerminationOn()) {
+      params.put(Recorder.SILENCE_TERMINATION_ON, Boolean.TRUE);
+    }
 
-      if (command.getVideoCODEC() != null) {
-        params.put(Recorder.VIDEO_CODEC, command.getVideoCODEC());
-      }
-      if (command.getVideoFMTP() != null) {
-        params.put(Recorder.VIDEO_FMTP, command.getVideoFMTP());
-      }
-      if (command.getVideoMaxBitRate() > 0) {
-        params.put(Recorder.VIDEO_MAX_BITRATE, command.getVideoMaxBitRate());
+    if (command.getSpeechDetectionMode() != null) {
+      switch (command.getSpeechDetectionMode()) {
+        case DETECTOR_INACTIVE:
+          params.put(Recorder.SPEECH_DETECTION_MODE, Recorder.DETECTOR_INACTIVE);
+          break;
+        case DETECT_FIRST_OCCURRENCE:
+          params.put(Recorder.SPEECH_DETECTION_MODE, Recorder.DETECT_FIRST_OCCURRENCE);
+          break;
+        case DETECT_ALL_OCCURRENCES:
+          params.put(Recorder.SPEECH_DETECTION_MODE, Recorder.DETECT_ALL_OCCURRENCES);
       }
+    }
 
-      if (command.getFinishOnKey() != null) {
-        params.put(SignalDetector.PATTERN[0], command.getFinishOnKey());
-        rtcs.add(new RTC(SignalDetector.PATTERN_MATCH[0], Recorder.STOP));
+    if (command.getInitialTimeout() > 0 || command.getFinalTimeout() > 0) {
+      // params.put(Recorder.SPEECH_DETECTION_MODE,
+      // Recorder.DETECT_ALL_OCCURRENCES);
+      if (command.getInitialTimeout() > 0) {
+        params.put(SpeechDetectorConstants.INITIAL_TIMEOUT, command.getInitialTimeout());
       }
+      if (command.getFinalTimeout() > 0) {
+        params.put(Recorder.SILENCE_TERMINATION_ON, Boolean.TRUE);
+        params.put(SpeechDetectorConstants.FINAL_TIMEOUT, command.getFinalTimeout());
+      }
+    }
 
-      getRecorder().addListener(new RecorderListener(retval));
-      getRecorder().record(command.getRecordURI(), rtcs.toArray(new RTC[] {}), params);
-      futures.add(retval);
-      return retval;
+    if (command.getVideoCODEC() != null) {
+      params.put(Recorder.VIDEO_CODEC, command.getVideoCODEC());
     }
-    catch (final Exception e) {
-      throw new MediaException(e);
+    if (command.getVideoFMTP() != null) {
+      params.put(Recorder.VIDEO_FMTP, command.getVideoFMTP());
+    }
+    if (command.getVideoMaxBitRate() > 0) {
+      params.put(Recorder.VIDEO_MAX_BITRATE, command.getVideoMaxBitRate());
+    }
+
+    if (command.getFinishOnKey() != null) {
+      params.put(SignalDetector.PATTERN[0], command.getFinishOnKey());
+      rtcs.add(new RTC(SignalDetector.PATTERN_MATCH[0], Recorder.STOP));
     }
   }
 
@@ -529,6 +733,79 @@ public class GenericMediaService<T extends EventSource> implements MediaService<
       }
     }
 
+    final List<Object> patterns = translate(cmd, params, rtcs);
+
+    Parameter[] patternKeys = null;
+    if (patterns != null) {
+      final Map<Parameter, Object> patternParams = new HashMap<Parameter, Object>();
+      patternKeys = new Parameter[patterns.size()];
+      for (int i = 0; i < patterns.size(); i++) {
+        patternKeys[i] = SignalDetector.PATTERN[i];
+        patternParams.put(SignalDetector.PATTERN[i], patterns.get(i));
+      }
+      setPatterns(patternParams);
+    }
+
+    return receiveSignals(cmd.getNumberOfDigits(), patternKeys, rtcs.toArray(new RTC[rtcs.size()]), params, cmd
+        .isRecord(), cmd.isSupervised(), DtmfGrammar.compile(cmd));
+  }
+
+  /**
+   * @param prompt
+   *          the output to prompt with, null if none.
+   */
+  protected Input<T> detectSignal(final PreparedInput input, final PreparedOutput prompt, final int repeat)
+      throws MediaException {
+    final Parameters params = _group.createParameters();
+    params.putAll(input._baseParameters);
+    RTC[] baseRtcs = input._baseRtcs;
+    RTC[] rtcs = input._rtcs;
+    if (prompt != null) {
+      params.putAll(prompt._parameters);
+      if (repeat > 0) {
+        params.put(Player.REPEAT_COUNT, repeat + 1);
+        params.put(Player.INTERVAL, prompt._repeatInterval);
+      }
+      params.put(SignalDetector.PROMPT, resolve(prompt._uris));
+      baseRtcs = concat(prompt._rtcs, baseRtcs);
+      rtcs = concat(prompt._rtcs, rtcs);
+    }
+
+    if (input._record) {
+      try {
+        getRecorder().record(input._recordURI, baseRtcs, params);
+      }
+      catch (final Exception e) {
+        throw new MediaException(e);
+      }
+    }
+
+    if (input._patterns != null) {
+      setPatterns(input._patterns);
+    }
+    params.putAll(input._parameters);
+
+    return receiveSignals(input._numberOfDigits, input._patternKeys, rtcs, params, input._record, input._supervised,
+        input._dtmfGrammar);
+  }
+
+  private static RTC[] concat(final RTC[] first, final RTC[] second) {
+    if (first.length == 0) {
+      return second;
+    }
+    final RTC[] result = new RTC[first.length + second.length];
+    System.arraycopy(first, 0, result, 0, first.length);
+    System.arraycopy(second, 0, result, first.length, second.length);
+    return result;
+  }
+
+  /**
+   * Adds what the command asks of the signal detector, apart from the
+   * parameters and RTCs set with setParameters() and setRtcs().
+   * 
+   * @return the grammar patterns, null if the command has no grammar.
+   */
+  protected List<Object> translate(final InputCommand cmd, final Parameters params, final List<RTC> rtcs) {
     if (cmd.size() > 0) {
       params.putAll(cmd);
     }
@@ -553,74 +830,314 @@ public class GenericMediaService<T extends EventSource> implements MediaService<
     _dialect.setDtmfTypeaheadEnabled(params, cmd.isDtmfTypeahead());
     _dialect.setConfidence(params, cmd.getMinConfidence());
 
-    Parameter[] patternKeys = null;
-
     final Grammar[] grammars = cmd.getGrammars();
-    if (grammars.length > 0) {
-      final List<Object> patterns = new ArrayList<Object>(grammars.length);
-      for (final Grammar grammar : grammars) {
-        if (grammar == null) {
-          continue;
-        }
+    if (grammars.length == 0) {
+      return null;
+    }
+    final List<Object> patterns = new ArrayList<Object>(grammars.length);
+    for (final Grammar grammar : grammars) {
+      if (grammar == null) {
+        continue;
+      }
 
-        Object pattern = null;
+      Object pattern = null;
 
-        URI uri = grammar.toURI();
+      URI uri = grammar.toURI();
 
-        if ("data".equals(uri.getScheme())) {
-          pattern = uri;
+      if ("data".equals(uri.getScheme())) {
+        pattern = uri;
+      }
+      else if ("digits".equals(uri.getScheme())) {
+        try {
+          pattern = URLDecoder.decode(uri.getSchemeSpecificPart(), "UTF-8");
         }
-        else if ("digits".equals(uri.getScheme())) {
-          try {
-            pattern = URLDecoder.decode(uri.getSchemeSpecificPart(), "UTF-8");
-          }
-          catch (UnsupportedEncodingException e) {
-            throw new IllegalStateException(e);
-          }
+        catch (UnsupportedEncodingException e) {
+          throw new IllegalStateException(e);
         }
-        else {
-          try {
-            pattern = uri.toURL();
-          }
-          catch (MalformedURLException e) {
-            LOG.warn("Skipped Grammar! Only 'data' URIs and http/https/ftp/file URLs are permitted [uri="
-                + uri.toString() + "]");
-          }
+      }
+      else {
+        try {
+          pattern = uri.toURL();
+        }
+        catch (MalformedURLException e) {
+          LOG.warn("Skipped Grammar! Only 'data' URIs and http/https/ftp/file URLs are permitted [uri="
+              + uri.toString() + "]");
         }
-
-        patterns.add(pattern);
-
       }
 
-      final Parameters patternParams = _group.createParameters();
-      patternKeys = new Parameter[patterns.size()];
-      int i = 0;
-      for (; i < patterns.size(); i++) {
-        final Object o = patterns.get(i);
-        patternKeys[i] = SignalDetector.PATTERN[i];
-        patternParams.put(SignalDetector.PATTERN[i], o);
-      }
+      patterns.add(pattern);
+    }
+    return patterns;
+  }
 
-      if (patterns.size() > 0) {
-        _group.setParameters(patternParams);
+  /**
+   * Sets the grammar patterns on the media group, unless they are the ones it
+   * already has from the previous input.
+   */
+  protected void setPatterns(Map<Parameter, Object> patterns) {
+    patterns = resolve(patterns);
+    if (patterns.isEmpty() || samePatterns(patterns, _patterns)) {
+      return;
+    }
+    final Parameters patternParams = _group.createParameters();
+    for (final Map.Entry<Parameter, Object> entry : patterns.entrySet()) {
+      patternParams.put(entry.getKey(), entry.getValue());
+    }
+    _group.setParameters(patternParams);
+    _patterns = patterns;
+  }
+
+  // by string form, URL.equals() would resolve the host names.
+  private static boolean samePatterns(final Map<Parameter, Object> patterns, final Map<Parameter, Object> current) {
+    if (current == patterns) {
+      return true;
+    }
+    if (current == null || current.size() != patterns.size()) {
+      return false;
+    }
+    for (final Map.Entry<Parameter, Object> entry : patterns.entrySet()) {
+      final Object value = entry.getValue();
+      final Object other = current.get(entry.getKey());
+      if (value == null ? other != null || !current.containsKey(entry.getKey()) : other == null
+          || value.getClass() != other.getClass() || !value.toString().equals(other.toString())) {
+        return false;
       }
     }
+    return true;
+  }
 
-    if (patternKeys == null && cmd.getNumberOfDigits() == -1) {
+  /**
+   * @param dtmf
+   *          the grammar to match the digits received in signaling against,
+   *          null if they can't be matched here.
+   */
+  private Input<T> receiveSignals(final int numberOfDigits, final Parameter[] patternKeys, final RTC[] rtcs,
+      final Parameters params, final boolean record, final boolean supervised, final DtmfGrammar dtmf)
+      throws MediaException {
+    if (patternKeys == null && numberOfDigits == -1) {
       throw new MediaException("No pattern");
     }
 
-    final InputImpl<T> in = new InputImpl<T>(_group);
-    getSignalDetector().addListener(new DetectorListener(in, cmd));
+    final InputImpl<T> in = new InputImpl<T>(_group, getCompletionExecutor());
+    final DtmfCollector collector = dtmf == null ? null : new DtmfCollector(in, dtmf, supervised);
+    _dtmf = collector;
+    getSignalDetector().addListener(new DetectorListener(in, record, supervised, collector));
     try {
-      getSignalDetector().receiveSignals(cmd.getNumberOfDigits(), patternKeys, rtcs.toArray(new RTC[] {}), params);
+      getSignalDetector().receiveSignals(numberOfDigits, patternKeys, rtcs, params);
     }
     catch (final MsControlException e) {
+      if (collector != null) {
+        collector.cancel();
+      }
       throw new MediaException(e);
     }
     return in;
   }
 
+  /**
+   * Passes a digit the parent received in signaling, e.g. in a SIP INFO, to
+   * the input in progress.
+   * 
+   * @return false if there is no input in progress that can take the digit.
+   */
+  public boolean onSignalingDigit(final char digit) {
+    final DtmfCollector dtmf = _dtmf;
+    return dtmf != null && dtmf.add(digit);
+  }
+
+  private static synchronized ScheduledExecutorService getDtmfTimer() {
+    if (_dtmfTimer == null) {
+      _dtmfTimer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("MohoDtmfTimer"));
+    }
+    return _dtmfTimer;
+  }
+
+  /**
+   * Collects the digits an input receives in signaling and completes the input
+   * as soon as they match its grammar, with a single completion event, instead
+   * of waiting for the media server to detect them in the media stream. The
+   * media server is stopped first and the input only completes once it has
+   * confirmed the stop, so its late completion can't cancel the next input, or
+   * once it failed to confirm it in time.
+   */
+  protected class DtmfCollector implements Runnable {
+
+    private final InputImpl<T> _input;
+
+    private final DtmfGrammar _grammar;
+
+    private final boolean _supervised;
+
+    // guarded by this.
+    private final StringBuilder _digits = new StringBuilder(8);
+
+    private ScheduledFuture<?> _timeout;
+
+    private boolean _done;
+
+    // the completion of a matched input, until both the stop has been requested
+    // and the media server has confirmed it.
+    private MohoInputCompleteEvent<T> _matched;
+
+    private boolean _stopRequested;
+
+    private boolean _stopConfirmed;
+
+    public DtmfCollector(final InputImpl<T> input, final DtmfGrammar grammar, final boolean supervised) {
+      _input = input;
+      _grammar = grammar;
+      _supervised = supervised;
+    }
+
+    /**
+     * @return false if the input has already completed.
+     */
+    public boolean add(final char digit) {
+      synchronized (this) {
+        if (_done) {
+          return false;
+        }
+        InputCompleteEvent.Cause cause;
+        if (digit == _grammar._terminator) {
+          cause = _grammar.match(_digits, true);
+        }
+        else {
+          _digits.append(digit);
+          cause = _grammar.match(_digits, false);
+        }
+        if (cause == null) {
+          if (_grammar._interDigitTimeout > 0) {
+            if (_timeout != null) {
+              _timeout.cancel(false);
+            }
+            _timeout = getDtmfTimer().schedule(this, _grammar._interDigitTimeout, TimeUnit.MILLISECONDS);
+          }
+          return true;
+        }
+        _matched = complete(cause);
+      }
+      stop();
+      return true;
+    }
+
+    // the inter-digit timeout.
+    @Override
+    public void run() {
+      synchronized (this) {
+        if (_done) {
+          return;
+        }
+        _matched = complete(_grammar.match(_digits, true) == InputCompleteEvent.Cause.MATCH ? InputCompleteEvent.Cause.MATCH
+            : InputCompleteEvent.Cause.IS_TIMEOUT);
+      }
+      stop();
+    }
+
+    /**
+     * Stops collecting, the media server completed the input.
+     * 
+     * @return false if the input has already been matched with the digits
+     *         collected here, see {@link #stopped()}.
+     */
+    public synchronized boolean cancel() {
+      if (_done) {
+        return false;
+      }
+      _done = true;
+      if (_timeout != null) {
+        _timeout.cancel(false);
+      }
+      if (_dtmf == this) {
+        _dtmf = null;
+      }
+      return true;
+    }
+
+    /**
+     * The media server has confirmed the stop of a matched input.
+     */
+    public void stopped() {
+      final MohoInputCompleteEvent<T> event;
+      synchronized (this) {
+        _stopConfirmed = true;
+        if (_timeout != null) {
+          _timeout.cancel(false);
+        }
+        event = _stopRequested ? takeMatched() : null;
+      }
+      finish(event);
+    }
+
+    // guarded by this.
+    private MohoInputCompleteEvent<T> complete(final InputCompleteEvent.Cause cause) {
+      cancel();
+      final MohoInputCompleteEvent<T> event = new MohoInputCompleteEvent<T>(_parent, cause, null);
+      final String signalString = _digits.toString();
+      event.setConcept(signalString);
+      event.setConfidence(1.0F);
+      event.setInterpretation(signalString);
+      event.setUtterance(signalString);
+      event.setInputMode(InputMode.DTMF);
+      return event;
+    }
+
+    // guarded by this.
+    private MohoInputCompleteEvent<T> takeMatched() {
+      final MohoInputCompleteEvent<T> event = _matched;
+      _matched = null;
+      return event;
+    }
+
+    private void stop() {
+      boolean stopConfirmed = false;
+      try {
+        // the media server is still listening, its completion is ignored now.
+        _group.triggerAction(SignalDetector.STOP);
+      }
+      catch (final RuntimeException e) {
+        LOG.warn("Failed to stop the signal detector, completing the input with the signaled digits.", e);
+        stopConfirmed = true;
+      }
+      final MohoInputCompleteEvent<T> event;
+      synchronized (this) {
+        _stopRequested = true;
+        _stopConfirmed |= stopConfirmed;
+        event = _stopConfirmed ? takeMatched() : null;
+        if (event == null && _matched != null) {
+          _timeout = getDtmfTimer().schedule(new Runnable() {
+            @Override
+            public void run() {
+              stopTimedOut();
+            }
+          }, _stopTimeout, TimeUnit.MILLISECONDS);
+        }
+      }
+      finish(event);
+    }
+
+    private void stopTimedOut() {
+      final MohoInputCompleteEvent<T> event;
+      synchronized (this) {
+        event = takeMatched();
+      }
+      if (event != null) {
+        LOG.warn("The signal detector did not confirm the stop in " + _stopTimeout
+            + "ms, completing the input with the signaled digits.");
+        finish(event);
+      }
+    }
+
+    private void finish(final MohoInputCompleteEvent<T> event) {
+      if (event == null) {
+        return;
+      }
+      if (_supervised) {
+        _parent.dispatch(event);
+      }
+      _input.done(event);
+    }
+  }
+
   protected class SignalDetectorWorker implements Callable<Input<T>> {
 
     private InputCommand _inputCmd = null;
@@ -636,6 +1153,27 @@ public class GenericMediaService<T extends EventSource> implements MediaService<
 
   }
 
+  protected class PreparedSignalDetectorWorker implements Callable<Input<T>> {
+
+    private final PreparedInput _input;
+
+    private final PreparedOutput _prompt;
+
+    private final int _repeat;
+
+    public PreparedSignalDetectorWorker(final PreparedInput input, final PreparedOutput prompt, final int repeat) {
+      _input = input;
+      _prompt = prompt;
+      _repeat = repeat;
+    }
+
+    @Override
+    public Input<T> call() throws MediaException {
+      return detectSignal(_input, _prompt, _repeat);
+    }
+
+  }
+
   protected class PlayerListener implements MediaEventListener<PlayerEvent> {
 
     private OutputImpl<T> _output = null;
@@ -713,11 +1251,31 @@ public class GenericMediaService<T extends EventSource> implements MediaService<
 
     private InputImpl<T> _input = null;
 
-    private InputCommand _cmd = null;
+    private final boolean _record;
+
+    private final boolean _supervised;
+
+    private final DtmfCollector _collector;
 
     public DetectorListener(final InputImpl<T> input, final InputCommand inputCmd) {
+      this(input, inputCmd.isRecord(), inputCmd.isSupervised());
+    }
+
+    public DetectorListener(final InputImpl<T> input, final boolean record, final boolean supervised) {
+      this(input, record, supervised, null);
+    }
+
+    /**
+     * @param dtmf
+     *          what collects the digits of the input received in signaling,
+     *          null if none.
+     */
+    public DetectorListener(final InputImpl<T> input, final boolean record, final boolean supervised,
+        final DtmfCollector dtmf) {
       _input = input;
-      _cmd = inputCmd;
+      _record = record;
+      _supervised = supervised;
+      _collector = dtmf;
     }
 
     @Override
@@ -725,9 +1283,15 @@ public class GenericMediaService<T extends EventSource> implements MediaService<
       final EventType t = e.getEventType();
       if (t == SignalDetectorEvent.RECEIVE_SIGNALS_COMPLETED) {
         getSignalDetector().removeListener(this);
-        if (_cmd.isRecord()) {
+        if (_record) {
           getRecorder().stop();
         }
+        if (_collector != null && !_collector.cancel()) {
+          // matched with the digits received in signaling, complete it now that
+          // the media server has stopped.
+          _collector.stopped();
+          return;
+        }
         InputCompleteEvent.Cause cause = InputCompleteEvent.Cause.UNKNOWN;
         final Qualifier q = e.getQualifier();
         String errorText = null;
@@ -818,13 +1382,13 @@ public class GenericMediaService<T extends EventSource> implements MediaService<
           inputCompleteEvent.setUtterance(signalString);
           inputCompleteEvent.setInputMode(InputMode.DTMF);
         }
-        if (_cmd.isSupervised()) {
+        if (_supervised) {
           _parent.dispatch(inputCompleteEvent);
         }
         _input.done(inputCompleteEvent);
       }
       else if (t == SignalDetectorEvent.SIGNAL_DETECTED) {
-        if (_cmd.isSupervised()) {
+        if (_supervised) {
           _parent.dispatch(new MohoInputDetectedEvent<T>(_parent, e.getSignalString()));
         }
       }
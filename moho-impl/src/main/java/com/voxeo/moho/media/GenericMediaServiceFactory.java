@@ -23,6 +23,7 @@ import javax.media.mscontrol.mediagroup.MediaGroup;
 
 import org.apache.log4j.Logger;
 
+import com.voxeo.moho.ApplicationContextImpl;
 import com.voxeo.moho.MediaException;
 import com.voxeo.moho.MediaService;
 import com.voxeo.moho.MediaServiceFactory;
@@ -37,6 +38,11 @@ public class GenericMediaServiceFactory implements MediaServiceFactory {
 
   private MediaDialect _dialect;
 
+  private ExecutionContext _context;
+
+  // used when the application context has no MediaResourceManager.
+  private final MediaResourceManager _resources = new MediaResourceManager();
+
   public GenericMediaServiceFactory() {
     _dialect = new GenericDialect();
   }
@@ -49,26 +55,31 @@ public class GenericMediaServiceFactory implements MediaServiceFactory {
   public <T extends EventSource> MediaService<T> create(final T parent, final MediaSession session, Parameters params) {
     MediaGroup group = null;
     try {
-      group = session.createMediaGroup(MediaGroup.PLAYER_RECORDER_SIGNALDETECTOR_SIGNALGENERATOR, params);
+      group = getResourceManager().createMediaGroup(session, params);
     }
-    catch (final MsControlException e1) {
-      try {
-        group = session.createMediaGroup(MediaGroup.PLAYER_RECORDER_SIGNALDETECTOR, params);
-      }
-      catch (final MsControlException e2) {
-        try {
-          group = session.createMediaGroup(MediaGroup.PLAYER, params);
-        }
-        catch (final MsControlException e3) {
-          throw new MediaException(e3);
-        }
+    catch (final MsControlException e) {
+      throw new MediaException(e);
+    }
+    final GenericMediaService<T> service = new GenericMediaService<T>(parent, group, _dialect);
+    if (_context instanceof ApplicationContextImpl) {
+      service.setPromptCache(((ApplicationContextImpl) _context).getPromptCache());
+    }
+    return service;
+  }
+
+  protected MediaResourceManager getResourceManager() {
+    if (_context instanceof ApplicationContextImpl) {
+      final MediaResourceManager resources = ((ApplicationContextImpl) _context).getMediaResourceManager();
+      if (resources != null) {
+        return resources;
       }
     }
-    return new GenericMediaService<T>(parent, group, _dialect);
+    return _resources;
   }
 
   @Override
   public void init(ExecutionContext context, Map<String, String> properties) {
+    _context = context;
     Class<? extends MediaDialect> mediaDialectClass = com.voxeo.moho.media.dialect.GenericDialect.class;
     final String mediaDialectClassName = properties.get("mediaDialectClass");
     try {
@@ -15,6 +15,7 @@
 package com.voxeo.moho.media;
 
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -24,17 +25,28 @@ import javax.media.mscontrol.mediagroup.signals.SignalDetector;
 import com.voxeo.moho.event.EventSource;
 import com.voxeo.moho.event.InputCompleteEvent;
 import com.voxeo.moho.util.SettableResultFuture;
+import com.voxeo.moho.utils.CompletionListener;
 
 public class InputImpl<T extends EventSource> implements Input<T> {
 
   protected MediaGroup _group;
 
-  protected SettableResultFuture<InputCompleteEvent<T>> _future = new SettableResultFuture<InputCompleteEvent<T>>();
+  protected SettableResultFuture<InputCompleteEvent<T>> _future;
 
   private boolean _normalDisconnected = false;
 
   protected InputImpl(final MediaGroup group) {
+    this(group, null);
+  }
+
+  /**
+   * @param completionExecutor
+   *          where {@link CompletionListener}s run, normally the mailbox of the
+   *          media service's parent.
+   */
+  protected InputImpl(final MediaGroup group, final Executor completionExecutor) {
     _group = group;
+    _future = new SettableResultFuture<InputCompleteEvent<T>>(completionExecutor);
   }
 
   protected void done(final InputCompleteEvent<T> event) {
@@ -58,6 +70,11 @@ public class InputImpl<T extends EventSource> implements Input<T> {
     }
   }
 
+  @Override
+  public void addCompletionListener(final CompletionListener<InputCompleteEvent<T>> listener) {
+    _future.addListener(listener);
+  }
+
   @Override
   public boolean cancel(final boolean mayInterruptIfRunning) {
     return _future.cancel(mayInterruptIfRunning);
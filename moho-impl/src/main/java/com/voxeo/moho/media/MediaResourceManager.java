@@ -0,0 +1,181 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.media;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.media.mscontrol.Configuration;
+import javax.media.mscontrol.MediaSession;
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.MsControlFactory;
+import javax.media.mscontrol.Parameters;
+import javax.media.mscontrol.mediagroup.MediaGroup;
+import javax.media.mscontrol.spi.DriverManager;
+
+import org.apache.log4j.Logger;
+
+import com.voxeo.moho.services.Service;
+import com.voxeo.moho.spi.ExecutionContext;
+
+/**
+ * Remembers what has been learned about the media servers, so it is not
+ * learned again for every mixer and every call:
+ * <ul>
+ * <li>the {@link MsControlFactory} for a set of driver properties, typically a
+ * media server URI, instead of asking the driver for a new one per mixer;</li>
+ * <li>the richest {@link MediaGroup} configuration a media server supports,
+ * so later media groups are created with it on the first attempt instead of
+ * failing down the list of configurations every time. As a richer
+ * configuration may have been refused for a transient reason, it is tried again
+ * after {@link #REPROBE_INTERVAL}.</li>
+ * </ul>
+ */
+public class MediaResourceManager implements Service {
+
+  private static final Logger LOG = Logger.getLogger(MediaResourceManager.class);
+
+  /**
+   * Milliseconds a media server is assumed not to support the configurations it
+   * has refused, 5 minutes by default.
+   */
+  public static final String REPROBE_INTERVAL = "com.voxeo.moho.media.reprobeInterval";
+
+  /** The media group configurations to try, richest first. */
+  @SuppressWarnings("unchecked")
+  protected static final Configuration<MediaGroup>[] MEDIA_GROUP_CONFIGURATIONS = new Configuration[] {
+      MediaGroup.PLAYER_RECORDER_SIGNALDETECTOR_SIGNALGENERATOR, MediaGroup.PLAYER_RECORDER_SIGNALDETECTOR,
+      MediaGroup.PLAYER};
+
+  protected final ConcurrentMap<Map<String, String>, MsControlFactory> _factories =
+      new ConcurrentHashMap<Map<String, String>, MsControlFactory>();
+
+  // media server -> the first configuration it supports.
+  protected final ConcurrentMap<Object, Capability> _capabilities = new ConcurrentHashMap<Object, Capability>();
+
+  protected volatile long _reprobeInterval = 300000;
+
+  protected final AtomicLong _factoryMisses = new AtomicLong();
+
+  protected final AtomicLong _probeFailures = new AtomicLong();
+
+  protected static class Capability {
+    // index in MEDIA_GROUP_CONFIGURATIONS.
+    final int _index;
+
+    // when the richer configurations are tried again.
+    final long _expires;
+
+    Capability(final int index, final long expires) {
+      _index = index;
+      _expires = expires;
+    }
+  }
+
+  /**
+   * @return the factory for the properties, creating it with the first
+   *         JSR 309 driver the first time they are seen.
+   */
+  public MsControlFactory getFactory(final Properties props) throws MsControlException {
+    final Map<String, String> key = new TreeMap<String, String>();
+    for (final String name : props.stringPropertyNames()) {
+      key.put(name, props.getProperty(name));
+    }
+    MsControlFactory factory = _factories.get(key);
+    if (factory == null) {
+      _factoryMisses.incrementAndGet();
+      factory = DriverManager.getDrivers().next().getFactory(props);
+      final MsControlFactory existing = _factories.putIfAbsent(key, factory);
+      if (existing != null) {
+        factory = existing;
+      }
+    }
+    return factory;
+  }
+
+  /**
+   * Creates the richest media group the media server of the session supports.
+   */
+  public MediaGroup createMediaGroup(final MediaSession session, final Parameters params) throws MsControlException {
+    final Object server = getServerKey(session);
+    final long now = System.currentTimeMillis();
+    final Capability known = _capabilities.get(server);
+    final int first = known == null || now >= known._expires ? 0 : known._index;
+    MsControlException failure = null;
+    for (int i = first; i < MEDIA_GROUP_CONFIGURATIONS.length; i++) {
+      try {
+        final MediaGroup group = session.createMediaGroup(MEDIA_GROUP_CONFIGURATIONS[i], params);
+        if (known == null || known._index != i || first != i) {
+          _capabilities.put(server, new Capability(i, i == 0 ? Long.MAX_VALUE : now + _reprobeInterval));
+          if (known == null || known._index != i) {
+            LOG.info("Media server " + server + " supports " + MEDIA_GROUP_CONFIGURATIONS[i]);
+          }
+        }
+        return group;
+      }
+      catch (final MsControlException e) {
+        _probeFailures.incrementAndGet();
+        failure = e;
+      }
+    }
+    throw failure;
+  }
+
+  /**
+   * @return what identifies the media server of a session. Sessions of the
+   *         same JSR 309 implementation are assumed to have the same
+   *         capabilities.
+   */
+  protected Object getServerKey(final MediaSession session) {
+    return session.getClass();
+  }
+
+  /**
+   * @return the number of factories that had to be created.
+   */
+  public long getFactoryMisses() {
+    return _factoryMisses.get();
+  }
+
+  /**
+   * @return the number of media group configurations a media server has
+   *         refused.
+   */
+  public long getProbeFailures() {
+    return _probeFailures.get();
+  }
+
+  @Override
+  public void init(final ExecutionContext context, final Map<String, String> properties) {
+    if (properties != null && properties.get(REPROBE_INTERVAL) != null) {
+      _reprobeInterval = Long.parseLong(properties.get(REPROBE_INTERVAL));
+    }
+  }
+
+  @Override
+  public void destroy() {
+    _factories.clear();
+    _capabilities.clear();
+  }
+
+  @Override
+  public String getName() {
+    return MediaResourceManager.class.getName();
+  }
+}
@@ -15,6 +15,7 @@
 package com.voxeo.moho.media;
 
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.Condition;
@@ -28,12 +29,13 @@ import javax.media.mscontrol.mediagroup.Player;
 import com.voxeo.moho.event.EventSource;
 import com.voxeo.moho.event.OutputCompleteEvent;
 import com.voxeo.moho.util.SettableResultFuture;
+import com.voxeo.moho.utils.CompletionListener;
 
 public class OutputImpl<T extends EventSource> implements Output<T> {
 
   protected MediaGroup _group;
 
-  protected SettableResultFuture<OutputCompleteEvent<T>> _future = new SettableResultFuture<OutputCompleteEvent<T>>();
+  protected SettableResultFuture<OutputCompleteEvent<T>> _future;
 
   final Lock lock = new ReentrantLock();
 
@@ -48,7 +50,17 @@ public class OutputImpl<T extends EventSource> implements Output<T> {
   private boolean _normalDisconnected = false;
 
   protected OutputImpl(final MediaGroup group) {
+    this(group, null);
+  }
+
+  /**
+   * @param completionExecutor
+   *          where {@link CompletionListener}s run, normally the mailbox of the
+   *          media service's parent.
+   */
+  protected OutputImpl(final MediaGroup group, final Executor completionExecutor) {
     _group = group;
+    _future = new SettableResultFuture<OutputCompleteEvent<T>>(completionExecutor);
   }
 
   protected void done(final OutputCompleteEvent<T> outputCompleteEvent) {
@@ -278,6 +290,11 @@ public class OutputImpl<T extends EventSource> implements Output<T> {
     }
   }
 
+  @Override
+  public void addCompletionListener(final CompletionListener<OutputCompleteEvent<T>> listener) {
+    _future.addListener(listener);
+  }
+
   @Override
   public boolean cancel(final boolean mayInterruptIfRunning) {
     return _future.cancel(mayInterruptIfRunning);
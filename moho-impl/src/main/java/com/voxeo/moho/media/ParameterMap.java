@@ -0,0 +1,29 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.media;
+
+import java.util.HashMap;
+
+import javax.media.mscontrol.Parameter;
+import javax.media.mscontrol.Parameters;
+
+/**
+ * A {@link Parameters} that does not belong to any media group, used to build
+ * the parameters of prepared commands.
+ */
+@SuppressWarnings("serial")
+class ParameterMap extends HashMap<Parameter, Object> implements Parameters {
+
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.media;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.media.mscontrol.Parameter;
+import javax.media.mscontrol.resource.RTC;
+
+import com.voxeo.moho.media.input.InputCommand;
+
+/**
+ * An {@link InputCommand} translated into what the signal detector is invoked
+ * with: the resolved grammar patterns and their keys, the RTCs and the
+ * parameters, with the media dialect already applied. It is immutable, so it
+ * can be used any number of times, on any media service of the same dialect,
+ * from any thread.
+ * 
+ * @see GenericMediaService#prepare(InputCommand)
+ */
+public final class PreparedInput {
+
+  // the parameters given with setParameters(), which a prompt overrides.
+  final Map<Parameter, Object> _baseParameters;
+
+  final Map<Parameter, Object> _parameters;
+
+  // the RTCs given with setRtcs(), which are also used for recording.
+  final RTC[] _baseRtcs;
+
+  final RTC[] _rtcs;
+
+  final Parameter[] _patternKeys;
+
+  final Map<Parameter, Object> _patterns;
+
+  final int _numberOfDigits;
+
+  final boolean _record;
+
+  final URI _recordURI;
+
+  final boolean _supervised;
+
+  final DtmfGrammar _dtmfGrammar;
+
+  PreparedInput(final InputCommand cmd, final Map<Parameter, Object> parameters, final List<RTC> rtcs,
+      final Parameter[] patternKeys, final Map<Parameter, Object> patterns) {
+    _baseParameters = cmd.getParameters() == null ? Collections.<Parameter, Object> emptyMap() : Collections
+        .unmodifiableMap(new HashMap<Parameter, Object>(cmd.getParameters()));
+    _parameters = Collections.unmodifiableMap(new HashMap<Parameter, Object>(parameters));
+    _baseRtcs = cmd.getRtcs() == null ? new RTC[0] : cmd.getRtcs().clone();
+    _rtcs = rtcs.toArray(new RTC[rtcs.size()]);
+    _patternKeys = patternKeys;
+    _patterns = patterns == null ? null : Collections.unmodifiableMap(patterns);
+    _numberOfDigits = cmd.getNumberOfDigits();
+    _record = cmd.isRecord();
+    _recordURI = cmd.getRecordURI();
+    _supervised = cmd.isSupervised();
+    _dtmfGrammar = DtmfGrammar.compile(cmd);
+  }
+
+  public Map<Parameter, Object> getParameters() {
+    return _parameters;
+  }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.media;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.media.mscontrol.Parameter;
+import javax.media.mscontrol.resource.RTC;
+
+import com.voxeo.moho.media.output.OutputCommand;
+
+/**
+ * An {@link OutputCommand} translated into what the player is invoked with:
+ * the resource URIs, the RTCs and the parameters, with the media dialect
+ * already applied. It is immutable, so it can be played any number of times,
+ * on any media service of the same dialect, from any thread.
+ * 
+ * @see GenericMediaService#prepare(OutputCommand)
+ */
+public final class PreparedOutput {
+
+  final Map<Parameter, Object> _parameters;
+
+  final RTC[] _rtcs;
+
+  final URI[] _uris;
+
+  final long _repeatInterval;
+
+  PreparedOutput(final Map<Parameter, Object> parameters, final List<RTC> rtcs, final URI[] uris,
+      final long repeatInterval) {
+    _parameters = Collections.unmodifiableMap(new HashMap<Parameter, Object>(parameters));
+    _rtcs = rtcs.toArray(new RTC[rtcs.size()]);
+    _uris = uris;
+    _repeatInterval = repeatInterval;
+  }
+
+  public Map<Parameter, Object> getParameters() {
+    return _parameters;
+  }
+}
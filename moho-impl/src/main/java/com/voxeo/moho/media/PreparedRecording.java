@@ -0,0 +1,51 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.media;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.media.mscontrol.Parameter;
+import javax.media.mscontrol.resource.RTC;
+
+import com.voxeo.moho.media.record.RecordCommand;
+
+/**
+ * A {@link RecordCommand} translated into what the recorder is invoked with.
+ * It is immutable, so it can be used any number of times, from any thread.
+ * 
+ * @see GenericMediaService#prepare(RecordCommand)
+ */
+public final class PreparedRecording {
+
+  final URI _recordURI;
+
+  final Map<Parameter, Object> _parameters;
+
+  final RTC[] _rtcs;
+
+  PreparedRecording(final URI recordURI, final Map<Parameter, Object> parameters, final List<RTC> rtcs) {
+    _recordURI = recordURI;
+    _parameters = Collections.unmodifiableMap(new HashMap<Parameter, Object>(parameters));
+    _rtcs = rtcs.toArray(new RTC[rtcs.size()]);
+  }
+
+  public Map<Parameter, Object> getParameters() {
+    return _parameters;
+  }
+}
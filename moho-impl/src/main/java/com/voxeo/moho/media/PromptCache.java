@@ -0,0 +1,497 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.media;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.voxeo.moho.services.Service;
+import com.voxeo.moho.spi.ExecutionContext;
+import com.voxeo.moho.util.Utils.DaemonThreadFactory;
+
+/**
+ * Keeps local copies of the prompts and grammars the media server is asked to
+ * fetch over HTTP, so a hot menu is read from the local copy instead of from
+ * the origin server on every play.
+ * <p>
+ * {@link #resolve(URI)} never blocks on the network: a URI that is not cached
+ * yet is returned as is and fetched in the background, and a cached copy
+ * older than {@link #MAX_AGE} is still used while it is revalidated with its
+ * ETag or Last-Modified date. The copies are kept in {@link #DIRECTORY} up to
+ * {@link #SIZE} bytes, the least recently used going first, and are handed to
+ * the media server as file URIs, or under {@link #BASE_URI} if that directory
+ * is served over HTTP to a media server on another host. A copy that is
+ * replaced or evicted is only deleted after {@link #RETENTION}, as the media
+ * server may have just been handed its URI. A resource larger than
+ * {@link #SIZE} is not cached at all.
+ * <p>
+ * The cache is off unless {@link #DIRECTORY} is set.
+ */
+public class PromptCache implements Service {
+
+  private static final Logger LOG = Logger.getLogger(PromptCache.class);
+
+  /** The directory to keep the copies in. */
+  public static final String DIRECTORY = "com.voxeo.moho.media.cache.dir";
+
+  /** The maximum number of bytes to keep, 64MB by default. */
+  public static final String SIZE = "com.voxeo.moho.media.cache.size";
+
+  /** Milliseconds a copy is used before it is revalidated, 60 seconds by default. */
+  public static final String MAX_AGE = "com.voxeo.moho.media.cache.maxAge";
+
+  /** The URI the media server reaches the directory under, file URIs if not set. */
+  public static final String BASE_URI = "com.voxeo.moho.media.cache.baseURI";
+
+  /** A file listing the URIs to fetch at startup, one per line. */
+  public static final String MANIFEST = "com.voxeo.moho.media.cache.manifest";
+
+  /** Milliseconds a replaced or evicted copy is kept before it is deleted, 5 minutes by default. */
+  public static final String RETENTION = "com.voxeo.moho.media.cache.retention";
+
+  /** Milliseconds to wait for the origin server to connect and to send data, 10 seconds by default. */
+  public static final String TIMEOUT = "com.voxeo.moho.media.cache.timeout";
+
+  protected File _dir;
+
+  protected String _baseURI;
+
+  protected long _maxSize = 64 * 1024 * 1024;
+
+  protected long _maxAge = 60000;
+
+  protected long _retention = 300000;
+
+  protected int _timeout = 10000;
+
+  // access ordered, guarded by this.
+  protected final LinkedHashMap<URI, Entry> _entries = new LinkedHashMap<URI, Entry>(64, 0.75f, true);
+
+  protected long _size;
+
+  // the URIs being fetched for the first time.
+  protected final ConcurrentMap<URI, Boolean> _fetching = new ConcurrentHashMap<URI, Boolean>();
+
+  // the files of the copies that are no longer used, until they are deleted.
+  // guarded by this.
+  protected final Set<File> _retired = new HashSet<File>();
+
+  protected ScheduledExecutorService _fetcher;
+
+  protected final AtomicLong _sequence = new AtomicLong();
+
+  protected final AtomicLong _hits = new AtomicLong();
+
+  protected final AtomicLong _misses = new AtomicLong();
+
+  protected final AtomicLong _revalidations = new AtomicLong();
+
+  protected static class Entry {
+    final URI _origin;
+
+    final File _file;
+
+    final URI _local;
+
+    final long _length;
+
+    final String _etag;
+
+    final String _lastModified;
+
+    volatile long _validated;
+
+    final AtomicBoolean _revalidating = new AtomicBoolean();
+
+    Entry(final URI origin, final File file, final URI local, final String etag, final String lastModified,
+        final long validated) {
+      _origin = origin;
+      _file = file;
+      _local = local;
+      _length = file.length();
+      _etag = etag;
+      _lastModified = lastModified;
+      _validated = validated;
+    }
+  }
+
+  public boolean isEnabled() {
+    return _dir != null;
+  }
+
+  /**
+   * @return the URI the media server should fetch the resource from: the
+   *         local copy if there is one, otherwise the URI itself.
+   */
+  public URI resolve(final URI uri) {
+    if (_dir == null || uri == null || !isHttp(uri)) {
+      return uri;
+    }
+    final Entry entry;
+    synchronized (this) {
+      entry = _entries.get(uri);
+    }
+    if (entry == null) {
+      _misses.incrementAndGet();
+      if (_fetching.putIfAbsent(uri, Boolean.TRUE) == null) {
+        submit(uri, null);
+      }
+      return uri;
+    }
+    _hits.incrementAndGet();
+    if (System.currentTimeMillis() - entry._validated > _maxAge && entry._revalidating.compareAndSet(false, true)) {
+      submit(uri, entry);
+    }
+    return entry._local;
+  }
+
+  /**
+   * Fetches the resource now, or revalidates the copy there is.
+   *
+   * @return the entry, null if the resource could not be fetched.
+   */
+  protected Entry fetch(final URI uri, final Entry current) throws IOException {
+    final HttpURLConnection conn = (HttpURLConnection) uri.toURL().openConnection();
+    conn.setUseCaches(false);
+    conn.setConnectTimeout(_timeout);
+    conn.setReadTimeout(_timeout);
+    if (current != null) {
+      if (current._etag != null) {
+        conn.setRequestProperty("If-None-Match", current._etag);
+      }
+      if (current._lastModified != null) {
+        conn.setRequestProperty("If-Modified-Since", current._lastModified);
+      }
+    }
+    try {
+      final int status = conn.getResponseCode();
+      if (status == HttpURLConnection.HTTP_NOT_MODIFIED && current != null) {
+        _revalidations.incrementAndGet();
+        current._validated = System.currentTimeMillis();
+        return current;
+      }
+      if (status != HttpURLConnection.HTTP_OK) {
+        LOG.warn("Unable to cache " + uri + ", the server answered " + status);
+        remove(uri, current);
+        return null;
+      }
+      if (conn.getContentLength() > _maxSize) {
+        tooLarge(uri, current);
+        return null;
+      }
+      final File file = new File(_dir, fileName(uri));
+      boolean kept = false;
+      try {
+        if (!copy(conn.getInputStream(), file)) {
+          tooLarge(uri, current);
+          return null;
+        }
+        final Entry entry = new Entry(uri, file, toLocalURI(file), conn.getHeaderField("ETag"), conn
+            .getHeaderField("Last-Modified"), System.currentTimeMillis());
+        put(entry);
+        kept = true;
+        return entry;
+      }
+      finally {
+        // nobody knows of a partial or oversized copy.
+        if (!kept) {
+          file.delete();
+        }
+      }
+    }
+    finally {
+      conn.disconnect();
+    }
+  }
+
+  /**
+   * Copies the resource to the file, up to the size of the cache.
+   *
+   * @return false if the resource is larger than the cache.
+   */
+  private boolean copy(final InputStream in, final File file) throws IOException {
+    try {
+      final OutputStream out = new FileOutputStream(file);
+      try {
+        final byte[] buf = new byte[8192];
+        long length = 0;
+        int n;
+        while ((n = in.read(buf)) > 0) {
+          length += n;
+          if (length > _maxSize) {
+            return false;
+          }
+          out.write(buf, 0, n);
+        }
+        return true;
+      }
+      finally {
+        out.close();
+      }
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  // a resource that doesn't fit would evict everything else, the media
+  // server fetches it from the origin instead.
+  private void tooLarge(final URI uri, final Entry current) {
+    LOG.warn("Not caching " + uri + ", it is larger than the cache size of " + _maxSize + " bytes");
+    remove(uri, current);
+  }
+
+  protected synchronized void put(final Entry entry) {
+    final Entry previous = _entries.put(entry._origin, entry);
+    if (previous != null) {
+      _size -= previous._length;
+      retire(previous);
+    }
+    _size += entry._length;
+    final Iterator<Entry> it = _entries.values().iterator();
+    while (_size > _maxSize && it.hasNext()) {
+      final Entry eldest = it.next();
+      it.remove();
+      _size -= eldest._length;
+      retire(eldest);
+    }
+  }
+
+  protected synchronized void remove(final URI uri, final Entry entry) {
+    if (entry != null && _entries.get(uri) == entry) {
+      _entries.remove(uri);
+      _size -= entry._length;
+      retire(entry);
+    }
+  }
+
+  // guarded by this.
+  private void retire(final Entry entry) {
+    final File file = entry._file;
+    if (_fetcher == null || _retention <= 0) {
+      file.delete();
+      return;
+    }
+    _retired.add(file);
+    try {
+      _fetcher.schedule(new Runnable() {
+        @Override
+        public void run() {
+          synchronized (PromptCache.this) {
+            if (_retired.remove(file)) {
+              file.delete();
+            }
+          }
+        }
+      }, _retention, TimeUnit.MILLISECONDS);
+    }
+    catch (final RejectedExecutionException e) {
+      _retired.remove(file);
+      file.delete();
+    }
+  }
+
+  private void submit(final URI uri, final Entry current) {
+    try {
+      _fetcher.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            fetch(uri, current);
+          }
+          catch (final Exception e) {
+            // keep using what there is, it is tried again later.
+            LOG.warn("Unable to cache " + uri + ": " + e);
+          }
+          finally {
+            if (current != null) {
+              current._revalidating.set(false);
+            }
+            else {
+              _fetching.remove(uri);
+            }
+          }
+        }
+      });
+    }
+    catch (final RuntimeException e) {
+      if (current != null) {
+        current._revalidating.set(false);
+      }
+      else {
+        _fetching.remove(uri);
+      }
+    }
+  }
+
+  // a new name for every version, the media server may still be reading the
+  // previous one. The extension is kept for servers that go by it.
+  private String fileName(final URI uri) {
+    final String path = uri.getPath();
+    String ext = "";
+    if (path != null) {
+      final int dot = path.lastIndexOf('.');
+      if (dot > path.lastIndexOf('/') && path.length() - dot <= 8) {
+        ext = path.substring(dot);
+      }
+    }
+    return Integer.toHexString(uri.hashCode()) + "-" + _sequence.incrementAndGet() + ext;
+  }
+
+  private URI toLocalURI(final File file) {
+    return _baseURI == null ? file.toURI() : URI.create(_baseURI + file.getName());
+  }
+
+  private static boolean isHttp(final URI uri) {
+    return "http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme());
+  }
+
+  /**
+   * Fetches the http and https URIs listed in the file in the background.
+   * Empty lines and lines starting with # are skipped.
+   */
+  public void preload(final File manifest) throws IOException {
+    final BufferedReader reader = new BufferedReader(new FileReader(manifest));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.length() == 0 || line.startsWith("#")) {
+          continue;
+        }
+        try {
+          resolve(URI.create(line));
+        }
+        catch (final IllegalArgumentException e) {
+          LOG.warn("Skipped invalid URI " + line + " in " + manifest);
+        }
+      }
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+  public long getHits() {
+    return _hits.get();
+  }
+
+  public long getMisses() {
+    return _misses.get();
+  }
+
+  /**
+   * @return the number of revalidations the origin answered with 304.
+   */
+  public long getRevalidations() {
+    return _revalidations.get();
+  }
+
+  public synchronized int getEntryCount() {
+    return _entries.size();
+  }
+
+  /**
+   * @return the number of bytes in the cache.
+   */
+  public synchronized long getSize() {
+    return _size;
+  }
+
+  @Override
+  public void init(final ExecutionContext context, final Map<String, String> properties) {
+    if (properties == null || properties.get(DIRECTORY) == null) {
+      return;
+    }
+    final File dir = new File(properties.get(DIRECTORY));
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      LOG.error("Moho is unable to create the prompt cache directory " + dir);
+      return;
+    }
+    if (properties.get(SIZE) != null) {
+      _maxSize = Long.parseLong(properties.get(SIZE));
+    }
+    if (properties.get(MAX_AGE) != null) {
+      _maxAge = Long.parseLong(properties.get(MAX_AGE));
+    }
+    if (properties.get(RETENTION) != null) {
+      _retention = Long.parseLong(properties.get(RETENTION));
+    }
+    if (properties.get(TIMEOUT) != null) {
+      _timeout = Integer.parseInt(properties.get(TIMEOUT));
+    }
+    _baseURI = properties.get(BASE_URI);
+    if (_baseURI != null && !_baseURI.endsWith("/")) {
+      _baseURI = _baseURI + "/";
+    }
+    _fetcher = Executors.newScheduledThreadPool(2, new DaemonThreadFactory("MohoPromptCache"));
+    _dir = dir;
+    LOG.info("Moho is caching prompts and grammars in " + dir);
+
+    if (properties.get(MANIFEST) != null) {
+      try {
+        preload(new File(properties.get(MANIFEST)));
+      }
+      catch (final IOException e) {
+        LOG.error("Moho is unable to read the prompt cache manifest " + properties.get(MANIFEST), e);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void destroy() {
+    _dir = null;
+    if (_fetcher != null) {
+      _fetcher.shutdownNow();
+      _fetcher = null;
+    }
+    for (final Entry entry : _entries.values()) {
+      entry._file.delete();
+    }
+    _entries.clear();
+    for (final File file : _retired) {
+      file.delete();
+    }
+    _retired.clear();
+    _size = 0;
+  }
+
+  @Override
+  public String getName() {
+    return PromptCache.class.getName();
+  }
+}
@@ -15,12 +15,17 @@
 package com.voxeo.moho.media;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.FutureTask;
 
 import com.voxeo.moho.MediaException;
 import com.voxeo.moho.event.EventSource;
 import com.voxeo.moho.event.InputCompleteEvent;
+import com.voxeo.moho.event.MediaCompleteEvent;
 import com.voxeo.moho.spi.ExecutionContext;
+import com.voxeo.moho.util.CompletionListeners;
+import com.voxeo.moho.utils.CompletionListener;
 
 public class PromptImpl<T extends EventSource> implements Prompt<T> {
 
@@ -32,16 +37,42 @@ public class PromptImpl<T extends EventSource> implements Prompt<T> {
 
   protected ExecutionContext _context;
 
+  protected CompletionListeners<Prompt<T>> _listeners;
+
   public PromptImpl(ExecutionContext context) {
+    this(context, null);
+  }
+
+  /**
+   * @param completionExecutor
+   *          where {@link CompletionListener}s run, normally the mailbox of the
+   *          media service's parent.
+   */
+  public PromptImpl(ExecutionContext context, final Executor completionExecutor) {
     _context = context;
+    _listeners = new CompletionListeners<Prompt<T>>(completionExecutor);
   }
 
   protected void setInput(final Input<T> input) {
     _input = input;
+    track(input);
   }
 
   protected void inputGetReady(final Callable<Input<T>> call) {
-    _future = new FutureTask<Input<T>>(call);
+    _future = new FutureTask<Input<T>>(call) {
+      @Override
+      protected void done() {
+        try {
+          track(get());
+        }
+        catch (final ExecutionException e) {
+          _listeners.complete(PromptImpl.this, e.getCause());
+        }
+        catch (final Exception e) {
+          _listeners.complete(PromptImpl.this, e);
+        }
+      }
+    };
   }
 
   protected void inputGetSet() {
@@ -55,6 +86,28 @@ public class PromptImpl<T extends EventSource> implements Prompt<T> {
 
   protected void setOutput(final Output<T> output) {
     _output = output;
+    track(output);
+  }
+
+  /**
+   * Completes this prompt when the given input or output completes.
+   */
+  protected <E extends MediaCompleteEvent<T>> void track(final MediaOperation<T, E> operation) {
+    if (operation == null) {
+      _listeners.complete(this, null);
+      return;
+    }
+    operation.addCompletionListener(new CompletionListener<E>() {
+      @Override
+      public void onComplete(final E result, final Throwable cause) {
+        _listeners.complete(PromptImpl.this, cause);
+      }
+    });
+  }
+
+  @Override
+  public void addCompletionListener(final CompletionListener<Prompt<T>> listener) {
+    _listeners.add(listener);
   }
 
   @Override
@@ -15,6 +15,7 @@
 package com.voxeo.moho.media;
 
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.Condition;
@@ -28,12 +29,13 @@ import com.voxeo.moho.MediaException;
 import com.voxeo.moho.event.EventSource;
 import com.voxeo.moho.event.RecordCompleteEvent;
 import com.voxeo.moho.util.SettableResultFuture;
+import com.voxeo.moho.utils.CompletionListener;
 
 public class RecordingImpl<T extends EventSource> implements Recording<T> {
 
   protected MediaGroup _group;
 
-  protected SettableResultFuture<RecordCompleteEvent<T>> _future = new SettableResultFuture<RecordCompleteEvent<T>>();
+  protected SettableResultFuture<RecordCompleteEvent<T>> _future;
 
   final Lock lock = new ReentrantLock();
 
@@ -44,7 +46,17 @@ public class RecordingImpl<T extends EventSource> implements Recording<T> {
   private boolean _normalDisconnected = false;
 
   protected RecordingImpl(final MediaGroup group) {
+    this(group, null);
+  }
+
+  /**
+   * @param completionExecutor
+   *          where {@link CompletionListener}s run, normally the mailbox of the
+   *          media service's parent.
+   */
+  protected RecordingImpl(final MediaGroup group, final Executor completionExecutor) {
     _group = group;
+    _future = new SettableResultFuture<RecordCompleteEvent<T>>(completionExecutor);
   }
 
   protected void done(final RecordCompleteEvent<T> event) {
@@ -150,6 +162,11 @@ public class RecordingImpl<T extends EventSource> implements Recording<T> {
     }
   }
 
+  @Override
+  public void addCompletionListener(final CompletionListener<RecordCompleteEvent<T>> listener) {
+    _future.addListener(listener);
+  }
+
   @Override
   public boolean cancel(final boolean mayInterruptIfRunning) {
     return _future.cancel(mayInterruptIfRunning);
@@ -27,6 +27,7 @@ public class DequeueEventImpl extends QueueEventImpl implements DequeueEvent {
 
   public DequeueEventImpl(CallQueue source, Call item) {
     super(source);
+    _item = item;
   }
   
   /**
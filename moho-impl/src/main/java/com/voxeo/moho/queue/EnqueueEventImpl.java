@@ -27,6 +27,7 @@ public class EnqueueEventImpl extends QueueEventImpl implements EnqueueEvent {
 
   public EnqueueEventImpl(CallQueue source, Call item) {
     super(source);
+    _item = item;
   }
 
   /**
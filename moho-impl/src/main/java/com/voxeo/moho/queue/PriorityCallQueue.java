@@ -0,0 +1,502 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.queue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.media.mscontrol.join.Joinable.Direction;
+
+import org.apache.log4j.Logger;
+
+import com.voxeo.moho.ApplicationContext;
+import com.voxeo.moho.Call;
+import com.voxeo.moho.Mixer;
+import com.voxeo.moho.MixerEndpoint;
+import com.voxeo.moho.Participant.JoinType;
+import com.voxeo.moho.event.CallCompleteEvent;
+import com.voxeo.moho.event.DispatchableEventSource;
+import com.voxeo.moho.event.JoinCompleteEvent;
+import com.voxeo.moho.event.Observer;
+import com.voxeo.moho.event.OutputCompleteEvent;
+import com.voxeo.moho.media.Output;
+import com.voxeo.moho.media.output.AudibleResource;
+import com.voxeo.moho.media.output.OutputCommand;
+import com.voxeo.moho.spi.ExecutionContext;
+import com.voxeo.moho.utils.CompletionListener;
+import com.voxeo.moho.utils.EventListener;
+
+/**
+ * <p>
+ * A contact center queue. Calls wait by priority, the highest first and in
+ * order of arrival within a priority, and may require skills; an agent is
+ * given the best call its skills cover with {@link #poll(Set)}.
+ * </p>
+ * <p>
+ * The waiting calls are indexed by call ID, by priority and by the set of
+ * skills they require, so enqueueing, dequeueing and removing a call are
+ * O(log n); dequeueing for an agent also looks at the head of each distinct
+ * set of skills. A call that hangs up while waiting leaves the queue and
+ * counts as abandoned.
+ * </p>
+ * <p>
+ * The calls hear the audio while they wait, shared or each their own as with
+ * {@link SimpleQueue}, and their own audio is started again each time it
+ * ends. Neither blocks the thread that enqueues the call.
+ * </p>
+ */
+public class PriorityCallQueue extends DispatchableEventSource implements CallQueue {
+
+  private static final Logger LOG = Logger.getLogger(PriorityCallQueue.class);
+
+  public static final int DEFAULT_PRIORITY = 0;
+
+  protected final OutputCommand _output;
+
+  protected final boolean _shared;
+
+  protected Mixer _mixer;
+
+  // guarded by this: the waiting calls by call ID, in order of arrival.
+  protected final Map<String, Entry> _entries = new LinkedHashMap<String, Entry>();
+
+  protected final TreeSet<Entry> _byPriority = new TreeSet<Entry>();
+
+  // the waiting calls of each set of required skills.
+  protected final Map<Set<String>, TreeSet<Entry>> _bySkills = new HashMap<Set<String>, TreeSet<Entry>>();
+
+  protected long _sequence;
+
+  protected long _dequeued;
+
+  protected long _abandoned;
+
+  protected long _totalWait;
+
+  protected long _lastDequeue;
+
+  // the moving average of the time it takes to dequeue a call.
+  protected double _interval;
+
+  /**
+   * @param ctx
+   *          the application context
+   * @param res
+   *          the audio to be rendered
+   * @param shared
+   *          whether audio streams are shared or not
+   */
+  public PriorityCallQueue(final ApplicationContext ctx, final AudibleResource res, final boolean shared) {
+    super((ExecutionContext) ctx);
+    _output = new OutputCommand(res);
+    _output.setRepeatInterval(Integer.MAX_VALUE);
+    _shared = shared;
+  }
+
+  @Override
+  public void init() {
+    if (_shared) {
+      final MixerEndpoint e = (MixerEndpoint) this.getApplicationContext().createEndpoint(
+          MixerEndpoint.DEFAULT_MIXER_ENDPOINT);
+      _mixer = e.create(null);
+      _mixer.output(_output);
+    }
+  }
+
+  @Override
+  public void destroy() {
+    final List<Entry> entries;
+    synchronized (this) {
+      entries = new ArrayList<Entry>(_entries.values());
+      _entries.clear();
+      _byPriority.clear();
+      _bySkills.clear();
+    }
+    for (final Entry entry : entries) {
+      entry._call.removeObserver(entry);
+      entry._call.disconnect();
+    }
+  }
+
+  /**
+   * Enqueues the call with the default priority and no required skill.
+   */
+  @Override
+  public boolean offer(final Call e) {
+    return offer(e, DEFAULT_PRIORITY, null);
+  }
+
+  /**
+   * @param priority
+   *          the higher the sooner.
+   * @param skills
+   *          the skills an agent needs to take the call, <code>null</code> for
+   *          none.
+   * @return false if the call is already in the queue.
+   */
+  public boolean offer(final Call e, final int priority, final Set<String> skills) {
+    final Entry entry;
+    synchronized (this) {
+      if (_entries.containsKey(e.getId())) {
+        return false;
+      }
+      entry = new Entry(e, priority, skills == null ? Collections.<String> emptySet() : Collections
+          .unmodifiableSet(new HashSet<String>(skills)), _sequence++);
+      _entries.put(e.getId(), entry);
+      _byPriority.add(entry);
+      TreeSet<Entry> group = _bySkills.get(entry._skills);
+      if (group == null) {
+        group = new TreeSet<Entry>();
+        _bySkills.put(entry._skills, group);
+      }
+      group.add(entry);
+    }
+    e.addObserver(entry);
+    dispatch(new EnqueueEventImpl(this, e));
+    final Call.State state = e.getCallState();
+    if (state == Call.State.DISCONNECTED || state == Call.State.FAILED) {
+      // hung up before it could be observed.
+      entry.onEvent(null);
+    }
+    else {
+      startMedia(entry);
+    }
+    return true;
+  }
+
+  @Override
+  public synchronized Call peek() {
+    return _byPriority.isEmpty() ? null : _byPriority.first()._call;
+  }
+
+  /**
+   * @return the best call the skills cover, without removing it.
+   */
+  public synchronized Call peek(final Set<String> skills) {
+    final Entry entry = best(skills);
+    return entry == null ? null : entry._call;
+  }
+
+  /**
+   * Dequeues the call with the highest priority, whatever skills it requires.
+   */
+  @Override
+  public Call poll() {
+    final Entry entry;
+    synchronized (this) {
+      entry = _byPriority.isEmpty() ? null : _byPriority.first();
+      if (entry != null) {
+        unindex(entry);
+      }
+    }
+    return dequeued(entry);
+  }
+
+  /**
+   * Dequeues the call with the highest priority among the calls whose
+   * required skills are all in the given ones.
+   * 
+   * @param skills
+   *          the skills of the agent, <code>null</code> for none.
+   */
+  public Call poll(final Set<String> skills) {
+    final Entry entry;
+    synchronized (this) {
+      entry = best(skills);
+      if (entry != null) {
+        unindex(entry);
+      }
+    }
+    return dequeued(entry);
+  }
+
+  @Override
+  public boolean remove(final Call o) {
+    return remove(o.getId()) != null;
+  }
+
+  /**
+   * @return the call removed, <code>null</code> if it was not in the queue.
+   */
+  public Call remove(final String callId) {
+    final Entry entry;
+    synchronized (this) {
+      entry = _entries.get(callId);
+      if (entry != null) {
+        unindex(entry);
+      }
+    }
+    if (entry == null) {
+      return null;
+    }
+    leave(entry);
+    dispatch(new DequeueEventImpl(this, entry._call));
+    return entry._call;
+  }
+
+  @Override
+  public synchronized boolean isEmpty() {
+    return _entries.isEmpty();
+  }
+
+  /**
+   * @return the waiting calls by priority, a snapshot.
+   */
+  @Override
+  public synchronized Iterator<Call> iterator() {
+    final List<Call> calls = new ArrayList<Call>(_byPriority.size());
+    for (final Entry entry : _byPriority) {
+      calls.add(entry._call);
+    }
+    return Collections.unmodifiableList(calls).iterator();
+  }
+
+  @Override
+  public synchronized int size() {
+    return _entries.size();
+  }
+
+  /**
+   * @return the milliseconds the call that arrived first has been waiting, 0
+   *         if the queue is empty.
+   */
+  public synchronized long getLongestWait() {
+    if (_entries.isEmpty()) {
+      return 0;
+    }
+    return System.currentTimeMillis() - _entries.values().iterator().next()._enqueued;
+  }
+
+  /**
+   * @return the average milliseconds the dequeued calls waited.
+   */
+  public synchronized long getAverageWait() {
+    return _dequeued == 0 ? 0 : _totalWait / _dequeued;
+  }
+
+  /**
+   * @return the calls that hung up while waiting over the calls that left the
+   *         queue either way, from 0 to 1.
+   */
+  public synchronized double getAbandonmentRate() {
+    final long total = _dequeued + _abandoned;
+    return total == 0 ? 0 : (double) _abandoned / total;
+  }
+
+  /**
+   * @return the milliseconds a call enqueued now is expected to wait, from the
+   *         recent pace of dequeueing.
+   */
+  public synchronized long getEstimatedWaitTime() {
+    return (long) (_interval * _entries.size());
+  }
+
+  public synchronized long getDequeuedCount() {
+    return _dequeued;
+  }
+
+  public synchronized long getAbandonedCount() {
+    return _abandoned;
+  }
+
+  // with the lock held: the best call the skills cover.
+  private Entry best(final Set<String> skills) {
+    Entry best = null;
+    for (final Map.Entry<Set<String>, TreeSet<Entry>> group : _bySkills.entrySet()) {
+      if (skills == null ? group.getKey().isEmpty() : skills.containsAll(group.getKey())) {
+        final Entry first = group.getValue().first();
+        if (best == null || first.compareTo(best) < 0) {
+          best = first;
+        }
+      }
+    }
+    return best;
+  }
+
+  // with the lock held.
+  private void unindex(final Entry entry) {
+    _entries.remove(entry._call.getId());
+    _byPriority.remove(entry);
+    final TreeSet<Entry> group = _bySkills.get(entry._skills);
+    if (group != null) {
+      group.remove(entry);
+      if (group.isEmpty()) {
+        _bySkills.remove(entry._skills);
+      }
+    }
+  }
+
+  private Call dequeued(final Entry entry) {
+    if (entry == null) {
+      return null;
+    }
+    final long now = System.currentTimeMillis();
+    synchronized (this) {
+      _dequeued++;
+      _totalWait += now - entry._enqueued;
+      // the time it took to get to this call, idle time excluded.
+      final long sample = now - Math.max(_lastDequeue, entry._enqueued);
+      _interval = _lastDequeue == 0 ? sample : _interval + (sample - _interval) / 5;
+      _lastDequeue = now;
+    }
+    leave(entry);
+    dispatch(new DequeueEventImpl(this, entry._call));
+    return entry._call;
+  }
+
+  private synchronized boolean isWaiting(final Entry entry) {
+    return _entries.get(entry._call.getId()) == entry;
+  }
+
+  protected void startMedia(final Entry entry) {
+    if (!_shared) {
+      play(entry);
+      return;
+    }
+    try {
+      entry._call.join(_mixer, JoinType.BRIDGE, Direction.RECV).addCompletionListener(
+          new CompletionListener<JoinCompleteEvent>() {
+            @Override
+            public void onComplete(final JoinCompleteEvent result, final Throwable cause) {
+              final boolean joined = result != null && result.getCause() == JoinCompleteEvent.Cause.JOINED;
+              if (isWaiting(entry)) {
+                if (!joined) {
+                  play(entry);
+                }
+              }
+              else if (joined) {
+                // dequeued while the join was in flight, the unjoin may have
+                // come too early.
+                unjoin(entry);
+              }
+            }
+          });
+    }
+    catch (final RuntimeException e) {
+      LOG.warn("Unable to join " + entry._call + " to the queue mixer, playing to it instead.", e);
+      play(entry);
+    }
+  }
+
+  protected void play(final Entry entry) {
+    if (!isWaiting(entry)) {
+      return;
+    }
+    try {
+      final Output<Call> output = entry._call.output(_output);
+      entry._media = output;
+      if (!isWaiting(entry)) {
+        // dequeued before the output was known, so leave() could not stop it.
+        output.stop();
+        return;
+      }
+      output.addCompletionListener(new CompletionListener<OutputCompleteEvent<Call>>() {
+        @Override
+        public void onComplete(final OutputCompleteEvent<Call> result, final Throwable cause) {
+          if (result != null && result.getCause() == OutputCompleteEvent.Cause.END && isWaiting(entry)) {
+            play(entry);
+          }
+        }
+      });
+    }
+    catch (final RuntimeException e) {
+      LOG.warn("Unable to play to " + entry._call, e);
+    }
+  }
+
+  // the call is out of the queue, stop its audio.
+  protected void leave(final Entry entry) {
+    entry._call.removeObserver(entry);
+    if (_shared) {
+      unjoin(entry);
+    }
+    try {
+      final Output<Call> output = entry._media;
+      if (output != null && !output.isDone()) {
+        output.stop();
+      }
+    }
+    catch (final RuntimeException e) {
+      LOG.warn("Unable to stop the audio of " + entry._call, e);
+    }
+  }
+
+  private void unjoin(final Entry entry) {
+    try {
+      entry._call.unjoin(_mixer);
+    }
+    catch (final RuntimeException e) {
+      LOG.warn("Unable to unjoin " + entry._call + " from the queue mixer", e);
+    }
+  }
+
+  /**
+   * A waiting call. Entries are ordered by priority, the highest first, then
+   * by arrival.
+   */
+  protected class Entry implements Comparable<Entry>, Observer, EventListener<CallCompleteEvent> {
+
+    protected final Call _call;
+
+    protected final int _priority;
+
+    protected final Set<String> _skills;
+
+    protected final long _sequence;
+
+    protected final long _enqueued = System.currentTimeMillis();
+
+    protected volatile Output<Call> _media;
+
+    protected Entry(final Call call, final int priority, final Set<String> skills, final long sequence) {
+      _call = call;
+      _priority = priority;
+      _skills = skills;
+      _sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(final Entry o) {
+      if (_priority != o._priority) {
+        return _priority > o._priority ? -1 : 1;
+      }
+      return _sequence < o._sequence ? -1 : _sequence == o._sequence ? 0 : 1;
+    }
+
+    /**
+     * The call hung up while waiting.
+     */
+    @Override
+    public void onEvent(final CallCompleteEvent event) {
+      synchronized (PriorityCallQueue.this) {
+        if (_entries.get(_call.getId()) != this) {
+          return;
+        }
+        unindex(this);
+        _abandoned++;
+      }
+      _call.removeObserver(this);
+      dispatch(new DequeueEventImpl(PriorityCallQueue.this, _call));
+    }
+  }
+}
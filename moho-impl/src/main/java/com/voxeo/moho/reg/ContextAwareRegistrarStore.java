@@ -0,0 +1,26 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.reg;
+
+import com.voxeo.moho.spi.ExecutionContext;
+
+/**
+ * A {@link RegistrarStore} that needs the {@link ExecutionContext}, e.g. to
+ * recreate endpoints it has read back from storage. The context is set before
+ * {@link RegistrarStore#init(java.util.Map)} is called.
+ */
+public interface ContextAwareRegistrarStore extends RegistrarStore {
+  void setExecutionContext(ExecutionContext context);
+}
@@ -0,0 +1,503 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.reg;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+import com.voxeo.moho.Endpoint;
+import com.voxeo.moho.event.RegisterEvent.Contact;
+import com.voxeo.moho.spi.ExecutionContext;
+
+/**
+ * A {@link RegistrarStore} that survives restarts. It serves reads from memory
+ * like {@link MemoryRegistrarStore} and appends every committed transaction as
+ * one checksummed record to a memory-mapped log, so a commit costs a memory
+ * copy and a crash loses at most a torn last record, which is discarded on
+ * startup.
+ * <p>
+ * The log alternates between two files. When the current one is full, the
+ * live contacts are written to the other one as a snapshot with a higher
+ * generation, which then becomes the log; a snapshot only counts once its
+ * header is written, so a crash during compaction leaves the previous file in
+ * charge.
+ * <p>
+ * Configured with:
+ * <ul>
+ * <li>{@link #FILE}: the path of the log; ".0" and ".1" are appended to it.</li>
+ * <li>{@link #SIZE}: the initial size of the log in bytes. The log grows when a
+ * snapshot takes more than half of it.</li>
+ * <li>{@link #SYNC}: "true" to force every commit to disk, which also protects
+ * against power loss at the cost of a disk write per REGISTER.</li>
+ * </ul>
+ */
+public class FileRegistrarStore extends MemoryRegistrarStore implements ContextAwareRegistrarStore {
+  private static final Logger LOG = Logger.getLogger(FileRegistrarStore.class);
+
+  public static final String FILE = "com.voxeo.moho.reg.store.file";
+
+  public static final String SIZE = "com.voxeo.moho.reg.store.file.size";
+
+  public static final String SYNC = "com.voxeo.moho.reg.store.file.sync";
+
+  static final int DEFAULT_SIZE = 16 * 1024 * 1024;
+
+  static final int MAGIC = 0x4d524c47;
+
+  static final int VERSION = 1;
+
+  // magic, version, generation
+  static final int HEADER_SIZE = 16;
+
+  // length, crc
+  static final int RECORD_HEADER_SIZE = 8;
+
+  static final byte PUT = 1;
+
+  static final byte REMOVE = 2;
+
+  static final byte CLEAR = 3;
+
+  protected ExecutionContext _context;
+
+  protected File[] _files;
+
+  protected RandomAccessFile _file;
+
+  protected MappedByteBuffer _log;
+
+  protected int _current;
+
+  protected long _generation;
+
+  protected boolean _sync;
+
+  @Override
+  public void setExecutionContext(ExecutionContext context) {
+    _context = context;
+  }
+
+  @Override
+  public void init(Map<String, String> props) {
+    String path = props.get(FILE);
+    if (path == null) {
+      path = new File(System.getProperty("java.io.tmpdir"), "moho-registrar").getPath();
+    }
+    String size = props.get(SIZE);
+    _sync = Boolean.parseBoolean(props.get(SYNC));
+    _files = new File[] {new File(path + ".0"), new File(path + ".1")};
+    try {
+      long start = System.currentTimeMillis();
+      load(size == null ? DEFAULT_SIZE : Integer.parseInt(size));
+      LOG.info("Loaded " + _tables.size() + " AORs from " + _files[_current] + " in "
+          + (System.currentTimeMillis() - start) + "ms");
+    }
+    catch (IOException e) {
+      throw new IllegalArgumentException("Unable to open registrar log " + path + ": " + e);
+    }
+  }
+
+  @Override
+  public void add(Endpoint addr, Contact contact) {
+    super.add(addr, StoredContact.valueOf(contact));
+  }
+
+  @Override
+  public void update(Endpoint addr, Contact contact) {
+    super.update(addr, StoredContact.valueOf(contact));
+  }
+
+  @Override
+  public void commitTx() {
+    Tx tx = getTx();
+    if (tx._ops.isEmpty()) {
+      super.commitTx();
+      return;
+    }
+    byte[] record = null;
+    try {
+      record = encode(tx._ops);
+    }
+    catch (IOException e) {
+      rollbackTx();
+      throw new IllegalStateException("Unable to encode registrar transaction: " + e);
+    }
+    // commits are serialized so the log has them in the order they were
+    // applied in.
+    synchronized (this) {
+      try {
+        if (_log.remaining() < RECORD_HEADER_SIZE + record.length + 4) {
+          compact(RECORD_HEADER_SIZE + record.length + 4);
+        }
+      }
+      catch (IOException e) {
+        rollbackTx();
+        throw new IllegalStateException("Unable to compact registrar log: " + e);
+      }
+      super.commitTx();
+      append(record);
+    }
+  }
+
+  @Override
+  public synchronized void destroy() {
+    try {
+      if (_log != null) {
+        _log.force();
+      }
+      if (_file != null) {
+        _file.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.warn("Unable to close registrar log", e);
+    }
+    _log = null;
+    _file = null;
+  }
+
+  protected Endpoint createEndpoint(String addr) {
+    if (_context == null) {
+      throw new IllegalStateException("No execution context to create endpoints with.");
+    }
+    return _context.createEndpoint(addr);
+  }
+
+  void append(byte[] record) {
+    int position = _log.position();
+    CRC32 crc = new CRC32();
+    crc.update(record);
+    // write the body first and the length last, so a record is never seen
+    // before it is complete.
+    _log.position(position + RECORD_HEADER_SIZE);
+    _log.put(record);
+    _log.putInt(0);
+    _log.putInt(position + 4, (int) crc.getValue());
+    _log.putInt(position, record.length);
+    _log.position(position + RECORD_HEADER_SIZE + record.length);
+    if (_sync) {
+      _log.force();
+    }
+  }
+
+  /**
+   * Opens the newest valid log, or creates one, and replays it.
+   */
+  void load(int size) throws IOException {
+    int current = -1;
+    long generation = -1;
+    for (int i = 0; i < _files.length; i++) {
+      long g = readGeneration(_files[i]);
+      if (g > generation) {
+        generation = g;
+        current = i;
+      }
+    }
+    if (current < 0) {
+      _generation = 0;
+      open(0, size);
+      writeHeader();
+      return;
+    }
+    _current = current;
+    _generation = generation;
+    _file = new RandomAccessFile(_files[current], "rw");
+    _log = _file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, _file.length());
+    _log.position(HEADER_SIZE);
+    replay();
+  }
+
+  long readGeneration(File file) throws IOException {
+    if (!file.exists() || file.length() < HEADER_SIZE) {
+      return -1;
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      if (raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+        return -1;
+      }
+      return raf.readLong();
+    }
+    finally {
+      raf.close();
+    }
+  }
+
+  void replay() throws IOException {
+    long now = System.currentTimeMillis();
+    // find where the records end and read them in one go.
+    int start = _log.position();
+    int end = start;
+    while (end + RECORD_HEADER_SIZE <= _log.capacity()) {
+      int length = _log.getInt(end);
+      if (length <= 0 || length > _log.capacity() - end - RECORD_HEADER_SIZE) {
+        break;
+      }
+      end += RECORD_HEADER_SIZE + length;
+    }
+    byte[] bytes = new byte[end - start];
+    _log.get(bytes);
+
+    Map<Endpoint, Map<Endpoint, Contact>> tables = new LinkedHashMap<Endpoint, Map<Endpoint, Contact>>();
+    Map<String, Endpoint> endpoints = new HashMap<String, Endpoint>();
+    RecordReader in = new RecordReader(bytes);
+    CRC32 crc = new CRC32();
+    while (in._position < bytes.length) {
+      int position = in._position;
+      int length = in.readInt();
+      int checksum = in.readInt();
+      crc.reset();
+      crc.update(bytes, in._position, length);
+      if ((int) crc.getValue() != checksum) {
+        LOG.warn("Discarding torn registrar log record at " + (start + position) + " in " + _files[_current]);
+        in._position = position;
+        break;
+      }
+      decode(in, tables, endpoints);
+      in._position = position + RECORD_HEADER_SIZE + length;
+    }
+    _log.position(start + in._position);
+    // anything after the last good record is garbage from a crash.
+    if (_log.remaining() >= 4) {
+      _log.putInt(_log.position(), 0);
+    }
+    for (Map.Entry<Endpoint, Map<Endpoint, Contact>> entry : tables.entrySet()) {
+      Map<Endpoint, Contact> contacts = entry.getValue();
+      for (Contact contact : new ArrayList<Contact>(contacts.values())) {
+        if (((StoredContact) contact).getExpirationTime() < now) {
+          contacts.remove(contact.getEndpoint());
+        }
+      }
+      install(entry.getKey(), contacts);
+    }
+  }
+
+  /**
+   * Writes the live contacts to the other log file and switches to it.
+   */
+  void compact(int needed) throws IOException {
+    List<byte[]> records = new ArrayList<byte[]>(_tables.size());
+    long total = HEADER_SIZE + needed;
+    for (Map.Entry<Endpoint, Map<Endpoint, Contact>> entry : _tables.entrySet()) {
+      byte[] record = encode(entry.getKey(), entry.getValue().values());
+      records.add(record);
+      total += RECORD_HEADER_SIZE + record.length;
+    }
+    long size = _log.capacity();
+    while (total > size / 2) {
+      size *= 2;
+    }
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Registrar log is too large: " + total);
+    }
+    RandomAccessFile oldFile = _file;
+    MappedByteBuffer oldLog = _log;
+    int old = _current;
+    int next = 1 - _current;
+    try {
+      open(next, (int) size);
+      for (byte[] record : records) {
+        append(record);
+      }
+      // the new log is only valid once it is complete.
+      _log.force();
+      _generation++;
+      writeHeader();
+    }
+    catch (IOException e) {
+      if (_file != oldFile) {
+        _file.close();
+      }
+      _file = oldFile;
+      _log = oldLog;
+      _current = old;
+      throw e;
+    }
+    oldFile.close();
+    LOG.info("Compacted registrar log into " + _files[next] + ", " + records.size() + " AORs, " + size + " bytes");
+  }
+
+  void open(int index, int size) throws IOException {
+    _current = index;
+    _file = new RandomAccessFile(_files[index], "rw");
+    _file.setLength(0);
+    _file.setLength(size);
+    _log = _file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    _log.position(HEADER_SIZE);
+  }
+
+  void writeHeader() {
+    _log.putInt(0, MAGIC);
+    _log.putInt(4, VERSION);
+    _log.putLong(8, _generation);
+    _log.force();
+  }
+
+  byte[] encode(Map<Endpoint, List<Op>> ops) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+    DataOutputStream out = new DataOutputStream(bytes);
+    int count = 0;
+    for (List<Op> list : ops.values()) {
+      count += list.size();
+    }
+    out.writeInt(count);
+    for (Map.Entry<Endpoint, List<Op>> entry : ops.entrySet()) {
+      for (Op op : entry.getValue()) {
+        switch (op._type) {
+          case PUT:
+            writePut(out, entry.getKey(), (StoredContact) op._contact);
+            break;
+          case REMOVE:
+            out.writeByte(REMOVE);
+            out.writeUTF(entry.getKey().toString());
+            out.writeUTF(op._contact.getEndpoint().toString());
+            break;
+          case CLEAR:
+            out.writeByte(CLEAR);
+            out.writeUTF(entry.getKey().toString());
+            break;
+        }
+      }
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  byte[] encode(Endpoint aor, Collection<Contact> contacts) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(contacts.size());
+    for (Contact contact : contacts) {
+      writePut(out, aor, (StoredContact) contact);
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  void writePut(DataOutputStream out, Endpoint aor, StoredContact contact) throws IOException {
+    out.writeByte(PUT);
+    out.writeUTF(aor.toString());
+    out.writeUTF(contact.getEndpoint().toString());
+    out.writeInt(contact.getExpiration());
+    out.writeLong(contact.getCreationTime());
+    out.writeUTF(contact.getCallID() == null ? "" : contact.getCallID());
+    out.writeInt(contact.getCSeq());
+  }
+
+  void decode(RecordReader in, Map<Endpoint, Map<Endpoint, Contact>> tables, Map<String, Endpoint> endpoints)
+      throws IOException {
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      byte type = in.readByte();
+      Endpoint aor = endpoint(in.readUTF(), endpoints);
+      Map<Endpoint, Contact> contacts = tables.get(aor);
+      if (contacts == null) {
+        contacts = new LinkedHashMap<Endpoint, Contact>();
+        tables.put(aor, contacts);
+      }
+      switch (type) {
+        case PUT:
+          Endpoint ep = endpoint(in.readUTF(), endpoints);
+          int expiration = in.readInt();
+          long creationTime = in.readLong();
+          String callID = in.readUTF();
+          int cseq = in.readInt();
+          contacts.put(ep, new StoredContact(ep, expiration, creationTime, callID.length() == 0 ? null : callID, cseq));
+          break;
+        case REMOVE:
+          contacts.remove(endpoint(in.readUTF(), endpoints));
+          break;
+        case CLEAR:
+          contacts.clear();
+          break;
+        default:
+          throw new IOException("Unknown registrar log record type " + type);
+      }
+    }
+  }
+
+  Endpoint endpoint(String addr, Map<String, Endpoint> endpoints) {
+    // the same AOR shows up in many records, parse it once.
+    Endpoint ep = endpoints.get(addr);
+    if (ep == null) {
+      ep = createEndpoint(addr);
+      endpoints.put(addr, ep);
+    }
+    return ep;
+  }
+
+  /**
+   * Reads what {@link DataOutputStream} wrote, without copying each record
+   * into a stream of its own.
+   */
+  static class RecordReader {
+    final byte[] _bytes;
+
+    int _position;
+
+    RecordReader(byte[] bytes) {
+      _bytes = bytes;
+    }
+
+    byte readByte() {
+      return _bytes[_position++];
+    }
+
+    int readInt() {
+      int value = ((_bytes[_position] & 0xff) << 24) | ((_bytes[_position + 1] & 0xff) << 16)
+          | ((_bytes[_position + 2] & 0xff) << 8) | (_bytes[_position + 3] & 0xff);
+      _position += 4;
+      return value;
+    }
+
+    long readLong() {
+      return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+    }
+
+    String readUTF() throws IOException {
+      int length = ((_bytes[_position] & 0xff) << 8) | (_bytes[_position + 1] & 0xff);
+      char[] chars = new char[length];
+      for (int i = 0; i < length; i++) {
+        byte b = _bytes[_position + 2 + i];
+        if (b <= 0) {
+          // not plain ASCII, let DataInputStream deal with it.
+          DataInputStream in = new DataInputStream(new ByteArrayInputStream(_bytes, _position, length + 2));
+          String value = in.readUTF();
+          _position += length + 2;
+          return value;
+        }
+        chars[i] = (char) b;
+      }
+      _position += length + 2;
+      return new String(chars);
+    }
+  }
+}
@@ -1,99 +1,208 @@
 package com.voxeo.moho.reg;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.voxeo.moho.Endpoint;
 import com.voxeo.moho.event.RegisterEvent.Contact;
+import com.voxeo.moho.sip.SIPEndpoint;
 
+/**
+ * An in-memory {@link RegistrarStore}. The contacts of each AOR are kept in an
+ * immutable map that is replaced as a whole on every change, so readers never
+ * lock and never see a half applied transaction, and writers to different AORs
+ * never contend with each other.
+ * <p>
+ * A transaction records the changes it makes per AOR and applies them at
+ * commit time with a compare-and-set on that AOR only; if another transaction
+ * committed to the same AOR in the meantime, the changes are applied again on
+ * top of the new contacts.
+ * <p>
+ * The committed contacts of an AOR are ordered by descending q-value, so
+ * routing can use {@link #getContacts(Endpoint)} as is, without a transaction
+ * and without copying. A reverse index maps each contact back to its AOR.
+ */
 public class MemoryRegistrarStore implements RegistrarStore {
-  HashMap<Endpoint, HashMap<Endpoint, Contact>> _tables = new HashMap<Endpoint, HashMap<Endpoint, Contact>>(); 
-  ThreadLocal<Tx> _tx;
-  
-  class Tx{
-    HashMap<Endpoint, HashMap<Endpoint, Contact>> _mods;
-    
-    Tx() {
-      _mods = new HashMap<Endpoint, HashMap<Endpoint, Contact>>();
-    }
-    
-    synchronized void commit() {
-      synchronized(_tables) {
-        for(Endpoint ep : _mods.keySet()) {
-          HashMap<Endpoint, Contact> news = _mods.get(ep);
-          HashMap<Endpoint, Contact> olds = _tables.get(ep);
-          if (olds != null) {
-            olds.clear();
-            for(Endpoint epp : news.keySet()) {
-              olds.put(epp, news.get(epp));
+  final ConcurrentMap<Endpoint, Map<Endpoint, Contact>> _tables =
+      new ConcurrentHashMap<Endpoint, Map<Endpoint, Contact>>();
+
+  // contact -> AOR. It may briefly hold a contact that has just been removed,
+  // so lookups check the AOR's contacts before trusting it.
+  final ConcurrentMap<Endpoint, Endpoint> _aors = new ConcurrentHashMap<Endpoint, Endpoint>();
+
+  final ThreadLocal<Tx> _tx = new ThreadLocal<Tx>();
+
+  static final Comparator<Contact> BY_Q = new Comparator<Contact>() {
+    @Override
+    public int compare(Contact c1, Contact c2) {
+      return Float.compare(q(c2), q(c1));
+    }
+  };
+
+  enum OpType {
+    PUT, REMOVE, CLEAR
+  }
+
+  static class Op {
+    final OpType _type;
+
+    final Contact _contact;
+
+    Op(OpType type, Contact contact) {
+      _type = type;
+      _contact = contact;
+    }
+
+    void apply(Map<Endpoint, Contact> contacts) {
+      switch (_type) {
+        case PUT:
+          contacts.put(_contact.getEndpoint(), _contact);
+          break;
+        case REMOVE:
+          contacts.remove(_contact.getEndpoint());
+          break;
+        case CLEAR:
+          contacts.clear();
+          break;
+      }
+    }
+  }
+
+  class Tx {
+    // the changes made to each AOR, in order.
+    final Map<Endpoint, List<Op>> _ops = new HashMap<Endpoint, List<Op>>();
+
+    // what the AORs in _ops look like from inside this transaction.
+    final Map<Endpoint, Map<Endpoint, Contact>> _views = new HashMap<Endpoint, Map<Endpoint, Contact>>();
+
+    void commit() {
+      for (Map.Entry<Endpoint, List<Op>> entry : _ops.entrySet()) {
+        Endpoint aor = entry.getKey();
+        List<Op> ops = entry.getValue();
+        for (;;) {
+          Map<Endpoint, Contact> current = _tables.get(aor);
+          Map<Endpoint, Contact> next = snapshot(apply(current, ops));
+          if (current == null) {
+            if (next == null || _tables.putIfAbsent(aor, next) == null) {
+              index(aor, current, next);
+              break;
+            }
+          }
+          else if (next == null) {
+            if (_tables.remove(aor, current)) {
+              index(aor, current, next);
+              break;
             }
           }
-          else {
-            _tables.put(ep, news);
+          else if (_tables.replace(aor, current, next)) {
+            index(aor, current, next);
+            break;
           }
         }
-        _mods.clear();
       }
     }
-    
-    synchronized void rollback() {
-      _mods.clear();
-    }
-    
-    synchronized void addContact(Endpoint addr, Contact contact) {
-      Map<Endpoint, Contact> contacts = get(addr);
-      contacts.put(contact.getEndpoint(), contact);
-    }
-    
-    synchronized void updateContact(Endpoint addr, Contact contact) {
-      Map<Endpoint, Contact> contacts = get(addr);
-      contacts.put(contact.getEndpoint(), contact);
-    }
-    
-    synchronized void removeContact(Endpoint addr, Contact contact) {
-      Map<Endpoint, Contact> contacts = get(addr);
-      contacts.remove(contact.getEndpoint());
-    }
-    
-    synchronized void removeContacts(Endpoint addr) {
-      Map<Endpoint, Contact> contacts = get(addr);
-      contacts.clear();
-    }
-    
-    synchronized Collection<Contact> getContacts(Endpoint addr) {
-      Map<Endpoint, Contact> contacts = get(addr);
-      return contacts.values();
-    }
-    
-    synchronized Contact getContact(Endpoint aor, Endpoint addr) {
-      Map<Endpoint, Contact> contacts = get(addr);
-      return contacts.get(addr);
-    }
-
-    @SuppressWarnings("unchecked")
-    synchronized Map<Endpoint, Contact> get(Endpoint endpoint) {
-      HashMap<Endpoint, Contact> contacts = _mods.get(endpoint);
-      if (contacts == null) {
-        contacts = new HashMap<Endpoint, Contact>();
-        synchronized(_tables) {
-          HashMap<Endpoint, Contact> existings = _tables.get(endpoint);
-          if (existings != null) {
-            contacts = (HashMap<Endpoint, Contact>)existings.clone();
-          }
-          else {
-            contacts = existings;
+
+    void record(Endpoint aor, Op op) {
+      List<Op> ops = _ops.get(aor);
+      Map<Endpoint, Contact> view = _views.get(aor);
+      if (ops == null) {
+        ops = new ArrayList<Op>(2);
+        _ops.put(aor, ops);
+        view = copy(_tables.get(aor));
+        _views.put(aor, view);
+      }
+      ops.add(op);
+      op.apply(view);
+    }
+
+    Map<Endpoint, Contact> get(Endpoint aor) {
+      Map<Endpoint, Contact> view = _views.get(aor);
+      return view != null ? view : _tables.get(aor);
+    }
+  }
+
+  static Map<Endpoint, Contact> copy(Map<Endpoint, Contact> contacts) {
+    return contacts == null ? new LinkedHashMap<Endpoint, Contact>() : new LinkedHashMap<Endpoint, Contact>(contacts);
+  }
+
+  static Map<Endpoint, Contact> apply(Map<Endpoint, Contact> contacts, List<Op> ops) {
+    Map<Endpoint, Contact> result = copy(contacts);
+    for (Op op : ops) {
+      op.apply(result);
+    }
+    return result;
+  }
+
+  static Map<Endpoint, Contact> snapshot(Map<Endpoint, Contact> contacts) {
+    if (contacts.isEmpty()) {
+      return null;
+    }
+    if (contacts.size() > 1) {
+      List<Contact> sorted = new ArrayList<Contact>(contacts.values());
+      // stable, so contacts with the same q-value keep their order.
+      Collections.sort(sorted, BY_Q);
+      contacts = new LinkedHashMap<Endpoint, Contact>(sorted.size() * 2);
+      for (Contact contact : sorted) {
+        contacts.put(contact.getEndpoint(), contact);
+      }
+    }
+    return Collections.unmodifiableMap(contacts);
+  }
+
+  /**
+   * @return the q-value of the contact, 1.0 if it has none.
+   */
+  static float q(Contact contact) {
+    if (contact.getEndpoint() instanceof SIPEndpoint) {
+      float q = ((SIPEndpoint) contact.getEndpoint()).getSipAddress().getQ();
+      if (q >= 0) {
+        return q;
+      }
+    }
+    return 1.0f;
+  }
+
+  // runs after the AOR's contacts have been replaced, so a later commit to the
+  // same AOR may index its contacts first. A contact removed here that such a
+  // commit has added back is indexed again, at worst leaving a stale mapping
+  // behind, never a missing one.
+  void index(Endpoint aor, Map<Endpoint, Contact> previous, Map<Endpoint, Contact> next) {
+    if (previous != null) {
+      for (Endpoint contact : previous.keySet()) {
+        if ((next == null || !next.containsKey(contact)) && _aors.remove(contact, aor)) {
+          Map<Endpoint, Contact> current = _tables.get(aor);
+          if (current != null && current.containsKey(contact)) {
+            _aors.put(contact, aor);
           }
         }
-        _mods.put(endpoint, contacts);
       }
-      return contacts;
     }
+    if (next != null) {
+      for (Endpoint contact : next.keySet()) {
+        _aors.put(contact, aor);
+      }
+    }
+  }
+
+  /**
+   * Sets the committed contacts of an AOR, e.g. when loading them from
+   * storage.
+   */
+  void install(Endpoint aor, Map<Endpoint, Contact> contacts) {
+    Map<Endpoint, Contact> snapshot = snapshot(contacts);
+    Map<Endpoint, Contact> previous = snapshot == null ? _tables.remove(aor) : _tables.put(aor, snapshot);
+    index(aor, previous, snapshot);
   }
-  
+
   @Override
   public void startTx() {
     if (_tx.get() != null) {
@@ -104,12 +213,21 @@ public class MemoryRegistrarStore implements RegistrarStore {
 
   @Override
   public void commitTx() {
-    getTx().commit();
+    Tx tx = getTx();
+    try {
+      tx.commit();
+    }
+    finally {
+      _tx.remove();
+    }
   }
 
+  /**
+   * Does nothing if the transaction has already been committed or rolled back.
+   */
   @Override
   public void rollbackTx() {
-    getTx().rollback();
+    _tx.remove();
   }
 
   Tx getTx()  {
@@ -119,71 +237,82 @@ public class MemoryRegistrarStore implements RegistrarStore {
     }
     return tx;
   }
-  
+
   @Override
   public void add(Endpoint addr, Contact contact) {
-    getTx().addContact(addr, contact);
+    getTx().record(addr, new Op(OpType.PUT, contact));
   }
 
   @Override
   public void update(Endpoint addr, Contact contact) {
-    getTx().updateContact(addr, contact);
+    getTx().record(addr, new Op(OpType.PUT, contact));
   }
 
   @Override
   public void remove(Endpoint addr, Contact contact) {
-    getTx().removeContact(addr, contact);
+    getTx().record(addr, new Op(OpType.REMOVE, contact));
   }
 
   @Override
   public void remove(Endpoint endpoint) {
-    getTx().removeContacts(endpoint);
+    getTx().record(endpoint, new Op(OpType.CLEAR, null));
   }
 
+  /**
+   * Outside a transaction this returns the last committed contacts, ordered by
+   * q-value.
+   */
   @Override
   public Collection<Contact> getContacts(Endpoint endpoint) {
-    return getTx().getContacts(endpoint);
+    Tx tx = _tx.get();
+    if (tx != null && tx._views.containsKey(endpoint)) {
+      // the view changes as the transaction goes on.
+      return Collections.unmodifiableCollection(new ArrayList<Contact>(tx._views.get(endpoint).values()));
+    }
+    Map<Endpoint, Contact> contacts = _tables.get(endpoint);
+    if (contacts == null) {
+      return Collections.emptyList();
+    }
+    return contacts.values();
   }
-  
+
   @Override
   public Contact getContact(Endpoint aor, Endpoint addr) {
-    return getTx().getContact(aor, addr);
+    Map<Endpoint, Contact> contacts = get(aor);
+    return contacts == null ? null : contacts.get(addr);
+  }
+
+  Map<Endpoint, Contact> get(Endpoint aor) {
+    Tx tx = _tx.get();
+    return tx != null ? tx.get(aor) : _tables.get(aor);
   }
 
   @Override
-  public Iterator<Endpoint> getEndpoints() {
-    synchronized(_tables) {
-      Set<Endpoint> keys = _tables.keySet();
-      Set<Endpoint> copies = new HashSet<Endpoint>();
-      copies.addAll(keys);
-      return copies.iterator();
+  public Endpoint getAddressOfRecord(Endpoint contact) {
+    Endpoint aor = _aors.get(contact);
+    if (aor != null) {
+      Map<Endpoint, Contact> contacts = _tables.get(aor);
+      if (contacts != null && contacts.containsKey(contact)) {
+        return aor;
+      }
     }
+    return null;
+  }
+
+  @Override
+  public Iterator<Endpoint> getEndpoints() {
+    return Collections.unmodifiableSet(_tables.keySet()).iterator();
   }
 
   @Override
   public boolean isExisting(Endpoint addr, Contact contact) {
-     synchronized(_tables) {
-       Map<Endpoint, Contact> contacts = _tables.get(addr);
-       if (contacts == null) {
-         return false;
-       }
-       Contact c = contacts.get(contact.getEndpoint());
-       if (c == null) {
-         return false;
-       }
-       return true;
-     }
+    Map<Endpoint, Contact> contacts = _tables.get(addr);
+    return contacts != null && contacts.containsKey(contact.getEndpoint());
   }
 
   @Override
   public boolean isExisting(Endpoint endpoint) {
-    synchronized(_tables) {
-      Map<Endpoint, Contact> contacts = _tables.get(endpoint);
-      if (contacts == null) {
-        return false;
-      }
-      return true;
-    }
+    return _tables.containsKey(endpoint);
   }
 
   @Override
@@ -192,5 +321,7 @@ public class MemoryRegistrarStore implements RegistrarStore {
 
   @Override
   public void destroy() {
+    _tables.clear();
+    _aors.clear();
   }
 }
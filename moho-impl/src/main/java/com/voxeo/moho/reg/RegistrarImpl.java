@@ -3,7 +3,15 @@ package com.voxeo.moho.reg;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
 
 import com.voxeo.moho.Endpoint;
 import com.voxeo.moho.event.AcceptableEvent.Reason;
@@ -13,8 +21,16 @@ import com.voxeo.moho.sip.SIPRegisterEvent;
 import com.voxeo.moho.sip.SIPRegisterEvent.SIPContact;
 import com.voxeo.moho.sip.SIPRegisterEventImpl.ContactImpl;
 import com.voxeo.moho.spi.ExecutionContext;
+import com.voxeo.moho.util.TimingWheel;
 
 public class RegistrarImpl implements Registrar, Runnable {
+  private static final Logger LOG = Logger.getLogger(RegistrarImpl.class);
+
+  /** The resolution of contact expiry, in milliseconds. */
+  public static final long EXPIRY_TICK = 1000;
+
+  static final int EXPIRY_WHEEL_SIZE = 64;
+
   protected RegistrarStore _store;
 
   protected Collection<RegistrarController> _controllers = new ArrayList<RegistrarController>();
@@ -27,6 +43,64 @@ public class RegistrarImpl implements Registrar, Runnable {
 
   protected Thread _runner;
 
+  // the latest deadline of every registered contact; an expiry whose deadline
+  // is no longer in here has been superseded by a refresh.
+  protected final ConcurrentMap<ContactKey, Long> _deadlines = new ConcurrentHashMap<ContactKey, Long>();
+
+  // expiries scheduled by registering threads, moved into the wheel by the
+  // runner.
+  protected final Queue<Expiry> _scheduled = new ConcurrentLinkedQueue<Expiry>();
+
+  // only touched by the runner thread.
+  protected TimingWheel<Expiry> _wheel;
+
+  protected final AtomicLong _lookupHits = new AtomicLong();
+
+  protected final AtomicLong _lookupMisses = new AtomicLong();
+
+  protected final AtomicLong _lookupNanos = new AtomicLong();
+
+  protected static class ContactKey {
+    final Endpoint _aor;
+
+    final Endpoint _contact;
+
+    ContactKey(Endpoint aor, Endpoint contact) {
+      _aor = aor;
+      _contact = contact;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * _aor.hashCode() + _contact.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof ContactKey)) {
+        return false;
+      }
+      ContactKey k = (ContactKey) o;
+      return _aor.equals(k._aor) && _contact.equals(k._contact);
+    }
+
+    @Override
+    public String toString() {
+      return _aor + "->" + _contact;
+    }
+  }
+
+  protected static class Expiry {
+    final ContactKey _key;
+
+    final Long _deadline;
+
+    Expiry(ContactKey key, long deadline) {
+      _key = key;
+      _deadline = deadline;
+    }
+  }
+
   @Override
   public void doRegister(RegisterEvent event) {
     if (event instanceof SIPRegisterEvent) {
@@ -45,6 +119,7 @@ public class RegistrarImpl implements Registrar, Runnable {
   protected void doSIPRegister(SIPRegisterEvent event) {
     // TODO: validate Required header
     if (isResponsibleFor(event)) {
+      List<Contact> registered = new ArrayList<Contact>();
       _store.startTx();
       try {
         for (Contact contact : event.getContacts()) {
@@ -57,6 +132,7 @@ public class RegistrarImpl implements Registrar, Runnable {
               validateContact((SIPContact) contact, (SIPContact) current);
               if (contact.getExpiration() != 0) {
                 _store.update(event.getEndpoint(), contact);
+                registered.add(contact);
               }
               else {
                 _store.remove(event.getEndpoint(), contact);
@@ -64,6 +140,7 @@ public class RegistrarImpl implements Registrar, Runnable {
             }
             else {
               _store.add(event.getEndpoint(), contact);
+              registered.add(contact);
             }
           }
           else if (contact.getExpiration() == 0) {
@@ -71,12 +148,16 @@ public class RegistrarImpl implements Registrar, Runnable {
           }
         }
         _store.commitTx();
-        event.accept();
       }
       catch (Throwable t) {
         _store.rollbackTx();
         event.reject(Reason.ERROR);
+        return;
+      }
+      for (Contact contact : registered) {
+        schedule(event.getEndpoint(), contact);
       }
+      event.accept();
     }
     else {
       // TODO proxy
@@ -84,7 +165,7 @@ public class RegistrarImpl implements Registrar, Runnable {
   }
 
   protected void validateContact(SIPContact newC, SIPContact currentC) {
-    if (newC.getCallID() != currentC.getCallID()) {
+    if (newC.getCallID() == null ? currentC.getCallID() != null : !newC.getCallID().equals(currentC.getCallID())) {
       throw new IllegalArgumentException("Same contact can not be registered with different Call-ID.");
     }
     if (newC.getCSeq() < currentC.getCSeq()) {
@@ -94,7 +175,46 @@ public class RegistrarImpl implements Registrar, Runnable {
 
   @Override
   public Collection<Contact> getContacts(Endpoint aor) {
-    return _store.getContacts(aor);
+    long start = System.nanoTime();
+    Collection<Contact> contacts = _store.getContacts(aor);
+    _lookupNanos.addAndGet(System.nanoTime() - start);
+    if (contacts.isEmpty()) {
+      _lookupMisses.incrementAndGet();
+    }
+    else {
+      _lookupHits.incrementAndGet();
+    }
+    return contacts;
+  }
+
+  @Override
+  public Endpoint getAddressOfRecord(Endpoint contact) {
+    return _store.getAddressOfRecord(contact);
+  }
+
+  /**
+   * @return the number of {@link #getContacts(Endpoint)} calls that found at
+   *         least one contact.
+   */
+  public long getLookupHits() {
+    return _lookupHits.get();
+  }
+
+  /**
+   * @return the number of {@link #getContacts(Endpoint)} calls that found no
+   *         contact.
+   */
+  public long getLookupMisses() {
+    return _lookupMisses.get();
+  }
+
+  /**
+   * @return the average time taken by {@link #getContacts(Endpoint)}, in
+   *         nanoseconds.
+   */
+  public long getAverageLookupNanos() {
+    long lookups = _lookupHits.get() + _lookupMisses.get();
+    return lookups == 0 ? 0 : _lookupNanos.get() / lookups;
   }
 
   @Override
@@ -112,34 +232,69 @@ public class RegistrarImpl implements Registrar, Runnable {
     return _controllers.iterator();
   }
 
+  /**
+   * Arranges for the contact to be checked for expiry once its expiration has
+   * elapsed from now. A later call for the same contact supersedes this one.
+   */
+  protected void schedule(Endpoint aor, Contact contact) {
+    ContactKey key = new ContactKey(aor, contact.getEndpoint());
+    long deadline = contact instanceof StoredContact ? ((StoredContact) contact).getExpirationTime() : System
+        .currentTimeMillis() + contact.getExpiration() * 1000L;
+    _deadlines.put(key, deadline);
+    _scheduled.offer(new Expiry(key, deadline));
+  }
+
   @Override
   public void run() {
+    _wheel = new TimingWheel<Expiry>(EXPIRY_TICK, EXPIRY_WHEEL_SIZE, System.currentTimeMillis());
     while (_running) {
-      Iterator<Endpoint> i = _store.getEndpoints();
-      Endpoint ep = null;
-      while (_running && i.hasNext()) {
-        ep = i.next();
-        try {
-          _store.startTx();
-          Collection<Contact> contacts = _store.getContacts(ep);
-          for (Contact contact : contacts) {
-            if (contact.isExpired()) {
-              _store.remove(ep, contact);
-            }
-          }
-          _store.commitTx();
-        }
-        catch (Throwable t) {
-          _store.rollbackTx();
-        }
-        Thread.yield();
-      }
       try {
-        Thread.sleep(_maxExpiration);
+        Thread.sleep(EXPIRY_TICK);
       }
-      catch (Exception e) {
+      catch (InterruptedException e) {
         // ignore
       }
+      if (_running) {
+        expire(System.currentTimeMillis());
+      }
+    }
+  }
+
+  /**
+   * Removes the contacts whose deadline has passed. Only contacts that are due
+   * are looked at; the cost does not depend on how many are registered.
+   */
+  protected void expire(long now) {
+    List<Expiry> due = new ArrayList<Expiry>();
+    Expiry expiry = null;
+    while ((expiry = _scheduled.poll()) != null) {
+      if (!_wheel.add(expiry, expiry._deadline)) {
+        due.add(expiry);
+      }
+    }
+    _wheel.advance(now, due);
+    for (Expiry e : due) {
+      if (!_deadlines.remove(e._key, e._deadline)) {
+        // refreshed or re-registered since.
+        continue;
+      }
+      try {
+        _store.startTx();
+        Contact contact = _store.getContact(e._key._aor, e._key._contact);
+        if (contact != null) {
+          if (contact.isExpired()) {
+            _store.remove(e._key._aor, contact);
+          }
+          else if (_deadlines.putIfAbsent(e._key, now + EXPIRY_TICK) == null) {
+            _wheel.add(new Expiry(e._key, now + EXPIRY_TICK), now + EXPIRY_TICK);
+          }
+        }
+        _store.commitTx();
+      }
+      catch (Throwable t) {
+        LOG.warn("Unable to expire contact " + e._key, t);
+        _store.rollbackTx();
+      }
     }
   }
 
@@ -153,6 +308,9 @@ public class RegistrarImpl implements Registrar, Runnable {
     }
     try {
       _store = (RegistrarStore) Class.forName(storeImpl).newInstance();
+      if (_store instanceof ContextAwareRegistrarStore) {
+        ((ContextAwareRegistrarStore) _store).setExecutionContext(context);
+      }
       _store.init(props);
     }
     catch (Exception e) {
@@ -166,6 +324,17 @@ public class RegistrarImpl implements Registrar, Runnable {
 
     // TODO: get all the domains.
 
+    // contacts that outlived a restart expire when they would have, if the
+    // store remembers when they were registered, or get their full expiration
+    // again otherwise.
+    Iterator<Endpoint> i = _store.getEndpoints();
+    while (i.hasNext()) {
+      Endpoint aor = i.next();
+      for (Contact contact : _store.getContacts(aor)) {
+        schedule(aor, contact);
+      }
+    }
+
     _running = true;
     _runner = new Thread(this, "Registrar");
     _runner.start();
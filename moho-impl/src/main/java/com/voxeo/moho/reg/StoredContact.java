@@ -0,0 +1,120 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.reg;
+
+import com.voxeo.moho.Endpoint;
+import com.voxeo.moho.event.RegisterEvent.Contact;
+import com.voxeo.moho.sip.SIPRegisterEvent.SIPContact;
+
+/**
+ * An immutable copy of a registered contact, as kept by a persistent
+ * {@link RegistrarStore}. Unlike the contact of a register event it remembers
+ * when it was registered, so it expires at the same time after a restart.
+ */
+public class StoredContact implements SIPContact {
+  private final Endpoint _endpoint;
+
+  private final int _expiration;
+
+  private final long _creationTime;
+
+  private final String _callID;
+
+  private final int _cseq;
+
+  public StoredContact(final Endpoint endpoint, final int expiration, final long creationTime, final String callID,
+      final int cseq) {
+    _endpoint = endpoint;
+    _expiration = expiration;
+    _creationTime = creationTime;
+    _callID = callID;
+    _cseq = cseq;
+  }
+
+  /**
+   * Copies a contact that has just been registered.
+   */
+  public static StoredContact valueOf(final Contact contact) {
+    if (contact instanceof StoredContact) {
+      return (StoredContact) contact;
+    }
+    if (contact instanceof SIPContact) {
+      final SIPContact c = (SIPContact) contact;
+      return new StoredContact(c.getEndpoint(), c.getExpiration(), System.currentTimeMillis(), c.getCallID(),
+          c.getCSeq());
+    }
+    return new StoredContact(contact.getEndpoint(), contact.getExpiration(), System.currentTimeMillis(), null, 0);
+  }
+
+  @Override
+  public Endpoint getEndpoint() {
+    return _endpoint;
+  }
+
+  @Override
+  public int getExpiration() {
+    return _expiration;
+  }
+
+  public long getCreationTime() {
+    return _creationTime;
+  }
+
+  /**
+   * @return the time after which this contact is expired.
+   */
+  public long getExpirationTime() {
+    return _creationTime + _expiration * 1000L;
+  }
+
+  @Override
+  public String getCallID() {
+    return _callID;
+  }
+
+  @Override
+  public int getCSeq() {
+    return _cseq;
+  }
+
+  @Override
+  public boolean isWildCard() {
+    return false;
+  }
+
+  @Override
+  public boolean isExpired() {
+    return System.currentTimeMillis() > getExpirationTime();
+  }
+
+  @Override
+  public String toString() {
+    return _endpoint.toString() + ";expiration=" + _expiration;
+  }
+
+  @Override
+  public int hashCode() {
+    return _endpoint.hashCode() + _expiration;
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (o instanceof Contact) {
+      final Contact c = (Contact) o;
+      return _endpoint.equals(c.getEndpoint()) && _expiration == c.getExpiration();
+    }
+    return false;
+  }
+}
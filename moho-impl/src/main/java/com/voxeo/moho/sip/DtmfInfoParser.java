@@ -0,0 +1,169 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.sip;
+
+import java.io.IOException;
+
+import javax.servlet.sip.SipServletMessage;
+
+/**
+ * Reads the digit out of a SIP INFO of type application/dtmf-relay or
+ * application/dtmf straight from its raw content, without decoding it to a
+ * string or running a regular expression over it, so a digit costs no
+ * allocation beyond what the container has already done.
+ * <p>
+ * The Signal key of application/dtmf-relay is matched regardless of case, the
+ * digits A to D may be in lower case, and the values 10 and 11 some devices
+ * send are read as * and #.
+ */
+public final class DtmfInfoParser {
+
+  public static final String DTMF_RELAY = "application/dtmf-relay";
+
+  public static final String DTMF = "application/dtmf";
+
+  private static final byte[] SIGNAL = {'s', 'i', 'g', 'n', 'a', 'l'};
+
+  private DtmfInfoParser() {
+  }
+
+  /**
+   * @return whether the content type, parameters aside, is one of the DTMF
+   *         types.
+   */
+  public static boolean isDtmf(final String contentType) {
+    return contentType != null && (isType(contentType, DTMF_RELAY) || isType(contentType, DTMF));
+  }
+
+  /**
+   * @return the digit of the message, 0 if it is not a DTMF message or has no
+   *         valid digit.
+   */
+  public static char getDigit(final SipServletMessage message) throws IOException {
+    final String type = message.getContentType();
+    if (type == null) {
+      return 0;
+    }
+    if (isType(type, DTMF_RELAY)) {
+      return parseRelay(message.getRawContent());
+    }
+    if (isType(type, DTMF)) {
+      return parseDtmf(message.getRawContent());
+    }
+    return 0;
+  }
+
+  /**
+   * @return the value of the Signal line of an application/dtmf-relay body, 0
+   *         if there is none.
+   */
+  static char parseRelay(final byte[] content) {
+    if (content == null) {
+      return 0;
+    }
+    final int n = content.length;
+    int i = 0;
+    while (i < n) {
+      // at the start of a line.
+      i = skipBlanks(content, i, n);
+      if (startsWithSignal(content, i, n)) {
+        final int eq = skipBlanks(content, i + SIGNAL.length, n);
+        if (eq < n && content[eq] == '=') {
+          return toDigit(content, skipBlanks(content, eq + 1, n), n);
+        }
+      }
+      while (i < n && content[i] != '\n') {
+        i++;
+      }
+      i++;
+    }
+    return 0;
+  }
+
+  /**
+   * @return the digit of an application/dtmf body, 0 if there is none.
+   */
+  static char parseDtmf(final byte[] content) {
+    if (content == null) {
+      return 0;
+    }
+    final int n = content.length;
+    int i = 0;
+    while (i < n && isWhitespace(content[i])) {
+      i++;
+    }
+    return toDigit(content, i, n);
+  }
+
+  private static char toDigit(final byte[] content, final int i, final int n) {
+    if (i >= n) {
+      return 0;
+    }
+    final byte b = content[i];
+    if (b >= '0' && b <= '9') {
+      if (b == '1' && i + 1 < n && (content[i + 1] == '0' || content[i + 1] == '1')
+          && (i + 2 == n || !isDigit(content[i + 2]))) {
+        return content[i + 1] == '0' ? '*' : '#';
+      }
+      return (char) b;
+    }
+    if (b >= 'A' && b <= 'D' || b == '*' || b == '#') {
+      return (char) b;
+    }
+    if (b >= 'a' && b <= 'd') {
+      return (char) (b - 'a' + 'A');
+    }
+    return 0;
+  }
+
+  private static boolean startsWithSignal(final byte[] content, final int i, final int n) {
+    if (n - i < SIGNAL.length) {
+      return false;
+    }
+    for (int j = 0; j < SIGNAL.length; j++) {
+      // ASCII letters only differ in case by 0x20.
+      if ((content[i + j] | 0x20) != SIGNAL[j]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int skipBlanks(final byte[] content, int i, final int n) {
+    while (i < n && (content[i] == ' ' || content[i] == '\t')) {
+      i++;
+    }
+    return i;
+  }
+
+  private static boolean isWhitespace(final byte b) {
+    return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+  }
+
+  private static boolean isDigit(final byte b) {
+    return b >= '0' && b <= '9';
+  }
+
+  private static boolean isType(final String contentType, final String type) {
+    if (!contentType.regionMatches(true, 0, type, 0, type.length())) {
+      return false;
+    }
+    if (contentType.length() == type.length()) {
+      return true;
+    }
+    final char next = contentType.charAt(type.length());
+    return next == ';' || next == ' ' || next == '\t';
+  }
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.sip;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+import javax.servlet.ServletException;
+import javax.servlet.sip.SipApplicationSession;
+import javax.servlet.sip.SipServletRequest;
+import javax.servlet.sip.SipServletResponse;
+
+import org.apache.log4j.Logger;
+
+import com.voxeo.moho.spi.ExecutionContext;
+import com.voxeo.moho.spi.SIPRequestHandler;
+import com.voxeo.moho.util.DispatchExecutor;
+
+/**
+ * Answers the out-of-dialog OPTIONS pings of load balancers and SBCs on the
+ * container's thread, with headers built once, instead of dispatching an
+ * unknown request event to the application for each of them. Out-of-dialog
+ * NOTIFYs with a keep-alive event can be answered the same way.
+ * <p>
+ * While the event dispatcher is saturated the responder answers 503, so the
+ * node is taken out of rotation before it has to reject calls. Requests it
+ * doesn't answer go to the handler it replaced.
+ * <p>
+ * It is off unless the {@link #ENABLED} init parameter is true.
+ */
+public class OptionsResponder implements SIPRequestHandler {
+
+  private static final Logger LOG = Logger.getLogger(OptionsResponder.class);
+
+  public static final String ENABLED = "optionsResponder";
+
+  /** Whether to answer NOTIFYs with a keep-alive event too, false by default. */
+  public static final String NOTIFY = "optionsResponder.notify";
+
+  /** The Allow header, the methods the driver has handlers for by default. */
+  public static final String ALLOW = "optionsResponder.allow";
+
+  /** The Accept header, application/sdp by default. */
+  public static final String ACCEPT = "optionsResponder.accept";
+
+  /** The Supported header, none by default. */
+  public static final String SUPPORTED = "optionsResponder.supported";
+
+  /** The Retry-After of the 503 answered when overloaded, 5 seconds by default. */
+  public static final String RETRY_AFTER = "optionsResponder.retryAfter";
+
+  protected final ExecutionContext _context;
+
+  protected final SIPRequestHandler _next;
+
+  protected final String _allow;
+
+  protected final String _accept;
+
+  protected final String _supported;
+
+  protected final String _retryAfter;
+
+  public OptionsResponder(final ExecutionContext context, final SIPRequestHandler next, final String allow,
+      final String accept, final String supported, final String retryAfter) {
+    _context = context;
+    _next = next;
+    _allow = allow;
+    _accept = accept;
+    _supported = supported;
+    _retryAfter = retryAfter;
+  }
+
+  /**
+   * Puts responders in front of the driver's OPTIONS, and if configured NOTIFY,
+   * handlers, if the init parameters enable them.
+   */
+  public static void install(final SIPDriverImpl driver, final ExecutionContext context) {
+    if (!Boolean.parseBoolean(context.getParameter(ENABLED))) {
+      return;
+    }
+    String allow = context.getParameter(ALLOW);
+    if (allow == null) {
+      allow = driver.getAllow();
+    }
+    String accept = context.getParameter(ACCEPT);
+    if (accept == null) {
+      accept = "application/sdp";
+    }
+    String retryAfter = context.getParameter(RETRY_AFTER);
+    if (retryAfter == null) {
+      retryAfter = "5";
+    }
+    final String supported = context.getParameter(SUPPORTED);
+
+    driver.setRequestHandler("OPTIONS", new OptionsResponder(context, driver.getRequestHandler("OPTIONS"), allow,
+        accept, supported, retryAfter));
+    if (Boolean.parseBoolean(context.getParameter(NOTIFY))) {
+      driver.setRequestHandler("NOTIFY", new OptionsResponder(context, driver.getRequestHandler("NOTIFY"), allow,
+          accept, supported, retryAfter));
+    }
+    LOG.info("Moho is answering OPTIONS" + (Boolean.parseBoolean(context.getParameter(NOTIFY)) ? " and NOTIFY" : "")
+        + " keep-alives without dispatching them.");
+  }
+
+  @Override
+  public void handle(final SipServletRequest req) throws ServletException, IOException {
+    if (!isKeepAlive(req)) {
+      if (_next != null) {
+        _next.handle(req);
+      }
+      return;
+    }
+    final SipServletResponse res;
+    if (isOverloaded()) {
+      res = req.createResponse(SipServletResponse.SC_SERVICE_UNAVAILABLE);
+      res.setHeader("Retry-After", _retryAfter);
+    }
+    else {
+      res = req.createResponse(SipServletResponse.SC_OK);
+      if ("OPTIONS".equals(req.getMethod())) {
+        res.setHeader("Allow", _allow);
+        res.setHeader("Accept", _accept);
+        if (_supported != null) {
+          res.setHeader("Supported", _supported);
+        }
+      }
+    }
+    res.send();
+    invalidate(req);
+  }
+
+  protected boolean isKeepAlive(final SipServletRequest req) {
+    if (!req.isInitial()) {
+      return false;
+    }
+    if ("OPTIONS".equals(req.getMethod())) {
+      return true;
+    }
+    if ("NOTIFY".equals(req.getMethod())) {
+      final String event = req.getHeader("Event");
+      if (event == null) {
+        return false;
+      }
+      // the event type, without its parameters.
+      final int params = event.indexOf(';');
+      return "keep-alive".equalsIgnoreCase((params < 0 ? event : event.substring(0, params)).trim());
+    }
+    return false;
+  }
+
+  /**
+   * @return whether the event dispatcher has no thread and no queue slot
+   *         left.
+   */
+  protected boolean isOverloaded() {
+    final Executor executor = _context.getExecutor();
+    return executor instanceof DispatchExecutor && ((DispatchExecutor) executor).isSaturated();
+  }
+
+  // nothing is going to use the session of a ping.
+  private void invalidate(final SipServletRequest req) {
+    try {
+      final SipApplicationSession session = req.getApplicationSession(false);
+      if (session != null && session.isValid()) {
+        session.invalidate();
+      }
+    }
+    catch (final Throwable t) {
+      LOG.debug("", t);
+    }
+  }
+}
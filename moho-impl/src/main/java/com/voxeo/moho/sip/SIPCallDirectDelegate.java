@@ -64,11 +64,8 @@ public class SIPCallDirectDelegate extends SIPCallDelegate {
         || res.getRequest().getAttribute(SIPCallDelegate.SIPCALL_DEAF_REQUEST) != null) {
       try {
         res.createAck().send();
-        if (call.getHoldState() == HoldState.Holding) {
-          call.setHoldState(HoldState.Held);
-        }
-        else if (call.getHoldState() == HoldState.UnHolding) {
-          call.setHoldState(HoldState.None);
+        if (call.isHoldingProcess()) {
+          call.holdDone(null);
         }
         else if (call.getDeafState() == HoldState.Deafing) {
           call.setDeafState(HoldState.Deafed);
@@ -79,8 +76,10 @@ public class SIPCallDirectDelegate extends SIPCallDelegate {
       }
       catch (IOException e) {
         LOG.error("IOException when sending back ACK.", e);
-        call.setHoldState(HoldState.None);
         call.setDeafState(HoldState.None);
+        if (call.isHoldingProcess()) {
+          call.holdDone(e);
+        }
         call.fail(e);
       }
       finally {
@@ -120,17 +119,16 @@ public class SIPCallDirectDelegate extends SIPCallDelegate {
           // set call deaf state
           if (call.getMuteState() == HoldState.Muting) {
             peer.setDeafState(HoldState.Deafed);
-            call.setMuteState(HoldState.Muted);
           }
           else if (call.getMuteState() == HoldState.UnMuting) {
             peer.setDeafState(HoldState.None);
-            call.setMuteState(HoldState.None);
           }
+          call.muteDone(null);
         }
       }
       catch (IOException e1) {
         LOG.error("IOException", e1);
-        call.setMuteState(HoldState.None);
+        call.muteDone(e1);
         call.fail(e1);
       }
       finally {
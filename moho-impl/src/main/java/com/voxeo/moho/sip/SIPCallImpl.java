@@ -20,7 +20,12 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -65,13 +70,16 @@ import com.voxeo.moho.SignalException;
 import com.voxeo.moho.Unjoint;
 import com.voxeo.moho.UnjointImpl;
 import com.voxeo.moho.event.CallCompleteEvent;
+import com.voxeo.moho.event.HoldCompleteEvent;
 import com.voxeo.moho.event.JoinCompleteEvent;
 import com.voxeo.moho.event.MohoCallCompleteEvent;
+import com.voxeo.moho.event.MohoHoldCompleteEvent;
 import com.voxeo.moho.event.MohoUnjoinCompleteEvent;
 import com.voxeo.moho.event.UnjoinCompleteEvent;
 import com.voxeo.moho.media.GenericMediaService;
 import com.voxeo.moho.spi.ExecutionContext;
 import com.voxeo.moho.util.SessionUtils;
+import com.voxeo.moho.util.SettableResultFuture;
 
 public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEventListener<SdpPortManagerEvent>,
     InternalParticipant {
@@ -282,6 +290,18 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
     }
   }
 
+  /**
+   * Passes a DTMF digit received in a SIP INFO to the input in progress, if
+   * the call has one. The media service isn't created for it.
+   * 
+   * @return false if no input took the digit.
+   */
+  @SuppressWarnings("unchecked")
+  protected boolean onSignalingDigit(final char digit) {
+    final MediaService<Call> service = _service;
+    return service instanceof GenericMediaService && ((GenericMediaService<Call>) service).onSignalingDigit(digit);
+  }
+
   @Override
   public SipSession getSipSession() {
     return _signal;
@@ -353,7 +373,7 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
       public UnjoinCompleteEvent call() throws Exception {
         return doUnjoin(other, initiator);
       }
-    });
+    }, getMailbox());
 
     return task;
   }
@@ -420,7 +440,7 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
     }
     catch (final Exception e) {
       LOG.error(e);
-      return new JointImpl(_context.getExecutor(), new JointImpl.DummyJoinWorker(SIPCallImpl.this, p, e));
+      return new JointImpl(_context.getExecutor(), new JointImpl.DummyJoinWorker(SIPCallImpl.this, p, e), getMailbox());
     }
     return join(p, type, direction);
   }
@@ -444,7 +464,7 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
       }
       _joinDelegate = createJoinDelegate(direction);
 
-      SettableJointImpl joint = new SettableJointImpl();
+      SettableJointImpl joint = new SettableJointImpl(getMailbox());
       _joinDelegate.setSettableJoint(joint);
       _joinDelegate.doJoin();
 
@@ -534,47 +554,61 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
     }
   }
 
-  public synchronized void onEvent(final SdpPortManagerEvent event) {
-    if (isTerminated()) {
-      LOG.debug(this + " is already terminated.");
-      return;
-    }
-    else {
-      try {
-        if (_joinDelegate != null) {
-          _joinDelegate.doSdpEvent(event);
-        }
-        else if (_callDelegate != null) {
-          _callDelegate.handleSdpEvent(this, event);
+  public void onEvent(final SdpPortManagerEvent event) {
+    try {
+      synchronized (this) {
+        if (isTerminated()) {
+          LOG.debug(this + " is already terminated.");
+          return;
         }
         else {
-          LOG.debug("The SDP event will be discarded.");
+          try {
+            if (_joinDelegate != null) {
+              _joinDelegate.doSdpEvent(event);
+            }
+            else if (_callDelegate != null) {
+              _callDelegate.handleSdpEvent(this, event);
+            }
+            else {
+              LOG.debug("The SDP event will be discarded.");
+            }
+          }
+          catch (final Exception e) {
+            LOG.warn("", e);
+          }
         }
       }
-      catch (final Exception e) {
-        LOG.warn("", e);
-      }
     }
-  }
-
-  protected synchronized void doBye(final SipServletRequest req, final Map<String, String> headers) {
-    if (isTerminated()) {
-      LOG.debug(this + " is already terminated.");
-      return;
-    }
-    else {
-      if (_joinDelegate != null) {
-        _joinDelegate.done(JoinCompleteEvent.Cause.DISCONNECTED, new HangupException());
-      }
-      this.setSIPCallState(SIPCall.State.DISCONNECTED);
-      terminate(CallCompleteEvent.Cause.DISCONNECT, null, headers);
+    finally {
+      runCompletions();
     }
+  }
 
+  protected void doBye(final SipServletRequest req, final Map<String, String> headers) {
     try {
-      req.createResponse(SipServletResponse.SC_OK).send();
+      synchronized (this) {
+        if (isTerminated()) {
+          LOG.debug(this + " is already terminated.");
+          return;
+        }
+        else {
+          if (_joinDelegate != null) {
+            _joinDelegate.done(JoinCompleteEvent.Cause.DISCONNECTED, new HangupException());
+          }
+          this.setSIPCallState(SIPCall.State.DISCONNECTED);
+          terminate(CallCompleteEvent.Cause.DISCONNECT, null, headers);
+        }
+
+        try {
+          req.createResponse(SipServletResponse.SC_OK).send();
+        }
+        catch (final Exception e) {
+          LOG.warn("", e);
+        }
+      }
     }
-    catch (final Exception e) {
-      LOG.warn("", e);
+    finally {
+      runCompletions();
     }
   }
 
@@ -624,40 +658,47 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
     }
   }
 
-  protected synchronized void doResponse(final SipServletResponse res, final Map<String, String> headers)
+  protected void doResponse(final SipServletResponse res, final Map<String, String> headers)
       throws Exception {
-    if (isTerminated()) {
-      LOG.debug(this + " is already terminated.");
-      return;
-    }
-    if (LOG.isDebugEnabled()) {
-      LOG.debug(res);
-    }
-    if (SIPHelper.isInvite(res)) {
-      if (SIPHelper.isSuccessResponse(res)) {
-        final byte[] content = SIPHelper.getRawContentWOException(res);
-        if (content != null) {
-          setRemoteSDP(content);
+    try {
+      synchronized (this) {
+        if (isTerminated()) {
+          LOG.debug(this + " is already terminated.");
+          return;
+        }
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(res);
+        }
+        if (SIPHelper.isInvite(res)) {
+          if (SIPHelper.isSuccessResponse(res)) {
+            final byte[] content = SIPHelper.getRawContentWOException(res);
+            if (content != null) {
+              setRemoteSDP(content);
+            }
+          }
+          if (_joinDelegate != null) {
+            _joinDelegate.doInviteResponse(res, this, headers);
+          }
+          else if (_callDelegate != null) {
+            _callDelegate.handleReinviteResponse(this, res, headers);
+          }
+        }
+        else if (SIPHelper.isCancel(res) || SIPHelper.isBye(res)) {
+          ;
+        }
+        else {
+          final SipServletRequest req = (SipServletRequest) SIPHelper.getLinkSIPMessage(res.getRequest());
+          if (req != null) {
+            final SipServletResponse newRes = req.createResponse(res.getStatus(), res.getReasonPhrase());
+            SIPHelper.addHeaders(newRes, headers);
+            SIPHelper.copyContent(res, newRes);
+            newRes.send();
+          }
         }
       }
-      if (_joinDelegate != null) {
-        _joinDelegate.doInviteResponse(res, this, headers);
-      }
-      else if (_callDelegate != null) {
-        _callDelegate.handleReinviteResponse(this, res, headers);
-      }
-    }
-    else if (SIPHelper.isCancel(res) || SIPHelper.isBye(res)) {
-      ;
     }
-    else {
-      final SipServletRequest req = (SipServletRequest) SIPHelper.getLinkSIPMessage(res.getRequest());
-      if (req != null) {
-        final SipServletResponse newRes = req.createResponse(res.getStatus(), res.getReasonPhrase());
-        SIPHelper.addHeaders(newRes, headers);
-        SIPHelper.copyContent(res, newRes);
-        newRes.send();
-      }
+    finally {
+      runCompletions();
     }
   }
 
@@ -691,49 +732,56 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
     disconnect(true, CallCompleteEvent.Cause.ERROR, ex, null);
   }
 
-  protected synchronized void disconnect(final boolean failed, final CallCompleteEvent.Cause cause,
+  protected void disconnect(final boolean failed, final CallCompleteEvent.Cause cause,
       final Exception exception, Map<String, String> headers) {
-    if (isTerminated()) {
-      if (LOG.isTraceEnabled()) {
-        LOG.trace(this + " is already terminated.");
-      }
-      return;
-    }
+    try {
+      synchronized (this) {
+        if (isTerminated()) {
+          if (LOG.isTraceEnabled()) {
+            LOG.trace(this + " is already terminated.");
+          }
+          return;
+        }
 
-    final SIPCall.State old = getSIPCallState();
-    if (failed) {
-      this.setSIPCallState(SIPCall.State.FAILED);
-    }
-    else {
-      this.setSIPCallState(SIPCall.State.DISCONNECTED);
-    }
-    terminate(cause, exception, null);
-    if (isNoAnswered(old)) {
-      try {
-        if (this instanceof SIPOutgoingCall && !failed) {
-          if (_invite != null) {
-            SipServletRequest cancelRequest = _invite.createCancel();
-            SIPHelper.addHeaders(cancelRequest, headers);
-            cancelRequest.send();
+        final SIPCall.State old = getSIPCallState();
+        if (failed) {
+          this.setSIPCallState(SIPCall.State.FAILED);
+        }
+        else {
+          this.setSIPCallState(SIPCall.State.DISCONNECTED);
+        }
+        terminate(cause, exception, null);
+        if (isNoAnswered(old)) {
+          try {
+            if (this instanceof SIPOutgoingCall && !failed) {
+              if (_invite != null) {
+                SipServletRequest cancelRequest = _invite.createCancel();
+                SIPHelper.addHeaders(cancelRequest, headers);
+                cancelRequest.send();
+              }
+            }
+            else if (this instanceof SIPIncomingCall) {
+              SipServletResponse declineResponse = _invite.createResponse(SipServletResponse.SC_DECLINE);
+              SIPHelper.addHeaders(declineResponse, headers);
+              declineResponse.send();
+            }
+          }
+          catch (final Exception t) {
+            LOG.warn("Exception when disconnecting call", t);
           }
         }
-        else if (this instanceof SIPIncomingCall) {
-          SipServletResponse declineResponse = _invite.createResponse(SipServletResponse.SC_DECLINE);
-          SIPHelper.addHeaders(declineResponse, headers);
-          declineResponse.send();
+        else if (isAnswered(old) && !failed) {
+          try {
+            _signal.createRequest("BYE").send();
+          }
+          catch (final Exception t) {
+            LOG.warn("Exception when disconnecting call", t);
+          }
         }
       }
-      catch (final Exception t) {
-        LOG.warn("Exception when disconnecting call", t);
-      }
     }
-    else if (isAnswered(old) && !failed) {
-      try {
-        _signal.createRequest("BYE").send();
-      }
-      catch (final Exception t) {
-        LOG.warn("Exception when disconnecting call", t);
-      }
+    finally {
+      runCompletions();
     }
   }
 
@@ -748,6 +796,13 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
     }
     destroyNetworkConnection();
 
+    if (_holdFuture != null) {
+      finishHold(HoldCompleteEvent.Cause.DISCONNECT, exception);
+    }
+    if (_muteFuture != null) {
+      finishMute(HoldCompleteEvent.Cause.DISCONNECT, exception);
+    }
+
     Participant[] _joineesArray = _joinees.getJoinees();
     for (Participant participant : _joineesArray) {
       UnjoinCompleteEvent.Cause unjoinCause = UnjoinCompleteEvent.Cause.ERROR;
@@ -997,7 +1052,7 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
 
   protected Joint doJoin(final SIPCallImpl other, final JoinType type, final Direction direction) throws Exception {
     _joinDelegate = createJoinDelegate(other, type, direction);
-    SettableJointImpl joint = new SettableJointImpl();
+    SettableJointImpl joint = new SettableJointImpl(getMailbox());
     _joinDelegate.setSettableJoint(joint);
     other.startJoin(_joinDelegate);
 
@@ -1013,7 +1068,7 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
 
     _joinDelegate = new OtherParticipantJoinDelegate(this, other, direction);
 
-    SettableJointImpl joint = new SettableJointImpl();
+    SettableJointImpl joint = new SettableJointImpl(getMailbox());
     _joinDelegate.setSettableJoint(joint);
     
     _joinDelegate.doJoin();
@@ -1046,6 +1101,14 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
 
   protected int waitRespNum;
 
+  protected SettableResultFuture<HoldCompleteEvent> _holdFuture;
+
+  protected SettableResultFuture<HoldCompleteEvent> _muteFuture;
+
+  // the completions of the hold and mute operations, run after the monitor
+  // is released.
+  protected final Queue<Runnable> _completions = new ConcurrentLinkedQueue<Runnable>();
+
   protected synchronized HoldState getMuteState() {
     return _muteState;
   }
@@ -1088,13 +1151,162 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
   protected synchronized void holdResp() {
     waitRespNum--;
     if (waitRespNum == 0) {
-      if (getHoldState() == HoldState.Holding) {
-        setHoldState(HoldState.Held);
+      holdDone(null);
+    }
+  }
+
+  /**
+   * Completes the pending hold or unhold operation.
+   * 
+   * @param ex
+   *          the failure, or <code>null</code> if the endpoint accepted the
+   *          re-INVITE.
+   */
+  protected synchronized void holdDone(final Exception ex) {
+    finishHold(ex == null ? HoldCompleteEvent.Cause.SUCCESS : HoldCompleteEvent.Cause.ERROR, ex);
+  }
+
+  /**
+   * Completes the pending mute or unmute operation.
+   * 
+   * @param ex
+   *          the failure, or <code>null</code> if the endpoint accepted the
+   *          re-INVITE.
+   */
+  protected synchronized void muteDone(final Exception ex) {
+    finishMute(ex == null ? HoldCompleteEvent.Cause.SUCCESS : HoldCompleteEvent.Cause.ERROR, ex);
+  }
+
+  private void finishHold(final HoldCompleteEvent.Cause cause, final Exception ex) {
+    final HoldCompleteEvent.Type type = _holdState == HoldState.UnHolding ? HoldCompleteEvent.Type.UNHOLD
+        : HoldCompleteEvent.Type.HOLD;
+    if (cause != HoldCompleteEvent.Cause.SUCCESS) {
+      setHoldState(HoldState.None);
+    }
+    else if (_holdState == HoldState.Holding) {
+      setHoldState(HoldState.Held);
+    }
+    else if (_holdState == HoldState.UnHolding) {
+      setHoldState(HoldState.None);
+    }
+    final SettableResultFuture<HoldCompleteEvent> future = _holdFuture;
+    _holdFuture = null;
+    complete(future, type, cause, ex);
+  }
+
+  private void finishMute(final HoldCompleteEvent.Cause cause, final Exception ex) {
+    final HoldCompleteEvent.Type type = _muteState == HoldState.UnMuting ? HoldCompleteEvent.Type.UNMUTE
+        : HoldCompleteEvent.Type.MUTE;
+    if (cause != HoldCompleteEvent.Cause.SUCCESS) {
+      setMuteState(HoldState.None);
+    }
+    else if (_muteState == HoldState.Muting) {
+      setMuteState(HoldState.Muted);
+    }
+    else if (_muteState == HoldState.UnMuting) {
+      setMuteState(HoldState.None);
+    }
+    final SettableResultFuture<HoldCompleteEvent> future = _muteFuture;
+    _muteFuture = null;
+    complete(future, type, cause, ex);
+  }
+
+  private void complete(final SettableResultFuture<HoldCompleteEvent> future, final HoldCompleteEvent.Type type,
+      final HoldCompleteEvent.Cause cause, final Exception ex) {
+    this.notifyAll();
+    if (future == null) {
+      // the re-INVITE was not started by holdAsync/muteAsync, e.g. a peer deaf.
+      return;
+    }
+    _operationInProcess = false;
+    final HoldCompleteEvent event = new MohoHoldCompleteEvent(this, type, cause, ex);
+    // listeners may take other monitors, so they never run under this one.
+    _completions.add(new Runnable() {
+      @Override
+      public void run() {
+        future.setResult(event);
+        synchronized (SIPCallImpl.this) {
+          SIPCallImpl.this.notifyAll();
+        }
+        dispatch(event);
+      }
+    });
+    try {
+      _context.getExecutor().execute(new Runnable() {
+        @Override
+        public void run() {
+          runCompletions();
+        }
+      });
+    }
+    catch (final RejectedExecutionException e) {
+      // run once the monitor is released.
+    }
+  }
+
+  /**
+   * Completes the hold and mute operations that finished under this call's
+   * monitor, unless the calling thread still holds it.
+   */
+  protected void runCompletions() {
+    if (Thread.holdsLock(this)) {
+      return;
+    }
+    for (Runnable completion = _completions.poll(); completion != null; completion = _completions.poll()) {
+      completion.run();
+    }
+  }
+
+  /**
+   * Undoes a hold or mute operation whose re-INVITE could not be sent.
+   */
+  private void abort(final HoldState holdState, final HoldState muteState) {
+    _holdState = holdState;
+    _muteState = muteState;
+    _holdFuture = null;
+    _muteFuture = null;
+    _operationInProcess = false;
+    this.notifyAll();
+  }
+
+  private Future<HoldCompleteEvent> completed(final HoldCompleteEvent.Type type) {
+    final SettableResultFuture<HoldCompleteEvent> future = new SettableResultFuture<HoldCompleteEvent>();
+    future.setResult(new MohoHoldCompleteEvent(this, type, HoldCompleteEvent.Cause.SUCCESS));
+    return future;
+  }
+
+  /**
+   * Blocks until a hold or mute operation completes.
+   */
+  protected void waitFor(final Future<HoldCompleteEvent> future) {
+    runCompletions();
+    if (Thread.holdsLock(this)) {
+      // the operation is completed under this monitor, so release it while
+      // waiting rather than parking on the future.
+      while (!future.isDone()) {
+        try {
+          this.wait();
+        }
+        catch (final InterruptedException e) {
+          LOG.warn("InterruptedException when wait hold, the HoldState " + _holdState + ", the MuteState "
+              + _muteState);
+        }
+      }
+      return;
+    }
+    while (true) {
+      try {
+        future.get();
+        return;
+      }
+      catch (final InterruptedException e) {
+        LOG.warn("InterruptedException when wait hold, the HoldState " + getHoldState() + ", the MuteState "
+            + getMuteState());
       }
-      else if (getHoldState() == HoldState.UnHolding) {
-        setHoldState(HoldState.None);
+      catch (final ExecutionException e) {
+        // never set, failures complete the future with an ERROR event.
+        return;
       }
-      this.notify();
     }
   }
 
@@ -1102,20 +1314,37 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
    * send a sendonly SDP and stop to send media data to this endpoint
    */
   @Override
-  public synchronized void hold() {
+  public void hold() {
     hold(false);
   }
 
   /**
    * send a sendonly SDP and stop to send media data to this endpoint
    */
-  public synchronized void hold(final boolean send) {
+  public void hold(final boolean send) {
+    waitFor(holdAsync(send));
+  }
+
+  @Override
+  public Future<HoldCompleteEvent> holdAsync() {
+    return holdAsync(false);
+  }
+
+  /**
+   * Sends the hold re-INVITE and returns without waiting for the response.
+   * 
+   * @see #hold(boolean)
+   */
+  public synchronized Future<HoldCompleteEvent> holdAsync(final boolean send) {
     if (this.getSIPCallState() != SIPCall.State.ANSWERED) {
       throw new IllegalStateException("call have not been answered");
     }
 
+    if (_holdState == HoldState.Holding && _holdFuture != null) {
+      return _holdFuture;
+    }
     if (_holdState == HoldState.Held || _holdState == HoldState.Holding) {
-      return;
+      return completed(HoldCompleteEvent.Type.HOLD);
     }
 
     if (_operationInProcess) {
@@ -1123,38 +1352,31 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
     }
     _operationInProcess = true;
 
+    final SettableResultFuture<HoldCompleteEvent> future = new SettableResultFuture<HoldCompleteEvent>();
+    _holdFuture = future;
     try {
       setHoldState(HoldState.Holding);
       _callDelegate.hold(this, send);
-
-      while (getHoldState() != HoldState.Held && getHoldState() != HoldState.None) {
-        try {
-          this.wait();
-        }
-        catch (final InterruptedException e) {
-          LOG.warn("InterruptedException when wait hold, the HoldState " + getHoldState());
-        }
-      }
     }
     catch (final MsControlException e) {
-      setHoldState(HoldState.None);
+      abort(HoldState.None, _muteState);
       throw new MediaException("exception when holding", e);
     }
     catch (final IOException e) {
-      setHoldState(HoldState.None);
+      abort(HoldState.None, _muteState);
       throw new SignalException("exception when holding", e);
     }
     catch (final SdpException e) {
-      setHoldState(HoldState.None);
+      abort(HoldState.None, _muteState);
       throw new SignalException("exception when holding", e);
     }
     catch (final Throwable t) {
-      setHoldState(HoldState.None);
       LOG.error("Error when holding", t);
+      if (_holdFuture == future) {
+        finishHold(HoldCompleteEvent.Cause.ERROR, new SignalException("exception when holding", t));
+      }
     }
-    finally {
-      _operationInProcess = false;
-    }
+    return future;
   }
 
   @Override
@@ -1172,13 +1394,21 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
    * endpoint
    */
   @Override
-  public synchronized void mute() {
+  public void mute() {
+    waitFor(muteAsync());
+  }
+
+  @Override
+  public synchronized Future<HoldCompleteEvent> muteAsync() {
     if (this.getSIPCallState() != SIPCall.State.ANSWERED) {
       throw new IllegalStateException("call have not been answered");
     }
 
+    if (_muteState == HoldState.Muting && _muteFuture != null) {
+      return _muteFuture;
+    }
     if (_muteState == HoldState.Muted || _muteState == HoldState.Muting) {
-      return;
+      return completed(HoldCompleteEvent.Type.MUTE);
     }
 
     if (_operationInProcess) {
@@ -1186,87 +1416,91 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
     }
     _operationInProcess = true;
 
+    final SettableResultFuture<HoldCompleteEvent> future = new SettableResultFuture<HoldCompleteEvent>();
+    _muteFuture = future;
     try {
       setMuteState(HoldState.Muting);
       _callDelegate.mute(this);
-
-      while (getMuteState() != HoldState.Muted && getMuteState() != HoldState.None) {
-        try {
-          this.wait();
-        }
-        catch (final InterruptedException e) {
-          LOG.warn("InterruptedException when wait mute, the MuteState " + getMuteState());
-        }
-      }
+    }
+    catch (final MsControlException e) {
+      abort(_holdState, HoldState.None);
+      throw new MediaException("exception when muting", e);
     }
     catch (final IOException e) {
-      setMuteState(HoldState.None);
+      abort(_holdState, HoldState.None);
       throw new SignalException("exception when muting", e);
     }
     catch (final SdpException e) {
-      setMuteState(HoldState.None);
+      abort(_holdState, HoldState.None);
       throw new SignalException("exception when muting", e);
     }
     catch (final Throwable t) {
-      setHoldState(HoldState.None);
       LOG.error("Error when mute", t);
+      if (_muteFuture == future) {
+        finishMute(HoldCompleteEvent.Cause.ERROR, new SignalException("exception when muting", t));
+      }
     }
-    finally {
-      _operationInProcess = false;
-    }
+    return future;
   }
 
   @Override
-  public synchronized void unhold() {
+  public void unhold() {
+    waitFor(unholdAsync());
+  }
+
+  @Override
+  public synchronized Future<HoldCompleteEvent> unholdAsync() {
+    if (_holdState == HoldState.UnHolding && _holdFuture != null) {
+      return _holdFuture;
+    }
     if (_holdState != HoldState.Held) {
-      return;
+      return completed(HoldCompleteEvent.Type.UNHOLD);
     }
     if (_operationInProcess) {
       throw new IllegalStateException("other operation in process.");
     }
     _operationInProcess = true;
 
-    HoldState oldHoldState = null;
+    final SettableResultFuture<HoldCompleteEvent> future = new SettableResultFuture<HoldCompleteEvent>();
+    _holdFuture = future;
+    final HoldState oldHoldState = getHoldState();
     try {
-      oldHoldState = getHoldState();
       setHoldState(HoldState.UnHolding);
-
       _callDelegate.unhold(this);
-
-      while (getHoldState() != HoldState.None) {
-        try {
-          this.wait();
-        }
-        catch (final InterruptedException e) {
-          LOG.warn("InterruptedException when wait unhold, the HoldState " + getHoldState());
-        }
-      }
     }
     catch (final MsControlException e) {
-      setHoldState(oldHoldState);
+      abort(oldHoldState, _muteState);
       throw new SignalException("exception when unholding", e);
     }
     catch (final IOException e) {
-      setHoldState(oldHoldState);
+      abort(oldHoldState, _muteState);
       throw new SignalException("exception when unholding", e);
     }
     catch (final SdpException e) {
-      setHoldState(oldHoldState);
+      abort(oldHoldState, _muteState);
       throw new SignalException("exception when unholding", e);
     }
     catch (final Throwable t) {
-      setHoldState(HoldState.None);
       LOG.error("Error when unhold", t);
+      if (_holdFuture == future) {
+        finishHold(HoldCompleteEvent.Cause.ERROR, new SignalException("exception when unholding", t));
+      }
     }
-    finally {
-      _operationInProcess = false;
-    }
+    return future;
+  }
+
+  @Override
+  public void unmute() {
+    waitFor(unmuteAsync());
   }
 
   @Override
-  public synchronized void unmute() {
+  public synchronized Future<HoldCompleteEvent> unmuteAsync() {
+    if (_muteState == HoldState.UnMuting && _muteFuture != null) {
+      return _muteFuture;
+    }
     if (_muteState != HoldState.Muted) {
-      return;
+      return completed(HoldCompleteEvent.Type.UNMUTE);
     }
 
     if (_operationInProcess) {
@@ -1274,37 +1508,32 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
     }
     _operationInProcess = true;
 
-    HoldState oldMuteState = null;
+    final SettableResultFuture<HoldCompleteEvent> future = new SettableResultFuture<HoldCompleteEvent>();
+    _muteFuture = future;
+    final HoldState oldMuteState = getMuteState();
     try {
-      oldMuteState = getMuteState();
       setMuteState(HoldState.UnMuting);
-
       _callDelegate.unmute(this);
-
-      while (getMuteState() != HoldState.None) {
-        try {
-          this.wait();
-        }
-        catch (final InterruptedException e) {
-          LOG.warn("InterruptedException when wait unmute, the MuteState " + getMuteState());
-        }
-      }
+    }
+    catch (final MsControlException e) {
+      abort(_holdState, oldMuteState);
+      throw new MediaException("exception when unmuting", e);
     }
     catch (final IOException e) {
-      setMuteState(oldMuteState);
+      abort(_holdState, oldMuteState);
       throw new SignalException("exception when unmuting", e);
     }
     catch (final SdpException e) {
-      setMuteState(oldMuteState);
+      abort(_holdState, oldMuteState);
       throw new SignalException("exception when unmuting", e);
     }
     catch (final Throwable t) {
-      setHoldState(HoldState.None);
       LOG.error("Error when unmute", t);
+      if (_muteFuture == future) {
+        finishMute(HoldCompleteEvent.Cause.ERROR, new SignalException("exception when unmuting", t));
+      }
     }
-    finally {
-      _operationInProcess = false;
-    }
+    return future;
   }
 
   // for invite event =============
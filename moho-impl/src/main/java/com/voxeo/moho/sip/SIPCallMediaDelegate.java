@@ -115,8 +115,7 @@ public class SIPCallMediaDelegate extends SIPCallDelegate {
       }
       catch (IOException e) {
         LOG.error("IOException when sending ACK", e);
-        call.setHoldState(HoldState.None);
-        call.notify();
+        call.holdDone(e);
         call.fail(e);
       }
     }
@@ -132,21 +131,13 @@ public class SIPCallMediaDelegate extends SIPCallDelegate {
       if (call.isMutingProcess()) {
         try {
           _res.createAck().send();
-          if (call.getMuteState() == HoldState.Muting) {
-            call.setMuteState(HoldState.Muted);
-          }
-          else if (call.getMuteState() == HoldState.UnMuting) {
-            call.setMuteState(HoldState.None);
-          }
+          call.muteDone(null);
         }
         catch (IOException e) {
           LOG.error("IOException when sending ACK", e);
-          call.setHoldState(HoldState.None);
+          call.muteDone(e);
           call.fail(e);
         }
-        finally {
-          call.notify();
-        }
       }
       else if (call.isHoldingProcess()) {
         call.holdResp();
@@ -14,8 +14,14 @@
 package com.voxeo.moho.sip;
 
 import java.io.IOException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.media.mscontrol.MsControlFactory;
 import javax.sdp.SdpFactory;
@@ -47,7 +53,9 @@ import com.voxeo.moho.event.UnknownRequestEvent;
 import com.voxeo.moho.reg.Registration;
 import com.voxeo.moho.spi.ExecutionContext;
 import com.voxeo.moho.spi.SIPDriver;
+import com.voxeo.moho.spi.SIPRequestHandler;
 import com.voxeo.moho.spi.SpiFramework;
+import com.voxeo.moho.util.LatencyHistogram;
 import com.voxeo.moho.util.SessionUtils;
 
 public class SIPDriverImpl implements SIPDriver {
@@ -66,6 +74,26 @@ public class SIPDriverImpl implements SIPDriver {
 
   protected static final String[] SCHEMAS = new String[] {"sip", "tel", "sips", "<sip", "<tel", "<sips", "fax", "<fax:"};
 
+  /** What the requests and responses of methods without statistics of their own are counted as. */
+  public static final String OTHER = "OTHER";
+
+  // the methods with a handler. It only grows when a handler is set for a new
+  // method, so its size doesn't depend on what the network sends.
+  protected final ConcurrentMap<String, Route> _routes = new ConcurrentHashMap<String, Route>();
+
+  protected final Route _others = new Route(OTHER, null);
+
+  protected final ConcurrentMap<String, MethodStats> _responseStats = new ConcurrentHashMap<String, MethodStats>();
+
+  protected final MethodStats _otherResponses = new MethodStats(OTHER);
+
+  public SIPDriverImpl() {
+    for (final StandardMethod method : StandardMethod.values()) {
+      _routes.put(method.name(), new Route(method.name(), new BuiltInHandler(method)));
+      _responseStats.put(method.name(), new MethodStats(method.name()));
+    }
+  }
+
   @Override
   public void init(SpiFramework framework) {
     _app = framework;
@@ -73,6 +101,7 @@ public class SIPDriverImpl implements SIPDriver {
     _sdpFactory = framework.getExecutionContext().getSdpFactory();
     _mscFactory = framework.getExecutionContext().getMSFactory();
     _servlet = framework.getSIPController();
+    OptionsResponder.install(this, framework.getExecutionContext());
   }
 
   @Override
@@ -82,51 +111,248 @@ public class SIPDriverImpl implements SIPDriver {
 
   @Override
   public void doRequest(final SipServletRequest req) throws ServletException, IOException {
-    final String s = req.getMethod();
-    if ("INVITE".equals(s)) {
-      doInvite(req);
+    final Route route = route(req.getMethod());
+    final long start = System.nanoTime();
+    boolean failed = true;
+    try {
+      route.handle(req);
+      failed = false;
     }
-    else if ("ACK".equals(s)) {
-      doAck(req);
+    catch (final RejectedExecutionException ex) {
+      LOG.warn("Event dispatcher is overloaded, rejecting " + req.getMethod() + ": " + ex.getMessage());
+      if (req.isInitial() && !"ACK".equals(req.getMethod()) && !req.isCommitted()) {
+        final SipServletResponse res = req.createResponse(SipServletResponse.SC_SERVICE_UNAVAILABLE);
+        res.setHeader("Retry-After", "5");
+        res.send();
+      }
     }
-    else if ("OPTIONS".equals(s)) {
-      doOptions(req);
+    finally {
+      route._stats.record(System.nanoTime() - start, failed);
     }
-    else if ("BYE".equals(s)) {
-      doBye(req);
+  }
+
+  protected Route route(final String method) {
+    final Route route = method == null ? null : _routes.get(method);
+    return route != null ? route : _others;
+  }
+
+  @Override
+  public SIPRequestHandler setRequestHandler(final String method, final SIPRequestHandler handler) {
+    if (method == null) {
+      throw new IllegalArgumentException("method is null");
     }
-    else if ("CANCEL".equals(s)) {
-      doCancel(req);
+    Route route = _routes.get(method);
+    if (route == null) {
+      if (handler == null) {
+        return null;
+      }
+      final Route created = new Route(method, null);
+      route = _routes.putIfAbsent(method, created);
+      if (route == null) {
+        route = created;
+      }
     }
-    else if ("REGISTER".equals(s)) {
-      doRegister(req);
+    return route.setHandler(handler);
+  }
+
+  @Override
+  public SIPRequestHandler getRequestHandler(final String method) {
+    final Route route = _routes.get(method);
+    return route == null ? null : route._handler;
+  }
+
+  /**
+   * @return the methods the driver has handlers for, as an Allow header.
+   */
+  public String getAllow() {
+    final StringBuilder sb = new StringBuilder();
+    for (final StandardMethod method : StandardMethod.values()) {
+      if (getRequestHandler(method.name()) != null) {
+        sb.append(sb.length() == 0 ? "" : ", ").append(method.name());
+      }
     }
-    else if ("SUBSCRIBE".equals(s)) {
-      doSubscribe(req);
+    for (final Map.Entry<String, Route> entry : _routes.entrySet()) {
+      if (!isStandard(entry.getKey()) && entry.getValue()._handler != null) {
+        sb.append(sb.length() == 0 ? "" : ", ").append(entry.getKey());
+      }
     }
-    else if ("NOTIFY".equals(s)) {
-      doNotify(req);
+    return sb.toString();
+  }
+
+  private static boolean isStandard(final String method) {
+    for (final StandardMethod standard : StandardMethod.values()) {
+      if (standard.name().equals(method)) {
+        return true;
+      }
     }
-    else if ("MESSAGE".equals(s)) {
-      doMessage(req);
+    return false;
+  }
+
+  /**
+   * @return the statistics of the requests of each method, those of the
+   *         methods without a handler counted as {@link #OTHER}.
+   */
+  public Collection<MethodStats> getRequestStats() {
+    final List<MethodStats> stats = new ArrayList<MethodStats>(_routes.size() + 1);
+    for (final Route route : _routes.values()) {
+      stats.add(route._stats);
     }
-    else if ("INFO".equals(s)) {
-      doInfo(req);
+    stats.add(_others._stats);
+    return stats;
+  }
+
+  /**
+   * @return the statistics of the responses to each method, those to unknown
+   *         methods counted as {@link #OTHER}.
+   */
+  public Collection<MethodStats> getResponseStats() {
+    final List<MethodStats> stats = new ArrayList<MethodStats>(_responseStats.values());
+    stats.add(_otherResponses);
+    return stats;
+  }
+
+  /**
+   * The handler of a method and what was counted for its requests.
+   */
+  protected class Route {
+
+    final MethodStats _stats;
+
+    final SIPRequestHandler _builtIn;
+
+    volatile SIPRequestHandler _handler;
+
+    Route(final String method, final SIPRequestHandler builtIn) {
+      _stats = new MethodStats(method);
+      _builtIn = builtIn;
+      _handler = builtIn;
     }
-    else if ("UPDATE".equals(s)) {
-      doUpdate(req);
+
+    synchronized SIPRequestHandler setHandler(final SIPRequestHandler handler) {
+      final SIPRequestHandler previous = _handler;
+      _handler = handler != null ? handler : _builtIn;
+      return previous;
     }
-    else if ("REFER".equals(s)) {
-      doRefer(req);
+
+    void handle(final SipServletRequest req) throws ServletException, IOException {
+      final SIPRequestHandler handler = _handler;
+      if (handler != null) {
+        handler.handle(req);
+      }
+      else {
+        doOthers(req);
+      }
     }
-    else if ("PUBLISH".equals(s)) {
-      doPublish(req);
+  }
+
+  private enum StandardMethod {
+    INVITE, ACK, OPTIONS, BYE, CANCEL, REGISTER, SUBSCRIBE, NOTIFY, MESSAGE, INFO, UPDATE, REFER, PUBLISH, PRACK
+  }
+
+  private class BuiltInHandler implements SIPRequestHandler {
+
+    private final StandardMethod _method;
+
+    BuiltInHandler(final StandardMethod method) {
+      _method = method;
     }
-    else if ("PRACK".equals(s)) {
-      doPrack(req);
+
+    @Override
+    public void handle(final SipServletRequest req) throws ServletException, IOException {
+      switch (_method) {
+        case INVITE:
+          doInvite(req);
+          break;
+        case ACK:
+          doAck(req);
+          break;
+        case OPTIONS:
+          doOptions(req);
+          break;
+        case BYE:
+          doBye(req);
+          break;
+        case CANCEL:
+          doCancel(req);
+          break;
+        case REGISTER:
+          doRegister(req);
+          break;
+        case SUBSCRIBE:
+          doSubscribe(req);
+          break;
+        case NOTIFY:
+          doNotify(req);
+          break;
+        case MESSAGE:
+          doMessage(req);
+          break;
+        case INFO:
+          doInfo(req);
+          break;
+        case UPDATE:
+          doUpdate(req);
+          break;
+        case REFER:
+          doRefer(req);
+          break;
+        case PUBLISH:
+          doPublish(req);
+          break;
+        case PRACK:
+          doPrack(req);
+          break;
+      }
     }
-    else {
-      doOthers(req);
+
+    @Override
+    public String toString() {
+      return "built-in " + _method + " handler";
+    }
+  }
+
+  /**
+   * The number, failures and latencies of the requests, or responses, of a
+   * method. A request fails if its handler throws.
+   */
+  public static class MethodStats {
+
+    private final String _method;
+
+    private final LatencyHistogram _latency = new LatencyHistogram();
+
+    private final AtomicLong _failures = new AtomicLong();
+
+    public MethodStats(final String method) {
+      _method = method;
+    }
+
+    void record(final long nanos, final boolean failed) {
+      _latency.record(nanos);
+      if (failed) {
+        _failures.incrementAndGet();
+      }
+    }
+
+    public String getMethod() {
+      return _method;
+    }
+
+    public long getCount() {
+      return _latency.getCount();
+    }
+
+    public long getFailureCount() {
+      return _failures.get();
+    }
+
+    public LatencyHistogram getLatency() {
+      return _latency;
+    }
+
+    @Override
+    public String toString() {
+      return _method + ": " + _latency + ", failures=" + getFailureCount();
     }
   }
 
@@ -135,7 +361,14 @@ public class SIPDriverImpl implements SIPDriver {
       final IncomingCall ev = _app.getApplicationContext().getService(IncomingCallFactory.class)
           .createIncomingCall(req);
 
-      _app.dispatch(ev);
+      try {
+        _app.dispatch(ev);
+      }
+      catch (final RejectedExecutionException ex) {
+        // the call is shed before the application sees it, forget it.
+        ((ExecutionContext) _app.getApplicationContext()).removeCall(ev.getId());
+        throw ex;
+      }
     }
     else {
       final EventSource source = SessionUtils.getEventSource(req);
@@ -285,28 +518,25 @@ public class SIPDriverImpl implements SIPDriver {
 
   protected void doInfo(final SipServletRequest req) throws ServletException, IOException {
     req.createResponse(200).send();
-    final String type = req.getContentType();
-    if (type != null && type.equalsIgnoreCase("application/dtmf-relay") || type.equalsIgnoreCase("application/dtmf")) {
-      EventSource source = SessionUtils.getEventSource(req);
-      if (source != null && source instanceof Call) {
-        final MohoInputDetectedEvent<Call> event = new MohoInputDetectedEvent<Call>((Call) source, getDTMFValue(req));
-        source.dispatch(event);
-      }
+    if (!DtmfInfoParser.isDtmf(req.getContentType())) {
+      return;
     }
-  }
-
-  private String getDTMFValue(SipServletRequest req) throws IOException {
-    final String type = req.getContentType();
-    String content = new String(req.getRawContent(), "UTF-8").trim();
-    if (type.equalsIgnoreCase("application/dtmf-relay")) {
-      Matcher matcher = DtmfRelayPattern.pattern.matcher(content);
-      return matcher.group(1);
+    final EventSource source = SessionUtils.getEventSource(req);
+    if (source instanceof Call) {
+      final char digit = DtmfInfoParser.getDigit(req);
+      if (digit == 0) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("No DTMF digit in INFO " + req.getCallId());
+        }
+        return;
+      }
+      // the input in progress collects the digits and completes once, without
+      // an event per digit; with no input the digit goes to the application.
+      if (source instanceof SIPCallImpl && ((SIPCallImpl) source).onSignalingDigit(digit)) {
+        return;
+      }
+      source.dispatch(new MohoInputDetectedEvent<Call>((Call) source, String.valueOf(digit)));
     }
-    return content;
-  }
-
-  private static class DtmfRelayPattern {
-    public static Pattern pattern = Pattern.compile("Signal\\s*=\\s*([\\d|A|B|C|D|\\*|#])");
   }
 
   protected void doPublish(final SipServletRequest req) throws ServletException, IOException {
@@ -340,41 +570,57 @@ public class SIPDriverImpl implements SIPDriver {
 
   @Override
   public void doResponse(final SipServletResponse res) throws ServletException, IOException {
-    final EventSource source = SessionUtils.getEventSource(res);
-    if (source != null) {
-      final int i = res.getStatus();
-      if (i < 200) {
-        doProvisionalResponse(res);
-      }
-      else if (i < 300) {
-        doSuccessResponse(res);
-      }
-      else if (res.isBranchResponse()) {
-        doBranchResponse(res);
-      }
-      else if (i < 400) {
-        doRedirectResponse(res);
+    final MethodStats stats = responseStats(res.getMethod());
+    final long start = System.nanoTime();
+    boolean failed = true;
+    try {
+      // looked up once, the handlers below are given it.
+      final EventSource source = SessionUtils.getEventSource(res);
+      if (source != null) {
+        final int i = res.getStatus();
+        if (i < 200) {
+          doProvisionalResponse(res, source);
+        }
+        else if (i < 300) {
+          doSuccessResponse(res, source);
+        }
+        else if (res.isBranchResponse()) {
+          doBranchResponse(res, source);
+        }
+        else if (i < 400) {
+          doRedirectResponse(res, source);
+        }
+        else {
+          doErrorResponse(res, source);
+        }
       }
       else {
-        doErrorResponse(res);
+        final SipServletRequest req = (SipServletRequest) SIPHelper.getLinkSIPMessage(res.getRequest());
+        if (req != null) {
+          final SipServletResponse newRes = req.createResponse(res.getStatus(), res.getReasonPhrase());
+          SIPHelper.copyContent(res, newRes);
+          newRes.send();
+        }
       }
+      failed = false;
     }
-    else {
-      final SipServletRequest req = (SipServletRequest) SIPHelper.getLinkSIPMessage(res.getRequest());
-      if (req != null) {
-        final SipServletResponse newRes = req.createResponse(res.getStatus(), res.getReasonPhrase());
-        SIPHelper.copyContent(res, newRes);
-        newRes.send();
-      }
+    finally {
+      stats.record(System.nanoTime() - start, failed);
     }
   }
 
-  protected void doBranchResponse(final SipServletResponse res) throws ServletException, IOException {
+  private MethodStats responseStats(final String method) {
+    final MethodStats stats = method == null ? null : _responseStats.get(method);
+    return stats != null ? stats : _otherResponses;
+  }
+
+  protected void doBranchResponse(final SipServletResponse res, final EventSource source) throws ServletException,
+      IOException {
     // do nothing right now
   }
 
-  protected void doProvisionalResponse(final SipServletResponse res) throws ServletException, IOException {
-    final EventSource source = SessionUtils.getEventSource(res);
+  protected void doProvisionalResponse(final SipServletResponse res, final EventSource source)
+      throws ServletException, IOException {
     if (source != null) {
       if (source instanceof SIPCall) {
         final int status = res.getStatus();
@@ -400,8 +646,8 @@ public class SIPDriverImpl implements SIPDriver {
     }
   }
 
-  protected void doSuccessResponse(final SipServletResponse res) throws ServletException, IOException {
-    final EventSource source = SessionUtils.getEventSource(res);
+  protected void doSuccessResponse(final SipServletResponse res, final EventSource source) throws ServletException,
+      IOException {
     if (source != null) {
       if (source instanceof SIPCallImpl) {
         final SIPCallImpl call = (SIPCallImpl) source;
@@ -432,8 +678,8 @@ public class SIPDriverImpl implements SIPDriver {
     LOG.warn(res + " is received for a unknow source: " + source);
   }
 
-  protected void doRedirectResponse(final SipServletResponse res) throws ServletException, IOException {
-    final EventSource source = SessionUtils.getEventSource(res);
+  protected void doRedirectResponse(final SipServletResponse res, final EventSource source) throws ServletException,
+      IOException {
     if (source != null) {
       if (source instanceof Call) {
         source.dispatch(new SIPRedirectEventImpl<Call>((SIPCall) source, res));
@@ -455,8 +701,8 @@ public class SIPDriverImpl implements SIPDriver {
     LOG.warn(res + " is received for a unknow source: " + source);
   }
 
-  protected void doErrorResponse(final SipServletResponse res) throws ServletException, IOException {
-    final EventSource source = SessionUtils.getEventSource(res);
+  protected void doErrorResponse(final SipServletResponse res, final EventSource source) throws ServletException,
+      IOException {
     if (source instanceof SIPCallImpl) {
       final SIPCallImpl call = (SIPCallImpl) source;
       try {
@@ -109,28 +109,35 @@ public class SIPIncomingCall extends SIPCallImpl implements IncomingCall {
   }
 
   @Override
-  public synchronized void onEvent(final SdpPortManagerEvent event) {
-    if (getSIPCallState() == SIPCall.State.PROGRESSING) {
-      try {
-        final byte[] sdp = event.getMediaServerSdp();
-        this.setLocalSDP(sdp);
-        final SipServletResponse res = getSipInitnalRequest().createResponse(SipServletResponse.SC_SESSION_PROGRESS);
-        res.setContent(sdp, "application/sdp");
-        try {
-          res.sendReliably();
-        }
-        catch (final Rel100Exception e) {
-          LOG.warn("", e);
-          res.send();
+  public void onEvent(final SdpPortManagerEvent event) {
+    try {
+      synchronized (this) {
+        if (getSIPCallState() == SIPCall.State.PROGRESSING) {
+          try {
+            final byte[] sdp = event.getMediaServerSdp();
+            this.setLocalSDP(sdp);
+            final SipServletResponse res = getSipInitnalRequest().createResponse(SipServletResponse.SC_SESSION_PROGRESS);
+            res.setContent(sdp, "application/sdp");
+            try {
+              res.sendReliably();
+            }
+            catch (final Rel100Exception e) {
+              LOG.warn("", e);
+              res.send();
+            }
+            setSIPCallState(SIPCall.State.PROGRESSED);
+            this.notifyAll();
+          }
+          catch (final IOException e) {
+            LOG.warn("", e);
+          }
         }
-        setSIPCallState(SIPCall.State.PROGRESSED);
-        this.notifyAll();
-      }
-      catch (final IOException e) {
-        LOG.warn("", e);
+        super.onEvent(event);
       }
     }
-    super.onEvent(event);
+    finally {
+      runCompletions();
+    }
   }
 
   protected synchronized void doCancel() {
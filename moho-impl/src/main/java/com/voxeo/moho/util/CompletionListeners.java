@@ -0,0 +1,124 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.apache.log4j.Logger;
+
+import com.voxeo.moho.event.MailboxOwner;
+import com.voxeo.moho.utils.CompletionListener;
+
+/**
+ * The {@link CompletionListener}s of one asynchronous operation. Listeners
+ * added before the operation completes are called once it does, listeners
+ * added afterwards are called right away. Either way they run on the given
+ * executor, typically the mailbox of the event source, or on the completing
+ * thread if there is none.
+ */
+public class CompletionListeners<T> {
+
+  private static final Logger LOG = Logger.getLogger(CompletionListeners.class);
+
+  private final Executor _executor;
+
+  private List<CompletionListener<T>> _listeners;
+
+  private boolean _done;
+
+  private T _result;
+
+  private Throwable _cause;
+
+  public CompletionListeners(final Executor executor) {
+    _executor = executor;
+  }
+
+  /**
+   * @return the mailbox of the given event source, or <code>null</code> if it
+   *         does not have one.
+   */
+  public static Executor mailboxOf(final Object source) {
+    return source instanceof MailboxOwner ? ((MailboxOwner) source).getMailbox() : null;
+  }
+
+  public void add(final CompletionListener<T> listener) {
+    if (listener == null) {
+      throw new IllegalArgumentException("listener is null");
+    }
+    synchronized (this) {
+      if (!_done) {
+        if (_listeners == null) {
+          _listeners = new ArrayList<CompletionListener<T>>(2);
+        }
+        _listeners.add(listener);
+        return;
+      }
+    }
+    notify(listener, _result, _cause);
+  }
+
+  /**
+   * Completes the operation. Only the first call has any effect.
+   */
+  public void complete(final T result, final Throwable cause) {
+    final List<CompletionListener<T>> listeners;
+    synchronized (this) {
+      if (_done) {
+        return;
+      }
+      _done = true;
+      _result = result;
+      _cause = cause;
+      listeners = _listeners;
+      _listeners = null;
+    }
+    if (listeners != null) {
+      for (final CompletionListener<T> listener : listeners) {
+        notify(listener, result, cause);
+      }
+    }
+  }
+
+  public synchronized boolean isDone() {
+    return _done;
+  }
+
+  private void notify(final CompletionListener<T> listener, final T result, final Throwable cause) {
+    final Runnable task = new Runnable() {
+      public void run() {
+        try {
+          listener.onComplete(result, cause);
+        }
+        catch (final Throwable t) {
+          LOG.warn("Exception when calling completion listener " + listener, t);
+        }
+      }
+    };
+    if (_executor == null) {
+      task.run();
+      return;
+    }
+    try {
+      _executor.execute(task);
+    }
+    catch (final RuntimeException ex) {
+      LOG.warn("Unable to queue completion listener " + listener + ", calling it directly: " + ex);
+      task.run();
+    }
+  }
+}
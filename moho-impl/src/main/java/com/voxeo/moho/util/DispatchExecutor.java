@@ -0,0 +1,210 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The event dispatching thread pool. Unlike an unbounded pool it has a fixed
+ * maximum number of threads and a bounded queue, and decides what to do with
+ * work that does not fit based on the {@link TaskClass} of the task:
+ * <ul>
+ * <li>{@link OverloadPolicy#CALLER_RUNS} runs the task on the submitting
+ * thread, which slows the producer (typically the SIP container thread) down
+ * instead of growing the pool.</li>
+ * <li>{@link OverloadPolicy#REJECT} throws a {@link RejectedExecutionException}
+ * so the caller can shed the work, e.g. answer a new INVITE with 503.</li>
+ * </ul>
+ * By default in-dialog work runs on the caller's thread and out-of-dialog work
+ * is rejected, so a burst of new requests is shed before existing calls are
+ * affected.
+ * <p>
+ * Unlike a plain {@link ThreadPoolExecutor}, the pool grows to its maximum size
+ * before any task is queued. Dispatched work often blocks on other dispatched
+ * work (e.g. a join waiting for the mixer join it submitted), and queueing
+ * behind a small number of blocked core threads would deadlock it.
+ */
+public class DispatchExecutor extends ThreadPoolExecutor {
+
+  /**
+   * The kind of work a task represents.
+   */
+  public enum TaskClass {
+    /** Work for an existing call, subscription, mixer or other event source. */
+    IN_DIALOG,
+    /** Work for a new request that does not belong to an event source yet. */
+    OUT_OF_DIALOG,
+    /** Everything else, e.g. join and media operations. */
+    DEFAULT
+  }
+
+  public enum OverloadPolicy {
+    CALLER_RUNS, REJECT
+  }
+
+  /**
+   * Implemented by tasks that know their {@link TaskClass}. Tasks that do not
+   * implement it are treated as {@link TaskClass#DEFAULT}.
+   */
+  public interface Classified {
+    TaskClass getTaskClass();
+  }
+
+  private final OverloadPolicy[] _policies = new OverloadPolicy[TaskClass.values().length];
+
+  private final AtomicLongArray _rejected = new AtomicLongArray(TaskClass.values().length);
+
+  private final AtomicLongArray _callerRuns = new AtomicLongArray(TaskClass.values().length);
+
+  private final int _queueCapacity;
+
+  public DispatchExecutor(final int corePoolSize, final int maximumPoolSize, final int queueCapacity,
+      final long keepAliveTime, final TimeUnit unit, final ThreadFactory threadFactory) {
+    super(corePoolSize, Math.max(corePoolSize, maximumPoolSize), keepAliveTime, unit, new GrowFirstQueue(
+        queueCapacity), threadFactory);
+    ((GrowFirstQueue) getQueue())._executor = this;
+    _queueCapacity = queueCapacity;
+    _policies[TaskClass.IN_DIALOG.ordinal()] = OverloadPolicy.CALLER_RUNS;
+    _policies[TaskClass.OUT_OF_DIALOG.ordinal()] = OverloadPolicy.REJECT;
+    _policies[TaskClass.DEFAULT.ordinal()] = OverloadPolicy.CALLER_RUNS;
+    setRejectedExecutionHandler(new OverloadHandler());
+  }
+
+  public void setOverloadPolicy(final TaskClass taskClass, final OverloadPolicy policy) {
+    if (taskClass == null || policy == null) {
+      throw new IllegalArgumentException("argument is null");
+    }
+    _policies[taskClass.ordinal()] = policy;
+  }
+
+  public OverloadPolicy getOverloadPolicy(final TaskClass taskClass) {
+    return _policies[taskClass.ordinal()];
+  }
+
+  /**
+   * @return the number of tasks waiting for a thread.
+   */
+  public int getQueueDepth() {
+    return getQueue().size();
+  }
+
+  public int getQueueCapacity() {
+    return _queueCapacity;
+  }
+
+  /**
+   * @return whether the pool has no thread and no queue slot left, i.e. new
+   *         work would be subject to the overload policy.
+   */
+  public boolean isSaturated() {
+    return getActiveCount() >= getMaximumPoolSize() && getQueue().remainingCapacity() == 0;
+  }
+
+  /**
+   * @return the number of tasks of the given class that have been rejected.
+   */
+  public long getRejectedCount(final TaskClass taskClass) {
+    return _rejected.get(taskClass.ordinal());
+  }
+
+  /**
+   * @return the number of tasks of the given class that have been run on the
+   *         submitting thread because the pool was saturated.
+   */
+  public long getCallerRunsCount(final TaskClass taskClass) {
+    return _callerRuns.get(taskClass.ordinal());
+  }
+
+  public static TaskClass classify(final Runnable task) {
+    if (task instanceof Classified) {
+      final TaskClass taskClass = ((Classified) task).getTaskClass();
+      if (taskClass != null) {
+        return taskClass;
+      }
+    }
+    return TaskClass.DEFAULT;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder("DispatchExecutor[active=").append(getActiveCount()).append(", pool=")
+        .append(getPoolSize()).append("/").append(getMaximumPoolSize()).append(", queue=").append(getQueueDepth())
+        .append("/").append(_queueCapacity);
+    for (final TaskClass taskClass : TaskClass.values()) {
+      sb.append(", ").append(taskClass).append("[rejected=").append(getRejectedCount(taskClass))
+          .append(", callerRuns=").append(getCallerRunsCount(taskClass)).append("]");
+    }
+    return sb.append("]").toString();
+  }
+
+  /**
+   * Refuses new tasks while the pool can still grow, so that
+   * {@link ThreadPoolExecutor} starts another thread instead of queueing.
+   */
+  private static class GrowFirstQueue extends ArrayBlockingQueue<Runnable> {
+    private static final long serialVersionUID = 6232781440529478823L;
+
+    private transient volatile ThreadPoolExecutor _executor;
+
+    GrowFirstQueue(final int capacity) {
+      super(capacity);
+    }
+
+    @Override
+    public boolean offer(final Runnable task) {
+      final ThreadPoolExecutor executor = _executor;
+      if (executor != null && executor.getPoolSize() < executor.getMaximumPoolSize()) {
+        return false;
+      }
+      return super.offer(task);
+    }
+
+    /**
+     * Queues a task the executor could not start a thread for, because the pool
+     * reached its maximum size after {@link #offer(Runnable)} refused it.
+     */
+    boolean forceOffer(final Runnable task) {
+      return super.offer(task);
+    }
+  }
+
+  private class OverloadHandler implements RejectedExecutionHandler {
+    @Override
+    public void rejectedExecution(final Runnable task, final ThreadPoolExecutor executor) {
+      final TaskClass taskClass = classify(task);
+      if (executor.isShutdown()) {
+        _rejected.incrementAndGet(taskClass.ordinal());
+        throw new RejectedExecutionException("Event dispatcher has been shut down.");
+      }
+      if (((GrowFirstQueue) executor.getQueue()).forceOffer(task)) {
+        return;
+      }
+      if (_policies[taskClass.ordinal()] == OverloadPolicy.CALLER_RUNS) {
+        _callerRuns.incrementAndGet(taskClass.ordinal());
+        task.run();
+      }
+      else {
+        _rejected.incrementAndGet(taskClass.ordinal());
+        throw new RejectedExecutionException("Event dispatcher is overloaded, rejecting " + taskClass + " task.");
+      }
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.voxeo.moho.spi.ExecutionContext;
+import com.voxeo.moho.spi.ExecutorProvider;
+import com.voxeo.moho.util.DispatchExecutor.OverloadPolicy;
+import com.voxeo.moho.util.DispatchExecutor.TaskClass;
+import com.voxeo.moho.util.Utils.DaemonThreadFactory;
+
+/**
+ * The default {@link ExecutorProvider}, creating a bounded
+ * {@link DispatchExecutor} configured by the following init parameters:
+ * <ul>
+ * <li><code>eventDispatcherThreadPoolSize</code>, the core pool size (50).</li>
+ * <li><code>eventDispatcherMaxThreadPoolSize</code>, the maximum pool size
+ * (200).</li>
+ * <li><code>eventDispatcherQueueSize</code>, the queue capacity (10000).</li>
+ * <li><code>eventDispatcherInDialogOverloadPolicy</code>,
+ * <code>eventDispatcherOutOfDialogOverloadPolicy</code> and
+ * <code>eventDispatcherDefaultOverloadPolicy</code>, either
+ * <code>CALLER_RUNS</code> or <code>REJECT</code>.</li>
+ * </ul>
+ */
+public class DispatchExecutorProvider implements ExecutorProvider {
+
+  private static final Logger LOG = Logger.getLogger(DispatchExecutorProvider.class);
+
+  @Override
+  public Executor createExecutor(final ExecutionContext context, final Map<String, String> parameters) {
+    final int eventDispatcherThreadPoolSize = getInt(parameters, "eventDispatcherThreadPoolSize", 50);
+    final int eventDispatcherMaxThreadPoolSize = getInt(parameters, "eventDispatcherMaxThreadPoolSize", Math.max(
+        eventDispatcherThreadPoolSize, 200));
+    final int eventDispatcherQueueSize = getInt(parameters, "eventDispatcherQueueSize", 10000);
+    LOG.info("Moho is creating event dispatcher with " + eventDispatcherThreadPoolSize + " to "
+        + eventDispatcherMaxThreadPoolSize + " threads and a queue of " + eventDispatcherQueueSize + " tasks.");
+
+    final DispatchExecutor executor = new DispatchExecutor(eventDispatcherThreadPoolSize,
+        eventDispatcherMaxThreadPoolSize, eventDispatcherQueueSize, 60, TimeUnit.SECONDS, new DaemonThreadFactory(
+            "MohoContext"));
+    configureOverloadPolicy(executor, parameters, TaskClass.IN_DIALOG, "eventDispatcherInDialogOverloadPolicy");
+    configureOverloadPolicy(executor, parameters, TaskClass.OUT_OF_DIALOG, "eventDispatcherOutOfDialogOverloadPolicy");
+    configureOverloadPolicy(executor, parameters, TaskClass.DEFAULT, "eventDispatcherDefaultOverloadPolicy");
+    return executor;
+  }
+
+  private int getInt(final Map<String, String> parameters, final String name, final int defaultValue) {
+    final String value = parameters.get(name);
+    if (value != null) {
+      return Integer.valueOf(value);
+    }
+    return defaultValue;
+  }
+
+  private void configureOverloadPolicy(final DispatchExecutor executor, final Map<String, String> parameters,
+      final TaskClass taskClass, final String name) {
+    final String value = parameters.get(name);
+    if (value != null) {
+      try {
+        executor.setOverloadPolicy(taskClass, OverloadPolicy.valueOf(value.trim().toUpperCase()));
+      }
+      catch (final IllegalArgumentException ex) {
+        LOG.warn("Unknown overload policy " + value + " for " + name + ", using "
+            + executor.getOverloadPolicy(taskClass));
+      }
+    }
+  }
+}
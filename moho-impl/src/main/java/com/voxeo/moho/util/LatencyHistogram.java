@@ -0,0 +1,117 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with power of two buckets in microseconds:
+ * bucket 0 counts what took less than 2us, bucket i what took from 2^i up to
+ * 2^(i+1) microseconds, and the last bucket everything longer. Recording is a
+ * couple of atomic increments, cheap enough for every request.
+ */
+public class LatencyHistogram {
+
+  public static final int BUCKETS = 32;
+
+  private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+
+  private final AtomicLong _count = new AtomicLong();
+
+  private final AtomicLong _totalNanos = new AtomicLong();
+
+  private final AtomicLong _maxNanos = new AtomicLong();
+
+  public void record(final long nanos) {
+    final long micros = nanos < 0 ? 0 : nanos / 1000;
+    _buckets.incrementAndGet(bucketOf(micros));
+    _count.incrementAndGet();
+    _totalNanos.addAndGet(nanos);
+    long max = _maxNanos.get();
+    while (nanos > max && !_maxNanos.compareAndSet(max, nanos)) {
+      max = _maxNanos.get();
+    }
+  }
+
+  static int bucketOf(final long micros) {
+    if (micros < 2) {
+      return 0;
+    }
+    return Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+  }
+
+  public long getCount() {
+    return _count.get();
+  }
+
+  /**
+   * @return the mean latency in microseconds, 0 if nothing was recorded.
+   */
+  public long getMean() {
+    final long count = _count.get();
+    return count == 0 ? 0 : _totalNanos.get() / count / 1000;
+  }
+
+  /**
+   * @return the longest latency in microseconds.
+   */
+  public long getMax() {
+    return _maxNanos.get() / 1000;
+  }
+
+  /**
+   * @param percentile
+   *          from 0 to 100.
+   * @return the upper bound, in microseconds, of the bucket the percentile
+   *         falls in, 0 if nothing was recorded.
+   */
+  public long getPercentile(final double percentile) {
+    final long[] buckets = getBuckets();
+    long count = 0;
+    for (final long n : buckets) {
+      count += n;
+    }
+    if (count == 0) {
+      return 0;
+    }
+    final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      seen += buckets[i];
+      if (seen >= rank) {
+        return i == BUCKETS - 1 ? getMax() : 1L << (i + 1);
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * @return a copy of the bucket counts.
+   */
+  public long[] getBuckets() {
+    final long[] buckets = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = _buckets.get(i);
+    }
+    return buckets;
+  }
+
+  @Override
+  public String toString() {
+    return "count=" + getCount() + ", mean=" + getMean() + "us, p50=" + getPercentile(50) + "us, p99="
+        + getPercentile(99) + "us, max=" + getMax() + "us";
+  }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import com.voxeo.moho.utils.CompletionListener;
+
+/**
+ * A {@link FutureTask} that calls {@link CompletionListener}s when it is done.
+ */
+public class ListenableFutureTask<V> extends FutureTask<V> {
+
+  private final CompletionListeners<V> _listeners;
+
+  /**
+   * @param completionExecutor
+   *          where listeners run, <code>null</code> to run them on the thread
+   *          that completes the task.
+   */
+  public ListenableFutureTask(final Callable<V> callable, final Executor completionExecutor) {
+    super(callable);
+    _listeners = new CompletionListeners<V>(completionExecutor);
+  }
+
+  public void addListener(final CompletionListener<V> listener) {
+    _listeners.add(listener);
+  }
+
+  @Override
+  protected void done() {
+    try {
+      _listeners.complete(get(), null);
+    }
+    catch (final ExecutionException e) {
+      _listeners.complete(null, e.getCause());
+    }
+    catch (final CancellationException e) {
+      _listeners.complete(null, e);
+    }
+    catch (final InterruptedException e) {
+      // can not happen, the task is done.
+      _listeners.complete(null, e);
+    }
+  }
+}
@@ -13,195 +13,292 @@
  */
 package com.voxeo.moho.util;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.StringReader;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
-import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
+/**
+ * Parses NLSML recognition results in a single streaming pass. Each thread
+ * keeps its own SAX reader, so parsing a result allocates neither a parser nor
+ * a DOM, and the text is read as characters rather than encoded to bytes
+ * first.
+ * <p>
+ * Each interpretation of each &lt;result&gt; becomes one map with the keys
+ * _grammar_id, _grammar, _confidence, _interpretationconfidence, _tag,
+ * _interpretation, _inputmode and _concept, as far as the result provides
+ * them.
+ */
 public class NLSMLParser {
 
   private static final List<Map<String, String>> EMPTY_RESULT = new ArrayList<Map<String, String>>(0);
 
-  public static List<Map<String, String>> parse(final String xml) throws Exception {
+  private static final SAXParserFactory FACTORY = SAXParserFactory.newInstance();
 
-    final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-    factory.setValidating(false);
+  static {
+    FACTORY.setValidating(false);
+    FACTORY.setNamespaceAware(false);
+    try {
+      // results never need an external DTD, don't go and fetch one.
+      FACTORY.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+    }
+    catch (final Exception e) {
+      // not a Xerces based parser.
+    }
+  }
 
-    InputStream is = null;
-    Document d = null;
+  private static final ThreadLocal<XMLReader> READERS = new ThreadLocal<XMLReader>();
+
+  public static List<Map<String, String>> parse(final String xml) throws Exception {
+    final XMLReader reader = getReader();
+    final Handler handler = new Handler();
+    reader.setContentHandler(handler);
+    reader.setErrorHandler(handler);
     try {
-      is = new ByteArrayInputStream(xml.getBytes());
-      d = factory.newDocumentBuilder().parse(is);
+      reader.parse(new InputSource(new StringReader(xml)));
     }
     finally {
-      if (is != null) {
-        try {
-          is.close();
-        }
-        catch (final IOException e) {
-        }
-      }
+      // don't keep the handler and its results reachable from the thread.
+      reader.setContentHandler(null);
+      reader.setErrorHandler(null);
     }
+    return handler._sawResult ? handler._results : EMPTY_RESULT;
+  }
 
-    final NodeList results = d.getElementsByTagName("result");
-    if (results.getLength() == 0) {
-      return EMPTY_RESULT;
+  private static XMLReader getReader() throws ParserConfigurationException, SAXException {
+    XMLReader reader = READERS.get();
+    if (reader == null) {
+      reader = FACTORY.newSAXParser().getXMLReader();
+      READERS.set(reader);
     }
+    return reader;
+  }
+
+  private static class Handler extends DefaultHandler {
+    final List<Map<String, String>> _results = new ArrayList<Map<String, String>>(1);
+
+    boolean _sawResult;
+
+    int _depth;
+
+    // the depth of the element being read, -1 if there is none.
+    int _resultDepth = -1;
 
-    final List<Map<String, String>> retval = new ArrayList<Map<String, String>>(results.getLength());
+    int _interpretationDepth = -1;
 
-    for (int i = 0; i < results.getLength(); i++) {
-      final Element result = (Element) results.item(i);
-      final String fullGrammarID = result.getAttribute("grammar");
-      final List<Element> interpretations = getChildElementsList(result, "interpretation");
+    int _inputDepth = -1;
 
-      for (final Element interpretation : interpretations) {
-        final Map<String, String> reco = new HashMap<String, String>();
-        retval.add(reco);
+    int _voxeoResultDepth = -1;
 
-        final String localFullGrammarID = interpretation.getAttribute("grammar");
-        String gramid;
-        String gram;
-        if (localFullGrammarID != null && !localFullGrammarID.equals("")) {
-          gramid = parseGrammarID(localFullGrammarID, false);
-          gram = parseGrammarID(localFullGrammarID, true);
+    int _conceptDepth = -1;
+
+    int _voxeoInterpretationDepth = -1;
+
+    String _resultGrammar;
+
+    // per interpretation.
+    String _grammar;
+
+    String _confidence;
+
+    String _inputMode;
+
+    boolean _inputSeen;
+
+    boolean _voxeoResultSeen;
+
+    boolean _conceptSeen;
+
+    boolean _voxeoInterpretationSeen;
+
+    // the direct text of the elements above, null if they have none.
+    StringBuilder _tag;
+
+    StringBuilder _input;
+
+    StringBuilder _concept;
+
+    StringBuilder _voxeoInterpretation;
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName, final Attributes attrs)
+        throws SAXException {
+      _depth++;
+      if ("result".equals(qName)) {
+        _sawResult = true;
+        if (_resultDepth < 0) {
+          _resultDepth = _depth;
+          _resultGrammar = value(attrs.getValue("grammar"));
         }
-        else {
-          gramid = parseGrammarID(fullGrammarID, false);
-          gram = parseGrammarID(fullGrammarID, true);
+      }
+      else if (_resultDepth >= 0 && _depth == _resultDepth + 1 && "interpretation".equals(qName)) {
+        _interpretationDepth = _depth;
+        _grammar = value(attrs.getValue("grammar"));
+        _confidence = attrs.getValue("confidence");
+        if (_confidence == null) {
+          throw new SAXException("interpretation has no confidence.");
         }
-        reco.put("_grammar_id", gramid);
-        reco.put("_grammar", gram);
-
-        final String conf = interpretation.getAttributes().getNamedItem("confidence").getNodeValue();
-        final float confF = Float.parseFloat(conf) / 100F;
-        reco.put("_confidence", Float.toString(confF));
-        reco.put("_interpretationconfidence", Float.toString(confF));
-
-        String tag = getTextContent(interpretation);
-        if (tag != null) {
-          tag = tag.trim();
-          if (tag.length() > 0) {
-            tag = tag.replaceAll("\\s*", "");
-            reco.put("_tag", tag);
-          }
+        _inputMode = null;
+        _inputSeen = false;
+        _voxeoResultSeen = false;
+        _tag = null;
+        _input = null;
+        _concept = null;
+        _voxeoInterpretation = null;
+      }
+      else if (_interpretationDepth >= 0 && _depth == _interpretationDepth + 1) {
+        if (!_inputSeen && "input".equals(qName)) {
+          _inputSeen = true;
+          _inputDepth = _depth;
+          _inputMode = attrs.getValue("mode");
         }
-
-        Element input = getFirstChildElement(interpretation, "input");
-        if (input != null) {
-          String interp = getTextContent(input);
-          if (interp != null && interp.trim().length() > 0) {
-            reco.put("_interpretation", interp);
-          }
-
-          final Node modeNode = input.getAttributes().getNamedItem("mode");
-          if (modeNode != null) {
-            String inputmode = modeNode.getNodeValue().trim();
-
-            if (inputmode.equalsIgnoreCase("speech")) {
-              inputmode = "voice"; // per VXML
-            }
-            reco.put("_inputmode", new String(inputmode));
-          }
+        else if (!_voxeoResultSeen && "voxeoresult".equals(qName)) {
+          _voxeoResultSeen = true;
+          _voxeoResultDepth = _depth;
+          _conceptSeen = false;
+          _voxeoInterpretationSeen = false;
         }
-
-        final Element voxeoresult = getFirstChildElement(interpretation, "voxeoresult");
-        if (voxeoresult != null) {
-          final Element concept = getFirstChildElement(voxeoresult, "concept");
-          if (concept != null) {
-            String conceptText = getTextContent(concept);
-            if (conceptText != null) {
-              conceptText = conceptText.trim();
-              if (conceptText.length() > 0) {
-                reco.put("_concept", conceptText);
-              }
-            }
-          }
-          final Element interp = getFirstChildElement(voxeoresult, "interpretation");
-          if (interp != null) {
-            String interpText = getTextContent(interp);
-            if (interpText != null) {
-              interpText = interpText.trim();
-              if (interpText.length() > 0) {
-                reco.put("_interpretation", interpText);
-              }
-            }
-          }
+      }
+      else if (_voxeoResultDepth >= 0 && _depth == _voxeoResultDepth + 1) {
+        if (!_conceptSeen && "concept".equals(qName)) {
+          _conceptSeen = true;
+          _conceptDepth = _depth;
+        }
+        else if (!_voxeoInterpretationSeen && "interpretation".equals(qName)) {
+          _voxeoInterpretationSeen = true;
+          _voxeoInterpretationDepth = _depth;
         }
       }
     }
 
-    return retval;
-  }
-
-  private static Element getFirstChildElement(final Node node, final String nodeName) {
-    return getFirstChildElementIntern(node, new QName(nodeName));
-  }
+    @Override
+    public void characters(final char[] ch, final int start, final int length) {
+      if (_depth == _interpretationDepth) {
+        _tag = append(_tag, ch, start, length);
+      }
+      else if (_depth == _inputDepth) {
+        _input = append(_input, ch, start, length);
+      }
+      else if (_depth == _conceptDepth) {
+        _concept = append(_concept, ch, start, length);
+      }
+      else if (_depth == _voxeoInterpretationDepth) {
+        _voxeoInterpretation = append(_voxeoInterpretation, ch, start, length);
+      }
+    }
 
-  private static Element getFirstChildElementIntern(final Node node, final QName nodeName) {
-    Element childElement = null;
-    final Iterator<Element> it = getChildElementsIntern(node, nodeName).iterator();
-    if (it.hasNext()) {
-      childElement = it.next();
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) {
+      if (_depth == _resultDepth) {
+        _resultDepth = -1;
+      }
+      else if (_depth == _interpretationDepth) {
+        _results.add(toReco());
+        _interpretationDepth = -1;
+      }
+      else if (_depth == _inputDepth) {
+        _inputDepth = -1;
+      }
+      else if (_depth == _voxeoResultDepth) {
+        _voxeoResultDepth = -1;
+      }
+      else if (_depth == _conceptDepth) {
+        _conceptDepth = -1;
+      }
+      else if (_depth == _voxeoInterpretationDepth) {
+        _voxeoInterpretationDepth = -1;
+      }
+      _depth--;
     }
-    return childElement;
-  }
 
-  private static List<Element> getChildElementsList(final Node node, final String nodeName) {
-    return getChildElementsIntern(node, new QName(nodeName));
-  }
+    private Map<String, String> toReco() {
+      final Map<String, String> reco = new HashMap<String, String>();
+
+      final String fullGrammarID = _grammar.length() > 0 ? _grammar : _resultGrammar;
+      reco.put("_grammar_id", parseGrammarID(fullGrammarID, false));
+      reco.put("_grammar", parseGrammarID(fullGrammarID, true));
+
+      final float confF = Float.parseFloat(_confidence) / 100F;
+      reco.put("_confidence", Float.toString(confF));
+      reco.put("_interpretationconfidence", Float.toString(confF));
 
-  private static List<Element> getChildElementsIntern(final Node node, final QName nodeName) {
-    final ArrayList<Element> list = new ArrayList<Element>();
-    final NodeList nlist = node.getChildNodes();
-    for (int i = 0; i < nlist.getLength(); i++) {
-      final Node child = nlist.item(i);
-      if (child.getNodeType() == Node.ELEMENT_NODE) {
-        if (nodeName == null) {
-          list.add((Element) child);
+      if (_tag != null) {
+        final String tag = removeWhitespace(_tag);
+        if (tag.length() > 0) {
+          reco.put("_tag", tag);
         }
-        else {
-          QName qname;
-          if (nodeName.getNamespaceURI().length() > 0) {
-            qname = new QName(child.getNamespaceURI(), child.getLocalName());
-          }
-          else {
-            qname = new QName(child.getLocalName() == null ? child.getNodeName() : child.getLocalName());
-          }
-          if (qname.equals(nodeName)) {
-            list.add((Element) child);
-          }
+      }
+
+      if (_input != null) {
+        final String interp = _input.toString();
+        if (interp.trim().length() > 0) {
+          reco.put("_interpretation", interp);
+        }
+      }
+      if (_inputMode != null) {
+        String inputmode = _inputMode.trim();
+        if (inputmode.equalsIgnoreCase("speech")) {
+          inputmode = "voice"; // per VXML
+        }
+        reco.put("_inputmode", inputmode);
+      }
+
+      if (_concept != null) {
+        final String conceptText = _concept.toString().trim();
+        if (conceptText.length() > 0) {
+          reco.put("_concept", conceptText);
         }
       }
+      // the voxeo result overrides the interpretation of the input.
+      if (_voxeoInterpretation != null) {
+        final String interpText = _voxeoInterpretation.toString().trim();
+        if (interpText.length() > 0) {
+          reco.put("_interpretation", interpText);
+        }
+      }
+      return reco;
+    }
+  }
+
+  private static String value(final String attr) {
+    return attr == null ? "" : attr;
+  }
+
+  private static StringBuilder append(StringBuilder sb, final char[] ch, final int start, final int length) {
+    if (sb == null) {
+      sb = new StringBuilder(length);
     }
-    return Collections.unmodifiableList(list);
+    return sb.append(ch, start, length);
   }
 
-  private static String getTextContent(final Node node) {
-    boolean hasTextContent = false;
-    final StringBuffer buffer = new StringBuffer();
-    final NodeList nlist = node.getChildNodes();
-    for (int i = 0; i < nlist.getLength(); i++) {
-      final Node child = nlist.item(i);
-      if (child.getNodeType() == Node.TEXT_NODE) {
-        buffer.append(child.getNodeValue());
-        hasTextContent = true;
+  // the same as replaceAll("\\s*", "") without compiling a pattern.
+  private static String removeWhitespace(final CharSequence text) {
+    final StringBuilder sb = new StringBuilder(text.length());
+    for (int i = 0; i < text.length(); i++) {
+      final char c = text.charAt(i);
+      switch (c) {
+        case ' ':
+        case '\t':
+        case '\n':
+        case '\u000B':
+        case '\f':
+        case '\r':
+          break;
+        default:
+          sb.append(c);
       }
     }
-    return hasTextContent ? buffer.toString() : null;
+    return sb.toString();
   }
 
   private static String parseGrammarID(final String fullGrammarID, final boolean suffix) {
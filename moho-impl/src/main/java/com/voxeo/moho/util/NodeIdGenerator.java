@@ -0,0 +1,106 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.voxeo.moho.spi.IdGenerator;
+
+/**
+ * The default {@link IdGenerator}. An ID is the node ID followed by 16 hex
+ * digits of a counter that starts from the current time in milliseconds
+ * shifted left by 16 bits and is kept ahead of it, so IDs need neither
+ * SecureRandom nor a lock, and the IDs of a node sort by creation time.
+ * <p>
+ * The node ID is the {@link #NODE_ID} init parameter, or the host name and
+ * the process ID if it is not set. Nodes of a cluster must have different
+ * node IDs.
+ */
+public class NodeIdGenerator implements IdGenerator {
+
+  public static final String NODE_ID = "nodeId";
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private static NodeIdGenerator _default;
+
+  private final char[] _prefix;
+
+  private final AtomicLong _last = new AtomicLong();
+
+  public NodeIdGenerator(final String nodeId) {
+    _prefix = (sanitize(nodeId) + "-").toCharArray();
+  }
+
+  /**
+   * @return the generator of the event sources created without a context.
+   */
+  public static synchronized NodeIdGenerator getDefault() {
+    if (_default == null) {
+      _default = new NodeIdGenerator(defaultNodeId());
+    }
+    return _default;
+  }
+
+  @Override
+  public String generate() {
+    long next;
+    for (;;) {
+      final long last = _last.get();
+      // 65536 IDs per millisecond before the counter runs ahead of the clock,
+      // and it never goes back if the clock does.
+      next = Math.max(last + 1, System.currentTimeMillis() << 16);
+      if (_last.compareAndSet(last, next)) {
+        break;
+      }
+    }
+    final char[] id = new char[_prefix.length + 16];
+    System.arraycopy(_prefix, 0, id, 0, _prefix.length);
+    for (int i = id.length - 1; i >= _prefix.length; i--) {
+      id[i] = HEX[(int) (next & 0xF)];
+      next >>>= 4;
+    }
+    return new String(id);
+  }
+
+  public String getNodeId() {
+    return new String(_prefix, 0, _prefix.length - 1);
+  }
+
+  static String defaultNodeId() {
+    String host;
+    try {
+      host = InetAddress.getLocalHost().getHostName();
+    }
+    catch (final Exception e) {
+      host = "localhost";
+    }
+    final String jvm = ManagementFactory.getRuntimeMXBean().getName();
+    final int at = jvm.indexOf('@');
+    return host + "." + (at > 0 ? jvm.substring(0, at) : jvm);
+  }
+
+  // IDs end up in logs and media object names, keep them to safe characters.
+  static String sanitize(final String nodeId) {
+    final StringBuilder sb = new StringBuilder(nodeId.length());
+    for (int i = 0; i < nodeId.length(); i++) {
+      final char c = nodeId.charAt(i);
+      sb.append(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '.' || c == '-' ? c : '.');
+    }
+    return sb.toString();
+  }
+}
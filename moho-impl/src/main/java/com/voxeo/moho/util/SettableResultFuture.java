@@ -1,6 +1,7 @@
 package com.voxeo.moho.util;
 
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -8,6 +9,8 @@ import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import com.voxeo.moho.utils.CompletionListener;
+
 public class SettableResultFuture<C> implements Future<C>, FutureResult<C> {
 
   final Lock lock = new ReentrantLock();
@@ -18,6 +21,25 @@ public class SettableResultFuture<C> implements Future<C>, FutureResult<C> {
 
   private Throwable exception;
 
+  private final CompletionListeners<C> listeners;
+
+  public SettableResultFuture() {
+    this(null);
+  }
+
+  /**
+   * @param completionExecutor
+   *          where {@link CompletionListener}s run, <code>null</code> to run
+   *          them on the thread that sets the result.
+   */
+  public SettableResultFuture(final Executor completionExecutor) {
+    listeners = new CompletionListeners<C>(completionExecutor);
+  }
+
+  public void addListener(final CompletionListener<C> listener) {
+    listeners.add(listener);
+  }
+
   @Override
   public boolean cancel(boolean mayInterruptIfRunning) {
     return false;
@@ -82,6 +104,7 @@ public class SettableResultFuture<C> implements Future<C>, FutureResult<C> {
     finally {
       lock.unlock();
     }
+    listeners.complete(result, null);
   }
 
   public void setException(Throwable t) {
@@ -93,5 +116,6 @@ public class SettableResultFuture<C> implements Future<C>, FutureResult<C> {
     finally {
       lock.unlock();
     }
+    listeners.complete(null, t);
   }
 }
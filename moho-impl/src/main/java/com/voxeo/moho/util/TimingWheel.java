@@ -0,0 +1,174 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel. Elements are filed under their deadline and
+ * handed back by {@link #advance(long, Collection)} once the clock has passed
+ * it, at a cost that depends on the number of elements that expire and not on
+ * the number of elements that are scheduled.
+ * <p>
+ * The first wheel has <code>wheelSize</code> buckets of <code>tickMillis</code>
+ * each; deadlines beyond it go to an overflow wheel whose tick is the whole span
+ * of the wheel below, and so on, and are moved down a level as the clock gets
+ * close to them. An element is returned no earlier than its deadline and at
+ * most one tick later.
+ * <p>
+ * This class is not thread safe; it is meant to be owned by a single timer
+ * thread.
+ */
+public class TimingWheel<E> {
+
+  private final long _tickMillis;
+
+  private final int _wheelSize;
+
+  private final long _interval;
+
+  private final List<Entry<E>>[] _buckets;
+
+  private long _currentTime;
+
+  private int _size;
+
+  private TimingWheel<E> _overflow;
+
+  /**
+   * @param tickMillis
+   *          the resolution of the wheel.
+   * @param wheelSize
+   *          the number of buckets per level.
+   * @param startMillis
+   *          the current time.
+   */
+  @SuppressWarnings("unchecked")
+  public TimingWheel(final long tickMillis, final int wheelSize, final long startMillis) {
+    if (tickMillis <= 0 || wheelSize < 2) {
+      throw new IllegalArgumentException("tickMillis must be positive and wheelSize at least 2");
+    }
+    _tickMillis = tickMillis;
+    _wheelSize = wheelSize;
+    _interval = tickMillis * wheelSize;
+    _buckets = new List[wheelSize];
+    _currentTime = startMillis - (startMillis % tickMillis);
+  }
+
+  /**
+   * @return false if the deadline has already passed, in which case the
+   *         element is not added.
+   */
+  public boolean add(final E element, final long deadline) {
+    return add(new Entry<E>(element, deadline));
+  }
+
+  private boolean add(final Entry<E> entry) {
+    if (entry._deadline < _currentTime) {
+      return false;
+    }
+    final long tick = entry._deadline / _tickMillis;
+    if (tick < _currentTime / _tickMillis + _wheelSize) {
+      final int index = (int) (tick % _wheelSize);
+      List<Entry<E>> bucket = _buckets[index];
+      if (bucket == null) {
+        bucket = new ArrayList<Entry<E>>(4);
+        _buckets[index] = bucket;
+      }
+      bucket.add(entry);
+    }
+    else {
+      if (_overflow == null) {
+        _overflow = new TimingWheel<E>(_interval, _wheelSize, _currentTime);
+      }
+      _overflow.add(entry);
+    }
+    _size++;
+    return true;
+  }
+
+  /**
+   * Moves the clock forward to <code>now</code> and collects the elements
+   * whose deadline has passed.
+   */
+  public void advance(final long now, final Collection<? super E> expired) {
+    while (_currentTime + _tickMillis <= now) {
+      final int index = (int) ((_currentTime / _tickMillis) % _wheelSize);
+      final List<Entry<E>> bucket = _buckets[index];
+      if (bucket != null) {
+        _buckets[index] = null;
+        for (final Entry<E> entry : bucket) {
+          expired.add(entry._element);
+        }
+        _size -= bucket.size();
+      }
+      _currentTime += _tickMillis;
+      // the bucket just emptied is now the last one of the wheel, so it is
+      // free for the elements coming down from the level above.
+      if (_overflow != null && _currentTime % _interval == 0) {
+        for (final Entry<E> entry : _overflow.cascade(_currentTime)) {
+          _size--;
+          add(entry);
+        }
+      }
+    }
+  }
+
+  /**
+   * Moves an upper wheel to <code>time</code>, which is a multiple of its tick,
+   * and removes the elements that are now within the span of the wheel below.
+   */
+  private List<Entry<E>> cascade(final long time) {
+    _currentTime = time;
+    if (_overflow != null && time % _interval == 0) {
+      for (final Entry<E> entry : _overflow.cascade(time)) {
+        _size--;
+        add(entry);
+      }
+    }
+    final int index = (int) ((time / _tickMillis) % _wheelSize);
+    final List<Entry<E>> bucket = _buckets[index];
+    if (bucket == null) {
+      return new ArrayList<Entry<E>>(0);
+    }
+    _buckets[index] = null;
+    _size -= bucket.size();
+    return bucket;
+  }
+
+  /**
+   * @return the number of elements in this wheel and the ones above it.
+   */
+  public int size() {
+    return _size;
+  }
+
+  public long getCurrentTime() {
+    return _currentTime;
+  }
+
+  private static class Entry<E> {
+    final E _element;
+
+    final long _deadline;
+
+    Entry(final E element, final long deadline) {
+      _element = element;
+      _deadline = deadline;
+    }
+  }
+}
@@ -16,6 +16,10 @@ package com.voxeo.moho.util;
 
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -24,6 +28,10 @@ import com.voxeo.moho.utils.EventListener;
 
 public class Utils {
 
+  private static final Class<?>[] NO_EVENT_TYPES = new Class<?>[0];
+
+  private static final ConcurrentMap<Class<?>, Class<?>[]> _eventTypes = new ConcurrentHashMap<Class<?>, Class<?>[]>();
+
   public static Class<?> getGenericType(final Object o) {
     for (Class<?> clz = o.getClass(); clz != null && !clz.equals(Object.class); clz = clz.getSuperclass()) {
       for (final Type type : clz.getGenericInterfaces()) {
@@ -69,6 +77,30 @@ public class Utils {
     return null;
   }
 
+  /**
+   * Returns the chain of event types for the given class, i.e. the result of
+   * applying {@link #getEventType(Class)} repeatedly until it returns null,
+   * most specific first. The chain is computed once per class and cached, so
+   * dispatching an event does no reflection after the first event of its class.
+   * <p>
+   * The returned array is shared and must not be modified.
+   */
+  public static Class<?>[] getEventTypes(final Class<?> clazz) {
+    Class<?>[] types = _eventTypes.get(clazz);
+    if (types == null) {
+      final List<Class<?>> chain = new ArrayList<Class<?>>(4);
+      for (Class<?> type = getEventType(clazz); type != null; type = getEventType(type)) {
+        chain.add(type);
+      }
+      types = chain.isEmpty() ? NO_EVENT_TYPES : chain.toArray(new Class<?>[chain.size()]);
+      final Class<?>[] existing = _eventTypes.putIfAbsent(clazz, types);
+      if (existing != null) {
+        types = existing;
+      }
+    }
+    return types;
+  }
+
   public static class DaemonThreadFactory implements ThreadFactory {
     private ThreadGroup group;
 
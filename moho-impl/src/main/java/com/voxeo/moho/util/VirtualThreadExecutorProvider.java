@@ -0,0 +1,93 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+
+import com.voxeo.moho.spi.ExecutionContext;
+import com.voxeo.moho.spi.ExecutorProvider;
+
+/**
+ * An {@link ExecutorProvider} that starts a virtual thread for every task,
+ * so each event source drains its mailbox on its own virtual thread and
+ * application code blocking on <code>Joint.get()</code>, a hold or a media
+ * operation parks instead of holding a platform thread. Enable it with
+ * <pre>
+ *   &lt;init-param&gt;
+ *     &lt;param-name&gt;executorProvider&lt;/param-name&gt;
+ *     &lt;param-value&gt;com.voxeo.moho.util.VirtualThreadExecutorProvider&lt;/param-value&gt;
+ *   &lt;/init-param&gt;
+ * </pre>
+ * Virtual threads are looked up reflectively since Moho is built for older
+ * JVMs. When the running JVM does not support them this provider falls back to
+ * {@link DispatchExecutorProvider}. Note that code blocking inside a
+ * <code>synchronized</code> block still pins the carrier thread on JVMs before
+ * Java 24.
+ * <p>
+ * The executor is unbounded, so there is no {@link DispatchExecutor}: new
+ * calls and pings are never turned away with a 503 under overload and the
+ * <code>eventDispatcher*</code> parameters, the overload policies and the pool
+ * health counters don't apply.
+ */
+public class VirtualThreadExecutorProvider implements ExecutorProvider {
+
+  private static final Logger LOG = Logger.getLogger(VirtualThreadExecutorProvider.class);
+
+  @Override
+  public Executor createExecutor(final ExecutionContext context, final Map<String, String> parameters) {
+    final Executor executor = createVirtualThreadExecutor();
+    if (executor != null) {
+      LOG.info("Moho is creating event dispatcher with a virtual thread per task.");
+      LOG.warn("The virtual thread event dispatcher is unbounded, overload protection is off.");
+      return executor;
+    }
+    LOG.warn("Virtual threads are not supported by this JVM, falling back to the thread pool event dispatcher.");
+    return new DispatchExecutorProvider().createExecutor(context, parameters);
+  }
+
+  /**
+   * @return whether the running JVM supports virtual threads.
+   */
+  public static boolean isSupported() {
+    return getFactoryMethod() != null;
+  }
+
+  static Executor createVirtualThreadExecutor() {
+    final Method factory = getFactoryMethod();
+    if (factory != null) {
+      try {
+        return (Executor) factory.invoke(null);
+      }
+      catch (final Exception ex) {
+        LOG.warn("Unable to create virtual thread executor: " + ex);
+      }
+    }
+    return null;
+  }
+
+  private static Method getFactoryMethod() {
+    try {
+      return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    }
+    catch (final NoSuchMethodException ex) {
+      return null;
+    }
+  }
+}
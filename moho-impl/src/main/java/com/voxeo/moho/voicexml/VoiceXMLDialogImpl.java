@@ -211,7 +211,8 @@ public class VoiceXMLDialogImpl extends DispatchableEventSource implements Dialo
         throw new IllegalStateException("Cannot join when the dialog is starting.");
       }
       if (_joinees.contains(other)) {
-        return new JointImpl(_context.getExecutor(), new JointImpl.DummyJoinWorker(VoiceXMLDialogImpl.this, other));
+        return new JointImpl(_context.getExecutor(), new JointImpl.DummyJoinWorker(VoiceXMLDialogImpl.this, other),
+            getMailbox());
       }
     }
     if (other instanceof Call) {
@@ -250,7 +251,7 @@ public class VoiceXMLDialogImpl extends DispatchableEventSource implements Dialo
         public boolean cancel() {
           return false;
         }
-      });
+      }, getMailbox());
     }
   }
 
@@ -301,7 +302,7 @@ public class VoiceXMLDialogImpl extends DispatchableEventSource implements Dialo
       public UnjoinCompleteEvent call() throws Exception {
         return doUnjoin(other, callPeerUnjoin);
       }
-    });
+    }, getMailbox());
 
     return task;
   }
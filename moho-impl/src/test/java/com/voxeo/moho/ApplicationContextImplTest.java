@@ -0,0 +1,71 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho;
+
+import javax.media.mscontrol.MsControlFactory;
+import javax.servlet.sip.SipServlet;
+
+import junit.framework.TestCase;
+
+import org.jmock.Mockery;
+import org.jmock.lib.legacy.ClassImposteriser;
+
+import com.voxeo.moho.media.GenericMediaServiceFactory;
+import com.voxeo.moho.media.PromptCache;
+import com.voxeo.moho.services.Service;
+import com.voxeo.moho.sip.IncomingCallFactory;
+import com.voxeo.moho.sip.fake.MockSipServlet;
+
+public class ApplicationContextImplTest extends TestCase {
+
+  Mockery mockery = new Mockery() {
+    {
+      setImposteriser(ClassImposteriser.INSTANCE);
+    }
+  };
+
+  MsControlFactory msFactory = mockery.mock(MsControlFactory.class);
+
+  SipServlet servlet = new MockSipServlet(mockery);
+
+  Application app = mockery.mock(Application.class);
+
+  ApplicationContextImpl appContext = new ApplicationContextImpl(app, msFactory, servlet);
+
+  public void testServicesAreIndexedByType() {
+    final MediaServiceFactory factory = appContext.getService(MediaServiceFactory.class);
+    assertTrue(factory instanceof GenericMediaServiceFactory);
+    assertSame(factory, appContext.getService(GenericMediaServiceFactory.class));
+    assertSame(factory, appContext.getMediaServiceFactory());
+
+    final IncomingCallFactory incoming = appContext.getService(IncomingCallFactory.class);
+    assertNotNull(incoming);
+    assertSame(incoming, appContext.getService(IncomingCallFactory.class));
+    assertTrue(appContext.containsService(PromptCache.class));
+
+    // the first service in the context.
+    assertSame(appContext.listServices().iterator().next(), appContext.getService(Service.class));
+  }
+
+  public void testRefresh() {
+    final PromptCache cache = appContext.getService(PromptCache.class);
+    final int count = appContext.listServices().size();
+
+    appContext.refreshServices();
+
+    assertSame(cache, appContext.getService(PromptCache.class));
+    assertEquals(count, appContext.listServices().size());
+  }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.media.mscontrol.join.Joinable.Direction;
+
+import junit.framework.TestCase;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+
+import com.voxeo.moho.Participant.JoinType;
+import com.voxeo.moho.event.ForkCompleteEvent;
+import com.voxeo.moho.event.JoinCompleteEvent;
+import com.voxeo.moho.event.MohoJoinCompleteEvent;
+import com.voxeo.moho.event.Observer;
+
+public class ForkImplTest extends TestCase {
+
+  Mockery mockery = new Mockery();
+
+  Call origin = mockery.mock(Call.class, "origin");
+
+  Endpoint caller = mockery.mock(Endpoint.class, "caller");
+
+  CallableEndpoint endpoint1 = mockery.mock(CallableEndpoint.class, "endpoint1");
+
+  CallableEndpoint endpoint2 = mockery.mock(CallableEndpoint.class, "endpoint2");
+
+  Call leg1 = mockery.mock(Call.class, "leg1");
+
+  Call leg2 = mockery.mock(Call.class, "leg2");
+
+  SettableJointImpl joint1 = new SettableJointImpl();
+
+  SettableJointImpl joint2 = new SettableJointImpl();
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    mockery.checking(new Expectations() {
+      {
+        allowing(origin).addObserver(with(any(Observer[].class)));
+        allowing(origin).removeObserver(with(any(Observer.class)));
+        allowing(origin).getCallState();
+        will(returnValue(Call.State.CONNECTED));
+        allowing(origin).getInvitor();
+        will(returnValue(caller));
+        allowing(origin).dispatch(with(any(ForkCompleteEvent.class)));
+
+        oneOf(endpoint1).createCall(caller, null);
+        will(returnValue(leg1));
+        oneOf(leg1).join();
+        will(returnValue(joint1));
+        oneOf(endpoint2).createCall(caller, null);
+        will(returnValue(leg2));
+        oneOf(leg2).join();
+        will(returnValue(joint2));
+      }
+    });
+  }
+
+  public void testFirstAnswerWins() throws Exception {
+    final SettableJointImpl originJoint = new SettableJointImpl();
+    mockery.checking(new Expectations() {
+      {
+        oneOf(leg2).hangup();
+        oneOf(origin).join(leg1, JoinType.BRIDGE, Direction.DUPLEX);
+        will(returnValue(originJoint));
+      }
+    });
+    final ForkImpl fork = new ForkImpl(origin, Arrays.asList(endpoint1, endpoint2), null);
+    fork.start();
+
+    joint1.done(new MohoJoinCompleteEvent(leg1, null, JoinCompleteEvent.Cause.JOINED, true));
+    assertFalse(fork.isDone());
+    // too late.
+    joint2.done(new MohoJoinCompleteEvent(leg2, null, JoinCompleteEvent.Cause.JOINED, true));
+    originJoint.done(new MohoJoinCompleteEvent(origin, leg1, JoinCompleteEvent.Cause.JOINED, true));
+
+    final ForkCompleteEvent event = fork.get(0, TimeUnit.MILLISECONDS);
+    assertEquals(ForkCompleteEvent.Cause.ANSWERED, event.getCause());
+    assertSame(leg1, event.getWinner());
+    assertEquals(JoinCompleteEvent.Cause.JOINED, event.getResults().get(endpoint1));
+    assertEquals(JoinCompleteEvent.Cause.CANCELED, event.getResults().get(endpoint2));
+    assertFalse(fork.cancel(true));
+    mockery.assertIsSatisfied();
+  }
+
+  public void testNoAnswer() throws Exception {
+    mockery.checking(new Expectations() {
+      {
+        allowing(leg1).hangup();
+        allowing(leg2).hangup();
+      }
+    });
+    final ForkOptions options = new ForkOptions();
+    options.setTimeout(endpoint2, 10);
+    final ForkImpl fork = new ForkImpl(origin, Arrays.asList(endpoint1, endpoint2), options);
+    fork.start();
+
+    joint1.done(new MohoJoinCompleteEvent(leg1, null, JoinCompleteEvent.Cause.BUSY, true));
+
+    final ForkCompleteEvent event = fork.get(1, TimeUnit.SECONDS);
+    assertEquals(ForkCompleteEvent.Cause.NO_ANSWER, event.getCause());
+    assertNull(event.getWinner());
+    assertEquals(JoinCompleteEvent.Cause.BUSY, event.getResults().get(endpoint1));
+    assertEquals(JoinCompleteEvent.Cause.TIMEOUT, event.getResults().get(endpoint2));
+  }
+
+  public void testCancel() throws Exception {
+    mockery.checking(new Expectations() {
+      {
+        oneOf(leg1).hangup();
+        oneOf(leg2).hangup();
+      }
+    });
+    final ForkImpl fork = new ForkImpl(origin, Arrays.asList(endpoint1, endpoint2), null);
+    fork.start();
+
+    assertTrue(fork.cancel(true));
+    assertTrue(fork.isCancelled());
+    // the legs report back once they are hung up.
+    joint1.done(new MohoJoinCompleteEvent(leg1, null, JoinCompleteEvent.Cause.DISCONNECTED, true));
+
+    final ForkCompleteEvent event = fork.get(0, TimeUnit.MILLISECONDS);
+    assertEquals(ForkCompleteEvent.Cause.CANCELED, event.getCause());
+    assertEquals(JoinCompleteEvent.Cause.CANCELED, event.getResults().get(endpoint1));
+    mockery.assertIsSatisfied();
+  }
+}
@@ -20,8 +20,10 @@ import javax.media.mscontrol.Configuration;
 import javax.media.mscontrol.MediaEventListener;
 import javax.media.mscontrol.MsControlFactory;
 import javax.media.mscontrol.Parameters;
+import javax.media.mscontrol.join.Joinable;
 import javax.media.mscontrol.join.Joinable.Direction;
 import javax.media.mscontrol.mixer.MediaMixer;
+import javax.media.mscontrol.mixer.MixerEvent;
 import javax.media.mscontrol.networkconnection.NetworkConnection;
 import javax.sdp.SdpFactory;
 import javax.servlet.sip.SipFactory;
@@ -212,6 +214,80 @@ public class MixerImplTest extends TestCase {
     mockery.assertIsSatisfied();
   }
 
+  /**
+   * unchanged and bursty active speaker notifications.
+   */
+  @SuppressWarnings("unchecked")
+  public void testActiveSpeakerCoalescing() throws Exception {
+    final MediaEventListener<MixerEvent>[] listener = new MediaEventListener[1];
+    mockery.checking(new Expectations() {
+      {
+        oneOf(msFactory).createMediaSession();
+        will(returnValue(mediaSession));
+
+        oneOf(mediaSession).createMediaMixer(with(any(Configuration.class)), with(any(Parameters.class)));
+        will(returnValue(mixer));
+
+        oneOf(mixer).addListener(with(any(MediaEventListener.class)));
+        will(new Action() {
+          @Override
+          public void describeTo(Description description) {
+          }
+
+          @Override
+          public Object invoke(Invocation invocation) throws Throwable {
+            listener[0] = (MediaEventListener<MixerEvent>) invocation.getParameter(0);
+            return null;
+          }
+        });
+      }
+    });
+
+    address = (MixerEndpoint) appContext.createEndpoint("mscontrol://test");
+    mohoMixer = (MixerImpl) address.create(null);
+
+    final Joinable joinable1 = mockery.mock(Joinable.class, "joinable1");
+    final Joinable joinable2 = mockery.mock(Joinable.class, "joinable2");
+    mohoMixer.activeInputParticipant.put(joinable1, mockery.mock(Participant.class, "speaker1"));
+    mohoMixer.activeInputParticipant.put(joinable2, mockery.mock(Participant.class, "speaker2"));
+
+    final MixerEvent one = mockery.mock(MixerEvent.class, "one");
+    final MixerEvent two = mockery.mock(MixerEvent.class, "two");
+    mockery.checking(new Expectations() {
+      {
+        allowing(one).getEventType();
+        will(returnValue(MixerEvent.ACTIVE_INPUTS_CHANGED));
+        allowing(one).getActiveInputs();
+        will(returnValue(new Joinable[] {joinable1}));
+        allowing(two).getEventType();
+        will(returnValue(MixerEvent.ACTIVE_INPUTS_CHANGED));
+        allowing(two).getActiveInputs();
+        will(returnValue(new Joinable[] {joinable2, joinable1}));
+      }
+    });
+
+    // changed-only drops a repeated speaker set.
+    mohoMixer.setActiveSpeakerChangedOnly(true);
+    listener[0].onEvent(one);
+    listener[0].onEvent(one);
+    listener[0].onEvent(two);
+    assertEquals(2, mohoMixer.getActiveSpeakerEventsDelivered());
+    assertEquals(1, mohoMixer.getActiveSpeakerEventsSuppressed());
+
+    // a window delivers the latest notification once it ends.
+    mohoMixer.setActiveSpeakerChangedOnly(false);
+    mohoMixer.setActiveSpeakerWindow(10000);
+    listener[0].onEvent(one);
+    listener[0].onEvent(two);
+    listener[0].onEvent(one);
+    assertEquals(2, mohoMixer.getActiveSpeakerEventsDelivered());
+    assertEquals(3, mohoMixer.getActiveSpeakerEventsSuppressed());
+
+    mohoMixer.flushActiveSpeakers();
+    assertEquals(3, mohoMixer.getActiveSpeakerEventsDelivered());
+    mockery.assertIsSatisfied();
+  }
+
   interface TestApp extends Application {
     public void handleDisconnect(MohoHangupEvent event);
   }
@@ -14,16 +14,24 @@
 
 package com.voxeo.moho.conference;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.media.mscontrol.Configuration;
 import javax.media.mscontrol.MediaEventListener;
 import javax.media.mscontrol.MsControlFactory;
 import javax.media.mscontrol.Parameters;
+import javax.media.mscontrol.join.Joinable;
 import javax.media.mscontrol.join.Joinable.Direction;
 import javax.media.mscontrol.mixer.MediaMixer;
 import javax.media.mscontrol.networkconnection.NetworkConnection;
@@ -43,10 +51,13 @@ import org.jmock.lib.legacy.ClassImposteriser;
 import com.voxeo.moho.Application;
 import com.voxeo.moho.ApplicationContextImpl;
 import com.voxeo.moho.Call;
+import com.voxeo.moho.Joint;
 import com.voxeo.moho.JointImpl;
 import com.voxeo.moho.MixerEndpoint;
 import com.voxeo.moho.CallImpl;
+import com.voxeo.moho.Participant;
 import com.voxeo.moho.Participant.JoinType;
+import com.voxeo.moho.ParticipantContainer;
 import com.voxeo.moho.event.HangupEvent;
 import com.voxeo.moho.event.InputCompleteEvent;
 import com.voxeo.moho.event.JoinCompleteEvent;
@@ -330,6 +341,277 @@ public class ConferenceTest extends TestCase {
     mockery.assertIsSatisfied();
   }
 
+  /**
+   * A participant whose media object the mixer joins directly.
+   */
+  interface MediaParticipant extends Participant, ParticipantContainer {
+  }
+
+  private Participant mockMediaParticipant(final String name) {
+    final MediaParticipant participant = mockery.mock(MediaParticipant.class, name);
+    final NetworkConnection network = mockery.mock(NetworkConnection.class, name + "Net");
+    mockery.checking(new Expectations() {
+      {
+        allowing(participant).getMediaObject();
+        will(returnValue(network));
+        allowing(participant).addParticipant(with(any(Participant.class)), with(any(JoinType.class)),
+            with(any(Direction.class)), with(any(Participant.class)));
+        allowing(participant).dispatch(with(any(JoinCompleteEvent.class)));
+      }
+    });
+    return participant;
+  }
+
+  /**
+   * Holds every admission in preJoin until the expected number of participants
+   * are being admitted at the same time.
+   */
+  class RendezvousController implements ConferenceController {
+    final CountDownLatch _arrivals;
+
+    final CountDownLatch _release;
+
+    final AtomicInteger _admitting = new AtomicInteger();
+
+    final AtomicInteger _maxAdmitting = new AtomicInteger();
+
+    final Set<Participant> _admitted = Collections.synchronizedSet(new HashSet<Participant>());
+
+    RendezvousController(final int arrivals, final CountDownLatch release) {
+      _arrivals = new CountDownLatch(arrivals);
+      _release = release;
+    }
+
+    @Override
+    public void preJoin(final Participant participant, final Conference conference) {
+      _admitted.add(participant);
+      final int admitting = _admitting.incrementAndGet();
+      for (int max = _maxAdmitting.get(); admitting > max; max = _maxAdmitting.get()) {
+        _maxAdmitting.compareAndSet(max, admitting);
+      }
+      _arrivals.countDown();
+      try {
+        if (!_release.await(10, TimeUnit.SECONDS)) {
+          throw new IllegalStateException("not released");
+        }
+      }
+      catch (final InterruptedException ex) {
+        throw new IllegalStateException(ex);
+      }
+      finally {
+        _admitting.decrementAndGet();
+      }
+    }
+
+    @Override
+    public void postJoin(final Participant participant, final Conference conference) {
+    }
+
+    @Override
+    public void preUnjoin(final Participant participant, final Conference conference) {
+    }
+
+    @Override
+    public void postUnjoin(final Participant participant, final Conference conference) {
+    }
+  }
+
+  private void expectMixerCreation() throws Exception {
+    mockery.checking(new Expectations() {
+      {
+        oneOf(msFactory).createMediaSession();
+        will(returnValue(mediaSession));
+
+        oneOf(mediaSession).createMediaMixer(with(any(Configuration.class)), with(any(Parameters.class)));
+        will(returnValue(mixer));
+
+        oneOf(mixer).addListener(with(any(MediaEventListener.class)));
+        will(returnValue(null));
+      }
+    });
+  }
+
+  /**
+   * participants are admitted at the same time instead of one at a time, and
+   * the nested media joins on the context executor still complete while every
+   * admission is blocked. There are more participants than core dispatch
+   * threads.
+   */
+  public void testConcurrentAdmission() throws Exception {
+    expectMixerCreation();
+    final int participants = 60;
+    final CountDownLatch release = new CountDownLatch(1);
+    final RendezvousController controller = new RendezvousController(participants, release);
+    final ConferenceImpl conference = new ConferenceImpl(appContext, address, null, "test", participants,
+        controller, null);
+    mockery.checking(new Expectations() {
+      {
+        exactly(participants).of(mixer).join(with(any(Direction.class)), with(any(Joinable.class)));
+      }
+    });
+
+    final List<Joint> joints = new ArrayList<Joint>();
+    for (int i = 0; i < participants; i++) {
+      joints.add(conference.join(mockMediaParticipant("participant" + i), JoinType.BRIDGE, Direction.DUPLEX));
+    }
+    // every admission reaches preJoin before any of them is let through.
+    final boolean together = controller._arrivals.await(10, TimeUnit.SECONDS);
+    release.countDown();
+    assertTrue(together);
+    assertEquals(participants, controller._maxAdmitting.get());
+
+    for (final Joint joint : joints) {
+      assertEquals(JoinCompleteEvent.Cause.JOINED, joint.get(10, TimeUnit.SECONDS).getCause());
+    }
+    assertEquals(participants, conference.getOccupiedSeats());
+    assertEquals(participants, conference.getParticipants().length);
+    mockery.assertIsSatisfied();
+  }
+
+  /**
+   * seats are never overbooked, and failed joins give their seat back.
+   */
+  public void testSeatsAreClaimedAtomically() throws Exception {
+    expectMixerCreation();
+    final int seats = 5;
+    final CountDownLatch release = new CountDownLatch(1);
+    final RendezvousController controller = new RendezvousController(seats, release);
+    final ConferenceImpl conference = new ConferenceImpl(appContext, address, null, "test", seats, controller, null);
+    mockery.checking(new Expectations() {
+      {
+        exactly(seats).of(mixer).join(with(any(Direction.class)), with(any(Joinable.class)));
+      }
+    });
+
+    final List<Participant> participants = new ArrayList<Participant>();
+    final List<Joint> joints = new ArrayList<Joint>();
+    for (int i = 0; i < seats * 3; i++) {
+      final Participant participant = mockMediaParticipant("participant" + i);
+      participants.add(participant);
+      joints.add(conference.join(participant, JoinType.BRIDGE, Direction.DUPLEX));
+    }
+    int joined = 0;
+    int full = 0;
+    try {
+      // all seats are held in preJoin, so everybody else is turned away.
+      assertTrue(controller._arrivals.await(10, TimeUnit.SECONDS));
+      assertEquals(seats, controller._admitted.size());
+      for (int i = 0; i < joints.size(); i++) {
+        if (!controller._admitted.contains(participants.get(i))) {
+          try {
+            joints.get(i).get(10, TimeUnit.SECONDS);
+            fail("a participant got in without a seat");
+          }
+          catch (final ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof ConferenceFullException);
+            full++;
+          }
+        }
+      }
+      assertEquals(seats, conference._reservedSeats.get());
+    }
+    finally {
+      release.countDown();
+    }
+    for (int i = 0; i < joints.size(); i++) {
+      if (controller._admitted.contains(participants.get(i))) {
+        assertEquals(JoinCompleteEvent.Cause.JOINED, joints.get(i).get(10, TimeUnit.SECONDS).getCause());
+        joined++;
+      }
+    }
+    assertEquals(seats, joined);
+    assertEquals(seats * 2, full);
+    assertEquals(seats, conference.getOccupiedSeats());
+    assertEquals(seats, conference._reservedSeats.get());
+    mockery.assertIsSatisfied();
+  }
+
+  public void testIdleConferenceIsReaped() throws Exception {
+    expectMixerCreation();
+    final ConferenceMangerImpl manager = new ConferenceMangerImpl(appContext);
+    final Conference conference = manager.createConference(address, null, "idle", 10, null, null);
+    assertSame(conference, manager.createConference(address, null, "idle", 10, null, null));
+    assertEquals(1, manager.getConferenceCount());
+    assertEquals(0, manager.getSeatsInUse());
+
+    final Set<String> ids = manager.getConferences();
+
+    // drive the reaper by hand instead of starting its thread.
+    manager._idleTimeout = 1000;
+    manager.reapIdleConferences(0);
+    manager.reapIdleConferences(500);
+    assertSame(conference, manager.getConference("idle"));
+
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mixer).release();
+        oneOf(mediaSession).release();
+      }
+    });
+    manager.reapIdleConferences(1000);
+    assertNull(manager.getConference("idle"));
+    assertEquals(0, manager.getConferenceCount());
+    assertTrue(manager.getConferences().isEmpty());
+    // a snapshot, not a view of what the reaper changes.
+    assertTrue(ids.contains("idle"));
+    mockery.assertIsSatisfied();
+  }
+
+  /**
+   * a conference is only closed while nobody is being admitted, and a closed
+   * conference admits nobody and is replaced by the next creation of its id.
+   */
+  public void testOnlyIdleConferenceIsClosed() throws Exception {
+    expectMixerCreation();
+    final ConferenceMangerImpl manager = new ConferenceMangerImpl(appContext);
+    final ConferenceImpl conference = (ConferenceImpl) manager.createConference(address, null, "busy", 10, null,
+        null);
+    final Participant participant = mockery.mock(Participant.class);
+
+    assertTrue(conference.reserveSeat(participant));
+    assertFalse(conference.close());
+    assertFalse(conference.isClosed());
+
+    conference.releaseReservation(participant);
+    assertTrue(conference.close());
+    assertTrue(conference.isClosed());
+    try {
+      conference.reserveSeat(participant);
+      fail("a closed conference should admit nobody");
+    }
+    catch (final IllegalStateException ex) {
+      // expected
+    }
+
+    expectMixerCreation();
+    final Conference replacement = manager.createConference(address, null, "busy", 10, null, null);
+    assertNotSame(conference, replacement);
+    assertSame(replacement, manager.getConference("busy"));
+    mockery.assertIsSatisfied();
+  }
+
+  /**
+   * a participant joined to the mixer without a seat keeps the conference
+   * open, and admissions go on meanwhile.
+   */
+  public void testConferenceWithUnseatedParticipantStaysOpen() throws Exception {
+    expectMixerCreation();
+    final ConferenceImpl conference = new ConferenceImpl(appContext, address, null, "test", 10, null, null);
+    mockery.checking(new Expectations() {
+      {
+        oneOf(mixer).join(with(any(Direction.class)), with(any(Joinable.class)));
+      }
+    });
+    conference.mediaJoin(mockMediaParticipant("unseated"), JoinType.BRIDGE, Direction.DUPLEX, null).get();
+
+    assertFalse(conference.isIdle());
+    assertFalse(conference.close());
+    assertFalse(conference.isClosed());
+    assertTrue(conference.reserveSeat(mockery.mock(Participant.class)));
+    assertEquals(1, conference._reservedSeats.get());
+    mockery.assertIsSatisfied();
+  }
+
   interface TestApp extends Application {
     public void handleDisconnect(HangupEvent event);
   }
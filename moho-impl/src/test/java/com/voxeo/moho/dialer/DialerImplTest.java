@@ -0,0 +1,184 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.dialer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+
+import com.voxeo.moho.Call;
+import com.voxeo.moho.CallableEndpoint;
+import com.voxeo.moho.Endpoint;
+import com.voxeo.moho.SettableJointImpl;
+import com.voxeo.moho.event.CallCompleteEvent;
+import com.voxeo.moho.event.JoinCompleteEvent;
+import com.voxeo.moho.event.MohoJoinCompleteEvent;
+import com.voxeo.moho.event.Observer;
+import com.voxeo.moho.utils.EventListener;
+
+public class DialerImplTest extends TestCase {
+
+  Mockery mockery = new Mockery();
+
+  Endpoint caller = mockery.mock(Endpoint.class, "caller");
+
+  CallableEndpoint endpoint1 = mockery.mock(CallableEndpoint.class, "endpoint1");
+
+  CallableEndpoint endpoint2 = mockery.mock(CallableEndpoint.class, "endpoint2");
+
+  Call leg1 = mockery.mock(Call.class, "leg1");
+
+  Call leg2 = mockery.mock(Call.class, "leg2");
+
+  SettableJointImpl joint1 = new SettableJointImpl();
+
+  SettableJointImpl joint2 = new SettableJointImpl();
+
+  BlockingQueue<Object> outcomes = new LinkedBlockingQueue<Object>();
+
+  BlockingQueue<Observer> observers = new LinkedBlockingQueue<Observer>();
+
+  DialListener listener = new DialListener() {
+    @Override
+    public void onAnswered(final CallableEndpoint destination, final Call call) {
+      outcomes.add(call);
+    }
+
+    @Override
+    public void onFailed(final CallableEndpoint destination, final Exception cause) {
+      outcomes.add(cause);
+    }
+  };
+
+  DialerImpl dialer = new DialerImpl();
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    mockery.checking(new Expectations() {
+      {
+        allowing(leg1).addObserver(with(any(Observer[].class)));
+        will(new CaptureObserver());
+        allowing(leg1).removeObserver(with(any(Observer.class)));
+        allowing(leg2).addObserver(with(any(Observer[].class)));
+        will(new CaptureObserver());
+        allowing(leg2).removeObserver(with(any(Observer.class)));
+      }
+    });
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    dialer.destroy();
+    super.tearDown();
+  }
+
+  public void testRetriesBusyCall() throws Exception {
+    final Map<String, String> properties = new HashMap<String, String>();
+    properties.put(Dialer.BACKOFF, "10");
+    properties.put(Dialer.TIMEOUT, "0");
+    dialer.init(null, properties);
+
+    mockery.checking(new Expectations() {
+      {
+        exactly(2).of(endpoint1).createCall(caller, null);
+        will(onConsecutiveCalls(returnValue(leg1), returnValue(leg2)));
+        oneOf(leg1).join();
+        will(returnValue(joint1));
+        oneOf(leg2).join();
+        will(returnValue(joint2));
+      }
+    });
+    joint1.done(new MohoJoinCompleteEvent(leg1, null, JoinCompleteEvent.Cause.BUSY, true));
+    joint2.done(new MohoJoinCompleteEvent(leg2, null, JoinCompleteEvent.Cause.JOINED, true));
+
+    dialer.dial(null, caller, endpoint1, null, listener);
+
+    assertSame(leg2, outcomes.poll(5, TimeUnit.SECONDS));
+    final Dialer.Statistics stats = dialer.getStatistics(null);
+    assertEquals(2, stats.getAttempts());
+    assertEquals(1, stats.getAnswered());
+    assertEquals(0.5, stats.getAnswerSeizureRatio(), 0.001);
+    assertEquals(1, stats.getActiveCalls());
+    assertEquals(0, stats.getPending());
+    mockery.assertIsSatisfied();
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testCapsConcurrentCalls() throws Exception {
+    final Map<String, String> properties = new HashMap<String, String>();
+    properties.put(Dialer.MAX_CALLS + ".trunk", "1");
+    properties.put(Dialer.CPS, "100");
+    dialer.init(null, properties);
+
+    mockery.checking(new Expectations() {
+      {
+        oneOf(endpoint1).createCall(caller, null);
+        will(returnValue(leg1));
+        oneOf(leg1).join();
+        will(returnValue(joint1));
+      }
+    });
+    joint1.done(new MohoJoinCompleteEvent(leg1, null, JoinCompleteEvent.Cause.JOINED, true));
+    joint2.done(new MohoJoinCompleteEvent(leg2, null, JoinCompleteEvent.Cause.JOINED, true));
+
+    dialer.dial("trunk", caller, endpoint1, null, listener);
+    dialer.dial("trunk", caller, endpoint2, null, listener);
+
+    assertSame(leg1, outcomes.poll(5, TimeUnit.SECONDS));
+    assertNull(outcomes.poll(100, TimeUnit.MILLISECONDS));
+    final Dialer.Statistics stats = dialer.getStatistics("trunk");
+    assertEquals(1, stats.getActiveCalls());
+    assertEquals(1, stats.getPending());
+
+    mockery.checking(new Expectations() {
+      {
+        oneOf(endpoint2).createCall(caller, null);
+        will(returnValue(leg2));
+        oneOf(leg2).join();
+        will(returnValue(joint2));
+      }
+    });
+    // the first call ends and frees its slot.
+    ((EventListener<CallCompleteEvent>) observers.take()).onEvent(null);
+
+    assertSame(leg2, outcomes.poll(5, TimeUnit.SECONDS));
+    assertEquals(2, stats.getAttempts());
+    mockery.assertIsSatisfied();
+  }
+
+  class CaptureObserver extends CustomAction {
+    CaptureObserver() {
+      super("capture observer");
+    }
+
+    @Override
+    public Object invoke(final Invocation invocation) throws Throwable {
+      for (final Observer observer : (Observer[]) invocation.getParameter(0)) {
+        observers.add(observer);
+      }
+      return null;
+    }
+  }
+}
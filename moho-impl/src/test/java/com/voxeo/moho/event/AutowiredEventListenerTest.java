@@ -0,0 +1,124 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.event;
+
+import junit.framework.TestCase;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+
+import com.voxeo.moho.State;
+
+public class AutowiredEventListenerTest extends TestCase {
+
+  Mockery mockery = new Mockery();
+
+  EventSource source = mockery.mock(EventSource.class);
+
+  public interface MenuEvent extends Event<EventSource> {
+  }
+
+  public interface OtherEvent extends Event<EventSource> {
+  }
+
+  public static class MenuEventImpl extends MohoEvent<EventSource> implements MenuEvent {
+    public MenuEventImpl(final EventSource source) {
+      super(source);
+    }
+  }
+
+  public static class OtherEventImpl extends MohoEvent<EventSource> implements OtherEvent {
+    public OtherEventImpl(final EventSource source) {
+      super(source);
+    }
+  }
+
+  public static class TestObserver implements Observer {
+    int menu;
+
+    int any;
+
+    int transfer;
+
+    @State("menu")
+    public void onMenu(final MenuEvent event) {
+      menu++;
+    }
+
+    @State
+    public void onAny(final OtherEvent event) {
+      any++;
+    }
+
+    @State({"menu=main", "call=transfer"})
+    public void onTransfer(final MenuEvent event) {
+      transfer++;
+    }
+  }
+
+  private void givenStates(final String defaultState, final String menuState, final String callState) {
+    mockery.checking(new Expectations() {
+      {
+        allowing(source).getApplicationState(AutowiredEventTarget.DEFAULT_FSM);
+        will(returnValue(defaultState));
+        allowing(source).getApplicationState("menu");
+        will(returnValue(menuState));
+        allowing(source).getApplicationState("call");
+        will(returnValue(callState));
+      }
+    });
+  }
+
+  public void testStatePredicates() throws Exception {
+    givenStates("menu", "other", "ringing");
+
+    final TestObserver observer = new TestObserver();
+    final AutowiredEventListener listener = new AutowiredEventListener(observer);
+    listener.onEvent(new MenuEventImpl(source));
+    listener.onEvent(new OtherEventImpl(source));
+
+    assertEquals(1, observer.menu);
+    assertEquals(0, observer.transfer);
+    assertEquals(1, observer.any);
+  }
+
+  public void testNamedStateMachines() throws Exception {
+    givenStates("other", "main", "transfer");
+
+    final TestObserver observer = new TestObserver();
+    new AutowiredEventListener(observer).onEvent(new MenuEventImpl(source));
+
+    assertEquals(0, observer.menu);
+    assertEquals(1, observer.transfer);
+  }
+
+  public void testCompiledTargetsAreBoundPerObserver() throws Exception {
+    givenStates("menu", "other", "ringing");
+
+    final TestObserver first = new TestObserver();
+    final TestObserver second = new TestObserver();
+    final AutowiredEventListener firstListener = new AutowiredEventListener(first);
+    final AutowiredEventListener secondListener = new AutowiredEventListener(second);
+
+    firstListener.onEvent(new MenuEventImpl(source));
+    firstListener.onEvent(new MenuEventImpl(source));
+    secondListener.onEvent(new MenuEventImpl(source));
+
+    assertEquals(2, first.menu);
+    assertEquals(1, second.menu);
+    assertSame(first, firstListener.getTarget());
+    assertSame(second, secondListener.getTarget());
+  }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class EventMailboxTest extends TestCase {
+
+  /**
+   * Collects submitted runnables so the test decides when they run.
+   */
+  static class ManualExecutor implements Executor {
+    final LinkedList<Runnable> _pending = new LinkedList<Runnable>();
+
+    public void execute(final Runnable command) {
+      _pending.add(command);
+    }
+
+    boolean runNext() {
+      final Runnable r = _pending.poll();
+      if (r == null) {
+        return false;
+      }
+      r.run();
+      return true;
+    }
+  }
+
+  public void testDrainIsBoundedByBatchSize() {
+    final ManualExecutor executor = new ManualExecutor();
+    final EventMailbox mailbox = new EventMailbox(executor);
+    mailbox.setDrainBatchSize(2);
+
+    final List<Integer> ran = new ArrayList<Integer>();
+    for (int i = 0; i < 5; i++) {
+      final int n = i;
+      mailbox.execute(new Runnable() {
+        public void run() {
+          ran.add(n);
+        }
+      });
+    }
+
+    // only one drainer is ever scheduled at a time.
+    assertEquals(1, executor._pending.size());
+
+    assertTrue(executor.runNext());
+    assertEquals(2, ran.size());
+    assertEquals(1, executor._pending.size());
+
+    assertTrue(executor.runNext());
+    assertEquals(4, ran.size());
+
+    assertTrue(executor.runNext());
+    assertEquals(5, ran.size());
+    assertFalse(executor.runNext());
+    assertTrue(mailbox.isEmpty());
+
+    for (int i = 0; i < 5; i++) {
+      assertEquals(Integer.valueOf(i), ran.get(i));
+    }
+  }
+
+  public void testFailingTaskDoesNotStallMailbox() {
+    final ManualExecutor executor = new ManualExecutor();
+    final EventMailbox mailbox = new EventMailbox(executor);
+
+    final List<String> ran = new ArrayList<String>();
+    mailbox.execute(new Runnable() {
+      public void run() {
+        throw new IllegalStateException("boom");
+      }
+    });
+    mailbox.execute(new Runnable() {
+      public void run() {
+        ran.add("second");
+      }
+    });
+
+    while (executor.runNext()) {
+      ;
+    }
+    assertEquals(1, ran.size());
+  }
+
+  public void testOrderingWithConcurrentProducers() throws Exception {
+    final ExecutorService pool = Executors.newFixedThreadPool(4);
+    final EventMailbox mailbox = new EventMailbox(pool);
+    mailbox.setDrainBatchSize(8);
+
+    final int producers = 4;
+    final int perProducer = 2000;
+    final List<int[]> ran = Collections.synchronizedList(new ArrayList<int[]>());
+    final CountDownLatch done = new CountDownLatch(producers * perProducer);
+    final Thread[] threads = new Thread[producers];
+    for (int p = 0; p < producers; p++) {
+      final int producer = p;
+      threads[p] = new Thread() {
+        public void run() {
+          for (int i = 0; i < perProducer; i++) {
+            final int seq = i;
+            mailbox.execute(new Runnable() {
+              public void run() {
+                ran.add(new int[] {producer, seq});
+                done.countDown();
+              }
+            });
+          }
+        }
+      };
+      threads[p].start();
+    }
+
+    try {
+      assertTrue(done.await(30, TimeUnit.SECONDS));
+      final int[] last = new int[producers];
+      for (int p = 0; p < producers; p++) {
+        last[p] = -1;
+      }
+      for (final int[] entry : ran) {
+        assertEquals(last[entry[0]] + 1, entry[1]);
+        last[entry[0]] = entry[1];
+      }
+    }
+    finally {
+      pool.shutdownNow();
+    }
+  }
+}
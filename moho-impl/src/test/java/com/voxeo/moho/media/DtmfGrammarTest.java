@@ -0,0 +1,67 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.media;
+
+import java.net.URI;
+
+import junit.framework.TestCase;
+
+import com.voxeo.moho.event.InputCompleteEvent.Cause;
+import com.voxeo.moho.media.input.DigitInputCommand;
+import com.voxeo.moho.media.input.Grammar;
+import com.voxeo.moho.media.input.InputCommand;
+import com.voxeo.moho.media.input.SimpleGrammar;
+
+public class DtmfGrammarTest extends TestCase {
+
+  public void testSimpleGrammar() {
+    final DtmfGrammar grammar = DtmfGrammar.compile(new InputCommand(new SimpleGrammar("1, 12, 3, sales")));
+    assertNotNull(grammar);
+    assertNull(grammar.match("1", false));
+    assertEquals(Cause.MATCH, grammar.match("12", false));
+    assertEquals(Cause.MATCH, grammar.match("3", false));
+    assertEquals(Cause.NO_MATCH, grammar.match("4", false));
+    assertEquals(Cause.NO_MATCH, grammar.match("13", false));
+    // the timeout or the terminator decide for the shorter alternative.
+    assertEquals(Cause.MATCH, grammar.match("1", true));
+    assertEquals(Cause.NO_MATCH, grammar.match("", true));
+  }
+
+  public void testDigitGrammar() {
+    final DtmfGrammar grammar = DtmfGrammar.compile(new DigitInputCommand());
+    assertEquals(Cause.MATCH, grammar.match("#", false));
+    assertEquals(Cause.NO_MATCH, grammar.match("A", false));
+  }
+
+  public void testNumberOfDigits() {
+    final InputCommand cmd = new InputCommand();
+    cmd.setNumberOfDigits(4);
+    cmd.setTerminator('#');
+    cmd.setInterDigitsTimeout(3000);
+    final DtmfGrammar grammar = DtmfGrammar.compile(cmd);
+    assertEquals('#', grammar._terminator);
+    assertEquals(3000, grammar._interDigitTimeout);
+    assertNull(grammar.match("123", false));
+    assertEquals(Cause.MATCH, grammar.match("1234", false));
+    assertEquals(Cause.MATCH, grammar.match("12", true));
+  }
+
+  public void testOtherGrammars() {
+    assertNull(DtmfGrammar.compile(new InputCommand(new Grammar(URI.create("http://example.com/menu.grxml")))));
+    final InputCommand speech = new InputCommand(new SimpleGrammar("1,2"));
+    speech.setInputMode(InputMode.SPEECH);
+    assertNull(DtmfGrammar.compile(speech));
+  }
+}
@@ -17,6 +17,7 @@ package com.voxeo.moho.media;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
 
 import javax.media.mscontrol.Configuration;
 import javax.media.mscontrol.MediaErr;
@@ -61,6 +62,8 @@ import com.voxeo.moho.media.fake.MockParameters;
 import com.voxeo.moho.media.fake.MockPlayer;
 import com.voxeo.moho.media.fake.MockRecorder;
 import com.voxeo.moho.media.fake.MockSignalDetector;
+import com.voxeo.moho.media.input.InputCommand;
+import com.voxeo.moho.media.input.SimpleGrammar;
 
 public class GenericMediaServiceTest extends TestCase {
   Mockery mockery;
@@ -856,4 +859,130 @@ public class GenericMediaServiceTest extends TestCase {
     assertTrue(group.settedParameters.get(SignalDetector.PATTERN[0]) instanceof URI);
     mockery.assertIsSatisfied();
   }
+
+  /**
+   * a prepared input is translated once and its grammars are only set on the
+   * media group the first time.
+   */
+  public void testPreparedInput() throws Exception {
+    final MockParameters parameters = new MockParameters();
+
+    mockery.checking(new Expectations() {
+      {
+        allowing(group).createParameters();
+        will(returnValue(parameters));
+
+        oneOf(dialect).setSpeechLanguage(with(any(Parameters.class)), with(aNull(String.class)));
+        oneOf(dialect).setSpeechTermChar(with(any(Parameters.class)), with(aNull(Character.class)));
+        oneOf(dialect).setSpeechInputMode(with(any(Parameters.class)), with(aNull(InputMode.class)));
+        oneOf(dialect).setDtmfHotwordEnabled(with(any(Parameters.class)), with(equal(false)));
+        oneOf(dialect).setDtmfTypeaheadEnabled(with(any(Parameters.class)), with(equal(false)));
+        oneOf(dialect).setConfidence(with(any(Parameters.class)), with(equal(0.3f)));
+
+        exactly(2).of(signalDetector).receiveSignals(with(equal(-1)), with(any(Parameter[].class)),
+            with(any(RTC[].class)), with(same(parameters)));
+      }
+    });
+
+    final PreparedInput prepared = service.prepare(new InputCommand(new SimpleGrammar("1,2,3")));
+
+    service.input(prepared);
+    assertTrue(group.settedParameters.get(SignalDetector.PATTERN[0]) instanceof URI);
+
+    group.settedParameters = null;
+    service.input(prepared);
+    assertNull(group.settedParameters);
+
+    mockery.assertIsSatisfied();
+  }
+
+  /**
+   * digits received in signaling complete the input only once the media server
+   * has confirmed the stop, so its late completion can't cancel the next input.
+   */
+  public void testSignalingDigitsCompleteInputAfterStop() throws Exception {
+    final MockParameters parameters = new MockParameters();
+    final SignalDetectorEvent stopped = mockery.mock(SignalDetectorEvent.class, "stopped");
+
+    mockery.checking(new Expectations() {
+      {
+        allowing(group).createParameters();
+        will(returnValue(parameters));
+
+        ignoring(dialect);
+
+        exactly(2).of(signalDetector).receiveSignals(with(equal(-1)), with(any(Parameter[].class)),
+            with(any(RTC[].class)), with(any(Parameters.class)));
+
+        oneOf(group).triggerAction(SignalDetector.STOP);
+
+        allowing(stopped).getEventType();
+        will(returnValue(SignalDetectorEvent.RECEIVE_SIGNALS_COMPLETED));
+
+        allowing(stopped).getQualifier();
+        will(returnValue(ResourceEvent.STOPPED));
+
+        allowing(stopped).getSignalString();
+        will(returnValue(null));
+      }
+    });
+
+    final Input first = service.input("123");
+    assertTrue(service.onSignalingDigit('1'));
+    assertTrue(service.onSignalingDigit('2'));
+    assertTrue(service.onSignalingDigit('3'));
+
+    // matched, but the media server has not stopped yet.
+    assertFalse(first.isDone());
+    assertFalse(service.onSignalingDigit('4'));
+
+    for (final Object listener : signalDetector.listeners.toArray()) {
+      ((MediaEventListener<SignalDetectorEvent>) listener).onEvent(stopped);
+    }
+    final InputCompleteEvent event = (InputCompleteEvent) first.get();
+    assertEquals(InputCompleteEvent.Cause.MATCH, event.getCause());
+    assertEquals("123", event.getUtterance());
+
+    // the next input starts right away and is not affected by the stop.
+    final Input second = service.input("123");
+    assertFalse(second.isDone());
+    assertEquals(1, signalDetector.listeners.size());
+    assertTrue(service.onSignalingDigit('1'));
+
+    mockery.assertIsSatisfied();
+  }
+
+  /**
+   * digits received in signaling still complete the input if the media server
+   * never confirms the stop.
+   */
+  public void testSignalingDigitsCompleteInputWithoutStop() throws Exception {
+    final MockParameters parameters = new MockParameters();
+    service._stopTimeout = 50;
+
+    mockery.checking(new Expectations() {
+      {
+        allowing(group).createParameters();
+        will(returnValue(parameters));
+
+        ignoring(dialect);
+
+        oneOf(signalDetector).receiveSignals(with(equal(-1)), with(any(Parameter[].class)), with(any(RTC[].class)),
+            with(any(Parameters.class)));
+
+        oneOf(group).triggerAction(SignalDetector.STOP);
+      }
+    });
+
+    final Input first = service.input("12");
+    assertTrue(service.onSignalingDigit('1'));
+    assertTrue(service.onSignalingDigit('2'));
+    assertFalse(first.isDone());
+
+    final InputCompleteEvent event = (InputCompleteEvent) first.get(5, TimeUnit.SECONDS);
+    assertEquals(InputCompleteEvent.Cause.MATCH, event.getCause());
+    assertEquals("12", event.getUtterance());
+
+    mockery.assertIsSatisfied();
+  }
 }
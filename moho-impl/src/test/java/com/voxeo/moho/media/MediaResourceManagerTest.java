@@ -0,0 +1,127 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.media;
+
+import javax.media.mscontrol.Configuration;
+import javax.media.mscontrol.MediaSession;
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.Parameters;
+import javax.media.mscontrol.mediagroup.MediaGroup;
+
+import junit.framework.TestCase;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+
+public class MediaResourceManagerTest extends TestCase {
+
+  Mockery mockery = new Mockery();
+
+  MediaResourceManager resources = new MediaResourceManager();
+
+  public void testMediaGroupCapabilityIsRemembered() throws Exception {
+    final MediaSession session = mockery.mock(MediaSession.class);
+    final MediaGroup group = mockery.mock(MediaGroup.class);
+
+    // the first media group probes down to what the server supports.
+    mockery.checking(new Expectations() {
+      {
+        oneOf(session).createMediaGroup(MediaGroup.PLAYER_RECORDER_SIGNALDETECTOR_SIGNALGENERATOR,
+            (Parameters) null);
+        will(throwException(new MsControlException("not supported")));
+        oneOf(session).createMediaGroup(MediaGroup.PLAYER_RECORDER_SIGNALDETECTOR, (Parameters) null);
+        will(throwException(new MsControlException("not supported")));
+        oneOf(session).createMediaGroup(MediaGroup.PLAYER, (Parameters) null);
+        will(returnValue(group));
+      }
+    });
+    assertSame(group, resources.createMediaGroup(session, null));
+    mockery.assertIsSatisfied();
+    assertEquals(2, resources.getProbeFailures());
+
+    // later ones ask for it straight away.
+    mockery.checking(new Expectations() {
+      {
+        oneOf(session).createMediaGroup(MediaGroup.PLAYER, (Parameters) null);
+        will(returnValue(group));
+      }
+    });
+    assertSame(group, resources.createMediaGroup(session, null));
+    mockery.assertIsSatisfied();
+    assertEquals(2, resources.getProbeFailures());
+  }
+
+  public void testRefusedConfigurationIsTriedAgain() throws Exception {
+    final MediaSession session = mockery.mock(MediaSession.class);
+    final MediaGroup group = mockery.mock(MediaGroup.class);
+    resources._reprobeInterval = 0;
+
+    // a transient failure of the richest configuration.
+    mockery.checking(new Expectations() {
+      {
+        oneOf(session).createMediaGroup(MediaGroup.PLAYER_RECORDER_SIGNALDETECTOR_SIGNALGENERATOR,
+            (Parameters) null);
+        will(throwException(new MsControlException("busy")));
+        oneOf(session).createMediaGroup(MediaGroup.PLAYER_RECORDER_SIGNALDETECTOR, (Parameters) null);
+        will(returnValue(group));
+      }
+    });
+    assertSame(group, resources.createMediaGroup(session, null));
+    mockery.assertIsSatisfied();
+
+    // once the interval has passed, the richest one is asked for again.
+    mockery.checking(new Expectations() {
+      {
+        oneOf(session).createMediaGroup(MediaGroup.PLAYER_RECORDER_SIGNALDETECTOR_SIGNALGENERATOR,
+            (Parameters) null);
+        will(returnValue(group));
+      }
+    });
+    assertSame(group, resources.createMediaGroup(session, null));
+    mockery.assertIsSatisfied();
+
+    // and remembered for good.
+    resources._reprobeInterval = 300000;
+    mockery.checking(new Expectations() {
+      {
+        oneOf(session).createMediaGroup(MediaGroup.PLAYER_RECORDER_SIGNALDETECTOR_SIGNALGENERATOR,
+            (Parameters) null);
+        will(returnValue(group));
+      }
+    });
+    assertSame(group, resources.createMediaGroup(session, null));
+    mockery.assertIsSatisfied();
+    assertEquals(1, resources.getProbeFailures());
+  }
+
+  public void testFailureIsReportedWhenNothingIsSupported() throws Exception {
+    final MediaSession session = mockery.mock(MediaSession.class);
+    mockery.checking(new Expectations() {
+      {
+        exactly(3).of(session).createMediaGroup(with(any(Configuration.class)),
+            with(aNull(Parameters.class)));
+        will(throwException(new MsControlException("not supported")));
+      }
+    });
+    try {
+      resources.createMediaGroup(session, null);
+      fail();
+    }
+    catch (final MsControlException ex) {
+      // expected
+    }
+    mockery.assertIsSatisfied();
+  }
+}
@@ -0,0 +1,309 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.media;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class PromptCacheTest extends TestCase {
+
+  HttpServer origin;
+
+  // path -> content, the ETag is the content's hash.
+  final Map<String, String> files = new ConcurrentHashMap<String, String>();
+
+  final AtomicInteger requests = new AtomicInteger();
+
+  File dir;
+
+  PromptCache cache;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    origin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    origin.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(final HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        final String content = files.get(exchange.getRequestURI().getPath());
+        if (content == null) {
+          exchange.sendResponseHeaders(404, -1);
+        }
+        else {
+          final String etag = "\"" + content.hashCode() + "\"";
+          exchange.getResponseHeaders().set("ETag", etag);
+          if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+          }
+          else {
+            final String path = exchange.getRequestURI().getPath();
+            final byte[] body = content.getBytes("UTF-8");
+            if (path.startsWith("/chunked")) {
+              // without a Content-Length.
+              exchange.sendResponseHeaders(200, 0);
+            }
+            else if (path.startsWith("/stalled")) {
+              // announces twice what it sends before going quiet.
+              exchange.sendResponseHeaders(200, body.length * 2);
+            }
+            else {
+              exchange.sendResponseHeaders(200, body.length);
+            }
+            final OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            if (path.startsWith("/stalled")) {
+              out.flush();
+              try {
+                Thread.sleep(1000);
+              }
+              catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            }
+            out.close();
+          }
+        }
+        exchange.close();
+      }
+    });
+    origin.start();
+
+    dir = new File(System.getProperty("java.io.tmpdir"), "moho-prompt-cache-" + System.nanoTime());
+    cache = new PromptCache();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    cache.destroy();
+    origin.stop(0);
+    dir.delete();
+    super.tearDown();
+  }
+
+  void init(final long size, final long maxAge) {
+    init(size, maxAge, 60000);
+  }
+
+  void init(final long size, final long maxAge, final long retention) {
+    init(size, maxAge, retention, 10000);
+  }
+
+  void init(final long size, final long maxAge, final long retention, final int timeout) {
+    final Map<String, String> props = new HashMap<String, String>();
+    props.put(PromptCache.DIRECTORY, dir.getPath());
+    props.put(PromptCache.SIZE, String.valueOf(size));
+    props.put(PromptCache.MAX_AGE, String.valueOf(maxAge));
+    props.put(PromptCache.RETENTION, String.valueOf(retention));
+    props.put(PromptCache.TIMEOUT, String.valueOf(timeout));
+    cache.init(null, props);
+  }
+
+  URI uri(final String path) {
+    return URI.create("http://127.0.0.1:" + origin.getAddress().getPort() + path);
+  }
+
+  URI awaitLocal(final URI uri) throws InterruptedException {
+    for (int i = 0; i < 500; i++) {
+      final URI local = cache.resolve(uri);
+      if (local != uri) {
+        return local;
+      }
+      Thread.sleep(10);
+    }
+    fail(uri + " was not cached");
+    return null;
+  }
+
+  static String read(final URI uri) throws IOException {
+    final InputStream in = new FileInputStream(new File(uri));
+    try {
+      final StringBuilder sb = new StringBuilder();
+      int c;
+      while ((c = in.read()) >= 0) {
+        sb.append((char) c);
+      }
+      return sb.toString();
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  public void testDisabledByDefault() {
+    cache.init(null, new HashMap<String, String>());
+    files.put("/menu.wav", "menu");
+    assertEquals(uri("/menu.wav"), cache.resolve(uri("/menu.wav")));
+    assertEquals(0, requests.get());
+  }
+
+  public void testMissIsFetchedInTheBackground() throws Exception {
+    init(1024, 60000);
+    files.put("/menu.wav", "welcome");
+    final URI uri = uri("/menu.wav");
+
+    assertSame(uri, cache.resolve(uri));
+    final URI local = awaitLocal(uri);
+    assertEquals("file", local.getScheme());
+    assertTrue(local.getPath().endsWith(".wav"));
+    assertEquals("welcome", read(local));
+    assertEquals(1, requests.get());
+
+    // no revalidation until the copy is older than the max age.
+    assertEquals(local, cache.resolve(uri));
+    assertEquals(1, requests.get());
+    assertTrue(cache.getHits() >= 2);
+  }
+
+  public void testRevalidation() throws Exception {
+    init(1024, 0);
+    files.put("/menu.grxml", "yes no");
+    final URI uri = uri("/menu.grxml");
+    final PromptCache.Entry entry = cache.fetch(uri, null);
+
+    assertSame(entry, cache.fetch(uri, entry));
+    assertEquals(1, cache.getRevalidations());
+
+    files.put("/menu.grxml", "yes no maybe");
+    final PromptCache.Entry changed = cache.fetch(uri, entry);
+    assertNotSame(entry, changed);
+    assertEquals("yes no maybe", read(cache.resolve(uri)));
+    // the media server may still be reading the previous copy.
+    assertTrue(entry._file.exists());
+    assertEquals("yes no", read(entry._local));
+    assertEquals(1, cache.getEntryCount());
+
+    files.remove("/menu.grxml");
+    assertNull(cache.fetch(uri, changed));
+    assertEquals(0, cache.getEntryCount());
+    assertEquals(0, cache.getSize());
+  }
+
+  public void testLeastRecentlyUsedIsEvicted() throws Exception {
+    init(10, 60000);
+    files.put("/a", "aaaa");
+    files.put("/b", "bbbb");
+    files.put("/c", "cccc");
+    final PromptCache.Entry a = cache.fetch(uri("/a"), null);
+    final PromptCache.Entry b = cache.fetch(uri("/b"), null);
+    // a is now more recently used than b.
+    cache.resolve(uri("/a"));
+    cache.fetch(uri("/c"), null);
+
+    assertEquals(2, cache.getEntryCount());
+    assertEquals(8, cache.getSize());
+    assertTrue(a._file.exists());
+    assertTrue(b._file.exists());
+    assertEquals(uri("/b"), cache.resolve(uri("/b")));
+  }
+
+  public void testOversizedResourceIsNotCached() throws Exception {
+    init(10, 60000);
+    files.put("/a", "aaaa");
+    files.put("/big", "0123456789a");
+    files.put("/chunked-big", "0123456789a");
+    final PromptCache.Entry a = cache.fetch(uri("/a"), null);
+
+    assertNull(cache.fetch(uri("/big"), null));
+    assertNull(cache.fetch(uri("/chunked-big"), null));
+    assertEquals(uri("/big"), cache.resolve(uri("/big")));
+    // what was cached stays cached.
+    assertEquals(1, cache.getEntryCount());
+    assertEquals(4, cache.getSize());
+    assertEquals(a._local, cache.resolve(uri("/a")));
+    assertEquals(1, dir.list().length);
+  }
+
+  public void testPartialCopyIsDeleted() throws Exception {
+    init(1024, 60000, 60000, 200);
+    files.put("/stalled.wav", "welc");
+    try {
+      cache.fetch(uri("/stalled.wav"), null);
+      fail("the read should have timed out");
+    }
+    catch (final IOException e) {
+      // expected
+    }
+    assertEquals(0, cache.getEntryCount());
+    assertEquals(0, dir.list().length);
+  }
+
+  public void testRetiredCopyIsDeletedAfterRetention() throws Exception {
+    init(1024, 0, 50);
+    files.put("/menu.wav", "welcome");
+    final URI uri = uri("/menu.wav");
+    final PromptCache.Entry entry = cache.fetch(uri, null);
+
+    files.put("/menu.wav", "welcome back");
+    cache.fetch(uri, entry);
+    for (int i = 0; i < 500 && entry._file.exists(); i++) {
+      Thread.sleep(10);
+    }
+    assertFalse(entry._file.exists());
+    assertEquals("welcome back", read(cache.resolve(uri)));
+  }
+
+  public void testRetiredCopiesAreDeletedOnDestroy() throws Exception {
+    init(1024, 0);
+    files.put("/menu.wav", "welcome");
+    final URI uri = uri("/menu.wav");
+    final PromptCache.Entry entry = cache.fetch(uri, null);
+    files.put("/menu.wav", "welcome back");
+    final PromptCache.Entry changed = cache.fetch(uri, entry);
+    assertTrue(entry._file.exists());
+
+    cache.destroy();
+    assertFalse(entry._file.exists());
+    assertFalse(changed._file.exists());
+  }
+
+  public void testPreloadFromManifest() throws Exception {
+    files.put("/one.wav", "1");
+    files.put("/two.wav", "2");
+    final File manifest = File.createTempFile("moho-manifest", ".txt");
+    try {
+      final FileWriter writer = new FileWriter(manifest);
+      writer.write("# hot prompts\n" + uri("/one.wav") + "\n\n" + uri("/two.wav") + "\n");
+      writer.close();
+
+      final Map<String, String> props = new HashMap<String, String>();
+      props.put(PromptCache.DIRECTORY, dir.getPath());
+      props.put(PromptCache.MANIFEST, manifest.getPath());
+      cache.init(null, props);
+
+      assertEquals("1", read(awaitLocal(uri("/one.wav"))));
+      assertEquals("2", read(awaitLocal(uri("/two.wav"))));
+    }
+    finally {
+      manifest.delete();
+    }
+  }
+}
@@ -0,0 +1,232 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.queue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+
+import javax.media.mscontrol.join.Joinable.Direction;
+
+import com.voxeo.moho.Call;
+import com.voxeo.moho.Mixer;
+import com.voxeo.moho.MixerEndpoint;
+import com.voxeo.moho.Participant.JoinType;
+import com.voxeo.moho.SettableJointImpl;
+import com.voxeo.moho.event.CallCompleteEvent;
+import com.voxeo.moho.event.JoinCompleteEvent;
+import com.voxeo.moho.event.MohoJoinCompleteEvent;
+import com.voxeo.moho.event.Observer;
+import com.voxeo.moho.media.Output;
+import com.voxeo.moho.media.output.AudioURIResource;
+import com.voxeo.moho.media.output.OutputCommand;
+import com.voxeo.moho.spi.ExecutionContext;
+import com.voxeo.moho.util.NodeIdGenerator;
+import com.voxeo.moho.utils.CompletionListener;
+import com.voxeo.moho.utils.EventListener;
+import com.voxeo.moho.utils.SynchronousExecutor;
+
+public class PriorityCallQueueTest extends TestCase {
+
+  Mockery mockery = new Mockery();
+
+  ExecutionContext context = mockery.mock(ExecutionContext.class);
+
+  Map<Call, Observer> observers = new HashMap<Call, Observer>();
+
+  PriorityCallQueue queue;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    mockery.checking(new Expectations() {
+      {
+        allowing(context).getIdGenerator();
+        will(returnValue(NodeIdGenerator.getDefault()));
+        allowing(context).getExecutor();
+        will(returnValue(SynchronousExecutor.get()));
+      }
+    });
+    queue = new PriorityCallQueue(context, new AudioURIResource(null), false);
+    queue.init();
+  }
+
+  @SuppressWarnings("unchecked")
+  Call mockCall(final String id) {
+    final Call call = mockery.mock(Call.class, id);
+    final Output<Call> output = mockery.mock(Output.class, "output" + id);
+    mockery.checking(new Expectations() {
+      {
+        allowing(call).getId();
+        will(returnValue(id));
+        allowing(call).getCallState();
+        will(returnValue(Call.State.CONNECTED));
+        allowing(call).addObserver(with(any(Observer[].class)));
+        will(new CustomAction("capture observer") {
+          @Override
+          public Object invoke(final Invocation invocation) throws Throwable {
+            observers.put(call, ((Observer[]) invocation.getParameter(0))[0]);
+            return null;
+          }
+        });
+        allowing(call).removeObserver(with(any(Observer.class)));
+        allowing(call).output(with(any(OutputCommand.class)));
+        will(returnValue(output));
+        ignoring(output);
+      }
+    });
+    return call;
+  }
+
+  public void testPriorityThenArrival() {
+    final Call low = mockCall("low");
+    final Call high1 = mockCall("high1");
+    final Call high2 = mockCall("high2");
+
+    assertTrue(queue.offer(low));
+    assertTrue(queue.offer(high1, 5, null));
+    assertTrue(queue.offer(high2, 5, null));
+    assertFalse(queue.offer(high1));
+
+    assertEquals(3, queue.size());
+    assertSame(high1, queue.peek());
+    assertSame(high1, queue.poll());
+    assertSame(high2, queue.poll());
+    assertSame(low, queue.poll());
+    assertNull(queue.poll());
+    assertEquals(3, queue.getDequeuedCount());
+  }
+
+  public void testSkills() {
+    final Call spanish = mockCall("spanish");
+    final Call anyone = mockCall("anyone");
+
+    queue.offer(spanish, 1, Collections.singleton("spanish"));
+    queue.offer(anyone);
+
+    final Set<String> english = Collections.singleton("english");
+    final Set<String> both = new HashSet<String>(Arrays.asList("english", "spanish"));
+    assertSame(spanish, queue.peek(both));
+    assertSame(anyone, queue.poll(english));
+    assertNull(queue.poll(english));
+    assertSame(spanish, queue.poll(both));
+    assertTrue(queue.isEmpty());
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testRemoveAndAbandon() throws Exception {
+    final Call call1 = mockCall("1");
+    final Call call2 = mockCall("2");
+    final Call call3 = mockCall("3");
+    queue.offer(call1);
+    queue.offer(call2);
+    queue.offer(call3);
+    assertTrue(queue.getLongestWait() >= 0);
+
+    assertSame(call1, queue.remove("1"));
+    assertNull(queue.remove("1"));
+
+    ((EventListener<CallCompleteEvent>) observers.get(call2)).onEvent(null);
+    assertEquals(1, queue.size());
+    assertEquals(1, queue.getAbandonedCount());
+
+    assertSame(call3, queue.poll());
+    assertEquals(0.5, queue.getAbandonmentRate(), 0.001);
+    assertEquals(0, queue.getLongestWait());
+    mockery.assertIsSatisfied();
+  }
+
+  /**
+   * a call dequeued while it is being joined to the shared mixer is unjoined
+   * once the join completes, and gets no audio of its own.
+   */
+  public void testDequeuedWhileJoinIsPending() {
+    final MixerEndpoint endpoint = mockery.mock(MixerEndpoint.class);
+    final Mixer mixer = mockery.mock(Mixer.class);
+    final Call call = mockery.mock(Call.class);
+    final SettableJointImpl joint = new SettableJointImpl();
+    mockery.checking(new Expectations() {
+      {
+        allowing(context).createEndpoint(MixerEndpoint.DEFAULT_MIXER_ENDPOINT);
+        will(returnValue(endpoint));
+        allowing(endpoint).create(null);
+        will(returnValue(mixer));
+        ignoring(mixer);
+
+        allowing(call).getId();
+        will(returnValue("joining"));
+        allowing(call).getCallState();
+        will(returnValue(Call.State.CONNECTED));
+        allowing(call).addObserver(with(any(Observer[].class)));
+        allowing(call).removeObserver(with(any(Observer.class)));
+        oneOf(call).join(mixer, JoinType.BRIDGE, Direction.RECV);
+        will(returnValue(joint));
+        // once when dequeued, once the join has completed.
+        exactly(2).of(call).unjoin(mixer);
+        never(call).output(with(any(OutputCommand.class)));
+      }
+    });
+    final PriorityCallQueue shared = new PriorityCallQueue(context, new AudioURIResource(null), true);
+    shared.init();
+
+    assertTrue(shared.offer(call));
+    assertSame(call, shared.poll());
+    joint.done(new MohoJoinCompleteEvent(call, mixer, JoinCompleteEvent.Cause.JOINED, true));
+    mockery.assertIsSatisfied();
+  }
+
+  /**
+   * a call dequeued while its audio is being started has it stopped.
+   */
+  @SuppressWarnings("unchecked")
+  public void testDequeuedWhileOutputStarts() {
+    final Call call = mockery.mock(Call.class);
+    final Output<Call> output = mockery.mock(Output.class);
+    mockery.checking(new Expectations() {
+      {
+        allowing(call).getId();
+        will(returnValue("starting"));
+        allowing(call).getCallState();
+        will(returnValue(Call.State.CONNECTED));
+        allowing(call).addObserver(with(any(Observer[].class)));
+        allowing(call).removeObserver(with(any(Observer.class)));
+        oneOf(call).output(with(any(OutputCommand.class)));
+        will(new CustomAction("dequeue, then start the output") {
+          @Override
+          public Object invoke(final Invocation invocation) throws Throwable {
+            assertSame(call, queue.poll());
+            return output;
+          }
+        });
+        oneOf(output).stop();
+        never(output).addCompletionListener(with(any(CompletionListener.class)));
+      }
+    });
+
+    assertTrue(queue.offer(call));
+    assertTrue(queue.isEmpty());
+    mockery.assertIsSatisfied();
+  }
+}
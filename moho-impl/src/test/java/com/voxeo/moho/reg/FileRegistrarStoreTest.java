@@ -0,0 +1,137 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.reg;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import com.voxeo.moho.Endpoint;
+import com.voxeo.moho.reg.MemoryRegistrarStoreTest.TestContact;
+import com.voxeo.moho.reg.MemoryRegistrarStoreTest.TestEndpoint;
+
+public class FileRegistrarStoreTest extends TestCase {
+
+  File _path;
+
+  Map<String, String> _props;
+
+  @Override
+  protected void setUp() throws Exception {
+    _path = File.createTempFile("registrar", "");
+    _path.delete();
+    _props = new HashMap<String, String>();
+    _props.put(FileRegistrarStore.FILE, _path.getPath());
+    _props.put(FileRegistrarStore.SIZE, "4096");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    new File(_path.getPath() + ".0").delete();
+    new File(_path.getPath() + ".1").delete();
+  }
+
+  FileRegistrarStore open() {
+    final FileRegistrarStore store = new FileRegistrarStore() {
+      @Override
+      protected Endpoint createEndpoint(final String addr) {
+        return new TestEndpoint(addr);
+      }
+    };
+    store.init(_props);
+    return store;
+  }
+
+  static Endpoint aor(final int i) {
+    return new TestEndpoint("sip:user" + i + "@example.com");
+  }
+
+  public void testContactsSurviveRestart() {
+    FileRegistrarStore store = open();
+    final TestContact removed = new TestContact("sip:user0@10.0.0.2");
+    store.startTx();
+    store.add(aor(0), new TestContact("sip:user0@10.0.0.1"));
+    store.add(aor(0), removed);
+    store.add(aor(1), new TestContact("sip:user1@10.0.0.1"));
+    store.commitTx();
+    store.startTx();
+    store.remove(aor(0), removed);
+    store.remove(aor(1));
+    store.commitTx();
+    store.destroy();
+
+    store = open();
+    assertEquals(1, store.getContacts(aor(0)).size());
+    final StoredContact contact = (StoredContact) store.getContact(aor(0), new TestEndpoint("sip:user0@10.0.0.1"));
+    assertNotNull(contact);
+    assertEquals(60, contact.getExpiration());
+    assertFalse(store.isExisting(aor(1)));
+    store.destroy();
+  }
+
+  public void testTornRecordIsDiscarded() throws Exception {
+    FileRegistrarStore store = open();
+    store.startTx();
+    store.add(aor(0), new TestContact("sip:user0@10.0.0.1"));
+    store.commitTx();
+    final int end = store._log.position();
+    store.startTx();
+    store.add(aor(1), new TestContact("sip:user1@10.0.0.1"));
+    store.commitTx();
+    store.destroy();
+
+    // corrupt the body of the second record.
+    final RandomAccessFile file = new RandomAccessFile(_path.getPath() + ".0", "rw");
+    file.seek(end + FileRegistrarStore.RECORD_HEADER_SIZE + 6);
+    file.writeByte(0x7f);
+    file.close();
+
+    store = open();
+    assertTrue(store.isExisting(aor(0)));
+    assertFalse(store.isExisting(aor(1)));
+
+    // the log carries on after the last good record.
+    store.startTx();
+    store.add(aor(2), new TestContact("sip:user2@10.0.0.1"));
+    store.commitTx();
+    store.destroy();
+    store = open();
+    assertTrue(store.isExisting(aor(2)));
+    store.destroy();
+  }
+
+  public void testCompactionKeepsLiveContacts() {
+    FileRegistrarStore store = open();
+    final int aors = 200;
+    for (int round = 0; round < 5; round++) {
+      for (int i = 0; i < aors; i++) {
+        store.startTx();
+        store.update(aor(i), new TestContact("sip:user" + i + "@10.0.0.1"));
+        store.commitTx();
+      }
+    }
+    assertTrue(store._generation > 0);
+    store.destroy();
+
+    store = open();
+    for (int i = 0; i < aors; i++) {
+      assertEquals(1, store.getContacts(aor(i)).size());
+    }
+    store.destroy();
+  }
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.reg;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import com.voxeo.moho.Endpoint;
+import com.voxeo.moho.event.RegisterEvent.Contact;
+
+public class MemoryRegistrarStoreTest extends TestCase {
+
+  static class TestEndpoint implements Endpoint {
+    final String _name;
+
+    TestEndpoint(final String name) {
+      _name = name;
+    }
+
+    public String getName() {
+      return _name;
+    }
+
+    public URI getURI() {
+      return URI.create(_name);
+    }
+
+    @Override
+    public int hashCode() {
+      return _name.hashCode();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      return o instanceof TestEndpoint && _name.equals(((TestEndpoint) o)._name);
+    }
+
+    @Override
+    public String toString() {
+      return _name;
+    }
+  }
+
+  static class TestContact implements Contact {
+    final Endpoint _endpoint;
+
+    TestContact(final String name) {
+      _endpoint = new TestEndpoint(name);
+    }
+
+    public Endpoint getEndpoint() {
+      return _endpoint;
+    }
+
+    public int getExpiration() {
+      return 60;
+    }
+
+    public boolean isWildCard() {
+      return false;
+    }
+
+    public boolean isExpired() {
+      return false;
+    }
+  }
+
+  final Endpoint _aor = new TestEndpoint("sip:alice@example.com");
+
+  MemoryRegistrarStore _store = new MemoryRegistrarStore();
+
+  public void testChangesAreInvisibleUntilCommit() throws Exception {
+    _store.startTx();
+    _store.add(_aor, new TestContact("sip:alice@10.0.0.1"));
+    assertEquals(1, _store.getContacts(_aor).size());
+    assertNotNull(_store.getContact(_aor, new TestEndpoint("sip:alice@10.0.0.1")));
+
+    final boolean[] seen = new boolean[2];
+    final Thread reader = new Thread() {
+      public void run() {
+        seen[0] = _store.getContacts(_aor).isEmpty();
+        seen[1] = _store.isExisting(_aor);
+      }
+    };
+    reader.start();
+    reader.join();
+    assertTrue(seen[0]);
+    assertFalse(seen[1]);
+
+    _store.commitTx();
+    assertEquals(1, _store.getContacts(_aor).size());
+    assertTrue(_store.isExisting(_aor));
+  }
+
+  public void testRollbackDiscardsChanges() {
+    _store.startTx();
+    _store.add(_aor, new TestContact("sip:alice@10.0.0.1"));
+    _store.rollbackTx();
+    assertFalse(_store.isExisting(_aor));
+
+    // the thread can start a new transaction.
+    _store.startTx();
+    _store.commitTx();
+  }
+
+  public void testRemovingLastContactRemovesAor() {
+    final TestContact contact = new TestContact("sip:alice@10.0.0.1");
+    _store.startTx();
+    _store.add(_aor, contact);
+    _store.add(_aor, new TestContact("sip:alice@10.0.0.2"));
+    _store.commitTx();
+
+    _store.startTx();
+    _store.remove(_aor, contact);
+    _store.commitTx();
+    final Collection<Contact> contacts = _store.getContacts(_aor);
+    assertEquals(1, contacts.size());
+    assertFalse(_store.isExisting(_aor, contact));
+
+    _store.startTx();
+    _store.remove(_aor);
+    _store.commitTx();
+    assertFalse(_store.isExisting(_aor));
+    assertFalse(_store.getEndpoints().hasNext());
+  }
+
+  public void testConcurrentCommitsToSameAorAreMerged() throws Exception {
+    final int threads = 8;
+    final int perThread = 200;
+    final Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final int n = t;
+      workers[t] = new Thread() {
+        public void run() {
+          for (int i = 0; i < perThread; i++) {
+            _store.startTx();
+            _store.add(_aor, new TestContact("sip:alice@" + n + "." + i));
+            _store.commitTx();
+          }
+        }
+      };
+      workers[t].start();
+    }
+    for (final Thread worker : workers) {
+      worker.join();
+    }
+    assertEquals(threads * perThread, _store.getContacts(_aor).size());
+  }
+
+  public void testReverseIndexFollowsCommits() {
+    final TestContact contact = new TestContact("sip:alice@10.0.0.1");
+    assertNull(_store.getAddressOfRecord(contact.getEndpoint()));
+
+    _store.startTx();
+    _store.add(_aor, contact);
+    assertNull(_store.getAddressOfRecord(contact.getEndpoint()));
+    _store.commitTx();
+    assertEquals(_aor, _store.getAddressOfRecord(contact.getEndpoint()));
+
+    _store.startTx();
+    _store.remove(_aor);
+    _store.commitTx();
+    assertNull(_store.getAddressOfRecord(contact.getEndpoint()));
+  }
+
+  public void testLateIndexOfRemovalKeepsContactAddedBack() {
+    final TestContact contact = new TestContact("sip:alice@10.0.0.1");
+    _store.startTx();
+    _store.add(_aor, contact);
+    _store.commitTx();
+
+    // a commit removes the contact but has not updated the index yet ...
+    final Map<Endpoint, Contact> previous = _store._tables.get(_aor);
+    assertTrue(_store._tables.remove(_aor, previous));
+
+    // ... when another commit adds it back and indexes it.
+    _store.startTx();
+    _store.add(_aor, contact);
+    _store.commitTx();
+
+    _store.index(_aor, previous, null);
+    assertEquals(_aor, _store.getAddressOfRecord(contact.getEndpoint()));
+  }
+
+  public void testCommittedContactsCanNotBeModified() {
+    _store.startTx();
+    _store.add(_aor, new TestContact("sip:alice@10.0.0.1"));
+    _store.commitTx();
+    try {
+      _store.getContacts(_aor).clear();
+      fail();
+    }
+    catch (final UnsupportedOperationException ex) {
+      // expected
+    }
+  }
+
+  public void testWriteWithoutTransactionFails() {
+    try {
+      _store.add(_aor, new TestContact("sip:alice@10.0.0.1"));
+      fail();
+    }
+    catch (final IllegalStateException ex) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.sip;
+
+import junit.framework.TestCase;
+
+import com.voxeo.moho.sip.fake.MockSipServletRequest;
+
+public class DtmfInfoParserTest extends TestCase {
+
+  private static MockSipServletRequest info(final String type, final String content) throws Exception {
+    final MockSipServletRequest req = new MockSipServletRequest();
+    req.setMethod("INFO");
+    req.setContentType(type);
+    req.setRawContent(content.getBytes("UTF-8"));
+    return req;
+  }
+
+  public void testDtmfRelay() throws Exception {
+    assertEquals('5', DtmfInfoParser.getDigit(info("application/dtmf-relay", "Signal=5\r\nDuration=160\r\n")));
+    assertEquals('#', DtmfInfoParser.getDigit(info("application/dtmf-relay", "Signal = #\r\nDuration = 100\r\n")));
+    assertEquals('*', DtmfInfoParser.getDigit(info("application/dtmf-relay", "Duration=160\r\n  signal=*\r\n")));
+    assertEquals('B', DtmfInfoParser.getDigit(info("Application/DTMF-Relay", "SIGNAL=b\r\n")));
+  }
+
+  public void testTenAndEleven() throws Exception {
+    assertEquals('*', DtmfInfoParser.getDigit(info("application/dtmf-relay", "Signal=10\r\nDuration=160\r\n")));
+    assertEquals('#', DtmfInfoParser.getDigit(info("application/dtmf", "11")));
+    assertEquals('1', DtmfInfoParser.getDigit(info("application/dtmf", "1\r\n")));
+  }
+
+  public void testDtmf() throws Exception {
+    assertEquals('7', DtmfInfoParser.getDigit(info("application/dtmf", "\r\n 7\r\n")));
+    assertEquals('D', DtmfInfoParser.getDigit(info("application/dtmf; charset=us-ascii", "D")));
+  }
+
+  public void testNoDigit() throws Exception {
+    assertEquals(0, DtmfInfoParser.getDigit(info("application/dtmf-relay", "Duration=160\r\n")));
+    assertEquals(0, DtmfInfoParser.getDigit(info("application/dtmf-relay", "Signalling=5\r\n")));
+    assertEquals(0, DtmfInfoParser.getDigit(info("application/dtmf-relay", "Signal=x\r\n")));
+    assertEquals(0, DtmfInfoParser.getDigit(info("application/dtmf", "")));
+    assertEquals(0, DtmfInfoParser.getDigit(info("application/sdp", "5")));
+    assertEquals(0, DtmfInfoParser.getDigit(new MockSipServletRequest()));
+  }
+
+  public void testIsDtmf() {
+    assertTrue(DtmfInfoParser.isDtmf("application/dtmf-relay"));
+    assertTrue(DtmfInfoParser.isDtmf("APPLICATION/DTMF"));
+    assertTrue(DtmfInfoParser.isDtmf("application/dtmf;foo=bar"));
+    assertFalse(DtmfInfoParser.isDtmf("application/dtmf-relayx"));
+    assertFalse(DtmfInfoParser.isDtmf("application/sdp"));
+    assertFalse(DtmfInfoParser.isDtmf(null));
+  }
+}
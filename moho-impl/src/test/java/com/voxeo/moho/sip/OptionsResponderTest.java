@@ -0,0 +1,187 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.sip;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.sip.SipServletRequest;
+import javax.servlet.sip.SipServletResponse;
+
+import junit.framework.TestCase;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+
+import com.voxeo.moho.sip.fake.MockSipServletRequest;
+import com.voxeo.moho.sip.fake.MockSipServletResponse;
+import com.voxeo.moho.spi.ExecutionContext;
+import com.voxeo.moho.spi.SIPRequestHandler;
+import com.voxeo.moho.util.DispatchExecutor;
+
+public class OptionsResponderTest extends TestCase {
+
+  Mockery mockery = new Mockery();
+
+  ExecutionContext context = mockery.mock(ExecutionContext.class);
+
+  DispatchExecutor executor = new DispatchExecutor(1, 1, 1, 60, TimeUnit.SECONDS, Executors.defaultThreadFactory());
+
+  int passedOn;
+
+  OptionsResponder responder;
+
+  static class Response extends MockSipServletResponse {
+    final Map<String, String> headers = new HashMap<String, String>();
+
+    boolean sent;
+
+    @Override
+    public void setHeader(final String name, final String value) {
+      headers.put(name, value);
+    }
+
+    @Override
+    public void send() throws IOException {
+      sent = true;
+    }
+  }
+
+  static class Request extends MockSipServletRequest {
+    final Map<String, String> headers = new HashMap<String, String>();
+
+    Response response;
+
+    Request(final String method, final boolean initial) {
+      setMethod(method);
+      setIsInitial(initial);
+    }
+
+    @Override
+    public String getHeader(final String name) {
+      return headers.get(name);
+    }
+
+    @Override
+    public SipServletResponse createResponse(final int status) {
+      response = new Response();
+      response.setStatus(status);
+      return response;
+    }
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    mockery.checking(new Expectations() {
+      {
+        allowing(context).getExecutor();
+        will(returnValue(executor));
+      }
+    });
+    responder = new OptionsResponder(context, new SIPRequestHandler() {
+      @Override
+      public void handle(final SipServletRequest req) throws ServletException, IOException {
+        passedOn++;
+      }
+    }, "INVITE, ACK, BYE", "application/sdp", "100rel", "5");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    executor.shutdownNow();
+    super.tearDown();
+  }
+
+  public void testAnswersOptions() throws Exception {
+    final Request options = new Request("OPTIONS", true);
+    responder.handle(options);
+
+    assertEquals(0, passedOn);
+    assertTrue(options.response.sent);
+    assertEquals(200, options.response.getStatus());
+    assertEquals("INVITE, ACK, BYE", options.response.headers.get("Allow"));
+    assertEquals("application/sdp", options.response.headers.get("Accept"));
+    assertEquals("100rel", options.response.headers.get("Supported"));
+  }
+
+  public void testPassesOnInDialogRequests() throws Exception {
+    final Request options = new Request("OPTIONS", false);
+    responder.handle(options);
+    assertEquals(1, passedOn);
+    assertNull(options.response);
+  }
+
+  public void testKeepAliveNotify() throws Exception {
+    final Request keepAlive = new Request("NOTIFY", true);
+    keepAlive.headers.put("Event", "keep-alive");
+    responder.handle(keepAlive);
+    assertEquals(200, keepAlive.response.getStatus());
+    assertNull(keepAlive.response.headers.get("Allow"));
+
+    final Request withParams = new Request("NOTIFY", true);
+    withParams.headers.put("Event", "Keep-Alive ;id=1");
+    responder.handle(withParams);
+    assertEquals(200, withParams.response.getStatus());
+
+    final Request notify = new Request("NOTIFY", true);
+    notify.headers.put("Event", "dialog");
+    responder.handle(notify);
+    assertEquals(1, passedOn);
+
+    final Request extended = new Request("NOTIFY", true);
+    extended.headers.put("Event", "keep-alive-status");
+    responder.handle(extended);
+    assertEquals(2, passedOn);
+    assertNull(extended.response);
+  }
+
+  public void testServiceUnavailableWhenSaturated() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch started = new CountDownLatch(1);
+    // occupy the only thread, then the only queue slot.
+    executor.execute(new Runnable() {
+      public void run() {
+        started.countDown();
+        try {
+          release.await();
+        }
+        catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    executor.execute(new Runnable() {
+      public void run() {
+      }
+    });
+
+    try {
+      final Request options = new Request("OPTIONS", true);
+      responder.handle(options);
+      assertEquals(SipServletResponse.SC_SERVICE_UNAVAILABLE, options.response.getStatus());
+      assertEquals("5", options.response.headers.get("Retry-After"));
+    }
+    finally {
+      release.countDown();
+    }
+  }
+}
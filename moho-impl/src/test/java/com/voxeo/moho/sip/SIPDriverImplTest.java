@@ -0,0 +1,146 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.sip;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.ServletException;
+import javax.servlet.sip.SipServletRequest;
+import javax.servlet.sip.SipServletResponse;
+
+import junit.framework.TestCase;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+
+import com.voxeo.moho.Framework;
+import com.voxeo.moho.IncomingCall;
+import com.voxeo.moho.sip.SIPDriverImpl.MethodStats;
+import com.voxeo.moho.sip.fake.MockSipServletRequest;
+import com.voxeo.moho.spi.ExecutionContext;
+import com.voxeo.moho.spi.SIPRequestHandler;
+
+public class SIPDriverImplTest extends TestCase {
+
+  private SIPDriverImpl driver;
+
+  private final List<SipServletRequest> handled = new ArrayList<SipServletRequest>();
+
+  private final SIPRequestHandler recorder = new SIPRequestHandler() {
+    @Override
+    public void handle(final SipServletRequest req) throws ServletException, IOException {
+      handled.add(req);
+    }
+  };
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    driver = new SIPDriverImpl();
+  }
+
+  private static MockSipServletRequest request(final String method) {
+    final MockSipServletRequest req = new MockSipServletRequest();
+    req.setMethod(method);
+    return req;
+  }
+
+  private MethodStats requestStats(final String method) {
+    for (final MethodStats stats : driver.getRequestStats()) {
+      if (stats.getMethod().equals(method)) {
+        return stats;
+      }
+    }
+    return null;
+  }
+
+  public void testOverrideBuiltInHandler() throws Exception {
+    final SIPRequestHandler builtIn = driver.getRequestHandler("OPTIONS");
+    assertNotNull(builtIn);
+
+    assertSame(builtIn, driver.setRequestHandler("OPTIONS", recorder));
+    final MockSipServletRequest options = request("OPTIONS");
+    driver.doRequest(options);
+    assertEquals(1, handled.size());
+    assertSame(options, handled.get(0));
+    assertEquals(1, requestStats("OPTIONS").getCount());
+    assertEquals(0, requestStats("OPTIONS").getFailureCount());
+
+    assertSame(recorder, driver.setRequestHandler("OPTIONS", null));
+    assertSame(builtIn, driver.getRequestHandler("OPTIONS"));
+  }
+
+  public void testNewMethod() throws Exception {
+    assertNull(driver.getRequestHandler("FOO"));
+    assertNull(requestStats("FOO"));
+
+    assertNull(driver.setRequestHandler("FOO", recorder));
+    driver.doRequest(request("FOO"));
+    assertEquals(1, handled.size());
+    assertEquals(1, requestStats("FOO").getCount());
+    assertEquals(0, requestStats(SIPDriverImpl.OTHER).getCount());
+  }
+
+  public void testFailuresAreCounted() throws Exception {
+    driver.setRequestHandler("INFO", new SIPRequestHandler() {
+      @Override
+      public void handle(final SipServletRequest req) throws ServletException, IOException {
+        throw new ServletException("boom");
+      }
+    });
+    try {
+      driver.doRequest(request("INFO"));
+      fail("the handler's exception should go to the container");
+    }
+    catch (final ServletException e) {
+      // expected
+    }
+    assertEquals(1, requestStats("INFO").getCount());
+    assertEquals(1, requestStats("INFO").getFailureCount());
+  }
+
+  public void testShedInviteIsForgotten() throws Exception {
+    final Mockery mockery = new Mockery();
+    final Framework app = mockery.mock(Framework.class);
+    final ExecutionContext context = mockery.mock(ExecutionContext.class);
+    final IncomingCallFactory factory = mockery.mock(IncomingCallFactory.class);
+    final IncomingCall call = mockery.mock(IncomingCall.class);
+    final OptionsResponderTest.Request invite = new OptionsResponderTest.Request("INVITE", true);
+    mockery.checking(new Expectations() {
+      {
+        allowing(app).getApplicationContext();
+        will(returnValue(context));
+        allowing(context).getService(IncomingCallFactory.class);
+        will(returnValue(factory));
+        oneOf(factory).createIncomingCall(invite);
+        will(returnValue(call));
+        allowing(call).getId();
+        will(returnValue("call1"));
+        oneOf(app).dispatch(call);
+        will(throwException(new RejectedExecutionException("overloaded")));
+        oneOf(context).removeCall("call1");
+      }
+    });
+    driver._app = app;
+
+    driver.doRequest(invite);
+    assertEquals(SipServletResponse.SC_SERVICE_UNAVAILABLE, invite.response.getStatus());
+    assertEquals("5", invite.response.headers.get("Retry-After"));
+    mockery.assertIsSatisfied();
+  }
+}
@@ -11,6 +11,7 @@
 
 package com.voxeo.moho.sip;
 
+import java.io.IOException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -48,6 +49,7 @@ import com.voxeo.moho.Participant.JoinType;
 import com.voxeo.moho.SettableJointImpl;
 import com.voxeo.moho.State;
 import com.voxeo.moho.event.HangupEvent;
+import com.voxeo.moho.event.HoldCompleteEvent;
 import com.voxeo.moho.event.JoinCompleteEvent;
 import com.voxeo.moho.event.MohoJoinCompleteEvent;
 import com.voxeo.moho.event.UncaughtExceptionEvent;
@@ -3428,6 +3430,78 @@ public class SIPIncomingCallTest extends TestCase {
     }
   }
 
+  /**
+   * holdAsync() returns as soon as the re-INVITE is sent and completes when
+   * both the response and the SDP answer have been processed.
+   */
+  public void testHoldAsync() throws Exception {
+    sipcall = new SIPIncomingCall(appContext, initInviteReq);
+    sipcall.setSIPCallState(SIPCall.State.ANSWERED);
+    final CountDownLatch sent = new CountDownLatch(2);
+    sipcall._callDelegate = new SIPCallMediaDelegate() {
+      @Override
+      protected void hold(final SIPCallImpl call, final boolean send) {
+        sent.countDown();
+      }
+
+      @Override
+      protected void unhold(final SIPCallImpl call) {
+        sent.countDown();
+      }
+    };
+
+    final Future<HoldCompleteEvent> hold = sipcall.holdAsync();
+    assertEquals(1, sent.getCount());
+    assertFalse(hold.isDone());
+    assertSame(hold, sipcall.holdAsync());
+
+    // re-INVITE response, then SDP answer.
+    sipcall.holdResp();
+    assertFalse(hold.isDone());
+    sipcall.holdResp();
+
+    final HoldCompleteEvent event = hold.get(5, TimeUnit.SECONDS);
+    assertEquals(HoldCompleteEvent.Type.HOLD, event.getType());
+    assertEquals(HoldCompleteEvent.Cause.SUCCESS, event.getCause());
+    assertTrue(sipcall.isHold());
+
+    final Future<HoldCompleteEvent> unhold = sipcall.unholdAsync();
+    assertEquals(0, sent.getCount());
+    sipcall.holdDone(new IOException("ACK failed"));
+
+    final HoldCompleteEvent failed = unhold.get(5, TimeUnit.SECONDS);
+    assertEquals(HoldCompleteEvent.Type.UNHOLD, failed.getType());
+    assertEquals(HoldCompleteEvent.Cause.ERROR, failed.getCause());
+    assertNotNull(failed.getException());
+    assertFalse(sipcall.isHold());
+  }
+
+  /**
+   * A hold that fails while the call's monitor is held completes once the
+   * monitor has been released.
+   */
+  public void testHoldCompletesAfterMonitorReleased() throws Exception {
+    sipcall = new SIPIncomingCall(appContext, initInviteReq);
+    sipcall.setSIPCallState(SIPCall.State.ANSWERED);
+    sipcall._callDelegate = new SIPCallMediaDelegate() {
+      @Override
+      protected void hold(final SIPCallImpl call, final boolean send) {
+      }
+    };
+
+    final Future<HoldCompleteEvent> hold = sipcall.holdAsync();
+    synchronized (sipcall) {
+      sipcall.holdDone(new IOException("re-INVITE failed"));
+      sipcall.runCompletions();
+      assertFalse(sipcall.isHold());
+    }
+    sipcall.runCompletions();
+
+    final HoldCompleteEvent event = hold.get(5, TimeUnit.SECONDS);
+    assertEquals(HoldCompleteEvent.Type.HOLD, event.getType());
+    assertEquals(HoldCompleteEvent.Cause.ERROR, event.getCause());
+  }
+
   // mock jsr309 send back SdpPortManagerEvent.
   class MockMediaServerSdpPortManagerEventAction implements Action {
     SdpPortManagerEvent _event;
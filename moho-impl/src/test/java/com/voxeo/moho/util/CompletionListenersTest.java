@@ -0,0 +1,111 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import junit.framework.TestCase;
+
+import com.voxeo.moho.utils.CompletionListener;
+
+public class CompletionListenersTest extends TestCase {
+
+  static class ManualExecutor implements Executor {
+    final LinkedList<Runnable> _pending = new LinkedList<Runnable>();
+
+    public void execute(final Runnable command) {
+      _pending.add(command);
+    }
+
+    void runAll() {
+      Runnable r;
+      while ((r = _pending.poll()) != null) {
+        r.run();
+      }
+    }
+  }
+
+  static class Recorder implements CompletionListener<String> {
+    final List<String> _results = new ArrayList<String>();
+
+    final List<Throwable> _causes = new ArrayList<Throwable>();
+
+    public void onComplete(final String result, final Throwable cause) {
+      _results.add(result);
+      _causes.add(cause);
+    }
+  }
+
+  public void testListenersRunOnExecutorAfterCompletion() {
+    final ManualExecutor executor = new ManualExecutor();
+    final SettableResultFuture<String> future = new SettableResultFuture<String>(executor);
+    final Recorder before = new Recorder();
+    future.addListener(before);
+    assertTrue(executor._pending.isEmpty());
+
+    future.setResult("done");
+    assertTrue(before._results.isEmpty());
+    executor.runAll();
+    assertEquals("done", before._results.get(0));
+    assertNull(before._causes.get(0));
+
+    // late listeners are still called, once.
+    final Recorder after = new Recorder();
+    future.addListener(after);
+    executor.runAll();
+    assertEquals(1, after._results.size());
+    assertEquals(1, before._results.size());
+  }
+
+  public void testFailureIsPassedToListeners() {
+    final SettableResultFuture<String> future = new SettableResultFuture<String>();
+    final Recorder recorder = new Recorder();
+    future.addListener(recorder);
+
+    final IllegalStateException ex = new IllegalStateException("boom");
+    future.setException(ex);
+    assertNull(recorder._results.get(0));
+    assertSame(ex, recorder._causes.get(0));
+  }
+
+  public void testOnlyFirstCompletionCounts() {
+    final CompletionListeners<String> listeners = new CompletionListeners<String>(null);
+    final Recorder recorder = new Recorder();
+    listeners.add(recorder);
+    listeners.complete("first", null);
+    listeners.complete("second", null);
+    assertEquals(1, recorder._results.size());
+    assertEquals("first", recorder._results.get(0));
+  }
+
+  public void testFutureTaskCompletesListeners() {
+    final ManualExecutor executor = new ManualExecutor();
+    final ListenableFutureTask<String> task = new ListenableFutureTask<String>(new Callable<String>() {
+      public String call() throws Exception {
+        throw new IllegalArgumentException("bad");
+      }
+    }, executor);
+    final Recorder recorder = new Recorder();
+    task.addListener(recorder);
+
+    task.run();
+    executor.runAll();
+    assertTrue(recorder._causes.get(0) instanceof IllegalArgumentException);
+  }
+}
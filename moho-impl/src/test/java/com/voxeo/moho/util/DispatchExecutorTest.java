@@ -0,0 +1,186 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.voxeo.moho.util.DispatchExecutor.OverloadPolicy;
+import com.voxeo.moho.util.DispatchExecutor.TaskClass;
+
+public class DispatchExecutorTest extends TestCase {
+
+  DispatchExecutor executor;
+
+  CountDownLatch release;
+
+  static class ClassifiedTask implements Runnable, DispatchExecutor.Classified {
+    final TaskClass _taskClass;
+
+    Thread _ranOn;
+
+    ClassifiedTask(final TaskClass taskClass) {
+      _taskClass = taskClass;
+    }
+
+    public TaskClass getTaskClass() {
+      return _taskClass;
+    }
+
+    public void run() {
+      _ranOn = Thread.currentThread();
+    }
+  }
+
+  protected void setUp() throws Exception {
+    super.setUp();
+    executor = new DispatchExecutor(1, 1, 1, 60, TimeUnit.SECONDS, Executors.defaultThreadFactory());
+    release = new CountDownLatch(1);
+    final CountDownLatch started = new CountDownLatch(1);
+    // occupy the only thread, then the only queue slot.
+    executor.execute(new Runnable() {
+      public void run() {
+        started.countDown();
+        try {
+          release.await();
+        }
+        catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    executor.execute(new Runnable() {
+      public void run() {
+      }
+    });
+  }
+
+  protected void tearDown() throws Exception {
+    release.countDown();
+    executor.shutdown();
+    super.tearDown();
+  }
+
+  public void testInDialogRunsOnCallerWhenSaturated() {
+    assertTrue(executor.isSaturated());
+    assertEquals(1, executor.getQueueDepth());
+
+    final ClassifiedTask task = new ClassifiedTask(TaskClass.IN_DIALOG);
+    executor.execute(task);
+
+    assertSame(Thread.currentThread(), task._ranOn);
+    assertEquals(1, executor.getCallerRunsCount(TaskClass.IN_DIALOG));
+    assertEquals(0, executor.getRejectedCount(TaskClass.IN_DIALOG));
+  }
+
+  public void testOutOfDialogIsShedWhenSaturated() {
+    final ClassifiedTask task = new ClassifiedTask(TaskClass.OUT_OF_DIALOG);
+    try {
+      executor.execute(task);
+      fail("out-of-dialog work should be rejected when saturated");
+    }
+    catch (final RejectedExecutionException ex) {
+      // expected
+    }
+    assertNull(task._ranOn);
+    assertEquals(1, executor.getRejectedCount(TaskClass.OUT_OF_DIALOG));
+  }
+
+  public void testPolicyIsConfigurablePerTaskClass() {
+    executor.setOverloadPolicy(TaskClass.OUT_OF_DIALOG, OverloadPolicy.CALLER_RUNS);
+    executor.setOverloadPolicy(TaskClass.DEFAULT, OverloadPolicy.REJECT);
+
+    final ClassifiedTask task = new ClassifiedTask(TaskClass.OUT_OF_DIALOG);
+    executor.execute(task);
+    assertSame(Thread.currentThread(), task._ranOn);
+
+    try {
+      executor.execute(new Runnable() {
+        public void run() {
+        }
+      });
+      fail("unclassified work should follow the default policy");
+    }
+    catch (final RejectedExecutionException ex) {
+      // expected
+    }
+    assertEquals(1, executor.getRejectedCount(TaskClass.DEFAULT));
+  }
+
+  public void testPoolGrowsToMaximumBeforeQueueing() throws Exception {
+    final DispatchExecutor pool = new DispatchExecutor(2, 4, 10, 60, TimeUnit.SECONDS, Executors.defaultThreadFactory());
+    final CountDownLatch blocked = new CountDownLatch(4);
+    final CountDownLatch unblock = new CountDownLatch(1);
+    try {
+      // each task blocks until all of them run at once, which needs more than
+      // the core threads.
+      for (int i = 0; i < 4; i++) {
+        pool.execute(new Runnable() {
+          public void run() {
+            blocked.countDown();
+            try {
+              unblock.await();
+            }
+            catch (final InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+      }
+      assertTrue(blocked.await(5, TimeUnit.SECONDS));
+      assertEquals(4, pool.getPoolSize());
+      assertEquals(0, pool.getQueueDepth());
+
+      // with every thread busy, new work is queued rather than overloaded.
+      final ClassifiedTask task = new ClassifiedTask(TaskClass.OUT_OF_DIALOG);
+      pool.execute(task);
+      assertEquals(1, pool.getQueueDepth());
+      assertEquals(0, pool.getRejectedCount(TaskClass.OUT_OF_DIALOG));
+      assertNull(task._ranOn);
+    }
+    finally {
+      unblock.countDown();
+      pool.shutdown();
+    }
+  }
+
+  public void testNestedBlockingTasksDoNotDeadlock() throws Exception {
+    final DispatchExecutor pool = new DispatchExecutor(1, 2, 10, 60, TimeUnit.SECONDS, Executors.defaultThreadFactory());
+    try {
+      // the outer task waits for an inner task submitted to the same pool, like
+      // a conference admission waiting for its mixer join.
+      final Future<Boolean> outer = pool.submit(new Callable<Boolean>() {
+        public Boolean call() throws Exception {
+          return pool.submit(new Callable<Boolean>() {
+            public Boolean call() {
+              return Boolean.TRUE;
+            }
+          }).get(5, TimeUnit.SECONDS);
+        }
+      });
+      assertTrue(outer.get(10, TimeUnit.SECONDS));
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+}
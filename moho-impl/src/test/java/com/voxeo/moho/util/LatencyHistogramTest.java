@@ -0,0 +1,47 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import junit.framework.TestCase;
+
+public class LatencyHistogramTest extends TestCase {
+
+  public void testBuckets() {
+    assertEquals(0, LatencyHistogram.bucketOf(0));
+    assertEquals(0, LatencyHistogram.bucketOf(1));
+    assertEquals(1, LatencyHistogram.bucketOf(2));
+    assertEquals(1, LatencyHistogram.bucketOf(3));
+    assertEquals(10, LatencyHistogram.bucketOf(1024));
+    assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+  }
+
+  public void testPercentiles() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getPercentile(99));
+    for (int i = 0; i < 99; i++) {
+      histogram.record(100 * 1000);
+    }
+    histogram.record(5000 * 1000);
+
+    assertEquals(100, histogram.getCount());
+    assertEquals(5000, histogram.getMax());
+    assertEquals(149, histogram.getMean());
+    // 100us is in the 64 to 128us bucket, 5ms in the 4096 to 8192us one.
+    assertEquals(128, histogram.getPercentile(50));
+    assertEquals(128, histogram.getPercentile(99));
+    assertEquals(8192, histogram.getPercentile(100));
+    assertEquals(99, histogram.getBuckets()[6]);
+  }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class NLSMLParserTest extends TestCase {
+
+  static final String SPEECH = "<?xml version=\"1.0\"?>\n"
+      + "<result xmlns=\"http://www.ietf.org/xml/ns/mrcpv2\" grammar=\"session:0@vomoto.com\">\n"
+      + "  <interpretation confidence=\"87\">\n"
+      + "    <instance>yes</instance>\n"
+      + "    <input mode=\"speech\">yes please</input>\n"
+      + "  </interpretation>\n"
+      + "</result>";
+
+  static final String VOXEO = "<result grammar=\"session:0@vomoto.com\">"
+      + "<interpretation grammar=\"session:menu@vomoto.com\" confidence=\"42\">"
+      + "<voxeoresult><concept> sales </concept><interpretation>\n sales \n</interpretation></voxeoresult>"
+      + "<input mode=\"dtmf\">1</input>" + "\n out = &quot;sales&quot; ; \n"
+      + "</interpretation>"
+      + "<interpretation confidence=\"10\"><input>sails</input></interpretation>"
+      + "</result>";
+
+  static final String NO_MATCH = "<result><interpretation confidence=\"0\"><input><nomatch/></input>"
+      + "</interpretation></result>";
+
+  static final String UNICODE = "<result grammar=\"session:1@vomoto.com\">"
+      + "<interpretation confidence=\"99\"><input mode=\"voice\">Z\u00fcrich \u4e0a\u6d77</input></interpretation>"
+      + "</result>";
+
+  public void testSpeechResult() throws Exception {
+    final List<Map<String, String>> result = NLSMLParser.parse(SPEECH);
+    assertEquals(1, result.size());
+    final Map<String, String> reco = result.get(0);
+    assertEquals("0", reco.get("_grammar_id"));
+    assertEquals("0@vomoto.com", reco.get("_grammar"));
+    assertEquals("0.87", reco.get("_confidence"));
+    assertEquals("0.87", reco.get("_interpretationconfidence"));
+    assertEquals("yes please", reco.get("_interpretation"));
+    assertEquals("voice", reco.get("_inputmode"));
+    assertNull(reco.get("_tag"));
+  }
+
+  public void testVoxeoResultOverridesInput() throws Exception {
+    final List<Map<String, String>> result = NLSMLParser.parse(VOXEO);
+    assertEquals(2, result.size());
+    final Map<String, String> reco = result.get(0);
+    assertEquals("menu", reco.get("_grammar_id"));
+    assertEquals("sales", reco.get("_concept"));
+    assertEquals("sales", reco.get("_interpretation"));
+    assertEquals("out=\"sales\";", reco.get("_tag"));
+    assertEquals("dtmf", reco.get("_inputmode"));
+    assertEquals("sails", result.get(1).get("_interpretation"));
+    assertEquals("0", result.get(1).get("_grammar_id"));
+  }
+
+  public void testCharactersAreNotEncoded() throws Exception {
+    assertEquals("Z\u00fcrich \u4e0a\u6d77", NLSMLParser.parse(UNICODE).get(0).get("_interpretation"));
+  }
+
+  public void testNoResult() throws Exception {
+    assertTrue(NLSMLParser.parse("<nlsml/>").isEmpty());
+  }
+
+  public void testMissingConfidenceFails() throws Exception {
+    try {
+      NLSMLParser.parse("<result><interpretation/></result>");
+      fail();
+    }
+    catch (final Exception ex) {
+      // expected
+    }
+    // the reader is still usable afterwards.
+    assertEquals(1, NLSMLParser.parse(SPEECH).size());
+  }
+
+  public void testSameResultsAsDomParser() throws Exception {
+    for (final String xml : new String[] {SPEECH, VOXEO, NO_MATCH}) {
+      assertEquals(xml, DomNLSMLParser.parse(xml), NLSMLParser.parse(xml));
+    }
+  }
+
+  public void testReadersArePerThread() throws Exception {
+    final Throwable[] failure = new Throwable[1];
+    final Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < 500; j++) {
+              assertEquals("sales", NLSMLParser.parse(VOXEO).get(0).get("_concept"));
+              assertEquals("voice", NLSMLParser.parse(SPEECH).get(0).get("_inputmode"));
+            }
+          }
+          catch (final Throwable t) {
+            failure[0] = t;
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(String.valueOf(failure[0]), failure[0]);
+  }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class NodeIdGeneratorTest extends TestCase {
+
+  public void testIdsSortByCreation() {
+    final NodeIdGenerator generator = new NodeIdGenerator("node1");
+    final List<String> ids = new ArrayList<String>();
+    for (int i = 0; i < 100000; i++) {
+      ids.add(generator.generate());
+    }
+    final List<String> sorted = new ArrayList<String>(ids);
+    Collections.sort(sorted);
+    assertEquals(ids, sorted);
+    assertEquals(ids.size(), new HashSet<String>(ids).size());
+    assertTrue(ids.get(0).startsWith("node1-"));
+    assertEquals("node1-".length() + 16, ids.get(0).length());
+  }
+
+  public void testConcurrentIdsAreUnique() throws Exception {
+    final NodeIdGenerator generator = new NodeIdGenerator("node1");
+    final Set<String> ids = Collections.synchronizedSet(new HashSet<String>());
+    final Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 20000; j++) {
+            ids.add(generator.generate());
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(threads.length * 20000, ids.size());
+  }
+
+  public void testNodeId() {
+    assertEquals("host.example.com.1234", new NodeIdGenerator("host.example.com@1234").getNodeId());
+    assertEquals(NodeIdGenerator.getDefault().getNodeId(), NodeIdGenerator.sanitize(NodeIdGenerator.defaultNodeId()));
+  }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TimingWheelTest extends TestCase {
+
+  public void testElementsExpireWithinOneTickOfDeadline() {
+    final long start = 1000000;
+    final TimingWheel<Long> wheel = new TimingWheel<Long>(1000, 8, start);
+    final Random random = new Random(42);
+    final int count = 2000;
+    for (int i = 0; i < count; i++) {
+      // spread over several levels of the wheel.
+      final long deadline = start + random.nextInt(5 * 24 * 3600) * 1000L + random.nextInt(1000);
+      assertTrue(wheel.add(deadline, deadline));
+    }
+    assertEquals(count, wheel.size());
+
+    final List<Long> expired = new ArrayList<Long>();
+    int seen = 0;
+    for (long now = start; seen < count; now += 500) {
+      wheel.advance(now, expired);
+      for (final Long deadline : expired) {
+        assertTrue("expired early: " + deadline + " at " + now, deadline <= now);
+        assertTrue("expired late: " + deadline + " at " + now, now - deadline <= 1500);
+      }
+      seen += expired.size();
+      expired.clear();
+    }
+    assertEquals(count, seen);
+    assertEquals(0, wheel.size());
+  }
+
+  public void testAdvanceOverLongGap() {
+    final TimingWheel<String> wheel = new TimingWheel<String>(10, 4, 0);
+    wheel.add("a", 5);
+    wheel.add("b", 95);
+    wheel.add("c", 10000);
+
+    final List<String> expired = new ArrayList<String>();
+    wheel.advance(1000, expired);
+    assertEquals(2, expired.size());
+    assertTrue(expired.contains("a"));
+    assertTrue(expired.contains("b"));
+    assertEquals(1, wheel.size());
+
+    expired.clear();
+    wheel.advance(10009, expired);
+    assertTrue(expired.isEmpty());
+    wheel.advance(10010, expired);
+    assertEquals("c", expired.get(0));
+  }
+
+  public void testPastDeadlineIsRejected() {
+    final TimingWheel<String> wheel = new TimingWheel<String>(10, 4, 100);
+    assertFalse(wheel.add("late", 99));
+    assertTrue(wheel.add("now", 100));
+    assertEquals(1, wheel.size());
+  }
+}
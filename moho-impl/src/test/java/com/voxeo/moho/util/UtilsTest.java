@@ -0,0 +1,53 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import junit.framework.TestCase;
+
+import com.voxeo.moho.event.Event;
+import com.voxeo.moho.event.EventSource;
+
+public class UtilsTest extends TestCase {
+
+  interface GeneralEvent extends Event<EventSource> {
+  }
+
+  interface SpecificEvent extends GeneralEvent {
+  }
+
+  static class BaseEventImpl implements SpecificEvent {
+    public EventSource getSource() {
+      return null;
+    }
+  }
+
+  static class SubEventImpl extends BaseEventImpl {
+  }
+
+  public void testEventTypeChain() {
+    final Class<?>[] types = Utils.getEventTypes(SubEventImpl.class);
+    assertEquals(3, types.length);
+    assertEquals(SpecificEvent.class, types[0]);
+    assertEquals(GeneralEvent.class, types[1]);
+    assertEquals(Event.class, types[2]);
+
+    // resolved once, then served from the cache.
+    assertSame(types, Utils.getEventTypes(SubEventImpl.class));
+  }
+
+  public void testNonEventClassHasEmptyChain() {
+    assertEquals(0, Utils.getEventTypes(String.class).length);
+  }
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class VirtualThreadExecutorProviderTest extends TestCase {
+
+  public void testBlockedTasksDoNotNeedPlatformThreads() throws Exception {
+    final Executor executor = new VirtualThreadExecutorProvider().createExecutor(null, new HashMap<String, String>());
+    try {
+      if (!VirtualThreadExecutorProvider.isSupported()) {
+        // older JVMs fall back to the bounded thread pool.
+        assertTrue(executor instanceof DispatchExecutor);
+        return;
+      }
+      assertFalse(executor instanceof DispatchExecutor);
+
+      final int tasks = 2000;
+      final CountDownLatch started = new CountDownLatch(tasks);
+      final CountDownLatch release = new CountDownLatch(1);
+      final int threadsBefore = Thread.activeCount();
+      for (int i = 0; i < tasks; i++) {
+        executor.execute(new Runnable() {
+          public void run() {
+            started.countDown();
+            try {
+              release.await();
+            }
+            catch (final InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+      }
+      assertTrue(started.await(30, TimeUnit.SECONDS));
+      // all tasks are parked at once, yet the platform thread count stays flat.
+      assertTrue(Thread.activeCount() - threadsBefore < tasks / 10);
+      release.countDown();
+    }
+    finally {
+      ((ExecutorService) executor).shutdown();
+    }
+  }
+}
@@ -27,14 +27,17 @@ import javax.media.mscontrol.join.Joinable;
 
 import com.voxeo.moho.Application;
 import com.voxeo.moho.ApplicationContext;
+import com.voxeo.moho.Call;
 import com.voxeo.moho.CallableEndpoint;
 import com.voxeo.moho.Endpoint;
 import com.voxeo.moho.IncomingCall;
 import com.voxeo.moho.Participant.JoinType;
 import com.voxeo.moho.State;
 import com.voxeo.moho.event.AcceptableEvent.Reason;
+import com.voxeo.moho.event.OutputCompleteEvent;
 import com.voxeo.moho.media.output.OutputCommand;
 import com.voxeo.moho.media.output.TextToSpeechResource;
+import com.voxeo.moho.utils.CompletionListener;
 
 /**
  * Black list(incoming call screening) example.
@@ -89,7 +92,13 @@ public class BlackList implements Application {
     }
 
     call.answer();
-    call.output(_prompt).get();
-    call.join(callee, JoinType.DIRECT, Joinable.Direction.DUPLEX).get();
+    // connect once the prompt has been played, without holding a thread
+    // while it plays.
+    call.output(_prompt).addCompletionListener(new CompletionListener<OutputCompleteEvent<Call>>() {
+      @Override
+      public void onComplete(final OutputCompleteEvent<Call> result, final Throwable cause) {
+        call.join(callee, JoinType.DIRECT, Joinable.Direction.DUPLEX);
+      }
+    });
   }
 }
\ No newline at end of file
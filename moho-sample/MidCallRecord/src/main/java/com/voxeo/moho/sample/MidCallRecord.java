@@ -17,7 +17,6 @@ package com.voxeo.moho.sample;
 import java.io.File;
 import java.net.URI;
 import java.util.Date;
-import java.util.concurrent.ExecutionException;
 
 import javax.media.mscontrol.join.Joinable.Direction;
 
@@ -29,8 +28,11 @@ import com.voxeo.moho.Participant.JoinType;
 import com.voxeo.moho.State;
 import com.voxeo.moho.event.HangupEvent;
 import com.voxeo.moho.event.InputCompleteEvent;
+import com.voxeo.moho.event.JoinCompleteEvent;
+import com.voxeo.moho.event.UnjoinCompleteEvent;
 import com.voxeo.moho.media.Recording;
 import com.voxeo.moho.media.record.RecordCommand;
+import com.voxeo.moho.utils.CompletionListener;
 
 public class MidCallRecord implements Application {
 
@@ -50,10 +52,16 @@ public class MidCallRecord implements Application {
     final Call partyB = partyA.getInvitee().call(partyA.getInvitor());
     partyB.addObserver(this);
 
-    partyA.join(partyB, JoinType.BRIDGE, Direction.DUPLEX).get();
-
-    partyA.setApplicationState("waitForInput");
-    partyA.input("*");
+    partyA.join(partyB, JoinType.BRIDGE, Direction.DUPLEX).addCompletionListener(
+        new CompletionListener<JoinCompleteEvent>() {
+          @Override
+          public void onComplete(final JoinCompleteEvent result, final Throwable cause) {
+            if (cause == null) {
+              partyA.setApplicationState("waitForInput");
+              partyA.input("*");
+            }
+          }
+        });
   }
 
   @State
@@ -63,16 +71,16 @@ public class MidCallRecord implements Application {
       final Call[] peers = call.getPeers();
 
       if (peers != null && peers.length > 0) {
-        try {
-          peers[0].unjoin(call).get();
-        }
-        catch (InterruptedException e) {
-          e.printStackTrace();
-        }
-        catch (ExecutionException e) {
-          e.printStackTrace();
-        }
-        peers[0].output("Hello, The peer disconnect.");
+        final Call peer = peers[0];
+        peer.unjoin(call).addCompletionListener(new CompletionListener<UnjoinCompleteEvent>() {
+          @Override
+          public void onComplete(final UnjoinCompleteEvent result, final Throwable cause) {
+            if (cause != null) {
+              cause.printStackTrace();
+            }
+            peer.output("Hello, The peer disconnect.");
+          }
+        });
       }
   }
 
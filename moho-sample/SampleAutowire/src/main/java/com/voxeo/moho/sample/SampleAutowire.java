@@ -21,12 +21,12 @@ import com.voxeo.moho.IncomingCall;
 import com.voxeo.moho.MediaService;
 import com.voxeo.moho.State;
 import com.voxeo.moho.event.InputCompleteEvent;
+import com.voxeo.moho.event.JoinCompleteEvent;
 import com.voxeo.moho.event.Observer;
-import com.voxeo.moho.media.Input;
-import com.voxeo.moho.media.Output;
-import com.voxeo.moho.media.Prompt;
+import com.voxeo.moho.event.OutputCompleteEvent;
 import com.voxeo.moho.media.input.DigitInputCommand;
 import com.voxeo.moho.sample.GameServer.Direction;
+import com.voxeo.moho.utils.CompletionListener;
 
 public class SampleAutowire implements Application {
 
@@ -41,26 +41,44 @@ public class SampleAutowire implements Application {
   @State
   public void handleInvite(final IncomingCall call) throws Exception {
     call.accept();
-    call.join().get();
-    game = new DemoGameServer(call);
-
-    final Prompt<Call> agePrompt = call.prompt("Welcome phone sweeper. "
-        + "Press 1 if you are over 18, press 2 if you are under 18.", "1,2", 0);
-
-    final Input<Call> input = agePrompt.getInput();
-    if (!"1".equals(input.get().getConcept())) {
-      final Output<Call> o = call.output("Sorry, you're too young");
-      o.get();
-      call.disconnect();
-      return;
-    }
+    // each step continues from the completion of the previous one, so no
+    // thread is blocked while the caller listens or presses keys.
+    call.join().addCompletionListener(new CompletionListener<JoinCompleteEvent>() {
+      @Override
+      public void onComplete(final JoinCompleteEvent result, final Throwable cause) {
+        if (cause != null) {
+          call.disconnect();
+          return;
+        }
+        game = new DemoGameServer(call);
+
+        call.prompt("Welcome phone sweeper. " + "Press 1 if you are over 18, press 2 if you are under 18.", "1,2", 0)
+            .getInput().addCompletionListener(new CompletionListener<InputCompleteEvent<Call>>() {
+              @Override
+              public void onComplete(final InputCompleteEvent<Call> age, final Throwable cause) {
+                if (age == null || !"1".equals(age.getConcept())) {
+                  call.output("Sorry, you're too young").addCompletionListener(
+                      new CompletionListener<OutputCompleteEvent<Call>>() {
+                        @Override
+                        public void onComplete(final OutputCompleteEvent<Call> result, final Throwable cause) {
+                          call.disconnect();
+                        }
+                      });
+                  return;
+                }
+                startGame(call);
+              }
+            });
+      }
+    });
+  }
 
+  private void startGame(final Call call) {
     final GameController gameController = new GameController();
     call.addObserver(gameController);
 
     call.output("Ready Go");
     call.input(new DigitInputCommand());
-
   }
 
   public class GameController implements Observer {